@@ -0,0 +1,140 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.interop.ImportProgressListener;
+import org.zlogic.vogon.data.tools.LedgerGenerator;
+
+/**
+ * Embedded H2 database for benchmarks
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class BenchmarkDatabase {
+
+	/**
+	 * Counter for creating unique database names
+	 */
+	private static final AtomicInteger databaseCounter = new AtomicInteger();
+	/**
+	 * Number of days covered by generated transactions
+	 */
+	private static final int DAY_COUNT = 3 * 365;
+
+	/**
+	 * Creates an EntityManagerFactory for a new in-memory H2 database
+	 *
+	 * @return the EntityManagerFactory
+	 */
+	public static EntityManagerFactory createEntityManagerFactory() {
+		return createEntityManagerFactory(createDatabaseURL(), "create-drop"); //NOI18N
+	}
+
+	/**
+	 * Returns the URL of a new in-memory H2 database, which is kept until the
+	 * JVM exits
+	 *
+	 * @return the database URL
+	 */
+	public static String createDatabaseURL() {
+		return "jdbc:h2:mem:benchmark" + databaseCounter.incrementAndGet() + ";DB_CLOSE_DELAY=-1"; //NOI18N
+	}
+
+	/**
+	 * Creates an EntityManagerFactory for an H2 database
+	 *
+	 * @param databaseURL the database URL
+	 * @param schemaAction the hibernate.hbm2ddl.auto value
+	 * @return the EntityManagerFactory
+	 */
+	public static EntityManagerFactory createEntityManagerFactory(String databaseURL, String schemaAction) {
+		Map<String, Object> jpaProperties = new HashMap<>();
+		jpaProperties.put("javax.persistence.jdbc.url", databaseURL); //NOI18N
+		jpaProperties.put("javax.persistence.jdbc.user", ""); //NOI18N
+		jpaProperties.put("javax.persistence.jdbc.password", ""); //NOI18N
+		jpaProperties.put("hibernate.connection.driver_class", "org.h2.Driver"); //NOI18N
+		jpaProperties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect"); //NOI18N
+		jpaProperties.put("hibernate.hbm2ddl.auto", schemaAction); //NOI18N
+		jpaProperties.put("hibernate.jdbc.batch_size", "50"); //NOI18N
+		jpaProperties.put("hibernate.order_inserts", "true"); //NOI18N
+		return Persistence.createEntityManagerFactory("VogonPU", jpaProperties); //NOI18N
+	}
+
+	/**
+	 * Creates a ledger generator for benchmark ledgers
+	 *
+	 * @param transactionCount the number of transactions to create
+	 * @param seed the random seed
+	 * @return the ledger generator
+	 */
+	public static LedgerGenerator createLedgerGenerator(long transactionCount, long seed) {
+		Calendar calendar = new GregorianCalendar();
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DAY_OF_MONTH, -DAY_COUNT);
+		LedgerGenerator generator = new LedgerGenerator();
+		generator.setSeed(seed);
+		generator.setTransactionCount(transactionCount);
+		generator.setStartDate(calendar.getTime());
+		generator.setDays(DAY_COUNT);
+		return generator;
+	}
+
+	/**
+	 * Creates a user with a synthetic ledger
+	 *
+	 * @param entityManagerFactory the EntityManagerFactory to use
+	 * @param username the username
+	 * @param transactionCount the number of transactions to create
+	 * @param seed the random seed
+	 * @return the created user
+	 */
+	public static VogonUser createLedger(EntityManagerFactory entityManagerFactory, String username, long transactionCount, long seed) {
+		final EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			VogonUser user = new VogonUser(username, username);
+			entityManager.persist(user);
+			LedgerGenerator generator = createLedgerGenerator(transactionCount, seed);
+			generator.setProgressListener(new ImportProgressListener() {
+
+				@Override
+				public void chunkImported(long importedTransactions, long totalTransactions) {
+					entityManager.getTransaction().commit();
+					entityManager.getTransaction().begin();
+				}
+			});
+			generator.generate(user, entityManager);
+			entityManager.getTransaction().commit();
+			return user;
+		} finally {
+			if (entityManager.getTransaction().isActive())
+				entityManager.getTransaction().rollback();
+			entityManager.close();
+		}
+	}
+
+	/**
+	 * Returns the tags used in created ledgers
+	 *
+	 * @return the tags used in created ledgers
+	 */
+	public static List<String> getTags() {
+		return new LedgerGenerator().getTags();
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks launcher. Accepts the standard JMH command line options, but
+ * enables the GC allocation profiler and writes JSON results to
+ * jmh-result.json unless other profilers or result options are specified, so
+ * that results from different runs can be compared.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Default results file
+	 */
+	private static final String DEFAULT_RESULT_FILE = "jmh-result.json"; //NOI18N
+
+	/**
+	 * Main method
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the benchmarks failed to run
+	 */
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLineOptions;
+		try {
+			commandLineOptions = new CommandLineOptions(args);
+		} catch (CommandLineOptionException ex) {
+			Main.main(args);
+			return;
+		}
+		if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList()) {
+			Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+		if (commandLineOptions.getProfilers().isEmpty())
+			options.addProfiler(GCProfiler.class);
+		if (!commandLineOptions.getResult().hasValue() && !commandLineOptions.getResultFormat().hasValue())
+			options.resultFormat(ResultFormatType.JSON).result(DEFAULT_RESULT_FILE);
+		try {
+			new Runner(options.build()).run();
+		} catch (RunnerException ex) {
+			System.err.println(ex.getMessage());
+			System.exit(1);
+		}
+	}
+}
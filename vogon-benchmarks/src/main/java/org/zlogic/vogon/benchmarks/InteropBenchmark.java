@@ -0,0 +1,131 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.interop.VogonExportException;
+import org.zlogic.vogon.data.interop.VogonImportException;
+import org.zlogic.vogon.data.interop.VogonImportLogicalException;
+import org.zlogic.vogon.data.interop.XmlExporter;
+import org.zlogic.vogon.data.interop.XmlImporter;
+
+/**
+ * Measures XML export and import of a ledger
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InteropBenchmark {
+
+	/**
+	 * EntityManager holding the exported entities
+	 */
+	private EntityManager entityManager;
+	/**
+	 * The ledger owner
+	 */
+	private VogonUser user;
+	/**
+	 * The exported accounts
+	 */
+	private List<FinanceAccount> accounts;
+	/**
+	 * The exported transactions, with components and tags already loaded
+	 */
+	private List<FinanceTransaction> transactions;
+	/**
+	 * The exported ledger, used as import source
+	 */
+	private byte[] exportedData;
+
+	/**
+	 * Loads the ledger and prepares the import source
+	 *
+	 * @param ledger the ledger
+	 * @throws VogonExportException if export fails
+	 */
+	@Setup
+	public void setup(LedgerState ledger) throws VogonExportException {
+		entityManager = ledger.getEntityManagerFactory().createEntityManager();
+		user = entityManager.find(VogonUser.class, ledger.getUser().getId());
+		accounts = entityManager.createQuery("SELECT a FROM FinanceAccount a WHERE a.owner = :owner ORDER BY a.id", FinanceAccount.class) //NOI18N
+				.setParameter("owner", user) //NOI18N
+				.getResultList();
+		transactions = entityManager.createQuery("SELECT DISTINCT t FROM FinanceTransaction t LEFT JOIN FETCH t.components WHERE t.owner = :owner ORDER BY t.id", FinanceTransaction.class) //NOI18N
+				.setParameter("owner", user) //NOI18N
+				.getResultList();
+		for (FinanceTransaction transaction : transactions)
+			transaction.getTags();
+		exportedData = exportData().toByteArray();
+	}
+
+	/**
+	 * Closes the EntityManager
+	 */
+	@TearDown
+	public void tearDown() {
+		entityManager.close();
+	}
+
+	/**
+	 * Exports the ledger into memory
+	 *
+	 * @return the exported XML
+	 * @throws VogonExportException if export fails
+	 */
+	@Benchmark
+	public ByteArrayOutputStream exportData() throws VogonExportException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		new XmlExporter(outputStream).exportData(user, accounts, transactions, null);
+		return outputStream;
+	}
+
+	/**
+	 * Imports the exported ledger and rolls back the import, so that every
+	 * invocation starts from the same database
+	 *
+	 * @param ledger the ledger
+	 * @throws VogonImportException if import fails
+	 * @throws VogonImportLogicalException if import fails
+	 */
+	@Benchmark
+	public void importData(LedgerState ledger) throws VogonImportException, VogonImportLogicalException {
+		EntityManager importEntityManager = ledger.getEntityManagerFactory().createEntityManager();
+		try {
+			importEntityManager.getTransaction().begin();
+			VogonUser importUser = importEntityManager.find(VogonUser.class, ledger.getUser().getId());
+			new XmlImporter(new ByteArrayInputStream(exportedData)).importData(importUser, importEntityManager);
+			importEntityManager.flush();
+		} finally {
+			if (importEntityManager.getTransaction().isActive())
+				importEntityManager.getTransaction().rollback();
+			importEntityManager.close();
+		}
+	}
+}
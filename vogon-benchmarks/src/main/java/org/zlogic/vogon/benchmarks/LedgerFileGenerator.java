@@ -0,0 +1,46 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.zlogic.vogon.data.interop.VogonExportException;
+import org.zlogic.vogon.data.tools.LedgerGenerator;
+
+/**
+ * Writes a synthetic ledger into an XML file which can be imported into
+ * Vogon, e.g. for load testing
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class LedgerFileGenerator {
+
+	/**
+	 * Main method
+	 *
+	 * @param args the command line arguments: output file, number of
+	 * transactions (optional, 10000 by default) and random seed (optional, 0
+	 * by default)
+	 * @throws IOException if the file cannot be written
+	 * @throws VogonExportException if the ledger cannot be generated
+	 */
+	public static void main(String[] args) throws IOException, VogonExportException {
+		if (args.length < 1) {
+			System.err.println("Usage: LedgerFileGenerator <file> [transactions] [seed]"); //NOI18N
+			System.exit(1);
+		}
+		LedgerGenerator generator = new LedgerGenerator();
+		if (args.length > 1)
+			generator.setTransactionCount(Long.parseLong(args[1]));
+		if (args.length > 2)
+			generator.setSeed(Long.parseLong(args[2]));
+		try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(args[0]))) {
+			generator.generate(outputStream);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.VogonUser;
+
+/**
+ * Shared benchmark state: an embedded database with a synthetic ledger of
+ * configurable size
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Benchmark)
+public class LedgerState {
+
+	/**
+	 * Number of transactions in the ledger
+	 */
+	@Param({"1000", "10000"})
+	private int transactions;
+	/**
+	 * The EntityManagerFactory
+	 */
+	private EntityManagerFactory entityManagerFactory;
+	/**
+	 * The ledger owner (detached)
+	 */
+	private VogonUser user;
+	/**
+	 * The owner's accounts (detached)
+	 */
+	private List<FinanceAccount> accounts;
+
+	/**
+	 * Creates and fills the database
+	 */
+	@Setup
+	public void setup() {
+		entityManagerFactory = BenchmarkDatabase.createEntityManagerFactory();
+		long userId = BenchmarkDatabase.createLedger(entityManagerFactory, "benchmark", transactions, 0).getId(); //NOI18N
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			user = entityManager.find(VogonUser.class, userId);
+			accounts = entityManager.createQuery("SELECT a FROM FinanceAccount a WHERE a.owner = :owner", FinanceAccount.class) //NOI18N
+					.setParameter("owner", user) //NOI18N
+					.getResultList();
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	/**
+	 * Closes the database
+	 */
+	@TearDown
+	public void tearDown() {
+		entityManagerFactory.close();
+	}
+
+	/**
+	 * Returns the EntityManagerFactory
+	 *
+	 * @return the EntityManagerFactory
+	 */
+	public EntityManagerFactory getEntityManagerFactory() {
+		return entityManagerFactory;
+	}
+
+	/**
+	 * Returns the ledger owner (detached)
+	 *
+	 * @return the ledger owner
+	 */
+	public VogonUser getUser() {
+		return user;
+	}
+
+	/**
+	 * Returns the owner's accounts (detached)
+	 *
+	 * @return the owner's accounts
+	 */
+	public List<FinanceAccount> getAccounts() {
+		return accounts;
+	}
+}
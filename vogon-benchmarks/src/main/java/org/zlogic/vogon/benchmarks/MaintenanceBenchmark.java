@@ -0,0 +1,77 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.tools.DatabaseMaintenance;
+
+/**
+ * Measures database maintenance operations; changes are rolled back, so that
+ * every invocation starts from the same database
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MaintenanceBenchmark {
+
+	/**
+	 * The DatabaseMaintenance instance
+	 */
+	private final DatabaseMaintenance databaseMaintenance = new DatabaseMaintenance();
+
+	/**
+	 * Recalculates balances of all accounts
+	 *
+	 * @param ledger the ledger
+	 */
+	@Benchmark
+	public void refreshAccountBalance(LedgerState ledger) {
+		EntityManager entityManager = ledger.getEntityManagerFactory().createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			for (FinanceAccount account : ledger.getAccounts())
+				databaseMaintenance.refreshAccountBalance(account, entityManager);
+			entityManager.flush();
+		} finally {
+			entityManager.getTransaction().rollback();
+			entityManager.close();
+		}
+	}
+
+	/**
+	 * Searches for and deletes orphaned transaction components
+	 *
+	 * @param ledger the ledger
+	 */
+	@Benchmark
+	public void cleanup(LedgerState ledger) {
+		EntityManager entityManager = ledger.getEntityManagerFactory().createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			databaseMaintenance.cleanup(entityManager);
+			entityManager.flush();
+		} finally {
+			entityManager.getTransaction().rollback();
+			entityManager.close();
+		}
+	}
+}
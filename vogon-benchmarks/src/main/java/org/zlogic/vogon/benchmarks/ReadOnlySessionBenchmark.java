@@ -0,0 +1,78 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.TransactionComponent;
+
+/**
+ * Compares loading a user's transactions in a read-write transaction and in
+ * a read-only session (as used by read-only service requests). Read-only
+ * sessions don't keep entity snapshots and skip dirty checking on commit; the
+ * allocation difference is shown by the GC profiler.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReadOnlySessionBenchmark {
+
+	/**
+	 * True if the session should be read-only
+	 */
+	@Param({"false", "true"})
+	private boolean readOnly;
+
+	/**
+	 * Loads all transactions and their components, then commits
+	 *
+	 * @param ledger the ledger
+	 * @param blackhole the Blackhole
+	 */
+	@Benchmark
+	public void loadTransactions(LedgerState ledger, Blackhole blackhole) {
+		EntityManager entityManager = ledger.getEntityManagerFactory().createEntityManager();
+		try {
+			if (readOnly) {
+				Session session = entityManager.unwrap(Session.class);
+				session.setFlushMode(FlushMode.MANUAL);
+				session.setDefaultReadOnly(true);
+			}
+			entityManager.getTransaction().begin();
+			List<FinanceTransaction> transactions = entityManager.createQuery("SELECT DISTINCT t FROM FinanceTransaction t LEFT JOIN FETCH t.components c LEFT JOIN FETCH c.account WHERE t.owner = :owner", FinanceTransaction.class) //NOI18N
+					.setParameter("owner", ledger.getUser()) //NOI18N
+					.getResultList();
+			for (FinanceTransaction transaction : transactions)
+				for (TransactionComponent component : transaction.getComponents())
+					blackhole.consume(component.getRawAmount());
+			entityManager.getTransaction().commit();
+		} finally {
+			if (entityManager.getTransaction().isActive())
+				entityManager.getTransaction().rollback();
+			entityManager.close();
+		}
+	}
+}
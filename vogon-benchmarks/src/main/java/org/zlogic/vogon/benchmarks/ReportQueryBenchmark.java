@@ -0,0 +1,191 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceAccount_;
+import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.FinanceTransaction_;
+import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.TransactionComponent_;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.report.Report;
+import org.zlogic.vogon.data.report.ReportFactory;
+
+/**
+ * Measures the cost of preparing report queries: building a Criteria query
+ * and translating it to SQL on every call, compared to using a precompiled
+ * named query, and the resulting end-to-end report time
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReportQueryBenchmark {
+
+	/**
+	 * Number of transactions in the ledger
+	 */
+	@Param({"1000", "10000"})
+	private int transactions;
+	/**
+	 * The EntityManagerFactory
+	 */
+	private EntityManagerFactory entityManagerFactory;
+	/**
+	 * The EntityManager
+	 */
+	private EntityManager entityManager;
+	/**
+	 * The ledger owner
+	 */
+	private VogonUser user;
+	/**
+	 * The owner's accounts
+	 */
+	private List<FinanceAccount> accounts;
+	/**
+	 * The tags used in the ledger
+	 */
+	private List<String> tags;
+	/**
+	 * Report start date
+	 */
+	private Date earliestDate;
+	/**
+	 * Report end date
+	 */
+	private Date latestDate;
+
+	/**
+	 * Creates and fills the database
+	 */
+	@Setup
+	public void setup() {
+		entityManagerFactory = BenchmarkDatabase.createEntityManagerFactory();
+		long userId = BenchmarkDatabase.createLedger(entityManagerFactory, "benchmark", transactions, 0).getId(); //NOI18N
+		entityManager = entityManagerFactory.createEntityManager();
+		user = entityManager.find(VogonUser.class, userId);
+		accounts = entityManager.createQuery("SELECT a FROM FinanceAccount a WHERE a.owner = :owner", FinanceAccount.class) //NOI18N
+				.setParameter("owner", user) //NOI18N
+				.getResultList();
+		tags = BenchmarkDatabase.getTags();
+		Calendar calendar = new GregorianCalendar();
+		latestDate = calendar.getTime();
+		calendar.add(Calendar.YEAR, -1);
+		earliestDate = calendar.getTime();
+	}
+
+	/**
+	 * Closes the database
+	 */
+	@TearDown
+	public void tearDown() {
+		entityManager.close();
+		entityManagerFactory.close();
+	}
+
+	/**
+	 * Creates the tag expenses query with the Criteria API (as ReportFactory
+	 * used to do for every currency in every report)
+	 *
+	 * @return the created query
+	 */
+	@Benchmark
+	public Query criteriaTagExpensesQuery() {
+		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Tuple> transactionsCriteriaQuery = criteriaBuilder.createTupleQuery();
+		Root<FinanceTransaction> tr = transactionsCriteriaQuery.from(FinanceTransaction.class);
+		Join<FinanceTransaction, String> tagsJoin = tr.join(FinanceTransaction_.tags);
+		Join<FinanceTransaction, TransactionComponent> componentsJoin = tr.join(FinanceTransaction_.components);
+
+		Predicate predicate = criteriaBuilder.and(
+				criteriaBuilder.equal(tr.get(FinanceTransaction_.owner), user),
+				criteriaBuilder.greaterThanOrEqualTo(tr.get(FinanceTransaction_.transactionDate), earliestDate),
+				criteriaBuilder.lessThan(tr.get(FinanceTransaction_.transactionDate), latestDate),
+				tr.get(FinanceTransaction_.type).in(Arrays.asList(FinanceTransaction.Type.EXPENSEINCOME)),
+				criteriaBuilder.lessThanOrEqualTo(tr.get(FinanceTransaction_.amount), 0L),
+				tagsJoin.in(tags),
+				componentsJoin.get(TransactionComponent_.account).in(accounts),
+				criteriaBuilder.equal(componentsJoin.get(TransactionComponent_.account).get(FinanceAccount_.currency), "EUR")); //NOI18N
+
+		transactionsCriteriaQuery.multiselect(criteriaBuilder.sum(componentsJoin.get(TransactionComponent_.amount)), tagsJoin);
+		transactionsCriteriaQuery.where(predicate);
+		transactionsCriteriaQuery.groupBy(tagsJoin);
+		return entityManager.createQuery(transactionsCriteriaQuery);
+	}
+
+	/**
+	 * Creates the tag expenses query from the precompiled named query
+	 *
+	 * @return the created query
+	 */
+	@Benchmark
+	public Query namedTagExpensesQuery() {
+		return entityManager.createNamedQuery(FinanceTransaction.QUERY_TAG_EXPENSES, Object[].class)
+				.setParameter("owner", user) //NOI18N
+				.setParameter("earliestDate", earliestDate, TemporalType.DATE) //NOI18N
+				.setParameter("latestDate", latestDate, TemporalType.DATE) //NOI18N
+				.setParameter("types", Arrays.asList(FinanceTransaction.Type.EXPENSEINCOME)) //NOI18N
+				.setParameter("minAmount", Long.MIN_VALUE) //NOI18N
+				.setParameter("maxAmount", 0L) //NOI18N
+				.setParameter("tags", tags) //NOI18N
+				.setParameter("accounts", accounts) //NOI18N
+				.setParameter("currency", "EUR"); //NOI18N
+	}
+
+	/**
+	 * Builds a one-year report
+	 *
+	 * @return the report
+	 */
+	@Benchmark
+	public Report buildReport() {
+		ReportFactory reportFactory = new ReportFactory(user);
+		reportFactory.setEarliestDate(earliestDate);
+		reportFactory.setLatestDate(latestDate);
+		reportFactory.setSelectedAccounts(accounts);
+		reportFactory.setSelectedTags(tags);
+		reportFactory.setEnabledExpenseTransactions(true);
+		reportFactory.setEnabledIncomeTransactions(true);
+		reportFactory.setEnabledTransferTransactions(true);
+		Report report = reportFactory.buildReport(entityManager);
+		entityManager.clear();
+		return report;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zlogic.vogon.data.tools.SchemaFingerprint;
+
+/**
+ * Measures the persistence startup time (creating the EntityManagerFactory for
+ * an existing database), with a schema update on every start and with the
+ * schema update skipped when the schema fingerprint is current. The first
+ * iterations include class loading, which is the cost paid by a cold start.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(5)
+public class StartupBenchmark {
+
+	/**
+	 * The persistence.xml location
+	 */
+	private static final String PERSISTENCE_XML = "META-INF/persistence.xml"; //NOI18N
+	/**
+	 * The SQL dialect
+	 */
+	private static final String DIALECT = "org.hibernate.dialect.H2Dialect"; //NOI18N
+	/**
+	 * True if the schema fingerprint should be checked
+	 */
+	@Param({"false", "true"})
+	private boolean fingerprint;
+	/**
+	 * The database URL
+	 */
+	private String databaseURL;
+
+	/**
+	 * Creates the database schema and stores its fingerprint
+	 *
+	 * @throws IOException if the fingerprint cannot be computed
+	 * @throws SQLException if the fingerprint cannot be stored
+	 */
+	@Setup
+	public void createSchema() throws IOException, SQLException {
+		databaseURL = BenchmarkDatabase.createDatabaseURL();
+		BenchmarkDatabase.createEntityManagerFactory(databaseURL, "update").close(); //NOI18N
+		try (Connection connection = DriverManager.getConnection(databaseURL, "", "")) { //NOI18N //NOI18N
+			new SchemaFingerprint(PERSISTENCE_XML, DIALECT).store(connection);
+		}
+	}
+
+	/**
+	 * Creates and closes the EntityManagerFactory
+	 *
+	 * @throws IOException if the fingerprint cannot be computed
+	 * @throws SQLException if the fingerprint cannot be checked
+	 */
+	@Benchmark
+	public void startup() throws IOException, SQLException {
+		String schemaAction = "update"; //NOI18N
+		if (fingerprint) {
+			try (Connection connection = DriverManager.getConnection(databaseURL, "", "")) { //NOI18N //NOI18N
+				if (new SchemaFingerprint(PERSISTENCE_XML, DIALECT).isCurrent(connection))
+					schemaAction = "none"; //NOI18N
+			}
+		}
+		EntityManagerFactory entityManagerFactory = BenchmarkDatabase.createEntityManagerFactory(databaseURL, schemaAction);
+		entityManagerFactory.close();
+	}
+}
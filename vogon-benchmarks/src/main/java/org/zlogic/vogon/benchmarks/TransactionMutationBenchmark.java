@@ -0,0 +1,117 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.benchmarks;
+
+import java.util.Currency;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.VogonUser;
+
+/**
+ * Measures the in-memory FinanceTransaction component mutation methods,
+ * which recalculate the transaction amount and account balances on every
+ * change
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TransactionMutationBenchmark {
+
+	/**
+	 * Number of components in the transaction
+	 */
+	@Param({"2", "20", "200"})
+	private int components;
+	/**
+	 * The first account
+	 */
+	private FinanceAccount account1;
+	/**
+	 * The second account
+	 */
+	private FinanceAccount account2;
+	/**
+	 * The mutated transaction
+	 */
+	private FinanceTransaction transaction;
+	/**
+	 * The mutated component
+	 */
+	private TransactionComponent component;
+	/**
+	 * Amount to set in the next updateComponentRawAmount call
+	 */
+	private long amount;
+
+	/**
+	 * Creates the transaction
+	 */
+	@Setup
+	public void setup() {
+		VogonUser user = new VogonUser("benchmark", "benchmark"); //NOI18N
+		account1 = new FinanceAccount(user, "account 1", Currency.getInstance("EUR")); //NOI18N
+		account2 = new FinanceAccount(user, "account 2", Currency.getInstance("EUR")); //NOI18N
+		transaction = new FinanceTransaction(user, "transaction", new String[]{"tag"}, new Date(), FinanceTransaction.Type.TRANSFER); //NOI18N
+		for (int i = 0; i < components; i++)
+			transaction.addComponent(new TransactionComponent(i % 2 == 0 ? account1 : account2, transaction, i % 2 == 0 ? -100 : 100));
+		component = transaction.getComponents().get(0);
+	}
+
+	/**
+	 * Adds and removes a component
+	 *
+	 * @return the transaction amount
+	 */
+	@Benchmark
+	public long addRemoveComponent() {
+		TransactionComponent newComponent = new TransactionComponent(account1, transaction, 100);
+		transaction.addComponent(newComponent);
+		transaction.removeComponent(newComponent);
+		return transaction.getRawAmount();
+	}
+
+	/**
+	 * Changes a component's amount
+	 *
+	 * @return the transaction amount
+	 */
+	@Benchmark
+	public long updateComponentRawAmount() {
+		amount = (amount + 1) % 1000;
+		transaction.updateComponentRawAmount(component, amount);
+		return transaction.getRawAmount();
+	}
+
+	/**
+	 * Moves a component between accounts
+	 *
+	 * @return the first account's balance
+	 */
+	@Benchmark
+	public long updateComponentAccount() {
+		transaction.updateComponentAccount(component, component.getAccount() == account1 ? account2 : account1);
+		return account1.getRawBalance();
+	}
+}
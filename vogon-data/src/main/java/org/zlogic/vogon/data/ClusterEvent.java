@@ -0,0 +1,157 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Class for storing an event (e.g. cache invalidation) which should be
+ * processed by all nodes of a cluster sharing the same database
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Entity
+@Table(indexes = {
+	@Index(columnList = "created")})
+public class ClusterEvent implements Serializable {
+
+	/**
+	 * Version UID
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The event ID (only for persistence)
+	 */
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE)
+	private long id;
+	/**
+	 * The ID of the node which created the event
+	 */
+	@Column(length = 36)
+	private String origin;
+	/**
+	 * The event topic
+	 */
+	private String topic;
+	/**
+	 * The event key (e.g. ID of the invalidated object)
+	 */
+	private String eventKey;
+	/**
+	 * The serialized event payload
+	 */
+	@Column(length = 65536)
+	private byte[] payload;
+	/**
+	 * The event creation date
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date created;
+
+	/**
+	 * Creates an event
+	 */
+	protected ClusterEvent() {
+	}
+
+	/**
+	 * Creates an event
+	 *
+	 * @param origin the ID of the node which created the event
+	 * @param topic the event topic
+	 * @param eventKey the event key
+	 * @param payload the serialized event payload
+	 */
+	public ClusterEvent(String origin, String topic, String eventKey, byte[] payload) {
+		this.origin = origin;
+		this.topic = topic;
+		this.eventKey = eventKey;
+		this.payload = payload;
+		this.created = new Date();
+	}
+	/*
+	 * Getters/setters
+	 */
+
+	/**
+	 * Returns the event ID
+	 *
+	 * @return the event ID
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the node which created the event
+	 *
+	 * @return the ID of the node which created the event
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Returns the event topic
+	 *
+	 * @return the event topic
+	 */
+	public String getTopic() {
+		return topic;
+	}
+
+	/**
+	 * Returns the event key
+	 *
+	 * @return the event key
+	 */
+	public String getEventKey() {
+		return eventKey;
+	}
+
+	/**
+	 * Returns the serialized event payload
+	 *
+	 * @return the serialized event payload
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	/**
+	 * Returns the event creation date
+	 *
+	 * @return the event creation date
+	 */
+	public Date getCreated() {
+		return created;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 7;
+		hash = 53 * hash + (int) (this.id ^ (this.id >>> 32));
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof ClusterEvent)
+			return ((ClusterEvent) obj).id == id;
+		return false;
+	}
+}
@@ -21,9 +21,13 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
+import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.Version;
 
@@ -33,12 +37,68 @@ import javax.persistence.Version;
  * @author Dmitry Zolotukhin [zlogic@gmail.com]
  */
 @Entity
+@Table(indexes = {
+	@Index(columnList = "owner_id, transactionDate")})
+@NamedQueries({
+	@NamedQuery(name = FinanceTransaction.QUERY_REPORT_TRANSACTIONS, query = "SELECT t FROM FinanceTransaction t WHERE " + FinanceTransaction.REPORT_TRANSACTIONS_FILTER + " ORDER BY ABS(t.amount) DESC, t.id DESC"),
+	@NamedQuery(name = FinanceTransaction.QUERY_COUNT_REPORT_TRANSACTIONS, query = "SELECT COUNT(t) FROM FinanceTransaction t WHERE " + FinanceTransaction.REPORT_TRANSACTIONS_FILTER),
+	@NamedQuery(name = FinanceTransaction.QUERY_FETCH_COMPONENTS, query = "SELECT DISTINCT t FROM FinanceTransaction t LEFT JOIN FETCH t.components c LEFT JOIN FETCH c.account WHERE t.id IN (:ids)"),
+	@NamedQuery(name = FinanceTransaction.QUERY_TAGS, query = "SELECT DISTINCT tag FROM FinanceTransaction t JOIN t.tags tag WHERE t.owner = :owner"),
+	@NamedQuery(name = FinanceTransaction.QUERY_ACCOUNT_BALANCES_BY_DATE, query = "SELECT c.account.id, SUM(c.amount) FROM TransactionComponent c WHERE c.account IN (:accounts) AND c.transaction.transactionDate < :date GROUP BY c.account.id"),
+	@NamedQuery(name = FinanceTransaction.QUERY_DAILY_BALANCE_CHANGES, query = "SELECT t.transactionDate, c.account.id, SUM(c.amount) FROM FinanceTransaction t JOIN t.components c "
+			+ "WHERE t.owner = :owner AND t.transactionDate >= :earliestDate AND t.transactionDate <= :latestDate AND c.account IN (:accounts) "
+			+ "GROUP BY t.transactionDate, c.account.id ORDER BY t.transactionDate"),
+	@NamedQuery(name = FinanceTransaction.QUERY_TAG_EXPENSES, query = "SELECT SUM(c.amount), tag FROM FinanceTransaction t JOIN t.tags tag JOIN t.components c "
+			+ "WHERE t.owner = :owner AND t.transactionDate >= :earliestDate AND t.transactionDate < :latestDate "
+			+ "AND t.type IN (:types) AND t.amount BETWEEN :minAmount AND :maxAmount "
+			+ "AND tag IN (:tags) AND c.account IN (:accounts) AND c.account.currency = :currency GROUP BY tag")
+})
 public class FinanceTransaction implements Serializable {
 
 	/**
 	 * Localization messages
 	 */
 	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/data/messages");
+	/**
+	 * Report transactions filter (used in named queries)
+	 */
+	static final String REPORT_TRANSACTIONS_FILTER = "t.owner = :owner AND t.transactionDate >= :earliestDate AND t.transactionDate <= :latestDate "
+			+ "AND t.type IN (:types) AND t.amount BETWEEN :minAmount AND :maxAmount "
+			+ "AND EXISTS (SELECT c.id FROM TransactionComponent c WHERE c.transaction = t AND c.account IN (:accounts)) "
+			+ "AND EXISTS (SELECT tt.id FROM FinanceTransaction tt JOIN tt.tags tag WHERE tt = t AND tag IN (:tags))"; //NOI18N
+	/**
+	 * Named query returning report transactions, ordered by absolute amount
+	 * descending
+	 */
+	public static final String QUERY_REPORT_TRANSACTIONS = "FinanceTransaction.reportTransactions"; //NOI18N
+	/**
+	 * Named query returning the number of report transactions
+	 */
+	public static final String QUERY_COUNT_REPORT_TRANSACTIONS = "FinanceTransaction.countReportTransactions"; //NOI18N
+	/**
+	 * Named query returning transactions by id, with components and their
+	 * accounts
+	 */
+	public static final String QUERY_FETCH_COMPONENTS = "FinanceTransaction.fetchComponents"; //NOI18N
+	/**
+	 * Named query returning all tags used by an owner
+	 */
+	public static final String QUERY_TAGS = "FinanceTransaction.tags"; //NOI18N
+	/**
+	 * Named query returning raw balances of accounts before a date, grouped by
+	 * account id
+	 */
+	public static final String QUERY_ACCOUNT_BALANCES_BY_DATE = "FinanceTransaction.accountBalancesByDate"; //NOI18N
+	/**
+	 * Named query returning raw balance changes grouped by date and account
+	 * id, ordered by date
+	 */
+	public static final String QUERY_DAILY_BALANCE_CHANGES = "FinanceTransaction.dailyBalanceChanges"; //NOI18N
+	/**
+	 * Named query returning the sum of raw component amounts grouped by tag
+	 * (latestDate is exclusive)
+	 */
+	public static final String QUERY_TAG_EXPENSES = "FinanceTransaction.tagExpenses"; //NOI18N
 
 	/**
 	 * The transaction type
@@ -0,0 +1,195 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Class for storing an issued OAuth access token. The token and its
+ * authentication are stored in serialized form, the token value is only used
+ * as a hashed key.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Entity
+@Table(indexes = {
+	@Index(columnList = "expiration"),
+	@Index(columnList = "authenticationKey"),
+	@Index(columnList = "clientId,username"),
+	@Index(columnList = "refreshTokenId")})
+public class OAuthAccessToken implements Serializable {
+
+	/**
+	 * Version UID
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The hashed token value
+	 */
+	@Id
+	@Column(length = 64)
+	private String tokenId;
+	/**
+	 * The serialized token
+	 */
+	@Column(length = 8192)
+	private byte[] token;
+	/**
+	 * The serialized authentication
+	 */
+	@Column(length = 65536)
+	private byte[] authentication;
+	/**
+	 * The key identifying the authentication
+	 */
+	@Column(length = 64)
+	private String authenticationKey;
+	/**
+	 * The authenticated username
+	 */
+	private String username;
+	/**
+	 * The client ID
+	 */
+	private String clientId;
+	/**
+	 * The hashed value of the associated refresh token
+	 */
+	@Column(length = 64)
+	private String refreshTokenId;
+	/**
+	 * The token expiration date, or null if the token doesn't expire
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date expiration;
+
+	/**
+	 * Creates an access token
+	 */
+	protected OAuthAccessToken() {
+	}
+
+	/**
+	 * Creates an access token
+	 *
+	 * @param tokenId the hashed token value
+	 * @param token the serialized token
+	 * @param authentication the serialized authentication
+	 * @param authenticationKey the key identifying the authentication
+	 * @param username the authenticated username
+	 * @param clientId the client ID
+	 * @param refreshTokenId the hashed value of the associated refresh token
+	 * @param expiration the token expiration date
+	 */
+	public OAuthAccessToken(String tokenId, byte[] token, byte[] authentication, String authenticationKey, String username, String clientId, String refreshTokenId, Date expiration) {
+		this.tokenId = tokenId;
+		this.token = token;
+		this.authentication = authentication;
+		this.authenticationKey = authenticationKey;
+		this.username = username;
+		this.clientId = clientId;
+		this.refreshTokenId = refreshTokenId;
+		this.expiration = expiration;
+	}
+	/*
+	 * Getters/setters
+	 */
+
+	/**
+	 * Returns the hashed token value
+	 *
+	 * @return the hashed token value
+	 */
+	public String getTokenId() {
+		return tokenId;
+	}
+
+	/**
+	 * Returns the serialized token
+	 *
+	 * @return the serialized token
+	 */
+	public byte[] getToken() {
+		return token;
+	}
+
+	/**
+	 * Returns the serialized authentication
+	 *
+	 * @return the serialized authentication
+	 */
+	public byte[] getAuthentication() {
+		return authentication;
+	}
+
+	/**
+	 * Returns the key identifying the authentication
+	 *
+	 * @return the key identifying the authentication
+	 */
+	public String getAuthenticationKey() {
+		return authenticationKey;
+	}
+
+	/**
+	 * Returns the authenticated username
+	 *
+	 * @return the authenticated username
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Returns the client ID
+	 *
+	 * @return the client ID
+	 */
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Returns the hashed value of the associated refresh token
+	 *
+	 * @return the hashed value of the associated refresh token
+	 */
+	public String getRefreshTokenId() {
+		return refreshTokenId;
+	}
+
+	/**
+	 * Returns the token expiration date
+	 *
+	 * @return the token expiration date, or null if the token doesn't expire
+	 */
+	public Date getExpiration() {
+		return expiration;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 7;
+		hash = 37 * hash + Objects.hashCode(this.tokenId);
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof OAuthAccessToken)
+			return Objects.equals(((OAuthAccessToken) obj).tokenId, tokenId);
+		return false;
+	}
+}
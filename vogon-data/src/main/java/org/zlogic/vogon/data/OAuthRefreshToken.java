@@ -0,0 +1,130 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Objects;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Class for storing an issued OAuth refresh token. The token and its
+ * authentication are stored in serialized form, the token value is only used
+ * as a hashed key.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Entity
+@Table(indexes = {
+	@Index(columnList = "expiration")})
+public class OAuthRefreshToken implements Serializable {
+
+	/**
+	 * Version UID
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The hashed token value
+	 */
+	@Id
+	@Column(length = 64)
+	private String tokenId;
+	/**
+	 * The serialized token
+	 */
+	@Column(length = 8192)
+	private byte[] token;
+	/**
+	 * The serialized authentication
+	 */
+	@Column(length = 65536)
+	private byte[] authentication;
+	/**
+	 * The token expiration date, or null if the token doesn't expire
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date expiration;
+
+	/**
+	 * Creates a refresh token
+	 */
+	protected OAuthRefreshToken() {
+	}
+
+	/**
+	 * Creates a refresh token
+	 *
+	 * @param tokenId the hashed token value
+	 * @param token the serialized token
+	 * @param authentication the serialized authentication
+	 * @param expiration the token expiration date
+	 */
+	public OAuthRefreshToken(String tokenId, byte[] token, byte[] authentication, Date expiration) {
+		this.tokenId = tokenId;
+		this.token = token;
+		this.authentication = authentication;
+		this.expiration = expiration;
+	}
+	/*
+	 * Getters/setters
+	 */
+
+	/**
+	 * Returns the hashed token value
+	 *
+	 * @return the hashed token value
+	 */
+	public String getTokenId() {
+		return tokenId;
+	}
+
+	/**
+	 * Returns the serialized token
+	 *
+	 * @return the serialized token
+	 */
+	public byte[] getToken() {
+		return token;
+	}
+
+	/**
+	 * Returns the serialized authentication
+	 *
+	 * @return the serialized authentication
+	 */
+	public byte[] getAuthentication() {
+		return authentication;
+	}
+
+	/**
+	 * Returns the token expiration date
+	 *
+	 * @return the token expiration date, or null if the token doesn't expire
+	 */
+	public Date getExpiration() {
+		return expiration;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 7;
+		hash = 37 * hash + Objects.hashCode(this.tokenId);
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof OAuthRefreshToken)
+			return Objects.equals(((OAuthRefreshToken) obj).tokenId, tokenId);
+		return false;
+	}
+}
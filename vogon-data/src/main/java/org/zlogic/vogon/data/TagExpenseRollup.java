@@ -0,0 +1,259 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data;
+
+import java.io.Serializable;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Pre-aggregated sum of transaction components for a single month, tag and
+ * account. Used for building tag expense reports without scanning all
+ * transactions in the report date range.
+ *
+ * Rows are grouped by transaction type and sign of the transaction amount, so
+ * that the report's transaction type filters can be applied to the rollup.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Entity
+@Table(indexes = {
+	@Index(columnList = "owner_id, monthStart")})
+@NamedQuery(name = TagExpenseRollup.QUERY_TAG_EXPENSES, query = "SELECT SUM(r.amount), r.tag FROM TagExpenseRollup r "
+		+ "WHERE r.owner = :owner AND r.monthStart >= :startMonth AND r.monthStart < :endMonth "
+		+ "AND r.transactionType IN (:types) AND r.amountSign BETWEEN :minSign AND :maxSign "
+		+ "AND r.tag IN (:tags) AND r.account IN (:accounts) AND r.account.currency = :currency GROUP BY r.tag")
+public class TagExpenseRollup implements Serializable {
+
+	/**
+	 * Named query returning the sum of raw amounts grouped by tag
+	 */
+	public static final String QUERY_TAG_EXPENSES = "TagExpenseRollup.tagExpenses"; //NOI18N
+
+	/**
+	 * ConfigurationElement name for the version of the rollup data; the rollup
+	 * is only used if this matches VERSION
+	 */
+	public static final String CONFIGURATION_KEY = "TagExpenseRollupVersion"; //NOI18N
+	/**
+	 * The current version of the rollup data; should be increased if the
+	 * rollup data needs to be rebuilt
+	 */
+	public static final Integer VERSION = 1;
+	/**
+	 * Version UID
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The rollup ID (only for persistence)
+	 */
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE)
+	protected long id;
+	/**
+	 * The transactions owner
+	 */
+	@ManyToOne
+	protected VogonUser owner;
+	/**
+	 * The components account
+	 */
+	@ManyToOne
+	protected FinanceAccount account;
+	/**
+	 * The transaction tag
+	 */
+	protected String tag;
+	/**
+	 * The first day of the month
+	 */
+	@Temporal(TemporalType.DATE)
+	protected Date monthStart;
+	/**
+	 * The transaction type
+	 */
+	protected FinanceTransaction.Type transactionType;
+	/**
+	 * The sign of the transaction amount (-1, 0 or 1)
+	 */
+	protected int amountSign;
+	/**
+	 * The sum of component raw amounts
+	 */
+	protected long amount;
+	/**
+	 * The number of components
+	 */
+	protected long componentCount;
+
+	/**
+	 * Creates a rollup
+	 */
+	protected TagExpenseRollup() {
+	}
+
+	/**
+	 * Creates a rollup
+	 *
+	 * @param owner the transactions owner
+	 * @param account the components account
+	 * @param tag the transaction tag
+	 * @param monthStart the first day of the month
+	 * @param transactionType the transaction type
+	 * @param amountSign the sign of the transaction amount (-1, 0 or 1)
+	 * @param amount the sum of component raw amounts
+	 * @param componentCount the number of components
+	 */
+	public TagExpenseRollup(VogonUser owner, FinanceAccount account, String tag, Date monthStart, FinanceTransaction.Type transactionType, int amountSign, long amount, long componentCount) {
+		this.owner = owner;
+		this.account = account;
+		this.tag = tag;
+		this.monthStart = monthStart;
+		this.transactionType = transactionType;
+		this.amountSign = amountSign;
+		this.amount = amount;
+		this.componentCount = componentCount;
+	}
+
+	/**
+	 * Returns the first day of the month containing a date
+	 *
+	 * @param date the date
+	 * @return the first day of the month, at midnight
+	 */
+	public static Date getMonthStart(Date date) {
+		Calendar calendar = new GregorianCalendar();
+		calendar.setTime(date);
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTime();
+	}
+
+	/**
+	 * Returns the first day of the next month
+	 *
+	 * @param monthStart the first day of a month
+	 * @return the first day of the next month, at midnight
+	 */
+	public static Date getNextMonthStart(Date monthStart) {
+		Calendar calendar = new GregorianCalendar();
+		calendar.setTime(getMonthStart(monthStart));
+		calendar.add(Calendar.MONTH, 1);
+		return calendar.getTime();
+	}
+
+	/*
+	 * Getters/setters
+	 */
+	/**
+	 * Returns the transactions owner
+	 *
+	 * @return the transactions owner
+	 */
+	public VogonUser getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Returns the components account
+	 *
+	 * @return the components account
+	 */
+	public FinanceAccount getAccount() {
+		return account;
+	}
+
+	/**
+	 * Returns the transaction tag
+	 *
+	 * @return the transaction tag
+	 */
+	public String getTag() {
+		return tag;
+	}
+
+	/**
+	 * Returns the first day of the month
+	 *
+	 * @return the first day of the month
+	 */
+	public Date getMonthStart() {
+		return monthStart;
+	}
+
+	/**
+	 * Returns the transaction type
+	 *
+	 * @return the transaction type
+	 */
+	public FinanceTransaction.Type getTransactionType() {
+		return transactionType;
+	}
+
+	/**
+	 * Returns the sign of the transaction amount
+	 *
+	 * @return the sign of the transaction amount (-1, 0 or 1)
+	 */
+	public int getAmountSign() {
+		return amountSign;
+	}
+
+	/**
+	 * Returns the sum of component raw amounts
+	 *
+	 * @return the sum of component raw amounts
+	 */
+	public long getRawAmount() {
+		return amount;
+	}
+
+	/**
+	 * Returns the number of components
+	 *
+	 * @return the number of components
+	 */
+	public long getComponentCount() {
+		return componentCount;
+	}
+
+	/**
+	 * Returns the ID for this class instance
+	 *
+	 * @return the ID for this class instance
+	 */
+	public long getId() {
+		return id;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 7;
+		hash = 53 * hash + (int) (this.id ^ (this.id >>> 32));
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof TagExpenseRollup)
+			return ((TagExpenseRollup) obj).id == id;
+		return false;
+	}
+}
@@ -10,7 +10,9 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
 import javax.persistence.Version;
 
 /**
@@ -19,6 +21,8 @@ import javax.persistence.Version;
  * @author Dmitry Zolotukhin [zlogic@gmail.com]
  */
 @Entity
+@Table(indexes = {
+	@Index(columnList = "transaction_id")})
 public class TransactionComponent implements Serializable {
 
 	/**
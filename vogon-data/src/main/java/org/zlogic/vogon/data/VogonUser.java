@@ -60,6 +60,12 @@ public class VogonUser implements Serializable {
 	 */
 	@ElementCollection(fetch = FetchType.EAGER)
 	private Set<String> authorities;
+	/**
+	 * Revision of the user's ledger, incremented with bulk updates whenever
+	 * the user's data changes (null for users created before it was added)
+	 */
+	@Column(updatable = false)
+	private Long ledgerRevision = 0L;
 
 	/**
 	 * Creates a user
@@ -75,7 +81,7 @@ public class VogonUser implements Serializable {
 	 * @param password the password
 	 */
 	public VogonUser(String username, String password) {
-		this.username = username;
+		this.username = username != null ? username.toLowerCase() : null;
 		this.password = password;
 	}
 	/*
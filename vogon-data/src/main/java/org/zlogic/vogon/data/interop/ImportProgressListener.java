@@ -0,0 +1,25 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data.interop;
+
+/**
+ * Listener for import progress. Allows the caller to commit the imported data
+ * in chunks.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public interface ImportProgressListener {
+
+	/**
+	 * Called after a chunk of transactions has been imported and flushed. The
+	 * listener may commit the current transaction and start a new one; the
+	 * importer will reload any entities detached by this.
+	 *
+	 * @param importedTransactions the number of transactions imported so far
+	 * @param totalTransactions the total number of transactions to import
+	 */
+	public void chunkImported(long importedTransactions, long totalTransactions);
+}
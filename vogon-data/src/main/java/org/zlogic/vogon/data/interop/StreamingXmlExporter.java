@@ -0,0 +1,136 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data.interop;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.zlogic.vogon.data.CurrencyRate;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.VogonUser;
+
+/**
+ * Implementation for exporting data to XML files in the same format as
+ * XmlExporter. Writes transactions one at a time instead of building a DOM
+ * tree, so the transactions collection can be iterated lazily and exported
+ * data doesn't have to fit into memory. Accounts are matched by instance, so
+ * they don't have to be persisted.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class StreamingXmlExporter implements Exporter {
+
+	/**
+	 * The output XML stream
+	 */
+	protected OutputStream outputStream;
+
+	/**
+	 * Creates an instance of the streaming XML Exporter
+	 *
+	 * @param outputStream the output stream to write
+	 */
+	public StreamingXmlExporter(OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	@Override
+	public void exportData(VogonUser owner, Collection<FinanceAccount> accounts, Collection<FinanceTransaction> transactions, Collection<CurrencyRate> currencyRates) throws VogonExportException {
+		Map<FinanceTransaction.Type, String> transactionTypes = new TreeMap<>();
+		transactionTypes.put(FinanceTransaction.Type.TRANSFER, XmlFields.TRANSACTION_TYPE_TRANSFER_VALUE);
+		transactionTypes.put(FinanceTransaction.Type.EXPENSEINCOME, XmlFields.TRANSACTION_TYPE_EXPENSEINCOME_VALUE);
+		transactionTypes.put(FinanceTransaction.Type.UNDEFINED, XmlFields.TRANSACTION_TYPE_UNDEFINED_VALUE);
+		try {
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8"); //NOI18N
+			writer.writeStartDocument("UTF-8", "1.0"); //NOI18N
+			writer.writeCharacters("\n"); //NOI18N
+
+			// Top element (FinanceData)
+			writer.writeStartElement(XmlFields.ROOT_NODE);
+			if (owner.getDefaultCurrency() != null)
+				writer.writeAttribute(XmlFields.DEFAULT_CURRENCY_ATTRIBUTE, owner.getDefaultCurrency().getCurrencyCode());
+			writer.writeCharacters("\n"); //NOI18N
+
+			//Accounts list
+			Map<FinanceAccount, Long> accountRemapping = new IdentityHashMap<>();
+			writer.writeStartElement(XmlFields.ACCOUNTS_NODE);
+			writer.writeCharacters("\n"); //NOI18N
+			for (FinanceAccount account : accounts) {
+				long id = accountRemapping.size();
+				accountRemapping.put(account, id);
+				writer.writeEmptyElement(XmlFields.ACCOUNT_NODE);
+				writer.writeAttribute(XmlFields.ID_ATTRIBUTE, Long.toString(id));
+				writer.writeAttribute(XmlFields.NAME_ATTRIBUTE, account.getName());
+				writer.writeAttribute(XmlFields.CURRENCY_ATTRIBUTE, account.getCurrency().getCurrencyCode());
+				writer.writeAttribute(XmlFields.INCLUDE_IN_TOTAL_ATTRIBUTE, Boolean.toString(account.getIncludeInTotal()));
+				writer.writeAttribute(XmlFields.SHOW_IN_LIST_ATTRIBUTE, Boolean.toString(account.getShowInList()));
+				writer.writeCharacters("\n"); //NOI18N
+			}
+			writer.writeEndElement();
+			writer.writeCharacters("\n"); //NOI18N
+
+			//Currencies list
+			writer.writeStartElement(XmlFields.CURRENCIES_NODE);
+			writer.writeCharacters("\n"); //NOI18N
+			if (currencyRates != null)
+				for (CurrencyRate rate : currencyRates) {
+					writer.writeEmptyElement(XmlFields.CURRENCY_RATE_NODE);
+					writer.writeAttribute(XmlFields.SOURCE_ATTRIBUTE, rate.getSource().getCurrencyCode());
+					writer.writeAttribute(XmlFields.DESTINATION_ATTRIBUTE, rate.getDestination().getCurrencyCode());
+					writer.writeAttribute(XmlFields.RATE_ATTRIBUTE, Double.toString(rate.getExchangeRate()));
+					writer.writeCharacters("\n"); //NOI18N
+				}
+			writer.writeEndElement();
+			writer.writeCharacters("\n"); //NOI18N
+
+			//Transactions list
+			writer.writeStartElement(XmlFields.TRANSACTIONS_NODE);
+			writer.writeCharacters("\n"); //NOI18N
+			for (FinanceTransaction transaction : transactions) {
+				writer.writeStartElement(XmlFields.TRANSACTION_NODE);
+				writer.writeAttribute(XmlFields.TYPE_ATTRIBUTE, transactionTypes.get(transaction.getType()));
+				writer.writeAttribute(XmlFields.DESCRIPTION_ATTRIBUTE, transaction.getDescription());
+				writer.writeAttribute(XmlFields.DATE_ATTRIBUTE, XmlFields.DATE_FORMAT.format(transaction.getDate()));
+				//Tags list
+				String[] tags = transaction.getTags();
+				Arrays.sort(tags);
+				for (String tag : tags) {
+					writer.writeStartElement(XmlFields.TAG_NODE);
+					writer.writeCharacters(tag);
+					writer.writeEndElement();
+				}
+				//Transaction components list
+				for (TransactionComponent component : transaction.getComponents()) {
+					writer.writeEmptyElement(XmlFields.TRANSACTION_COMPONENT_NODE);
+					writer.writeAttribute(XmlFields.ACCOUNT_ATTRIBUTE, Long.toString(accountRemapping.get(component.getAccount())));
+					writer.writeAttribute(XmlFields.AMOUNT_ATTRIBUTE, Long.toString(component.getRawAmount()));
+				}
+				writer.writeEndElement();
+				writer.writeCharacters("\n"); //NOI18N
+			}
+			writer.writeEndElement();
+			writer.writeCharacters("\n"); //NOI18N
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+			writer.close();
+		} catch (XMLStreamException e) {
+			Logger.getLogger(StreamingXmlExporter.class.getName()).log(Level.SEVERE, null, e);
+			throw new VogonExportException(e);
+		}
+	}
+}
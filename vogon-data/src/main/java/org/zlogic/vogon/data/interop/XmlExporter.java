@@ -30,6 +30,7 @@ import org.zlogic.vogon.data.FinanceAccount;
 import org.zlogic.vogon.data.FinanceTransaction;
 import org.zlogic.vogon.data.TransactionComponent;
 import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.metrics.Metrics;
 
 /**
  * Implementation for exporting data to XML files
@@ -59,6 +60,7 @@ public class XmlExporter implements Exporter {
 		transactionTypes.put(FinanceTransaction.Type.EXPENSEINCOME, XmlFields.TRANSACTION_TYPE_EXPENSEINCOME_VALUE);
 		transactionTypes.put(FinanceTransaction.Type.UNDEFINED, XmlFields.TRANSACTION_TYPE_UNDEFINED_VALUE);
 		try {
+			long start = Metrics.start();
 
 			DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
 			DocumentBuilder docBuilder;
@@ -141,6 +143,8 @@ public class XmlExporter implements Exporter {
 				transactionsElement.appendChild(transactionElement);
 			}
 
+			start = Metrics.stop("export.build", start); //NOI18N
+
 			// Write the content into XML file
 			TransformerFactory transformerFactory = TransformerFactory.newInstance();
 			Transformer transformer = transformerFactory.newTransformer();
@@ -149,6 +153,7 @@ public class XmlExporter implements Exporter {
 			StreamResult result = new StreamResult(outputStream);
 
 			transformer.transform(source, result);
+			Metrics.stop("export.write", start); //NOI18N
 		} catch (ParserConfigurationException | TransformerException e) {
 			Logger.getLogger(XmlExporter.class.getName()).log(Level.SEVERE, null, e);
 			throw new VogonExportException(e);
@@ -5,11 +5,10 @@
  */
 package org.zlogic.vogon.data.interop;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.io.InputStream;
 import java.text.MessageFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Currency;
 import java.util.Date;
 import java.util.HashMap;
@@ -24,14 +23,10 @@ import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.zlogic.vogon.data.CurrencyRate;
 import org.zlogic.vogon.data.CurrencyRate_;
 import org.zlogic.vogon.data.FinanceAccount;
@@ -39,9 +34,13 @@ import org.zlogic.vogon.data.FinanceAccount_;
 import org.zlogic.vogon.data.FinanceTransaction;
 import org.zlogic.vogon.data.VogonUser;
 import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.metrics.Metrics;
 
 /**
- * Implementation for importing data from XML files
+ * Implementation for importing data from XML files. The file is read as a
+ * stream (with StAX), so only the accounts and the current chunk of
+ * transactions are kept in memory; accounts have to be listed before the
+ * transactions which use them, as XmlExporter and StreamingXmlExporter do.
  *
  * @author Dmitry Zolotukhin [zlogic@gmail.com]
  */
@@ -55,6 +54,31 @@ public class XmlImporter implements Importer {
 	 * The input XML stream
 	 */
 	protected InputStream inputStream;
+	/**
+	 * The number of transactions in a chunk
+	 */
+	protected int chunkSize = 1000;
+	/**
+	 * The progress listener, or null
+	 */
+	protected ImportProgressListener progressListener;
+	/**
+	 * IDs of accounts created by the import
+	 */
+	protected List<Long> createdAccountIds = new ArrayList<>();
+	/**
+	 * IDs of currency rates created by the import
+	 */
+	protected List<Long> createdCurrencyRateIds = new ArrayList<>();
+	/**
+	 * IDs of transactions created by the import
+	 */
+	protected List<Long> createdTransactionIds = new ArrayList<>();
+	/**
+	 * The total number of transactions reported to the progress listener, or
+	 * -1 if unknown
+	 */
+	protected long totalTransactions = -1;
 
 	/**
 	 * Creates an instance of the CSV Importer
@@ -65,178 +89,405 @@ public class XmlImporter implements Importer {
 		this.inputStream = inputStream;
 	}
 
-	@Override
-	public void importData(VogonUser owner, EntityManager entityManager) throws VogonImportException, VogonImportLogicalException {
-		try {
-			Map<Long, FinanceAccount> accountsMap = new HashMap<>();
+	/**
+	 * Sets the number of transactions after which the progress listener is
+	 * called
+	 *
+	 * @param chunkSize the number of transactions in a chunk
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
 
-			//Read XML
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			Document doc = dBuilder.parse(inputStream);
-			doc.getDocumentElement().normalize();
-
-			//TODO: do not throw exceptions on missing elements
-			//Get root node
-			Node rootNode = doc.getFirstChild();
-			if (rootNode == null || !rootNode.getNodeName().equals(XmlFields.ROOT_NODE))
-				throw new VogonImportLogicalException(messages.getString("MISSING_VOGONFINANCEDATA_NODE_IN_XML"));
-
-			//Iterate through root children
-			Node accountsNode = null, currenciesNode = null, transactionsNode = null;
-			for (Node currentNode = rootNode.getFirstChild(); currentNode != null; currentNode = currentNode.getNextSibling()) {
-				if (currentNode.getNodeName().equals(XmlFields.ACCOUNTS_NODE))
-					accountsNode = currentNode;
-				else if (currentNode.getNodeName().equals(XmlFields.CURRENCIES_NODE))
-					currenciesNode = currentNode;
-				else if (currentNode.getNodeName().equals(XmlFields.TRANSACTIONS_NODE))
-					transactionsNode = currentNode;
-				else if (currentNode.getNodeType() != Node.TEXT_NODE)
-					Logger.getLogger(XmlImporter.class.getName()).log(Level.WARNING, MessageFormat.format(messages.getString("UNRECOGNIZED_NODE"), currentNode.getNodeName()));
-			}
+	/**
+	 * Sets the progress listener
+	 *
+	 * @param progressListener the progress listener, or null
+	 */
+	public void setProgressListener(ImportProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
 
-			//Process default properties
-			{
-				Node defaultCurrencyAttrubute = rootNode.getAttributes().getNamedItem(XmlFields.DEFAULT_CURRENCY_ATTRIBUTE);
-				if (defaultCurrencyAttrubute != null) {
-					String defaultCurrency = defaultCurrencyAttrubute.getNodeValue();
+	/**
+	 * Returns the IDs of accounts created by the import. Allows the caller to
+	 * remove data committed by the progress listener if the import fails.
+	 *
+	 * @return the IDs of created accounts
+	 */
+	public List<Long> getCreatedAccountIds() {
+		return createdAccountIds;
+	}
 
-					owner.setDefaultCurrency(Currency.getInstance(defaultCurrency));
+	/**
+	 * Returns the IDs of currency rates created by the import
+	 *
+	 * @return the IDs of created currency rates
+	 */
+	public List<Long> getCreatedCurrencyRateIds() {
+		return createdCurrencyRateIds;
+	}
+
+	/**
+	 * Returns the IDs of transactions created by the import, in the order they
+	 * were created
+	 *
+	 * @return the IDs of created transactions
+	 */
+	public List<Long> getCreatedTransactionIds() {
+		return createdTransactionIds;
+	}
+
+	/**
+	 * Sets the total number of transactions in the file, which will be
+	 * reported to the progress listener. The file is read only once, so the
+	 * total can't be determined by the importer itself; if it's not set, the
+	 * number of transactions imported so far is reported as the total.
+	 *
+	 * @param totalTransactions the number of transactions in the file
+	 */
+	public void setTotalTransactions(long totalTransactions) {
+		this.totalTransactions = totalTransactions;
+	}
+
+	/**
+	 * Counts the transactions in an XML file without importing them, for
+	 * setTotalTransactions()
+	 *
+	 * @param inputStream the input stream to read
+	 * @return the number of transactions
+	 * @throws VogonImportException in case of read or parsing errors
+	 */
+	public static long countTransactions(InputStream inputStream) throws VogonImportException {
+		try {
+			XMLStreamReader reader = createReader(inputStream);
+			try {
+				long count = 0;
+				int depth = 0;
+				boolean inTransactions = false;
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						depth++;
+						if (depth == 2 && reader.getLocalName().equals(XmlFields.TRANSACTIONS_NODE))
+							inTransactions = true;
+						else if (depth == 3 && inTransactions)
+							count++;
+					} else if (event == XMLStreamConstants.END_ELEMENT) {
+						if (depth == 2)
+							inTransactions = false;
+						depth--;
+					}
 				}
+				return count;
+			} finally {
+				reader.close();
 			}
+		} catch (XMLStreamException e) {
+			Logger.getLogger(XmlImporter.class.getName()).log(Level.SEVERE, null, e);
+			throw new VogonImportException(e);
+		}
+	}
 
-			//Process accounts
-			for (Node currentNode = accountsNode.getFirstChild(); currentNode != null; currentNode = currentNode.getNextSibling()) {
-				if (currentNode.getNodeType() != Node.ELEMENT_NODE)
-					continue;
-
-				//Extract attributes from XML
-				NamedNodeMap attributes = currentNode.getAttributes();
-				String accountName = attributes.getNamedItem(XmlFields.NAME_ATTRIBUTE).getNodeValue(); //NOI18N
-				long accountId = Long.parseLong(attributes.getNamedItem(XmlFields.ID_ATTRIBUTE).getNodeValue());
-				boolean includeInTotal = attributes.getNamedItem(XmlFields.INCLUDE_IN_TOTAL_ATTRIBUTE) != null ? Boolean.parseBoolean(attributes.getNamedItem(XmlFields.INCLUDE_IN_TOTAL_ATTRIBUTE).getNodeValue()) : true;
-				boolean showInList = attributes.getNamedItem(XmlFields.SHOW_IN_LIST_ATTRIBUTE) != null ? Boolean.parseBoolean(attributes.getNamedItem(XmlFields.SHOW_IN_LIST_ATTRIBUTE).getNodeValue()) : true;
-				String currency = attributes.getNamedItem(XmlFields.CURRENCY_ATTRIBUTE) != null ? attributes.getNamedItem(XmlFields.CURRENCY_ATTRIBUTE).getNodeValue() : null;
-				//long accountBalance = Long.parseLong(attributes.getNamedItem(XmlFields.BALANCE_ATTRIBUTE).getNodeValue());
-
-				//Search existing accounts in DB
-				CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-				CriteriaQuery<FinanceAccount> accountsCriteriaQuery = criteriaBuilder.createQuery(FinanceAccount.class);
-				Root<FinanceAccount> acc = accountsCriteriaQuery.from(FinanceAccount.class);
-				Predicate condition = criteriaBuilder.equal(acc.get(FinanceAccount_.name), accountName);
-				accountsCriteriaQuery.where(condition);
-				FinanceAccount foundAccount = null;
-				try {
-					foundAccount = entityManager.createQuery(accountsCriteriaQuery).getSingleResult();
-				} catch (javax.persistence.NoResultException ex) {
-				}
+	/**
+	 * Creates the XML reader. External entities are not resolved.
+	 *
+	 * @param inputStream the input stream to read
+	 * @return the XML reader
+	 * @throws XMLStreamException if the reader cannot be created
+	 */
+	private static XMLStreamReader createReader(InputStream inputStream) throws XMLStreamException {
+		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return inputFactory.createXMLStreamReader(inputStream);
+	}
 
-				//Match by account name
-				if (foundAccount != null && foundAccount.getName().equals(accountName)) {
-					accountsMap.put(accountId, foundAccount);
-				} else {
-					FinanceAccount account = new FinanceAccount(owner, accountName, currency != null ? Currency.getInstance(currency) : null);
-					account.setIncludeInTotal(includeInTotal);
-					account.setShowInList(showInList);
-					accountsMap.put(accountId, account);
-					entityManager.persist(account);
-				}
+	/**
+	 * Moves to the next start or end element, skipping text, comments and
+	 * other events
+	 *
+	 * @param reader the XML reader
+	 * @return XMLStreamConstants.START_ELEMENT or
+	 * XMLStreamConstants.END_ELEMENT, or XMLStreamConstants.END_DOCUMENT if
+	 * the end of the document was reached
+	 * @throws XMLStreamException in case of parsing errors
+	 */
+	private int nextElement(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT)
+				return event;
+		}
+		return XMLStreamConstants.END_DOCUMENT;
+	}
+
+	/**
+	 * Skips the current element and all its children; the reader is left at
+	 * the element's end
+	 *
+	 * @param reader the XML reader, positioned at the element's start
+	 * @throws XMLStreamException in case of parsing errors
+	 */
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = nextElement(reader);
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Returns the value of a required attribute of the current element
+	 *
+	 * @param reader the XML reader, positioned at an element's start
+	 * @param name the attribute name
+	 * @return the attribute value
+	 * @throws VogonImportLogicalException if the attribute is missing
+	 */
+	private String getRequiredAttribute(XMLStreamReader reader, String name) throws VogonImportLogicalException {
+		String value = reader.getAttributeValue(null, name);
+		if (value == null)
+			throw new VogonImportLogicalException(messages.getString("MISSING_DATA_FROM_XML"));
+		return value;
+	}
+
+	/**
+	 * Reloads accounts which were detached from the EntityManager (e.g. by a
+	 * commit)
+	 *
+	 * @param accountsMap the accounts map to update
+	 * @param entityManager the EntityManager
+	 */
+	private void reloadAccounts(Map<Long, FinanceAccount> accountsMap, EntityManager entityManager) {
+		for (Map.Entry<Long, FinanceAccount> entry : accountsMap.entrySet())
+			if (!entityManager.contains(entry.getValue()))
+				entry.setValue(entityManager.find(FinanceAccount.class, entry.getValue().getId()));
+	}
+
+	/**
+	 * Imports the accounts; accounts with the same name as an existing account
+	 * are merged into it
+	 *
+	 * @param reader the XML reader, positioned at the start of the accounts
+	 * node
+	 * @param owner the accounts owner
+	 * @param accountsMap the map of XML account IDs to accounts to fill
+	 * @param entityManager the EntityManager
+	 * @throws XMLStreamException in case of parsing errors
+	 * @throws VogonImportLogicalException in case of missing data
+	 */
+	private void importAccounts(XMLStreamReader reader, VogonUser owner, Map<Long, FinanceAccount> accountsMap, EntityManager entityManager) throws XMLStreamException, VogonImportLogicalException {
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			//Extract attributes from XML
+			String accountName = getRequiredAttribute(reader, XmlFields.NAME_ATTRIBUTE);
+			long accountId = Long.parseLong(getRequiredAttribute(reader, XmlFields.ID_ATTRIBUTE));
+			String includeInTotalValue = reader.getAttributeValue(null, XmlFields.INCLUDE_IN_TOTAL_ATTRIBUTE);
+			boolean includeInTotal = includeInTotalValue != null ? Boolean.parseBoolean(includeInTotalValue) : true;
+			String showInListValue = reader.getAttributeValue(null, XmlFields.SHOW_IN_LIST_ATTRIBUTE);
+			boolean showInList = showInListValue != null ? Boolean.parseBoolean(showInListValue) : true;
+			String currency = reader.getAttributeValue(null, XmlFields.CURRENCY_ATTRIBUTE);
+			skipElement(reader);
+
+			//Search existing accounts in DB
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<FinanceAccount> accountsCriteriaQuery = criteriaBuilder.createQuery(FinanceAccount.class);
+			Root<FinanceAccount> acc = accountsCriteriaQuery.from(FinanceAccount.class);
+			Predicate condition = criteriaBuilder.equal(acc.get(FinanceAccount_.name), accountName);
+			Predicate ownerCondition = criteriaBuilder.equal(acc.get(FinanceAccount_.owner), owner);
+			accountsCriteriaQuery.where(criteriaBuilder.and(condition, ownerCondition));
+			FinanceAccount foundAccount = null;
+			try {
+				foundAccount = entityManager.createQuery(accountsCriteriaQuery).getSingleResult();
+			} catch (javax.persistence.NoResultException ex) {
 			}
 
-			//Process currencies
-			for (Node currentNode = currenciesNode.getFirstChild(); currentNode != null; currentNode = currentNode.getNextSibling()) {
-				if (currentNode.getNodeType() != Node.ELEMENT_NODE)
-					continue;
-
-				//Extract attributes from XML
-				NamedNodeMap attributes = currentNode.getAttributes();
-				String sourceCurrencyName = attributes.getNamedItem(XmlFields.SOURCE_ATTRIBUTE).getNodeValue();
-				String destinationCurrencyName = attributes.getNamedItem(XmlFields.DESTINATION_ATTRIBUTE).getNodeValue();
-				double exchangeRate = Double.parseDouble(attributes.getNamedItem(XmlFields.RATE_ATTRIBUTE).getNodeValue());
-
-				//Search existing currency rates in DB
-				CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-				CriteriaQuery<CurrencyRate> currencyCriteriaQuery = criteriaBuilder.createQuery(CurrencyRate.class);
-				Root<CurrencyRate> rate = currencyCriteriaQuery.from(CurrencyRate.class);
-				Predicate sourceCondition = criteriaBuilder.equal(rate.get(CurrencyRate_.source), sourceCurrencyName);
-				Predicate destinationCondition = criteriaBuilder.equal(rate.get(CurrencyRate_.destination), destinationCurrencyName);
-				currencyCriteriaQuery.where(criteriaBuilder.and(sourceCondition, destinationCondition));
-				CurrencyRate foundCurrencyRate = null;
-				try {
-					foundCurrencyRate = entityManager.createQuery(currencyCriteriaQuery).getSingleResult();
-				} catch (javax.persistence.NoResultException ex) {
-				}
+			//Match by account name
+			if (foundAccount != null && foundAccount.getName().equals(accountName)) {
+				accountsMap.put(accountId, foundAccount);
+			} else {
+				FinanceAccount account = new FinanceAccount(owner, accountName, currency != null ? Currency.getInstance(currency) : null);
+				account.setIncludeInTotal(includeInTotal);
+				account.setShowInList(showInList);
+				accountsMap.put(accountId, account);
+				entityManager.persist(account);
+				createdAccountIds.add(account.getId());
+			}
+		}
+	}
 
-				//Match by currency source and destination
-				if (foundCurrencyRate == null || !(foundCurrencyRate.getSource().getCurrencyCode().equals(sourceCurrencyName) && foundCurrencyRate.getDestination().getCurrencyCode().equals(destinationCurrencyName))) {
-					CurrencyRate currencyRate = new CurrencyRate(Currency.getInstance(sourceCurrencyName), Currency.getInstance(destinationCurrencyName), exchangeRate);
-					entityManager.persist(currencyRate);
-				}
+	/**
+	 * Imports the currency rates which don't exist yet
+	 *
+	 * @param reader the XML reader, positioned at the start of the currencies
+	 * node
+	 * @param entityManager the EntityManager
+	 * @throws XMLStreamException in case of parsing errors
+	 * @throws VogonImportLogicalException in case of missing data
+	 */
+	private void importCurrencyRates(XMLStreamReader reader, EntityManager entityManager) throws XMLStreamException, VogonImportLogicalException {
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			//Extract attributes from XML
+			String sourceCurrencyName = getRequiredAttribute(reader, XmlFields.SOURCE_ATTRIBUTE);
+			String destinationCurrencyName = getRequiredAttribute(reader, XmlFields.DESTINATION_ATTRIBUTE);
+			double exchangeRate = Double.parseDouble(getRequiredAttribute(reader, XmlFields.RATE_ATTRIBUTE));
+			skipElement(reader);
+
+			//Search existing currency rates in DB
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<CurrencyRate> currencyCriteriaQuery = criteriaBuilder.createQuery(CurrencyRate.class);
+			Root<CurrencyRate> rate = currencyCriteriaQuery.from(CurrencyRate.class);
+			Predicate sourceCondition = criteriaBuilder.equal(rate.get(CurrencyRate_.source), sourceCurrencyName);
+			Predicate destinationCondition = criteriaBuilder.equal(rate.get(CurrencyRate_.destination), destinationCurrencyName);
+			currencyCriteriaQuery.where(criteriaBuilder.and(sourceCondition, destinationCondition));
+			CurrencyRate foundCurrencyRate = null;
+			try {
+				foundCurrencyRate = entityManager.createQuery(currencyCriteriaQuery).getSingleResult();
+			} catch (javax.persistence.NoResultException ex) {
+			}
+
+			//Match by currency source and destination
+			if (foundCurrencyRate == null || !(foundCurrencyRate.getSource().getCurrencyCode().equals(sourceCurrencyName) && foundCurrencyRate.getDestination().getCurrencyCode().equals(destinationCurrencyName))) {
+				CurrencyRate currencyRate = new CurrencyRate(Currency.getInstance(sourceCurrencyName), Currency.getInstance(destinationCurrencyName), exchangeRate);
+				entityManager.persist(currencyRate);
+				createdCurrencyRateIds.add(currencyRate.getId());
+			}
+		}
+	}
+
+	/**
+	 * Imports the transactions, calling the progress listener after every
+	 * chunk
+	 *
+	 * @param reader the XML reader, positioned at the start of the
+	 * transactions node
+	 * @param owner the transactions owner
+	 * @param accountsMap the map of XML account IDs to imported accounts
+	 * @param entityManager the EntityManager
+	 * @param start the start time of the current operation for Metrics
+	 * @return the start time of the next operation for Metrics
+	 * @throws XMLStreamException in case of parsing errors
+	 * @throws VogonImportLogicalException in case of missing or invalid data
+	 * @throws ParseException if a date cannot be parsed
+	 */
+	private long importTransactions(XMLStreamReader reader, VogonUser owner, Map<Long, FinanceAccount> accountsMap, EntityManager entityManager, long start) throws XMLStreamException, VogonImportLogicalException, ParseException {
+		long importedTransactions = 0;
+		while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+			//Extract attributes from XML
+			String transactionType = getRequiredAttribute(reader, XmlFields.TYPE_ATTRIBUTE);
+			String transactionDescription = getRequiredAttribute(reader, XmlFields.DESCRIPTION_ATTRIBUTE);
+			Date transactionDate = XmlFields.DATE_FORMAT.parse(getRequiredAttribute(reader, XmlFields.DATE_ATTRIBUTE));
+
+			//Create transaction instance
+			FinanceTransaction.Type transactionTypeEnum;
+			switch (transactionType) {
+				case XmlFields.TRANSACTION_TYPE_TRANSFER_VALUE:
+					transactionTypeEnum = FinanceTransaction.Type.TRANSFER;
+					break;
+				case XmlFields.TRANSACTION_TYPE_EXPENSEINCOME_VALUE:
+					transactionTypeEnum = FinanceTransaction.Type.EXPENSEINCOME;
+					break;
+				default:
+					transactionTypeEnum = FinanceTransaction.Type.UNDEFINED;
+					break;
 			}
+			if (transactionTypeEnum == FinanceTransaction.Type.UNDEFINED)
+				throw new VogonImportLogicalException(MessageFormat.format(messages.getString("UNKNOWN_TRANSACTION_TYPE"), transactionType));
+			FinanceTransaction transaction = new FinanceTransaction(owner, transactionDescription, null, transactionDate, transactionTypeEnum);
+			entityManager.persist(transaction);
+			createdTransactionIds.add(transaction.getId());
 
-			//Process transactions
-			for (Node currentNode = transactionsNode.getFirstChild(); currentNode != null; currentNode = currentNode.getNextSibling()) {
-				if (currentNode.getNodeType() != Node.ELEMENT_NODE)
-					continue;
-
-				//Extract attributes from XML
-				NamedNodeMap attributes = currentNode.getAttributes();
-				String transactionType = attributes.getNamedItem(XmlFields.TYPE_ATTRIBUTE).getNodeValue();
-				//long transactionId = Long.parseLong(attributes.getNamedItem(XmlFields.ID_ATTRIBUTE).getNodeValue());
-				String transactionDescription = attributes.getNamedItem(XmlFields.DESCRIPTION_ATTRIBUTE).getNodeValue();
-				//String transactionAmount = attributes.getNamedItem(XmlFields.AMOUNT_ATTRIBUTE).getNodeValue();
-				Date transactionDate = XmlFields.DATE_FORMAT.parse(attributes.getNamedItem(XmlFields.DATE_ATTRIBUTE).getNodeValue());
-
-				//Create transaction instance
-				FinanceTransaction.Type transactionTypeEnum;
-				switch (transactionType) {
-					case XmlFields.TRANSACTION_TYPE_TRANSFER_VALUE:
-						transactionTypeEnum = FinanceTransaction.Type.TRANSFER;
+			//Extract transaction tags and components from XML
+			List<String> tagsList = new LinkedList<>();
+			while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+				switch (reader.getLocalName()) {
+					case XmlFields.TAG_NODE:
+						tagsList.add(reader.getElementText());
 						break;
-					case XmlFields.TRANSACTION_TYPE_EXPENSEINCOME_VALUE:
-						transactionTypeEnum = FinanceTransaction.Type.EXPENSEINCOME;
+					case XmlFields.TRANSACTION_COMPONENT_NODE:
+						long componentAccountId = Long.parseLong(getRequiredAttribute(reader, XmlFields.ACCOUNT_ATTRIBUTE));
+						long componentAmount = Long.parseLong(getRequiredAttribute(reader, XmlFields.AMOUNT_ATTRIBUTE));
+						skipElement(reader);
+						FinanceAccount componentAccount = accountsMap.get(componentAccountId);
+						if (componentAccount == null)
+							throw new VogonImportLogicalException(messages.getString("MISSING_DATA_FROM_XML"));
+						TransactionComponent component = new TransactionComponent(componentAccount, transaction, componentAmount);
+						entityManager.persist(component);
+						transaction.addComponent(component);
 						break;
 					default:
-						transactionTypeEnum = FinanceTransaction.Type.UNDEFINED;
-						break;
+						skipElement(reader);
+				}
+			}
+
+			transaction.setTags(tagsList.toArray(new String[0]));
+
+			importedTransactions++;
+			if (progressListener != null && importedTransactions % chunkSize == 0) {
+				start = Metrics.stop("import.persist", start); //NOI18N
+				entityManager.flush();
+				start = Metrics.stop("import.flush", start); //NOI18N
+				progressListener.chunkImported(importedTransactions, Math.max(totalTransactions, importedTransactions));
+				reloadAccounts(accountsMap, entityManager);
+				start = Metrics.stop("import.commit", start); //NOI18N
+			}
+		}
+		start = Metrics.stop("import.persist", start); //NOI18N
+		if (progressListener != null) {
+			entityManager.flush();
+			start = Metrics.stop("import.flush", start); //NOI18N
+			progressListener.chunkImported(importedTransactions, Math.max(totalTransactions, importedTransactions));
+			start = Metrics.stop("import.commit", start); //NOI18N
+		}
+		return start;
+	}
+
+	@Override
+	public void importData(VogonUser owner, EntityManager entityManager) throws VogonImportException, VogonImportLogicalException {
+		try {
+			Map<Long, FinanceAccount> accountsMap = new HashMap<>();
+
+			long start = Metrics.start();
+			XMLStreamReader reader = createReader(inputStream);
+			try {
+				//Get root node
+				if (nextElement(reader) != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equals(XmlFields.ROOT_NODE))
+					throw new VogonImportLogicalException(messages.getString("MISSING_VOGONFINANCEDATA_NODE_IN_XML"));
+
+				//Process default properties
+				{
+					String defaultCurrency = reader.getAttributeValue(null, XmlFields.DEFAULT_CURRENCY_ATTRIBUTE);
+					if (defaultCurrency != null)
+						owner.setDefaultCurrency(Currency.getInstance(defaultCurrency));
 				}
-				if (transactionTypeEnum == FinanceTransaction.Type.UNDEFINED)
-					throw new VogonImportLogicalException(MessageFormat.format(messages.getString("UNKNOWN_TRANSACTION_TYPE"), transactionType));
-				FinanceTransaction transaction = new FinanceTransaction(owner, transactionDescription, null, transactionDate, transactionTypeEnum);
-				entityManager.persist(transaction);
-
-				//Extract transaction tags and components from XML
-				List<String> tagsList = new LinkedList<>();
-				for (Node childNode = currentNode.getFirstChild(); childNode != null; childNode = childNode.getNextSibling()) {
-					if (childNode.getNodeType() != Node.ELEMENT_NODE)
-						continue;
-					switch (childNode.getNodeName()) {
-						case XmlFields.TAG_NODE:
-							String tag = childNode.getTextContent();
-							tagsList.add(tag);
+
+				//Iterate through root children
+				while (nextElement(reader) == XMLStreamConstants.START_ELEMENT) {
+					switch (reader.getLocalName()) {
+						case XmlFields.ACCOUNTS_NODE:
+							importAccounts(reader, owner, accountsMap, entityManager);
 							break;
-						case XmlFields.TRANSACTION_COMPONENT_NODE:
-							//long componentId = Long.parseLong(childNode.getAttributes().getNamedItem(XmlFields.ID_ATTRIBUTE).getNodeValue());
-							long componentAccountId = Long.parseLong(childNode.getAttributes().getNamedItem(XmlFields.ACCOUNT_ATTRIBUTE).getNodeValue());
-							long componentAmount = Long.parseLong(childNode.getAttributes().getNamedItem(XmlFields.AMOUNT_ATTRIBUTE).getNodeValue());
-							TransactionComponent component = new TransactionComponent(accountsMap.get(componentAccountId), transaction, componentAmount);
-							entityManager.persist(component);
-							transaction.addComponent(component);
+						case XmlFields.CURRENCIES_NODE:
+							importCurrencyRates(reader, entityManager);
 							break;
+						case XmlFields.TRANSACTIONS_NODE:
+							start = Metrics.stop("import.accounts", start); //NOI18N
+							start = importTransactions(reader, owner, accountsMap, entityManager, start);
+							break;
+						default:
+							Logger.getLogger(XmlImporter.class.getName()).log(Level.WARNING, MessageFormat.format(messages.getString("UNRECOGNIZED_NODE"), reader.getLocalName()));
+							skipElement(reader);
 					}
 				}
-
-				transaction.setTags(tagsList.toArray(new String[0]));
+			} finally {
+				reader.close();
 			}
 		} catch (VogonImportLogicalException e) {
 			throw new VogonImportLogicalException(e);
-		} catch (FileNotFoundException e) {
-			Logger.getLogger(XmlImporter.class.getName()).log(Level.SEVERE, null, e);
-			throw new VogonImportException(e);
-		} catch (IOException e) {
-			Logger.getLogger(XmlImporter.class.getName()).log(Level.SEVERE, null, e);
-			throw new VogonImportException(e);
-		} catch (ParserConfigurationException | SAXException | DOMException e) {
+		} catch (XMLStreamException e) {
 			Logger.getLogger(XmlImporter.class.getName()).log(Level.SEVERE, null, e);
 			throw new VogonImportException(e);
 		} catch (NullPointerException e) {
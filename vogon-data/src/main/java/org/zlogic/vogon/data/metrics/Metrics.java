@@ -0,0 +1,55 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data.metrics;
+
+/**
+ * Records timings of data layer operations. Timings are passed to the
+ * listener set by the application (e.g. to be exposed by a metrics
+ * endpoint), and are discarded if no listener is set.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class Metrics {
+
+	/**
+	 * The metrics listener, or null
+	 */
+	private static volatile MetricsListener listener;
+
+	/**
+	 * Sets the metrics listener
+	 *
+	 * @param listener the metrics listener, or null to discard timings
+	 */
+	public static void setListener(MetricsListener listener) {
+		Metrics.listener = listener;
+	}
+
+	/**
+	 * Starts timing an operation
+	 *
+	 * @return the start time, to be passed to stop()
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the time of an operation
+	 *
+	 * @param name the operation name
+	 * @param start the operation start time returned by start()
+	 * @return the current time, which can be used as the start time of the
+	 * next operation
+	 */
+	public static long stop(String name, long start) {
+		long now = System.nanoTime();
+		MetricsListener currentListener = listener;
+		if (currentListener != null)
+			currentListener.timeRecorded(name, now - start);
+		return now;
+	}
+}
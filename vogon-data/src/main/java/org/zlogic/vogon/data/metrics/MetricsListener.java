@@ -0,0 +1,23 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data.metrics;
+
+/**
+ * Receives timings of data layer operations
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public interface MetricsListener {
+
+	/**
+	 * Called when a timed operation completes. May be called concurrently
+	 * from several threads.
+	 *
+	 * @param name the operation name (e.g. report.transactions)
+	 * @param duration the operation duration, in nanoseconds
+	 */
+	public void timeRecorded(String name, long duration);
+}
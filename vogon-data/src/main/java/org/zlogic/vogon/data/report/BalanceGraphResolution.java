@@ -0,0 +1,61 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data.report;
+
+/**
+ * Resolution of the accounts balance graph. Every point of a downsampled
+ * graph contains the balance at the end of the period, and the minimum and
+ * maximum balance during the period.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public enum BalanceGraphResolution {
+
+	/**
+	 * Choose the finest resolution which doesn't exceed the requested number
+	 * of points
+	 */
+	AUTO,
+	/**
+	 * One point per day
+	 */
+	DAILY,
+	/**
+	 * One point per week (weeks start on Monday)
+	 */
+	WEEKLY,
+	/**
+	 * One point per month
+	 */
+	MONTHLY;
+
+	/**
+	 * Returns the period containing a day
+	 *
+	 * @param epochDay the number of days since the epoch
+	 * @return the period number (periods are numbered sequentially)
+	 */
+	protected int getPeriod(int epochDay) {
+		switch (this) {
+			case WEEKLY:
+				//1970-01-01 was a Thursday
+				return (int) Math.floor((epochDay + 3) / 7.0);
+			case MONTHLY:
+				//Convert days to a civil date, with years starting on March 1
+				int days = epochDay + 719468;
+				int era = (days >= 0 ? days : days - 146096) / 146097;
+				int dayOfEra = days - era * 146097;
+				int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+				int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+				int monthIndex = (5 * dayOfYear + 2) / 153;
+				int month = monthIndex < 10 ? monthIndex + 2 : monthIndex - 10;
+				int year = yearOfEra + era * 400 + (month <= 1 ? 1 : 0);
+				return year * 12 + month;
+			default:
+				return epochDay;
+		}
+	}
+}
@@ -5,81 +5,334 @@
  */
 package org.zlogic.vogon.data.report;
 
-import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.TreeMap;
 import java.util.Map;
-import java.util.ResourceBundle;
+import java.util.TreeMap;
+import org.zlogic.vogon.data.Constants;
 
 /**
- * Class for storing a date/balance graph
+ * Class for storing a date/balance graph. Points are stored in sorted arrays
+ * of days since the epoch (in the default time zone) and raw balances. A
+ * downsampled graph also contains the minimum and maximum balance for every
+ * point's period.
  *
  * @author Dmitry Zolotukhin [zlogic@gmail.com]
- * @param <T> balance type
  */
-public class DateBalance<T extends Number> {
+public class DateBalance {
 
 	/**
-	 * Localization messages
+	 * Initial capacity of the arrays
 	 */
-	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/data/messages");
+	private static final int INITIAL_CAPACITY = 16;
 	/**
-	 * Date/balance storage map
+	 * Dates, in days since the epoch
 	 */
-	private Map<Date, T> dateBalance = new TreeMap<>();
-
+	private int[] days = new int[INITIAL_CAPACITY];
+	/**
+	 * Raw balances
+	 */
+	private long[] balances = new long[INITIAL_CAPACITY];
+	/**
+	 * Minimum raw balances (only for downsampled graphs)
+	 */
+	private long[] minimums;
 	/**
-	 * Balance type class
+	 * Maximum raw balances (only for downsampled graphs)
 	 */
-	private Class<T> balanceType;
+	private long[] maximums;
+	/**
+	 * Number of points
+	 */
+	private int size = 0;
 
 	/**
 	 * Default constructor
+	 */
+	protected DateBalance() {
+	}
+
+	/**
+	 * Returns the index of a day, or (-(insertion point) - 1) if it doesn't
+	 * exist
 	 *
-	 * @param balanceType the balance type class
+	 * @param day the day, in days since the epoch
+	 * @return the index of the day
 	 */
-	protected DateBalance(Class<T> balanceType) {
-		this.balanceType = balanceType;
+	private int indexOf(int day) {
+		if (size > 0 && days[size - 1] < day)
+			return -size - 1;
+		return Arrays.binarySearch(days, 0, size, day);
 	}
 
 	/**
-	 * Returns the date/balance map
+	 * Inserts a new point
 	 *
-	 * @return the date/balance map
+	 * @param index the insertion index
+	 * @param day the day, in days since the epoch
+	 * @param balance the raw balance
 	 */
-	public Map<Date, T> getData() {
-		return dateBalance;
+	private void insert(int index, int day, long balance) {
+		if (size == days.length) {
+			days = Arrays.copyOf(days, size * 2);
+			balances = Arrays.copyOf(balances, size * 2);
+			if (minimums != null) {
+				minimums = Arrays.copyOf(minimums, size * 2);
+				maximums = Arrays.copyOf(maximums, size * 2);
+			}
+		}
+		if (index < size) {
+			System.arraycopy(days, index, days, index + 1, size - index);
+			System.arraycopy(balances, index, balances, index + 1, size - index);
+			if (minimums != null) {
+				System.arraycopy(minimums, index, minimums, index + 1, size - index);
+				System.arraycopy(maximums, index, maximums, index + 1, size - index);
+			}
+		}
+		days[index] = day;
+		balances[index] = balance;
+		if (minimums != null) {
+			minimums[index] = balance;
+			maximums[index] = balance;
+		}
+		size++;
 	}
 
 	/**
-	 * Sets the balance for a particular date
+	 * Sets the balance for a specific day
 	 *
-	 * @param date the date
-	 * @param balance the balance to be set
+	 * @param day the day, in days since the epoch
+	 * @param balance the raw balance
 	 */
-	protected void setBalance(Date date, T balance) {
-		dateBalance.put(date, balance);
+	protected void setBalance(int day, long balance) {
+		int index = indexOf(day);
+		if (index >= 0)
+			balances[index] = balance;
+		else
+			insert(-index - 1, day, balance);
 	}
 
 	/**
-	 * Adds an amount to the balance for a particular date
+	 * Sets the balance for a specific date
 	 *
 	 * @param date the date
-	 * @param add the amount to add
-	 */
-	protected void addBalance(Date date, T add) {
-		if (!dateBalance.containsKey(date))
-			dateBalance.put(date, add);
-		else {
-			T value = dateBalance.get(date);
-			if (balanceType == Double.class || balanceType == double.class)
-				dateBalance.put(date, balanceType.cast(value.doubleValue() + add.doubleValue()));
-			else if (balanceType == Long.class || balanceType == long.class)
-				dateBalance.put(date, balanceType.cast(value.longValue() + add.longValue()));
-			else if (balanceType == Integer.class || balanceType == int.class)
-				dateBalance.put(date, balanceType.cast(value.intValue() + add.intValue()));
-			else
-				throw new ClassCastException(new MessageFormat(messages.getString("CANNOT_PROCESS_UNSUPPORTED_NUMBER_TYPE")).format(new Object[]{balanceType.getName()}));
+	 * @param balance the raw balance
+	 */
+	protected void setBalance(Date date, long balance) {
+		setBalance(LedgerSnapshot.toEpochDay(date), balance);
+	}
+
+	/**
+	 * Adds an amount to the balance for a specific day
+	 *
+	 * @param day the day, in days since the epoch
+	 * @param amount the raw amount to add
+	 */
+	protected void addBalance(int day, long amount) {
+		int index = indexOf(day);
+		if (index >= 0)
+			balances[index] += amount;
+		else
+			insert(-index - 1, day, amount);
+	}
+
+	/**
+	 * Returns the number of periods containing points
+	 *
+	 * @param resolution the period resolution
+	 * @return the number of periods containing points
+	 */
+	public int countPeriods(BalanceGraphResolution resolution) {
+		int count = 0;
+		int lastPeriod = 0;
+		for (int i = 0; i < size; i++) {
+			int period = resolution.getPeriod(days[i]);
+			if (i == 0 || period != lastPeriod)
+				count++;
+			lastPeriod = period;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a downsampled copy of this graph, containing one point per
+	 * period. The point is placed on the period's last balance change and
+	 * contains the balance at the end of the period, as well as the minimum
+	 * and maximum balance during the period (including the balance carried
+	 * over from the previous period).
+	 *
+	 * @param resolution the period resolution (AUTO is not supported)
+	 * @return the downsampled graph
+	 */
+	public DateBalance downsample(BalanceGraphResolution resolution) {
+		DateBalance result = new DateBalance();
+		int count = countPeriods(resolution);
+		result.days = new int[Math.max(count, 1)];
+		result.balances = new long[result.days.length];
+		result.minimums = new long[result.days.length];
+		result.maximums = new long[result.days.length];
+		int lastPeriod = 0;
+		for (int i = 0; i < size; i++) {
+			int period = resolution.getPeriod(days[i]);
+			long minimum = minimums != null ? minimums[i] : balances[i];
+			long maximum = maximums != null ? maximums[i] : balances[i];
+			if (i == 0 || period != lastPeriod) {
+				if (i > 0) {
+					minimum = Math.min(minimum, balances[i - 1]);
+					maximum = Math.max(maximum, balances[i - 1]);
+				}
+				result.size++;
+			} else {
+				minimum = Math.min(minimum, result.minimums[result.size - 1]);
+				maximum = Math.max(maximum, result.maximums[result.size - 1]);
+			}
+			result.days[result.size - 1] = days[i];
+			result.balances[result.size - 1] = balances[i];
+			result.minimums[result.size - 1] = minimum;
+			result.maximums[result.size - 1] = maximum;
+			lastPeriod = period;
 		}
+		return result;
+	}
+
+	/**
+	 * Returns true if this graph contains the minimum and maximum balance for
+	 * every point
+	 *
+	 * @return true if this graph contains the minimum and maximum balance for
+	 * every point
+	 */
+	public boolean hasEnvelope() {
+		return minimums != null;
+	}
+
+	/**
+	 * Returns the balance by a specific date (the balance of the last point
+	 * on or before the date)
+	 *
+	 * @param date the date
+	 * @return the balance, or 0 if there are no points before the date
+	 */
+	public double getBalance(Date date) {
+		int index = indexOf(LedgerSnapshot.toEpochDay(date));
+		if (index < 0)
+			index = -index - 2;
+		return index >= 0 ? balances[index] / Constants.RAW_AMOUNT_MULTIPLIER : 0;
+	}
+
+	/**
+	 * Returns the number of points
+	 *
+	 * @return the number of points
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the date of a point, in days since the epoch
+	 *
+	 * @param index the point index
+	 * @return the date of the point, in days since the epoch
+	 */
+	public int getDay(int index) {
+		return days[index];
+	}
+
+	/**
+	 * Returns the date of a point
+	 *
+	 * @param index the point index
+	 * @return the date of the point
+	 */
+	public Date getDate(int index) {
+		return LedgerSnapshot.fromEpochDay(days[index]);
+	}
+
+	/**
+	 * Returns the raw balance of a point
+	 *
+	 * @param index the point index
+	 * @return the raw balance of the point
+	 */
+	public long getRawBalance(int index) {
+		return balances[index];
+	}
+
+	/**
+	 * Returns the balance of a point
+	 *
+	 * @param index the point index
+	 * @return the balance of the point
+	 */
+	public double getBalance(int index) {
+		return balances[index] / Constants.RAW_AMOUNT_MULTIPLIER;
+	}
+
+	/**
+	 * Returns the minimum balance during a point's period
+	 *
+	 * @param index the point index
+	 * @return the minimum balance during the point's period (or the point's
+	 * balance if this graph has no envelope)
+	 */
+	public double getMinimum(int index) {
+		return (minimums != null ? minimums[index] : balances[index]) / Constants.RAW_AMOUNT_MULTIPLIER;
+	}
+
+	/**
+	 * Returns the maximum balance during a point's period
+	 *
+	 * @param index the point index
+	 * @return the maximum balance during the point's period (or the point's
+	 * balance if this graph has no envelope)
+	 */
+	public double getMaximum(int index) {
+		return (maximums != null ? maximums[index] : balances[index]) / Constants.RAW_AMOUNT_MULTIPLIER;
+	}
+
+	/**
+	 * Returns the date/balance data as a sorted map; creates a new map on
+	 * every call
+	 *
+	 * @return the date/balance map
+	 */
+	public Map<Date, Double> getData() {
+		Map<Date, Double> data = new TreeMap<>();
+		for (int i = 0; i < size; i++)
+			data.put(getDate(i), getBalance(i));
+		return data;
+	}
+
+	/**
+	 * Returns the date/minimum balance data as a sorted map; creates a new map
+	 * on every call
+	 *
+	 * @return the date/minimum balance map, or null if this graph has no
+	 * envelope
+	 */
+	public Map<Date, Double> getMinimums() {
+		if (minimums == null)
+			return null;
+		Map<Date, Double> data = new TreeMap<>();
+		for (int i = 0; i < size; i++)
+			data.put(getDate(i), getMinimum(i));
+		return data;
+	}
+
+	/**
+	 * Returns the date/maximum balance data as a sorted map; creates a new map
+	 * on every call
+	 *
+	 * @return the date/maximum balance map, or null if this graph has no
+	 * envelope
+	 */
+	public Map<Date, Double> getMaximums() {
+		if (maximums == null)
+			return null;
+		Map<Date, Double> data = new TreeMap<>();
+		for (int i = 0; i < size; i++)
+			data.put(getDate(i), getMaximum(i));
+		return data;
 	}
 }
@@ -0,0 +1,372 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data.report;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceAccount_;
+import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.FinanceTransaction_;
+import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.TransactionComponent_;
+import org.zlogic.vogon.data.VogonUser;
+
+/**
+ * Immutable columnar snapshot of a user's ledger, used for building reports
+ * in memory without database queries.
+ *
+ * Transactions are sorted by date and ID and stored in primitive arrays;
+ * dates are stored as days since the epoch (in the default time zone),
+ * accounts and tags are replaced by indexes in sorted dictionaries.
+ * Components and tags of each transaction are stored in contiguous ranges of
+ * shared arrays.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class LedgerSnapshot {
+
+	/**
+	 * Number of milliseconds in a day
+	 */
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+	/**
+	 * The ledger owner ID
+	 */
+	private final long ownerId;
+	/**
+	 * Transaction IDs
+	 */
+	final long[] transactionIds;
+	/**
+	 * Transaction dates, in days since the epoch
+	 */
+	final int[] transactionDays;
+	/**
+	 * Transaction types (FinanceTransaction.Type ordinals)
+	 */
+	final byte[] transactionTypes;
+	/**
+	 * Transaction raw amounts
+	 */
+	final long[] transactionAmounts;
+	/**
+	 * Index of each transaction's first component; the last element is the
+	 * total number of components
+	 */
+	final int[] componentOffsets;
+	/**
+	 * Component account indexes in the accountIds dictionary
+	 */
+	final int[] componentAccounts;
+	/**
+	 * Component raw amounts
+	 */
+	final long[] componentAmounts;
+	/**
+	 * Index of each transaction's first tag; the last element is the total
+	 * number of transaction tags
+	 */
+	final int[] tagOffsets;
+	/**
+	 * Transaction tag indexes in the tags dictionary
+	 */
+	final int[] transactionTags;
+	/**
+	 * Sorted account IDs dictionary
+	 */
+	final long[] accountIds;
+	/**
+	 * Sorted tags dictionary
+	 */
+	final String[] tags;
+
+	/**
+	 * Constructs the snapshot
+	 *
+	 * @param ownerId the ledger owner ID
+	 * @param transactionIds the transaction IDs
+	 * @param transactionDays the transaction dates, in days since the epoch
+	 * @param transactionTypes the transaction types
+	 * @param transactionAmounts the transaction raw amounts
+	 * @param componentOffsets the index of each transaction's first component
+	 * @param componentAccounts the component account indexes
+	 * @param componentAmounts the component raw amounts
+	 * @param tagOffsets the index of each transaction's first tag
+	 * @param transactionTags the transaction tag indexes
+	 * @param accountIds the sorted account IDs dictionary
+	 * @param tags the sorted tags dictionary
+	 */
+	private LedgerSnapshot(long ownerId, long[] transactionIds, int[] transactionDays, byte[] transactionTypes, long[] transactionAmounts, int[] componentOffsets, int[] componentAccounts, long[] componentAmounts, int[] tagOffsets, int[] transactionTags, long[] accountIds, String[] tags) {
+		this.ownerId = ownerId;
+		this.transactionIds = transactionIds;
+		this.transactionDays = transactionDays;
+		this.transactionTypes = transactionTypes;
+		this.transactionAmounts = transactionAmounts;
+		this.componentOffsets = componentOffsets;
+		this.componentAccounts = componentAccounts;
+		this.componentAmounts = componentAmounts;
+		this.tagOffsets = tagOffsets;
+		this.transactionTags = transactionTags;
+		this.accountIds = accountIds;
+		this.tags = tags;
+	}
+
+	/**
+	 * Loads a user's ledger from the database
+	 *
+	 * @param owner the ledger owner
+	 * @param entityManager the EntityManager to be used for making queries;
+	 * should be opened/closed outside of this function before calling this
+	 * function
+	 * @return the ledger snapshot
+	 */
+	public static LedgerSnapshot build(VogonUser owner, EntityManager entityManager) {
+		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+
+		//Load components, ordered by transaction
+		CriteriaQuery<Tuple> componentsCriteriaQuery = criteriaBuilder.createTupleQuery();
+		Root<FinanceTransaction> tr = componentsCriteriaQuery.from(FinanceTransaction.class);
+		Join<FinanceTransaction, TransactionComponent> componentsJoin = tr.join(FinanceTransaction_.components);
+		componentsCriteriaQuery.multiselect(tr.get(FinanceTransaction_.id), tr.get(FinanceTransaction_.transactionDate),
+				tr.get(FinanceTransaction_.type), tr.get(FinanceTransaction_.amount),
+				componentsJoin.get(TransactionComponent_.account).get(FinanceAccount_.id), componentsJoin.get(TransactionComponent_.amount));
+		componentsCriteriaQuery.where(criteriaBuilder.equal(tr.get(FinanceTransaction_.owner), owner));
+		componentsCriteriaQuery.orderBy(criteriaBuilder.asc(tr.get(FinanceTransaction_.transactionDate)), criteriaBuilder.asc(tr.get(FinanceTransaction_.id)));
+		List<Tuple> componentRows = entityManager.createQuery(componentsCriteriaQuery).getResultList();
+
+		//Build the accounts dictionary
+		TreeSet<Long> accountIdsSet = new TreeSet<>();
+		for (Tuple row : componentRows)
+			if (row.get(4) != null)
+				accountIdsSet.add(row.get(4, Long.class));
+		long[] accountIds = new long[accountIdsSet.size()];
+		int accountIndex = 0;
+		for (Long accountId : accountIdsSet)
+			accountIds[accountIndex++] = accountId;
+
+		//Fill transactions and components
+		int rowCount = componentRows.size();
+		long[] transactionIds = new long[rowCount];
+		int[] transactionDays = new int[rowCount];
+		byte[] transactionTypes = new byte[rowCount];
+		long[] transactionAmounts = new long[rowCount];
+		int[] componentOffsets = new int[rowCount + 1];
+		int[] componentAccounts = new int[rowCount];
+		long[] componentAmounts = new long[rowCount];
+		Map<Long, Integer> transactionIndexes = new HashMap<>();
+		int transactionCount = 0, componentCount = 0;
+		for (Tuple row : componentRows) {
+			if (row.get(4) == null)
+				continue;
+			Long transactionId = row.get(0, Long.class);
+			if (transactionCount == 0 || transactionIds[transactionCount - 1] != transactionId) {
+				transactionIds[transactionCount] = transactionId;
+				transactionDays[transactionCount] = toEpochDay(row.get(1, Date.class));
+				transactionTypes[transactionCount] = (byte) row.get(2, FinanceTransaction.Type.class).ordinal();
+				transactionAmounts[transactionCount] = row.get(3, Long.class);
+				componentOffsets[transactionCount] = componentCount;
+				transactionIndexes.put(transactionId, transactionCount);
+				transactionCount++;
+			}
+			componentAccounts[componentCount] = Arrays.binarySearch(accountIds, row.get(4, Long.class));
+			Long componentAmount = row.get(5, Long.class);
+			componentAmounts[componentCount] = componentAmount != null ? componentAmount : 0;
+			componentCount++;
+		}
+		componentOffsets[transactionCount] = componentCount;
+
+		//Load tags
+		CriteriaQuery<Tuple> tagsCriteriaQuery = criteriaBuilder.createTupleQuery();
+		Root<FinanceTransaction> trTags = tagsCriteriaQuery.from(FinanceTransaction.class);
+		Join<FinanceTransaction, String> tagsJoin = trTags.join(FinanceTransaction_.tags);
+		tagsCriteriaQuery.multiselect(trTags.get(FinanceTransaction_.id), tagsJoin);
+		tagsCriteriaQuery.where(criteriaBuilder.equal(trTags.get(FinanceTransaction_.owner), owner));
+		List<Tuple> tagRows = entityManager.createQuery(tagsCriteriaQuery).getResultList();
+
+		//Build the tags dictionary and count tags for each transaction
+		TreeSet<String> tagsSet = new TreeSet<>();
+		int[] tagOffsets = new int[transactionCount + 1];
+		for (Tuple row : tagRows) {
+			Integer transactionIndex = transactionIndexes.get(row.get(0, Long.class));
+			if (transactionIndex == null || row.get(1) == null)
+				continue;
+			tagsSet.add(row.get(1, String.class));
+			tagOffsets[transactionIndex + 1]++;
+		}
+		String[] tags = tagsSet.toArray(new String[tagsSet.size()]);
+		for (int i = 0; i < transactionCount; i++)
+			tagOffsets[i + 1] += tagOffsets[i];
+		int[] transactionTags = new int[tagOffsets[transactionCount]];
+		int[] tagPositions = Arrays.copyOf(tagOffsets, transactionCount);
+		for (Tuple row : tagRows) {
+			Integer transactionIndex = transactionIndexes.get(row.get(0, Long.class));
+			if (transactionIndex == null || row.get(1) == null)
+				continue;
+			transactionTags[tagPositions[transactionIndex]++] = Arrays.binarySearch(tags, row.get(1, String.class));
+		}
+
+		return new LedgerSnapshot(owner.getId(),
+				Arrays.copyOf(transactionIds, transactionCount), Arrays.copyOf(transactionDays, transactionCount),
+				Arrays.copyOf(transactionTypes, transactionCount), Arrays.copyOf(transactionAmounts, transactionCount),
+				Arrays.copyOf(componentOffsets, transactionCount + 1), Arrays.copyOf(componentAccounts, componentCount),
+				Arrays.copyOf(componentAmounts, componentCount), tagOffsets, transactionTags, accountIds, tags);
+	}
+
+	/**
+	 * Converts a date into days since the epoch, in the default time zone
+	 *
+	 * @param date the date
+	 * @return the number of days since the epoch
+	 */
+	static int toEpochDay(Date date) {
+		long localTime = date.getTime() + TimeZone.getDefault().getOffset(date.getTime());
+		long day = localTime / MILLIS_PER_DAY;
+		if (localTime % MILLIS_PER_DAY < 0)
+			day--;
+		return (int) day;
+	}
+
+	/**
+	 * Converts days since the epoch into a date at midnight, in the default
+	 * time zone
+	 *
+	 * @param epochDay the number of days since the epoch
+	 * @return the date
+	 */
+	static Date fromEpochDay(int epochDay) {
+		Calendar calendar = new GregorianCalendar();
+		calendar.clear();
+		calendar.set(1970, Calendar.JANUARY, 1);
+		calendar.add(Calendar.DAY_OF_MONTH, epochDay);
+		return calendar.getTime();
+	}
+
+	/**
+	 * Returns the first day with transactions on or after a date
+	 *
+	 * @param date the date
+	 * @return the first day whose midnight is not before the date
+	 */
+	static int getFirstDay(Date date) {
+		int day = toEpochDay(date);
+		if (fromEpochDay(day).before(date))
+			day++;
+		return day;
+	}
+
+	/**
+	 * Returns the index of the first transaction on or after a specific day
+	 *
+	 * @param day the day, in days since the epoch
+	 * @return the index of the first transaction on or after the day, or the
+	 * number of transactions if there are no such transactions
+	 */
+	int findFirstTransaction(int day) {
+		int low = 0, high = transactionDays.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (transactionDays[middle] < day)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns flags for accounts which are selected
+	 *
+	 * @param accounts the selected accounts
+	 * @return an array with true for every selected account index in the
+	 * accounts dictionary
+	 */
+	boolean[] selectAccounts(Collection<FinanceAccount> accounts) {
+		boolean[] selected = new boolean[accountIds.length];
+		if (accounts != null)
+			for (FinanceAccount account : accounts) {
+				int index = getAccountIndex(account);
+				if (index >= 0)
+					selected[index] = true;
+			}
+		return selected;
+	}
+
+	/**
+	 * Returns the index of an account in the accounts dictionary
+	 *
+	 * @param account the account
+	 * @return the account index, or a negative value if the account has no
+	 * transactions
+	 */
+	int getAccountIndex(FinanceAccount account) {
+		if (account == null || account.getId() == null)
+			return -1;
+		return Arrays.binarySearch(accountIds, account.getId());
+	}
+
+	/**
+	 * Returns flags for tags which are selected
+	 *
+	 * @param selectedTags the selected tags
+	 * @return an array with true for every selected tag index in the tags
+	 * dictionary
+	 */
+	boolean[] selectTags(Collection<String> selectedTags) {
+		boolean[] selected = new boolean[tags.length];
+		if (selectedTags != null)
+			for (String tag : selectedTags) {
+				int index = tag != null ? Arrays.binarySearch(tags, tag) : -1;
+				if (index >= 0)
+					selected[index] = true;
+			}
+		return selected;
+	}
+
+	/*
+	 * Getters/setters
+	 */
+	/**
+	 * Returns the ledger owner ID
+	 *
+	 * @return the ledger owner ID
+	 */
+	public long getOwnerId() {
+		return ownerId;
+	}
+
+	/**
+	 * Returns the number of transactions
+	 *
+	 * @return the number of transactions
+	 */
+	public int getTransactionCount() {
+		return transactionIds.length;
+	}
+
+	/**
+	 * Returns the number of components
+	 *
+	 * @return the number of components
+	 */
+	public int getComponentCount() {
+		return componentAmounts.length;
+	}
+}
@@ -20,6 +20,11 @@ public class Report {
 	 * List of transactions matching the filter
 	 */
 	private List<FinanceTransaction> transactions;
+	/**
+	 * Total number of transactions matching the filter (transactions only
+	 * contains the requested page)
+	 */
+	private long transactionsCount;
 	/**
 	 * Expenses grouped by tag
 	 */
@@ -27,7 +32,11 @@ public class Report {
 	/**
 	 * Accounts balance chart
 	 */
-	private Map<String, DateBalance<Double>> accountsBalanceGraph;
+	private Map<String, DateBalance> accountsBalanceGraph;
+	/**
+	 * Accounts balance chart resolution
+	 */
+	private BalanceGraphResolution balanceGraphResolution;
 
 	/**
 	 * Default constructor
@@ -57,6 +66,25 @@ public class Report {
 		this.transactions = transactions;
 	}
 
+	/**
+	 * Returns the total number of transactions matching the report filter
+	 *
+	 * @return the total number of transactions matching the report filter
+	 */
+	public long getTransactionsCount() {
+		return transactionsCount;
+	}
+
+	/**
+	 * Sets the total number of transactions matching the report filter
+	 *
+	 * @param transactionsCount the total number of transactions matching the
+	 * report filter
+	 */
+	protected void setTransactionsCount(long transactionsCount) {
+		this.transactionsCount = transactionsCount;
+	}
+
 	/**
 	 * Returns expenses grouped by tag
 	 *
@@ -80,7 +108,7 @@ public class Report {
 	 *
 	 * @return the accounts balance chart
 	 */
-	public Map<String, DateBalance<Double>> getAccountsBalanceGraph() {
+	public Map<String, DateBalance> getAccountsBalanceGraph() {
 		return accountsBalanceGraph;
 	}
 
@@ -89,7 +117,25 @@ public class Report {
 	 *
 	 * @param accountsBalanceGraph the accounts balance chart to set
 	 */
-	protected void setAccountsBalanceGraph(Map<String, DateBalance<Double>> accountsBalanceGraph) {
+	protected void setAccountsBalanceGraph(Map<String, DateBalance> accountsBalanceGraph) {
 		this.accountsBalanceGraph = accountsBalanceGraph;
 	}
+
+	/**
+	 * Returns the accounts balance chart resolution
+	 *
+	 * @return the accounts balance chart resolution
+	 */
+	public BalanceGraphResolution getBalanceGraphResolution() {
+		return balanceGraphResolution;
+	}
+
+	/**
+	 * Sets the accounts balance chart resolution
+	 *
+	 * @param balanceGraphResolution the accounts balance chart resolution
+	 */
+	protected void setBalanceGraphResolution(BalanceGraphResolution balanceGraphResolution) {
+		this.balanceGraphResolution = balanceGraphResolution;
+	}
 }
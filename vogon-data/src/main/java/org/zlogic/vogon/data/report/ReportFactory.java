@@ -6,10 +6,12 @@
 package org.zlogic.vogon.data.report;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Currency;
 import java.util.Date;
-import java.util.EnumSet;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,27 +22,15 @@ import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeMap;
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
-import javax.persistence.Tuple;
+import javax.persistence.TemporalType;
 import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Expression;
-import javax.persistence.criteria.Join;
-import javax.persistence.criteria.JoinType;
-import javax.persistence.criteria.Order;
-import javax.persistence.criteria.Path;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
-import javax.persistence.metamodel.SingularAttribute;
 import org.zlogic.vogon.data.Constants;
 import org.zlogic.vogon.data.FinanceAccount;
-import org.zlogic.vogon.data.FinanceAccount_;
 import org.zlogic.vogon.data.FinanceTransaction;
-import org.zlogic.vogon.data.FinanceTransaction_;
-import org.zlogic.vogon.data.TransactionComponent;
-import org.zlogic.vogon.data.TransactionComponent_;
+import org.zlogic.vogon.data.TagExpenseRollup;
 import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.metrics.Metrics;
+import org.zlogic.vogon.data.tools.DatabaseMaintenance;
 
 /**
  * Central class for setting report parameters and generating various reports.
@@ -54,6 +44,23 @@ public class ReportFactory {
 	 * Localization messages
 	 */
 	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/data/messages");
+	/**
+	 * Maximum number of transactions loaded in a single query
+	 */
+	private static final int LOAD_BATCH_SIZE = 500;
+	/**
+	 * Default maximum number of points in the accounts balance graph (for
+	 * automatic resolution)
+	 */
+	public static final int DEFAULT_BALANCE_GRAPH_POINTS = 250;
+	/**
+	 * Default number of transactions in a report page
+	 */
+	public static final int DEFAULT_TRANSACTIONS_PAGE_SIZE = 100;
+	/**
+	 * Maximum number of transactions in a report page
+	 */
+	public static final int MAX_TRANSACTIONS_PAGE_SIZE = 1000;
 	/**
 	 * The report owner user
 	 */
@@ -86,34 +93,24 @@ public class ReportFactory {
 	 * Show transfer transactions
 	 */
 	protected boolean enabledTransferTransactions;
-
 	/**
-	 * Filter enablement
-	 */
-	protected enum FilterType {
-
-		/**
-		 * Filter transaction date (earliestDate+latestDate)
-		 */
-		DATE,
-		/**
-		 * Filter by transaction tags (selectedTags)
-		 */
-		TAGS,
-		/**
-		 * Filter by transaction accounts (selectedAccounts)
-		 */
-		ACCOUNTS,
-		/**
-		 * Filter by transaction type (Expense-Income or Transfer)
-		 */
-		TRANSACTION_TYPE,
-		/**
-		 * Filter by expense transaction type (enabledIncomeTransactions and
-		 * enabledExpenseTransactions)
-		 */
-		EXPENSE_TYPE
-	};
+	 * The accounts balance graph resolution
+	 */
+	protected BalanceGraphResolution balanceGraphResolution = BalanceGraphResolution.AUTO;
+	/**
+	 * Maximum number of points in the accounts balance graph (for automatic
+	 * resolution)
+	 */
+	protected int balanceGraphPoints = DEFAULT_BALANCE_GRAPH_POINTS;
+	/**
+	 * The page of transactions (largest by absolute amount) to include in the
+	 * report
+	 */
+	protected int transactionsPage = 0;
+	/**
+	 * Number of transactions in a report page
+	 */
+	protected int transactionsPageSize = DEFAULT_TRANSACTIONS_PAGE_SIZE;
 
 	/**
 	 * Constructs ReportFactory with no user
@@ -293,6 +290,87 @@ public class ReportFactory {
 		this.enabledTransferTransactions = enabledTransferTransactions;
 	}
 
+	/**
+	 * Returns the accounts balance graph resolution
+	 *
+	 * @return the accounts balance graph resolution
+	 */
+	public BalanceGraphResolution getBalanceGraphResolution() {
+		return balanceGraphResolution;
+	}
+
+	/**
+	 * Sets the accounts balance graph resolution
+	 *
+	 * @param balanceGraphResolution the accounts balance graph resolution
+	 * (null means AUTO)
+	 */
+	public void setBalanceGraphResolution(BalanceGraphResolution balanceGraphResolution) {
+		this.balanceGraphResolution = balanceGraphResolution != null ? balanceGraphResolution : BalanceGraphResolution.AUTO;
+	}
+
+	/**
+	 * Returns the maximum number of points in the accounts balance graph (for
+	 * automatic resolution)
+	 *
+	 * @return the maximum number of points in the accounts balance graph
+	 */
+	public int getBalanceGraphPoints() {
+		return balanceGraphPoints;
+	}
+
+	/**
+	 * Sets the maximum number of points in the accounts balance graph (for
+	 * automatic resolution)
+	 *
+	 * @param balanceGraphPoints the maximum number of points in the accounts
+	 * balance graph; values less than 1 mean the default value
+	 */
+	public void setBalanceGraphPoints(int balanceGraphPoints) {
+		this.balanceGraphPoints = balanceGraphPoints > 0 ? balanceGraphPoints : DEFAULT_BALANCE_GRAPH_POINTS;
+	}
+
+	/**
+	 * Returns the page of transactions (largest by absolute amount) to include
+	 * in the report
+	 *
+	 * @return the page of transactions to include in the report
+	 */
+	public int getTransactionsPage() {
+		return transactionsPage;
+	}
+
+	/**
+	 * Sets the page of transactions (largest by absolute amount) to include in
+	 * the report
+	 *
+	 * @param transactionsPage the page of transactions to include in the
+	 * report, starting from 0
+	 */
+	public void setTransactionsPage(int transactionsPage) {
+		this.transactionsPage = Math.max(transactionsPage, 0);
+	}
+
+	/**
+	 * Returns the number of transactions in a report page
+	 *
+	 * @return the number of transactions in a report page
+	 */
+	public int getTransactionsPageSize() {
+		return transactionsPageSize;
+	}
+
+	/**
+	 * Sets the number of transactions in a report page
+	 *
+	 * @param transactionsPageSize the number of transactions in a report page;
+	 * values less than 1 mean the default value, values larger than
+	 * MAX_TRANSACTIONS_PAGE_SIZE are limited to MAX_TRANSACTIONS_PAGE_SIZE
+	 */
+	public void setTransactionsPageSize(int transactionsPageSize) {
+		this.transactionsPageSize = transactionsPageSize > 0 ? Math.min(transactionsPageSize, MAX_TRANSACTIONS_PAGE_SIZE) : DEFAULT_TRANSACTIONS_PAGE_SIZE;
+	}
+
 	/**
 	 * Prepares the report
 	 *
@@ -302,213 +380,211 @@ public class ReportFactory {
 	 * @return the report
 	 */
 	public Report buildReport(EntityManager entityManager) throws SecurityException {
+		Report report = buildTransactionsReport(entityManager);
+		long start = Metrics.start();
+		report.setTagExpenses(getTagExpenses(entityManager));
+		start = Metrics.stop("report.tagExpenses", start); //NOI18N
+		setAccountsBalanceGraph(report, getAccountsBalanceGraph(entityManager));
+		Metrics.stop("report.balanceGraph", start); //NOI18N
+		return report;
+	}
+
+	/**
+	 * Prepares a report containing only the current page of transactions
+	 *
+	 * @param entityManager the EntityManager to be used for making queries;
+	 * should be opened/closed outside of this function before calling this
+	 * function
+	 * @return the report
+	 */
+	public Report buildTransactionsReport(EntityManager entityManager) throws SecurityException {
 		if (owner == null)
 			throw new SecurityException(messages.getString("NOT_ALLOWED_TO_GET_DATA_FOR_UNKNOWN_USER"));
 		Report report = new Report();
+		long start = Metrics.start();
 		report.setTransactions(getTransactions(entityManager));
-		report.setTagExpenses(getTagExpenses(entityManager));
-		report.setAccountsBalanceGraph(getAccountsBalanceGraph(entityManager));
+		start = Metrics.stop("report.transactions", start); //NOI18N
+		report.setTransactionsCount(countTransactions(entityManager));
+		Metrics.stop("report.transactionsCount", start); //NOI18N
 		return report;
 	}
 
 	/**
-	 * Returns all transactions matching the set filters, ordered by amount
-	 * descending
+	 * Prepares the report from a ledger snapshot. Only the transactions
+	 * included in the report are loaded from the database.
 	 *
-	 * @param entityManager the EntityManager to be used for making queries
-	 * @return list of all transactions matching the set filters, ordered by
-	 * amount descending
+	 * @param entityManager the EntityManager to be used for loading
+	 * transactions; should be opened/closed outside of this function before
+	 * calling this function
+	 * @param snapshot the owner's ledger snapshot
+	 * @return the report
 	 */
-	protected List<FinanceTransaction> getTransactions(EntityManager entityManager) {
-		return getTransactions(entityManager, FinanceTransaction_.amount, false, true, EnumSet.allOf(FilterType.class), -1, -1);
-	}
-
-	/**
-	 * Class for storing a generated predicate and joins (should be used in
-	 * groupBy to avoid duplicate results)
-	 */
-	protected class ConstructedPredicate {
-
-		/**
-		 * The generated predicate
-		 */
-		private Predicate predicate;
-		/**
-		 * The components join
-		 */
-		private Join<FinanceTransaction, TransactionComponent> componentsJoin;
-		/**
-		 * The tags join
-		 */
-		private Join<FinanceTransaction, String> tagsJoin;
-
-		/**
-		 * Default constructor
-		 *
-		 * @param predicate the generated predicate
-		 * @param componentsJoin the transaction components join
-		 * @param tagsJoin the transaction tags join
-		 */
-		public ConstructedPredicate(Predicate predicate, Join<FinanceTransaction, TransactionComponent> componentsJoin, Join<FinanceTransaction, String> tagsJoin) {
-			this.predicate = predicate;
-			this.componentsJoin = componentsJoin;
-			this.tagsJoin = tagsJoin;
-		}
-
-		/**
-		 * Returns the generated predicate
-		 *
-		 * @return the predicate
-		 */
-		public Predicate getPredicate() {
-			return predicate;
-		}
+	public Report buildReport(EntityManager entityManager, LedgerSnapshot snapshot) throws SecurityException {
+		Report report = buildTransactionsReport(entityManager, snapshot);
+		long start = Metrics.start();
+		report.setTagExpenses(getTagExpenses(snapshot));
+		start = Metrics.stop("report.snapshot.tagExpenses", start); //NOI18N
+		setAccountsBalanceGraph(report, getAccountsBalanceGraph(snapshot));
+		Metrics.stop("report.snapshot.balanceGraph", start); //NOI18N
+		return report;
+	}
 
-		/**
-		 * Returns the transaction components join
-		 *
-		 * @return the transaction components join
-		 */
-		public Join<FinanceTransaction, TransactionComponent> getComponentsJoin() {
-			return componentsJoin;
-		}
+	/**
+	 * Prepares a report containing only the current page of transactions from
+	 * a ledger snapshot
+	 *
+	 * @param entityManager the EntityManager to be used for loading
+	 * transactions; should be opened/closed outside of this function before
+	 * calling this function
+	 * @param snapshot the owner's ledger snapshot
+	 * @return the report
+	 */
+	public Report buildTransactionsReport(EntityManager entityManager, LedgerSnapshot snapshot) throws SecurityException {
+		if (owner == null)
+			throw new SecurityException(messages.getString("NOT_ALLOWED_TO_GET_DATA_FOR_UNKNOWN_USER"));
+		if (snapshot.getOwnerId() != owner.getId())
+			throw new SecurityException(MessageFormat.format(messages.getString("NOT_ALLOWED_TO_GET_DATA_FOR_ANOTHER_USER"), new Object[]{owner.getUsername()}));
+		Report report = new Report();
+		long start = Metrics.start();
+		Integer[] matches = getTransactionMatches(snapshot);
+		start = Metrics.stop("report.snapshot.transactionsMatch", start); //NOI18N
+		report.setTransactions(getTransactions(entityManager, snapshot, matches));
+		Metrics.stop("report.snapshot.transactions", start); //NOI18N
+		report.setTransactionsCount(matches.length);
+		return report;
+	}
 
-		/**
-		 * Returns the transaction tags join
-		 *
-		 * @return the transaction tags join
-		 */
-		public Join<FinanceTransaction, String> getTagsJoin() {
-			return tagsJoin;
+	/**
+	 * Downsamples a daily accounts balance graph to the requested resolution
+	 * and adds it to the report
+	 *
+	 * @param report the report
+	 * @param balanceGraph the daily accounts balance graph
+	 */
+	protected void setAccountsBalanceGraph(Report report, Map<String, DateBalance> balanceGraph) {
+		BalanceGraphResolution resolution = balanceGraphResolution;
+		if (resolution == BalanceGraphResolution.AUTO) {
+			resolution = BalanceGraphResolution.MONTHLY;
+			for (BalanceGraphResolution candidate : new BalanceGraphResolution[]{BalanceGraphResolution.DAILY, BalanceGraphResolution.WEEKLY}) {
+				int points = 0;
+				for (DateBalance dateBalance : balanceGraph.values())
+					points = Math.max(points, dateBalance.countPeriods(candidate));
+				if (points <= balanceGraphPoints) {
+					resolution = candidate;
+					break;
+				}
+			}
 		}
+		if (resolution != BalanceGraphResolution.DAILY)
+			for (Map.Entry<String, DateBalance> dateBalance : balanceGraph.entrySet())
+				dateBalance.setValue(dateBalance.getValue().downsample(resolution));
+		report.setAccountsBalanceGraph(balanceGraph);
+		report.setBalanceGraphResolution(resolution);
 	}
 
 	/**
-	 * Returns a predicate for filtering transactions
+	 * Returns the transaction types matching the transaction type filter
 	 *
-	 * @param criteriaBuilder the CriteriaBuilder
-	 * @param tr the FinanceTransaction Root
-	 * @param appliedFilters the filters which should be applied
-	 * @return the predicate for filtering transactions and joins which should
-	 * be used in groupBy if result of selection is not a unique FinanceAccount
+	 * @return the transaction types matching the transaction type filter
 	 */
-	protected ConstructedPredicate getFilteredTransactionsPredicate(CriteriaBuilder criteriaBuilder, Root<FinanceTransaction> tr, EnumSet<FilterType> appliedFilters) {
-		//User filter
-		Predicate userPredicate = criteriaBuilder.equal(tr.get(FinanceTransaction_.owner), owner.getId());
-
-		//Date filter
-		Predicate datePredicate = criteriaBuilder.and(criteriaBuilder.greaterThanOrEqualTo(tr.get(FinanceTransaction_.transactionDate), earliestDate),
-				criteriaBuilder.lessThanOrEqualTo(tr.get(FinanceTransaction_.transactionDate), latestDate));
-
-		//Transaction type filter
-		Predicate transactionTypePredicate = criteriaBuilder.disjunction();
+	protected List<FinanceTransaction.Type> getEnabledTransactionTypes() {
+		List<FinanceTransaction.Type> types = new ArrayList<>();
 		if (enabledExpenseTransactions || enabledIncomeTransactions)
-			transactionTypePredicate = criteriaBuilder.or(transactionTypePredicate, criteriaBuilder.equal(tr.get(FinanceTransaction_.type), FinanceTransaction.Type.EXPENSEINCOME));
+			types.add(FinanceTransaction.Type.EXPENSEINCOME);
 		if (enabledTransferTransactions)
-			transactionTypePredicate = criteriaBuilder.or(transactionTypePredicate, criteriaBuilder.equal(tr.get(FinanceTransaction_.type), FinanceTransaction.Type.TRANSFER));
-
-		//Expense/income filter
-		Predicate expenseTypePredicate = criteriaBuilder.disjunction();
-		if (enabledExpenseTransactions)
-			expenseTypePredicate = criteriaBuilder.or(expenseTypePredicate, criteriaBuilder.lessThanOrEqualTo(tr.get(FinanceTransaction_.amount), new Long(0)));
-		if (enabledIncomeTransactions)
-			expenseTypePredicate = criteriaBuilder.or(expenseTypePredicate, criteriaBuilder.greaterThanOrEqualTo(tr.get(FinanceTransaction_.amount), new Long(0)));
-
-		//Tags jon
-		Join<FinanceTransaction, String> tagsJoin = tr.join(FinanceTransaction_.tags);
-		Predicate tagsPredicate = (selectedTags != null && !selectedTags.isEmpty()) ? tagsJoin.in(criteriaBuilder.literal(selectedTags)) : criteriaBuilder.disjunction();
-
-		//Transaction components join
-		Join<FinanceTransaction, TransactionComponent> componentsJoin = tr.join(FinanceTransaction_.components);
-		Predicate accountsPredicate = (selectedAccounts != null && !selectedAccounts.isEmpty()) ? componentsJoin.get(TransactionComponent_.account).in(criteriaBuilder.literal(selectedAccounts)) : criteriaBuilder.disjunction();
-
-		//Combine all filters
-		Predicate rootPredicate = criteriaBuilder.conjunction();
-		rootPredicate = criteriaBuilder.and(userPredicate);
-		if (appliedFilters.contains(FilterType.DATE))
-			rootPredicate = criteriaBuilder.and(rootPredicate, datePredicate);
-		if (appliedFilters.contains(FilterType.ACCOUNTS))
-			rootPredicate = criteriaBuilder.and(rootPredicate, accountsPredicate);
-		if (appliedFilters.contains(FilterType.TAGS))
-			rootPredicate = criteriaBuilder.and(rootPredicate, tagsPredicate);
-		if (appliedFilters.contains(FilterType.TRANSACTION_TYPE))
-			rootPredicate = criteriaBuilder.and(rootPredicate, transactionTypePredicate);
-		if (appliedFilters.contains(FilterType.EXPENSE_TYPE))
-			rootPredicate = criteriaBuilder.and(rootPredicate, expenseTypePredicate);
-		return new ConstructedPredicate(rootPredicate, componentsJoin, tagsJoin);
-	}
-
-	/**
-	 * Returns all transactions matching the set filters
-	 *
-	 * @param <OrderByClass> type of ordering field
-	 * @param entityManager the EntityManager to be used for making queries
-	 * @param orderBy field for ordering the result
-	 * @param orderAsc true if results should be ordered ascending, false if
-	 * descending
-	 * @param orderAbsolute true if order should be for absolute value (e.g.
-	 * ABS(orderBy))
-	 * @param appliedFilters the filters which should be applied
-	 * @param firstTransaction the first transaction number to be selected
-	 * @param lastTransaction the last transaction number to be selected
-	 * @return list of all transactions matching the set filters
-	 */
-	protected <OrderByClass> List<FinanceTransaction> getTransactions(EntityManager entityManager, SingularAttribute<FinanceTransaction, OrderByClass> orderBy, boolean orderAsc, boolean orderAbsolute, EnumSet<FilterType> appliedFilters, int firstTransaction, int lastTransaction) {
-		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-		CriteriaQuery<Tuple> transactionsCriteriaQuery = criteriaBuilder.createTupleQuery();
-		Root<FinanceTransaction> tr = transactionsCriteriaQuery.from(FinanceTransaction.class);
-
-		//Build general filter
-		ConstructedPredicate predicate = getFilteredTransactionsPredicate(criteriaBuilder, tr, appliedFilters);
-		transactionsCriteriaQuery.where(predicate.getPredicate());
-
-		//Configure the query
-		Expression<?> userOrderBy = tr.get(orderBy);
-
-		if (orderAbsolute) {
-			if (orderBy.getType().getJavaType().isInstance(Number.class))
-				userOrderBy = criteriaBuilder.abs(userOrderBy.as(Number.class));
-			else if (orderBy.getType().getJavaType() == Short.TYPE)
-				userOrderBy = criteriaBuilder.abs(userOrderBy.as(Short.TYPE));
-			else if (orderBy.getType().getJavaType() == Integer.TYPE)
-				userOrderBy = criteriaBuilder.abs(userOrderBy.as(Integer.TYPE));
-			else if (orderBy.getType().getJavaType() == Long.TYPE)
-				userOrderBy = criteriaBuilder.abs(userOrderBy.as(Long.TYPE));
-			else if (orderBy.getType().getJavaType() == Float.TYPE)
-				userOrderBy = criteriaBuilder.abs(userOrderBy.as(Float.TYPE));
-			else if (orderBy.getType().getJavaType() == Double.TYPE)
-				userOrderBy = criteriaBuilder.abs(userOrderBy.as(Double.TYPE));
-		}
-		Order userOrder = orderAsc ? criteriaBuilder.asc(userOrderBy) : criteriaBuilder.desc(userOrderBy);
-		Order idOrder = orderAsc ? criteriaBuilder.asc(tr.get(FinanceTransaction_.id)) : criteriaBuilder.desc(tr.get(FinanceTransaction_.id));
+			types.add(FinanceTransaction.Type.TRANSFER);
+		return types;
+	}
 
-		transactionsCriteriaQuery.multiselect(tr, userOrderBy).distinct(true);
-		transactionsCriteriaQuery.orderBy(userOrder, idOrder);
-		transactionsCriteriaQuery.groupBy(tr, userOrderBy, predicate.getComponentsJoin(), predicate.getTagsJoin());
+	/**
+	 * Returns true if the filters can match any transactions (at least one
+	 * tag, account, transaction type and expense type is selected)
+	 *
+	 * @return true if the filters can match any transactions
+	 */
+	protected boolean isFilterSatisfiable() {
+		return selectedTags != null && !selectedTags.isEmpty()
+				&& selectedAccounts != null && !selectedAccounts.isEmpty()
+				&& !getEnabledTransactionTypes().isEmpty()
+				&& (enabledExpenseTransactions || enabledIncomeTransactions);
+	}
 
-		//Fetch data
-		//TODO: Remove this from web version
-		TypedQuery<Tuple> query = entityManager.createQuery(transactionsCriteriaQuery);
-		if (firstTransaction >= 0)
-			query = query.setFirstResult(firstTransaction);
-		if (lastTransaction >= 0 && firstTransaction >= 0)
-			query = query.setMaxResults(lastTransaction - firstTransaction + 1);
+	/**
+	 * Sets the filter parameters of a report named query; should only be used
+	 * if isFilterSatisfiable() returns true
+	 *
+	 * @param <T> the query result type
+	 * @param query the named query
+	 * @param startDate the earliestDate parameter value
+	 * @param endDate the latestDate parameter value
+	 * @return the query
+	 */
+	private <T> TypedQuery<T> setFilterParameters(TypedQuery<T> query, Date startDate, Date endDate) {
+		return query.setParameter("owner", owner) //NOI18N
+				.setParameter("earliestDate", startDate, TemporalType.DATE) //NOI18N
+				.setParameter("latestDate", endDate, TemporalType.DATE) //NOI18N
+				.setParameter("types", getEnabledTransactionTypes()) //NOI18N
+				.setParameter("minAmount", enabledExpenseTransactions ? Long.MIN_VALUE : 0L) //NOI18N
+				.setParameter("maxAmount", enabledIncomeTransactions ? Long.MAX_VALUE : 0L) //NOI18N
+				.setParameter("tags", selectedTags) //NOI18N
+				.setParameter("accounts", selectedAccounts); //NOI18N
+	}
 
-		List<FinanceTransaction> transactions = new LinkedList<>();
-		for (Tuple tuple : query.getResultList())
-			transactions.add(tuple.get(tr));
+	/**
+	 * Returns the current page of transactions matching the set filters,
+	 * ordered by absolute amount descending
+	 *
+	 * @param entityManager the EntityManager to be used for making queries
+	 * @return the current page of transactions matching the set filters,
+	 * ordered by absolute amount descending
+	 */
+	protected List<FinanceTransaction> getTransactions(EntityManager entityManager) {
+		if (!isFilterSatisfiable())
+			return new LinkedList<>();
+		int firstTransaction = (int) Math.min((long) transactionsPage * transactionsPageSize, Integer.MAX_VALUE - transactionsPageSize);
+		List<FinanceTransaction> transactions = new LinkedList<>(setFilterParameters(entityManager.createNamedQuery(FinanceTransaction.QUERY_REPORT_TRANSACTIONS, FinanceTransaction.class), earliestDate, latestDate)
+				.setFirstResult(firstTransaction)
+				.setMaxResults(transactionsPageSize)
+				.getResultList());
 
 		//Post-fetch components
-		if (!transactions.isEmpty()) {
-			CriteriaQuery<FinanceTransaction> transactionsComponentsFetchCriteriaQuery = criteriaBuilder.createQuery(FinanceTransaction.class);
-			Root<FinanceTransaction> trComponentsFetch = transactionsComponentsFetchCriteriaQuery.from(FinanceTransaction.class);
-			transactionsComponentsFetchCriteriaQuery.where(tr.in(transactions));
-			trComponentsFetch.fetch(FinanceTransaction_.components, JoinType.LEFT).fetch(TransactionComponent_.account, JoinType.LEFT);
-			entityManager.createQuery(transactionsComponentsFetchCriteriaQuery).getResultList();
-		}
+		List<Long> ids = new ArrayList<>(transactions.size());
+		for (FinanceTransaction transaction : transactions)
+			ids.add(transaction.getId());
+		loadTransactions(entityManager, ids);
 		return transactions;
 	}
 
+	/**
+	 * Loads transactions with their components and accounts
+	 *
+	 * @param entityManager the EntityManager to be used for making queries
+	 * @param ids the transaction ids
+	 * @return the loaded transactions, indexed by id
+	 */
+	protected Map<Long, FinanceTransaction> loadTransactions(EntityManager entityManager, List<Long> ids) {
+		Map<Long, FinanceTransaction> loadedTransactions = new HashMap<>();
+		for (int batchStart = 0; batchStart < ids.size(); batchStart += LOAD_BATCH_SIZE) {
+			List<Long> batchIds = ids.subList(batchStart, Math.min(batchStart + LOAD_BATCH_SIZE, ids.size()));
+			TypedQuery<FinanceTransaction> query = entityManager.createNamedQuery(FinanceTransaction.QUERY_FETCH_COMPONENTS, FinanceTransaction.class);
+			for (FinanceTransaction transaction : query.setParameter("ids", batchIds).getResultList()) //NOI18N
+				loadedTransactions.put(transaction.getId(), transaction);
+		}
+		return loadedTransactions;
+	}
+
+	/**
+	 * Returns the number of transactions matching the set filters
+	 *
+	 * @param entityManager the EntityManager to be used for making queries
+	 * @return the number of transactions matching the set filters
+	 */
+	protected long countTransactions(EntityManager entityManager) {
+		if (!isFilterSatisfiable())
+			return 0;
+		return setFilterParameters(entityManager.createNamedQuery(FinanceTransaction.QUERY_COUNT_REPORT_TRANSACTIONS, Long.class), earliestDate, latestDate).getSingleResult();
+	}
+
 	/**
 	 * Returns a list of all tags
 	 *
@@ -518,103 +594,99 @@ public class ReportFactory {
 	public Set<String> getAllTags(EntityManager entityManager) throws SecurityException {
 		if (owner == null)
 			throw new SecurityException(messages.getString("NOT_ALLOWED_TO_GET_DATA_FOR_UNKNOWN_USER"));
-		CriteriaQuery<String> tagsCriteriaQuery = entityManager.getCriteriaBuilder().createQuery(String.class);
-		Root<FinanceTransaction> tr = tagsCriteriaQuery.from(FinanceTransaction.class);
-
-		Predicate userPredicate = entityManager.getCriteriaBuilder().equal(tr.get(FinanceTransaction_.owner), owner);
-		tagsCriteriaQuery.where(userPredicate);
-
-		tagsCriteriaQuery.select(tr.join(FinanceTransaction_.tags)).distinct(true);
-		return new HashSet<>(entityManager.createQuery(tagsCriteriaQuery).getResultList());
+		return new HashSet<>(entityManager.createNamedQuery(FinanceTransaction.QUERY_TAGS, String.class)
+				.setParameter("owner", owner) //NOI18N
+				.getResultList());
 	}
 
 	/**
-	 * Returns a raw account balance by a specific date
+	 * Returns raw account balances by a specific date
 	 *
 	 * @param entityManager the EntityManager to be used for making queries
-	 * @param account the account
+	 * @param accounts the accounts
 	 * @param byDate the date
-	 * @return the raw balance
-	 */
-	protected long getRawAccountBalanceByDate(EntityManager entityManager, FinanceAccount account, Date byDate) throws SecurityException {
-		if (!account.getOwner().equals(owner))
-			throw new SecurityException(MessageFormat.format(messages.getString("NOT_ALLOWED_TO_GET_DATA_FOR_ANOTHER_USER"), new Object[]{account.getOwner().getUsername()}));
-		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-		CriteriaQuery<Long> transactionsCriteriaQuery = entityManager.getCriteriaBuilder().createQuery(Long.class);
-		Root<FinanceTransaction> tr = transactionsCriteriaQuery.from(FinanceTransaction.class);
-
-		Join<FinanceTransaction, TransactionComponent> componentsJoin = tr.join(FinanceTransaction_.components);
-		Path<FinanceAccount> joinedAccount = componentsJoin.get(TransactionComponent_.account);
-
-		Predicate accountsPredicate = criteriaBuilder.equal(componentsJoin.get(TransactionComponent_.account), account);
-		Predicate datePredicate = criteriaBuilder.lessThan(tr.get(FinanceTransaction_.transactionDate), byDate);
-		transactionsCriteriaQuery.select(criteriaBuilder.sum(componentsJoin.get(TransactionComponent_.amount)));
-		transactionsCriteriaQuery.where(criteriaBuilder.and(accountsPredicate, datePredicate));
-		transactionsCriteriaQuery.groupBy(joinedAccount);
-
-		try {
-			return entityManager.createQuery(transactionsCriteriaQuery).getSingleResult();
-		} catch (NoResultException ex) {
-			return 0;
-		}
+	 * @return the raw balances, indexed by account id (accounts without
+	 * transactions before the date are not included)
+	 */
+	protected Map<Long, Long> getRawAccountBalancesByDate(EntityManager entityManager, List<FinanceAccount> accounts, Date byDate) throws SecurityException {
+		for (FinanceAccount account : accounts)
+			if (!account.getOwner().equals(owner))
+				throw new SecurityException(MessageFormat.format(messages.getString("NOT_ALLOWED_TO_GET_DATA_FOR_ANOTHER_USER"), new Object[]{account.getOwner().getUsername()}));
+		Map<Long, Long> balances = new HashMap<>();
+		List<Object[]> results = entityManager.createNamedQuery(FinanceTransaction.QUERY_ACCOUNT_BALANCES_BY_DATE, Object[].class)
+				.setParameter("accounts", accounts) //NOI18N
+				.setParameter("date", byDate, TemporalType.DATE) //NOI18N
+				.getResultList();
+		for (Object[] result : results)
+			balances.put((Long) result[0], (Long) result[1]);
+		return balances;
 	}
 
 	/**
-	 * Returns a graph for the total balance of accounts, sorted by date
+	 * Returns a daily graph for the total balance of accounts, sorted by date
 	 *
 	 * @param entityManager the EntityManager to be used for making queries
 	 * @return a graph for the total balance of accounts, sorted by date
 	 */
-	protected Map<String, DateBalance<Double>> getAccountsBalanceGraph(EntityManager entityManager) {
-		Map<String, Long> sumBalance = new HashMap<>();
-
-		if (selectedAccounts != null)
-			for (FinanceAccount account : selectedAccounts) {
-				if (!sumBalance.containsKey(account.getCurrency().getCurrencyCode()))
-					sumBalance.put(account.getCurrency().getCurrencyCode(), 0L);
-				sumBalance.put(account.getCurrency().getCurrencyCode(), sumBalance.get(account.getCurrency().getCurrencyCode()) + getRawAccountBalanceByDate(entityManager, account, earliestDate));
-			}
+	protected Map<String, DateBalance> getAccountsBalanceGraph(EntityManager entityManager) {
+		Map<String, DateBalance> result = new HashMap<>();
+		if (selectedAccounts == null)
+			return result;
 
-		//Process transactions
-		Map<String, DateBalance<Long>> currentBalance = new HashMap<>();
-
-		List<FinanceTransaction> transactions = getTransactions(
-				entityManager,
-				FinanceTransaction_.transactionDate, true, false,
-				EnumSet.of(FilterType.DATE, FilterType.ACCOUNTS),
-				-1, -1);
-
-		//Calculate sum for accounts/currencies for each transaction
-		for (FinanceTransaction transaction : transactions) {
-			//Compute balance change for transaction
-			if (selectedAccounts != null)
-				for (FinanceAccount account : selectedAccounts)
-					for (TransactionComponent component : transaction.getComponentsForAccount(account))
-						sumBalance.put(account.getCurrency().getCurrencyCode(), sumBalance.get(account.getCurrency().getCurrencyCode()) + component.getRawAmount());
-
-			//Update balance map
-			for (Map.Entry<String, Long> sumBalanceCurrency : sumBalance.entrySet()) {
-				String currency = sumBalanceCurrency.getKey();
-				if (!currentBalance.containsKey(currency))
-					currentBalance.put(currency, new DateBalance(Long.class));
-				currentBalance.get(currency).setBalance(transaction.getDate(), sumBalanceCurrency.getValue());
-			}
+		Map<Long, String> accountCurrencies = new HashMap<>();
+		Map<String, Long> sumBalance = new HashMap<>();
+		Map<Long, Long> startingBalances = getRawAccountBalancesByDate(entityManager, selectedAccounts, earliestDate);
+		for (FinanceAccount account : selectedAccounts) {
+			String currency = account.getCurrency().getCurrencyCode();
+			accountCurrencies.put(account.getId(), currency);
+			if (!sumBalance.containsKey(currency))
+				sumBalance.put(currency, 0L);
+			if (startingBalances.containsKey(account.getId()))
+				sumBalance.put(currency, sumBalance.get(currency) + startingBalances.get(account.getId()));
 		}
 
-		//Convert from long to double
-		Map<String, DateBalance<Double>> result = new HashMap<>();
-		for (Map.Entry<String, DateBalance<Long>> dateBalanceCurrency : currentBalance.entrySet())
-			for (Map.Entry<Date, Long> dateBalance : dateBalanceCurrency.getValue().getData().entrySet()) {
-				String currency = dateBalanceCurrency.getKey();
-				if (!result.containsKey(currency))
-					result.put(currency, new DateBalance<>(Double.class));
-				result.get(dateBalanceCurrency.getKey()).setBalance(dateBalance.getKey(), dateBalance.getValue() / Constants.RAW_AMOUNT_MULTIPLIER);
-			}
+		//Sum balance changes per day and account
+		List<Object[]> balanceChanges = entityManager.createNamedQuery(FinanceTransaction.QUERY_DAILY_BALANCE_CHANGES, Object[].class)
+				.setParameter("owner", owner) //NOI18N
+				.setParameter("earliestDate", earliestDate, TemporalType.DATE) //NOI18N
+				.setParameter("latestDate", latestDate, TemporalType.DATE) //NOI18N
+				.setParameter("accounts", selectedAccounts) //NOI18N
+				.getResultList();
+
+		//Calculate sum for currencies for each day
+		Date currentDate = null;
+		for (Object[] balanceChange : balanceChanges) {
+			Date date = (Date) balanceChange[0];
+			if (currentDate != null && !currentDate.equals(date))
+				addBalances(result, currentDate, sumBalance);
+			currentDate = date;
+			String currency = accountCurrencies.get((Long) balanceChange[1]);
+			sumBalance.put(currency, sumBalance.get(currency) + (Long) balanceChange[2]);
+		}
+		if (currentDate != null)
+			addBalances(result, currentDate, sumBalance);
 		return result;
 	}
 
 	/**
-	 * Returns expenses grouped by tags
+	 * Adds balances for all currencies to the accounts balance graph
+	 *
+	 * @param balanceGraph the accounts balance graph
+	 * @param date the balance date
+	 * @param balances the raw balances for every currency
+	 */
+	private void addBalances(Map<String, DateBalance> balanceGraph, Date date, Map<String, Long> balances) {
+		for (Map.Entry<String, Long> balance : balances.entrySet()) {
+			if (!balanceGraph.containsKey(balance.getKey()))
+				balanceGraph.put(balance.getKey(), new DateBalance());
+			balanceGraph.get(balance.getKey()).setBalance(date, balance.getValue());
+		}
+	}
+
+	/**
+	 * Returns expenses grouped by tags. Full months are read from the tag
+	 * expense rollup (if it's available), transactions are only scanned for
+	 * partial months at the start and end of the date range.
 	 *
 	 * @param entityManager the EntityManager to be used for making queries
 	 * @return expenses grouped by tags
@@ -626,34 +698,324 @@ public class ReportFactory {
 		if (selectedAccounts != null)
 			for (FinanceAccount account : selectedAccounts)
 				currencies.add(account.getCurrency());
+		if (currencies.isEmpty())
+			return new LinkedList<>(result.values());
+
+		//Find the range of full months
+		Date fullMonthsStart = null, fullMonthsEnd = null;
+		if (new DatabaseMaintenance().isTagExpenseRollupAvailable(entityManager)) {
+			Date monthStart = TagExpenseRollup.getMonthStart(earliestDate);
+			if (monthStart.before(earliestDate))
+				monthStart = TagExpenseRollup.getNextMonthStart(monthStart);
+			Date monthEnd = monthStart;
+			while (!getLastDayOfMonth(monthEnd).after(latestDate))
+				monthEnd = TagExpenseRollup.getNextMonthStart(monthEnd);
+			if (monthEnd.after(monthStart)) {
+				fullMonthsStart = monthStart;
+				fullMonthsEnd = monthEnd;
+			}
+		}
+
 		for (Currency currency : currencies) {
-			//Obtain the tag-total sum table via a query
-			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-			CriteriaQuery<Tuple> transactionsCriteriaQuery = criteriaBuilder.createTupleQuery();
-			Root<FinanceTransaction> tr = transactionsCriteriaQuery.from(FinanceTransaction.class);
+			if (fullMonthsStart == null) {
+				addRawTagExpenses(entityManager, currency, earliestDate, latestDate, true, result);
+			} else {
+				if (earliestDate.before(fullMonthsStart))
+					addRawTagExpenses(entityManager, currency, earliestDate, fullMonthsStart, false, result);
+				addRollupTagExpenses(entityManager, currency, fullMonthsStart, fullMonthsEnd, result);
+				if (!latestDate.before(fullMonthsEnd))
+					addRawTagExpenses(entityManager, currency, fullMonthsEnd, latestDate, true, result);
+			}
+		}
+		return new LinkedList<>(result.values());
+	}
+
+	/**
+	 * Returns the last day of a month, at midnight
+	 *
+	 * @param monthStart the first day of the month
+	 * @return the last day of the month
+	 */
+	private Date getLastDayOfMonth(Date monthStart) {
+		Calendar calendar = new GregorianCalendar();
+		calendar.setTime(TagExpenseRollup.getNextMonthStart(monthStart));
+		calendar.add(Calendar.DAY_OF_MONTH, -1);
+		return calendar.getTime();
+	}
+
+	/**
+	 * Adds tag expenses to a result map
+	 *
+	 * @param result the result map
+	 * @param currency the currency
+	 * @param resultForCurrency the query results, with the sum of raw amounts
+	 * in the first column and the tag in the second column
+	 */
+	private void addTagExpenses(Map<String, TagExpense> result, Currency currency, List<Object[]> resultForCurrency) {
+		//Convert results to a common currency if tag contains transactions in different currencies
+		for (Object[] row : resultForCurrency) {
+			String tag = (String) row[1];
+			double amount = ((Long) row[0] / Constants.RAW_AMOUNT_MULTIPLIER);
+			if (!result.containsKey(tag))
+				result.put(tag, new TagExpense(tag));
+			TagExpense tagExpense = result.get(tag);
+
+			tagExpense.addAmount(currency, amount);
+		}
+	}
 
-			ConstructedPredicate predicate = getFilteredTransactionsPredicate(criteriaBuilder, tr, EnumSet.allOf(FilterType.class));
+	/**
+	 * Adds tag expenses from transactions in a date range
+	 *
+	 * @param entityManager the EntityManager to be used for making queries
+	 * @param currency the currency
+	 * @param startDate the start date (inclusive)
+	 * @param endDate the end date
+	 * @param endInclusive true if the end date should be included in the range
+	 * @param result the result map
+	 */
+	private void addRawTagExpenses(EntityManager entityManager, Currency currency, Date startDate, Date endDate, boolean endInclusive, Map<String, TagExpense> result) {
+		if (!isFilterSatisfiable())
+			return;
+		if (endInclusive)
+			endDate = LedgerSnapshot.fromEpochDay(LedgerSnapshot.toEpochDay(endDate) + 1);
+
+		//Obtain the tag-total sum table via a query
+		TypedQuery<Object[]> query = entityManager.createNamedQuery(FinanceTransaction.QUERY_TAG_EXPENSES, Object[].class);
+		query = setFilterParameters(query, startDate, endDate).setParameter("currency", currency.getCurrencyCode()); //NOI18N
+		addTagExpenses(result, currency, query.getResultList());
+	}
+
+	/**
+	 * Adds tag expenses from the tag expense rollup for a range of full months
+	 *
+	 * @param entityManager the EntityManager to be used for making queries
+	 * @param currency the currency
+	 * @param startMonth the first day of the first month (inclusive)
+	 * @param endMonth the first day of the month after the last month
+	 * @param result the result map
+	 */
+	private void addRollupTagExpenses(EntityManager entityManager, Currency currency, Date startMonth, Date endMonth, Map<String, TagExpense> result) {
+		if (!isFilterSatisfiable())
+			return;
+		TypedQuery<Object[]> query = entityManager.createNamedQuery(TagExpenseRollup.QUERY_TAG_EXPENSES, Object[].class)
+				.setParameter("owner", owner) //NOI18N
+				.setParameter("startMonth", startMonth, TemporalType.DATE) //NOI18N
+				.setParameter("endMonth", endMonth, TemporalType.DATE) //NOI18N
+				.setParameter("types", getEnabledTransactionTypes()) //NOI18N
+				.setParameter("minSign", enabledExpenseTransactions ? -1 : 0) //NOI18N
+				.setParameter("maxSign", enabledIncomeTransactions ? 1 : 0) //NOI18N
+				.setParameter("tags", selectedTags) //NOI18N
+				.setParameter("accounts", selectedAccounts) //NOI18N
+				.setParameter("currency", currency.getCurrencyCode()); //NOI18N
+		addTagExpenses(result, currency, query.getResultList());
+	}
+
+	/**
+	 * Returns true if a snapshot transaction matches the transaction type and
+	 * expense type filters
+	 *
+	 * @param snapshot the ledger snapshot
+	 * @param transaction the transaction index in the snapshot
+	 * @return true if the transaction matches the filters
+	 */
+	private boolean isTransactionTypeEnabled(LedgerSnapshot snapshot, int transaction) {
+		int type = snapshot.transactionTypes[transaction];
+		boolean typeEnabled = (type == FinanceTransaction.Type.EXPENSEINCOME.ordinal() && (enabledExpenseTransactions || enabledIncomeTransactions))
+				|| (type == FinanceTransaction.Type.TRANSFER.ordinal() && enabledTransferTransactions);
+		long amount = snapshot.transactionAmounts[transaction];
+		boolean expenseTypeEnabled = (enabledExpenseTransactions && amount <= 0) || (enabledIncomeTransactions && amount >= 0);
+		return typeEnabled && expenseTypeEnabled;
+	}
+
+	/**
+	 * Returns all transactions matching the set filters from a ledger
+	 * snapshot, ordered by absolute amount descending
+	 *
+	 * @param snapshot the ledger snapshot
+	 * @return indexes of all transactions in the snapshot matching the set
+	 * filters
+	 */
+	protected Integer[] getTransactionMatches(final LedgerSnapshot snapshot) {
+		boolean[] accountSelected = snapshot.selectAccounts(selectedAccounts);
+		boolean[] tagSelected = snapshot.selectTags(selectedTags);
+		int first = snapshot.findFirstTransaction(LedgerSnapshot.getFirstDay(earliestDate));
+		int last = snapshot.findFirstTransaction(LedgerSnapshot.toEpochDay(latestDate) + 1);
+
+		//Find matching transactions
+		Integer[] matches = new Integer[Math.max(last - first, 0)];
+		int matchCount = 0;
+		for (int transaction = first; transaction < last; transaction++) {
+			if (!isTransactionTypeEnabled(snapshot, transaction))
+				continue;
+			boolean accountMatches = false;
+			for (int component = snapshot.componentOffsets[transaction]; component < snapshot.componentOffsets[transaction + 1] && !accountMatches; component++)
+				accountMatches = accountSelected[snapshot.componentAccounts[component]];
+			boolean tagMatches = false;
+			for (int tag = snapshot.tagOffsets[transaction]; tag < snapshot.tagOffsets[transaction + 1] && !tagMatches; tag++)
+				tagMatches = tagSelected[snapshot.transactionTags[tag]];
+			if (accountMatches && tagMatches)
+				matches[matchCount++] = transaction;
+		}
+		Arrays.sort(matches, 0, matchCount, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer transaction1, Integer transaction2) {
+				long amount1 = Math.abs(snapshot.transactionAmounts[transaction1]);
+				long amount2 = Math.abs(snapshot.transactionAmounts[transaction2]);
+				if (amount1 != amount2)
+					return amount1 > amount2 ? -1 : 1;
+				long id1 = snapshot.transactionIds[transaction1];
+				long id2 = snapshot.transactionIds[transaction2];
+				return id1 > id2 ? -1 : (id1 < id2 ? 1 : 0);
+			}
+		});
+		return Arrays.copyOf(matches, matchCount);
+	}
+
+	/**
+	 * Returns the current page of transactions from a ledger snapshot
+	 *
+	 * @param entityManager the EntityManager to be used for loading
+	 * transactions
+	 * @param snapshot the ledger snapshot
+	 * @param matches indexes of all transactions in the snapshot matching the
+	 * set filters, ordered by absolute amount descending
+	 * @return the current page of transactions matching the set filters
+	 */
+	protected List<FinanceTransaction> getTransactions(EntityManager entityManager, LedgerSnapshot snapshot, Integer[] matches) {
+		int firstTransaction = (int) Math.min((long) transactionsPage * transactionsPageSize, matches.length);
+		int lastTransaction = Math.min(firstTransaction + transactionsPageSize, matches.length);
+
+		//Load transactions with components
+		List<Long> ids = new ArrayList<>(lastTransaction - firstTransaction);
+		for (int i = firstTransaction; i < lastTransaction; i++)
+			ids.add(snapshot.transactionIds[matches[i]]);
+		Map<Long, FinanceTransaction> loadedTransactions = loadTransactions(entityManager, ids);
+		List<FinanceTransaction> transactions = new LinkedList<>();
+		for (int i = firstTransaction; i < lastTransaction; i++) {
+			FinanceTransaction transaction = loadedTransactions.get(snapshot.transactionIds[matches[i]]);
+			if (transaction != null)
+				transactions.add(transaction);
+		}
+		return transactions;
+	}
 
-			Predicate currencyPredicate = criteriaBuilder.equal(predicate.getComponentsJoin().get(TransactionComponent_.account).get(FinanceAccount_.currency), currency.getCurrencyCode());
+	/**
+	 * Returns the currency index for every account in a ledger snapshot
+	 *
+	 * @param snapshot the ledger snapshot
+	 * @param currencies the list of currencies, will be filled by this
+	 * function
+	 * @return array containing the currency index for every account in the
+	 * snapshot's accounts dictionary, or -1 if the account is not selected
+	 */
+	private int[] getAccountCurrencies(LedgerSnapshot snapshot, List<Currency> currencies) {
+		int[] accountCurrencies = new int[snapshot.accountIds.length];
+		Arrays.fill(accountCurrencies, -1);
+		if (selectedAccounts != null)
+			for (FinanceAccount account : selectedAccounts) {
+				if (!currencies.contains(account.getCurrency()))
+					currencies.add(account.getCurrency());
+				int accountIndex = snapshot.getAccountIndex(account);
+				if (accountIndex >= 0)
+					accountCurrencies[accountIndex] = currencies.indexOf(account.getCurrency());
+			}
+		return accountCurrencies;
+	}
 
-			transactionsCriteriaQuery.multiselect(criteriaBuilder.sum(predicate.getComponentsJoin().get(TransactionComponent_.amount)),
-					predicate.getTagsJoin()).distinct(true);
-			transactionsCriteriaQuery.where(criteriaBuilder.and(predicate.getPredicate(), currencyPredicate));
-			transactionsCriteriaQuery.groupBy(predicate.getTagsJoin(), predicate.getComponentsJoin().get(TransactionComponent_.account).get(FinanceAccount_.currency));
+	/**
+	 * Returns a graph for the total balance of accounts from a ledger
+	 * snapshot, sorted by date
+	 *
+	 * @param snapshot the ledger snapshot
+	 * @return a graph for the total balance of accounts, sorted by date
+	 */
+	protected Map<String, DateBalance> getAccountsBalanceGraph(LedgerSnapshot snapshot) {
+		List<Currency> currencies = new ArrayList<>();
+		int[] accountCurrencies = getAccountCurrencies(snapshot, currencies);
+		long[] balances = new long[currencies.size()];
+		int first = snapshot.findFirstTransaction(LedgerSnapshot.getFirstDay(earliestDate));
+		int last = snapshot.findFirstTransaction(LedgerSnapshot.toEpochDay(latestDate) + 1);
+
+		//Compute the starting balance
+		for (int component = 0; component < snapshot.componentOffsets[first]; component++) {
+			int currency = accountCurrencies[snapshot.componentAccounts[component]];
+			if (currency >= 0)
+				balances[currency] += snapshot.componentAmounts[component];
+		}
 
-			List<Tuple> resultForCurrency = entityManager.createQuery(transactionsCriteriaQuery).getResultList();
+		//Update balance for every transaction
+		Map<String, DateBalance> result = new HashMap<>();
+		DateBalance[] currencyBalances = new DateBalance[balances.length];
+		for (int transaction = first; transaction < last; transaction++) {
+			boolean affected = false;
+			for (int component = snapshot.componentOffsets[transaction]; component < snapshot.componentOffsets[transaction + 1]; component++) {
+				int currency = accountCurrencies[snapshot.componentAccounts[component]];
+				if (currency >= 0) {
+					balances[currency] += snapshot.componentAmounts[component];
+					affected = true;
+				}
+			}
+			if (!affected)
+				continue;
+			for (int currency = 0; currency < balances.length; currency++) {
+				if (currencyBalances[currency] == null) {
+					currencyBalances[currency] = new DateBalance();
+					result.put(currencies.get(currency).getCurrencyCode(), currencyBalances[currency]);
+				}
+				currencyBalances[currency].setBalance(snapshot.transactionDays[transaction], balances[currency]);
+			}
+		}
+		return result;
+	}
 
-			//Convert results to a common currency if tag contains transactions in different currencies
-			for (Tuple tuple : resultForCurrency) {
-				String tag = tuple.get(1, String.class);
-				double amount = (tuple.get(0, Long.class) / Constants.RAW_AMOUNT_MULTIPLIER);
-				if (!result.containsKey(tag))
-					result.put(tag, new TagExpense(tag));
-				TagExpense tagExpense = result.get(tag);
+	/**
+	 * Returns expenses grouped by tags from a ledger snapshot
+	 *
+	 * @param snapshot the ledger snapshot
+	 * @return expenses grouped by tags
+	 */
+	protected List<TagExpense> getTagExpenses(LedgerSnapshot snapshot) {
+		List<Currency> currencies = new ArrayList<>();
+		int[] accountCurrencies = getAccountCurrencies(snapshot, currencies);
+		boolean[] tagSelected = snapshot.selectTags(selectedTags);
+		int currencyCount = currencies.size();
+		long[] sums = new long[snapshot.tags.length * currencyCount];
+		boolean[] hasSum = new boolean[sums.length];
+		int first = snapshot.findFirstTransaction(LedgerSnapshot.getFirstDay(earliestDate));
+		int last = snapshot.findFirstTransaction(LedgerSnapshot.toEpochDay(latestDate) + 1);
+
+		for (int transaction = first; transaction < last; transaction++) {
+			if (!isTransactionTypeEnabled(snapshot, transaction))
+				continue;
+			for (int component = snapshot.componentOffsets[transaction]; component < snapshot.componentOffsets[transaction + 1]; component++) {
+				int currency = accountCurrencies[snapshot.componentAccounts[component]];
+				if (currency < 0)
+					continue;
+				for (int tag = snapshot.tagOffsets[transaction]; tag < snapshot.tagOffsets[transaction + 1]; tag++) {
+					int tagIndex = snapshot.transactionTags[tag];
+					if (!tagSelected[tagIndex])
+						continue;
+					sums[tagIndex * currencyCount + currency] += snapshot.componentAmounts[component];
+					hasSum[tagIndex * currencyCount + currency] = true;
+				}
+			}
+		}
 
-				tagExpense.addAmount(currency, amount);
+		//Tags dictionary is sorted, so the result is sorted by tag
+		List<TagExpense> result = new LinkedList<>();
+		for (int tagIndex = 0; tagIndex < snapshot.tags.length; tagIndex++) {
+			TagExpense tagExpense = null;
+			for (int currency = 0; currency < currencyCount; currency++) {
+				if (!hasSum[tagIndex * currencyCount + currency])
+					continue;
+				if (tagExpense == null)
+					tagExpense = new TagExpense(snapshot.tags[tagIndex]);
+				tagExpense.addAmount(currencies.get(currency), sums[tagIndex * currencyCount + currency] / Constants.RAW_AMOUNT_MULTIPLIER);
 			}
+			if (tagExpense != null)
+				result.add(tagExpense);
 		}
-		return new LinkedList<>(result.values());
+		return result;
 	}
 }
@@ -5,14 +5,33 @@
  */
 package org.zlogic.vogon.data.tools;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import org.zlogic.vogon.data.ConfigurationElement;
 import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceAccount_;
 import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.FinanceTransaction_;
+import org.zlogic.vogon.data.TagExpenseRollup;
+import org.zlogic.vogon.data.TagExpenseRollup_;
 import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.TransactionComponent_;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.metrics.Metrics;
 
 /**
  * Class for performing database maintenance operations
@@ -29,6 +48,7 @@ public class DatabaseMaintenance {
 	 * function
 	 */
 	public void cleanup(EntityManager entityManager) {
+		long start = Metrics.start();
 		CriteriaBuilder componentCriteriaBuilder = entityManager.getCriteriaBuilder();
 		CriteriaQuery<TransactionComponent> componentsCriteriaQuery = componentCriteriaBuilder.createQuery(TransactionComponent.class);
 		componentsCriteriaQuery.from(TransactionComponent.class);
@@ -52,6 +72,7 @@ public class DatabaseMaintenance {
 			component.setTransaction(null);
 			entityManager.remove(component);
 		}
+		Metrics.stop("maintenance.cleanup", start); //NOI18N
 	}
 
 	/**
@@ -63,6 +84,7 @@ public class DatabaseMaintenance {
 	 * function
 	 */
 	public void refreshAccountBalance(FinanceAccount account, EntityManager entityManager) {
+		long start = Metrics.start();
 		//Request all transactions from database
 		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
 		CriteriaQuery<FinanceTransaction> transactionsCriteriaQuery = criteriaBuilder.createQuery(FinanceTransaction.class);
@@ -78,5 +100,219 @@ public class DatabaseMaintenance {
 		for (FinanceTransaction transaction : transactions)
 			for (TransactionComponent component : transaction.getComponentsForAccount(tempAccount))
 				tempAccount.updateRawBalance(component.getRawAmount());
+		Metrics.stop("maintenance.refreshAccountBalance", start); //NOI18N
+	}
+
+	/**
+	 * Recalculates the tag expense rollup for the months containing the
+	 * specified dates. Should be called after transactions are created,
+	 * updated or deleted, with the old and new transaction dates. Locks the
+	 * owner until the transaction ends.
+	 *
+	 * @param owner the transactions owner
+	 * @param dates the changed transactions' dates (null values are ignored)
+	 * @param entityManager the EntityManager to be used for making queries;
+	 * should be opened/closed outside of this function before calling this
+	 * function
+	 */
+	public void updateTagExpenseRollup(VogonUser owner, Collection<Date> dates, EntityManager entityManager) {
+		Set<Date> months = new TreeSet<>();
+		for (Date date : dates)
+			if (date != null)
+				months.add(TagExpenseRollup.getMonthStart(date));
+		if (months.isEmpty())
+			return;
+		long start = Metrics.start();
+		entityManager.flush();
+		lockOwner(owner, entityManager);
+		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+		for (Date monthStart : months) {
+			CriteriaDelete<TagExpenseRollup> rollupDelete = criteriaBuilder.createCriteriaDelete(TagExpenseRollup.class);
+			Root<TagExpenseRollup> rollup = rollupDelete.from(TagExpenseRollup.class);
+			rollupDelete.where(criteriaBuilder.and(
+					criteriaBuilder.equal(rollup.get(TagExpenseRollup_.owner), owner),
+					criteriaBuilder.equal(rollup.get(TagExpenseRollup_.monthStart), monthStart)));
+			entityManager.createQuery(rollupDelete).executeUpdate();
+			createTagExpenseRollup(owner, monthStart, entityManager);
+		}
+		Metrics.stop("maintenance.updateTagExpenseRollup", start); //NOI18N
+	}
+
+	/**
+	 * Rebuilds the tag expense rollup for all months of a user
+	 *
+	 * @param owner the transactions owner
+	 * @param entityManager the EntityManager to be used for making queries;
+	 * should be opened/closed outside of this function before calling this
+	 * function
+	 */
+	public void rebuildTagExpenseRollup(VogonUser owner, EntityManager entityManager) {
+		long start = Metrics.start();
+		try {
+			rebuildTagExpenseRollupMonths(owner, entityManager);
+		} finally {
+			Metrics.stop("maintenance.rebuildTagExpenseRollup", start); //NOI18N
+		}
+	}
+
+	/**
+	 * Deletes and recreates the tag expense rollup for all months of a user
+	 *
+	 * @param owner the transactions owner
+	 * @param entityManager the EntityManager to be used for making queries
+	 */
+	private void rebuildTagExpenseRollupMonths(VogonUser owner, EntityManager entityManager) {
+		deleteTagExpenseRollup(owner, entityManager);
+
+		//Get the transactions date range
+		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Tuple> dateRangeCriteriaQuery = criteriaBuilder.createTupleQuery();
+		Root<FinanceTransaction> tr = dateRangeCriteriaQuery.from(FinanceTransaction.class);
+		dateRangeCriteriaQuery.multiselect(
+				criteriaBuilder.least(tr.get(FinanceTransaction_.transactionDate)),
+				criteriaBuilder.greatest(tr.get(FinanceTransaction_.transactionDate)));
+		dateRangeCriteriaQuery.where(criteriaBuilder.equal(tr.get(FinanceTransaction_.owner), owner));
+		Tuple dateRange = entityManager.createQuery(dateRangeCriteriaQuery).getSingleResult();
+		Date earliestDate = dateRange.get(0, Date.class);
+		Date latestDate = dateRange.get(1, Date.class);
+		if (earliestDate == null || latestDate == null)
+			return;
+
+		for (Date monthStart = TagExpenseRollup.getMonthStart(earliestDate); !monthStart.after(latestDate); monthStart = TagExpenseRollup.getNextMonthStart(monthStart))
+			createTagExpenseRollup(owner, monthStart, entityManager);
+	}
+
+	/**
+	 * Deletes the tag expense rollup of a user. Should be called before
+	 * deleting the user's accounts. Locks the owner until the transaction
+	 * ends.
+	 *
+	 * @param owner the transactions owner
+	 * @param entityManager the EntityManager to be used for making queries;
+	 * should be opened/closed outside of this function before calling this
+	 * function
+	 */
+	public void deleteTagExpenseRollup(VogonUser owner, EntityManager entityManager) {
+		entityManager.flush();
+		lockOwner(owner, entityManager);
+		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+		CriteriaDelete<TagExpenseRollup> rollupDelete = criteriaBuilder.createCriteriaDelete(TagExpenseRollup.class);
+		Root<TagExpenseRollup> rollup = rollupDelete.from(TagExpenseRollup.class);
+		rollupDelete.where(criteriaBuilder.equal(rollup.get(TagExpenseRollup_.owner), owner));
+		entityManager.createQuery(rollupDelete).executeUpdate();
+	}
+
+	/**
+	 * Deletes the tag expense rollup rows of an account. Should be called
+	 * before deleting the account if the rollup is not deleted or rebuilt in
+	 * the same transaction. Locks the account owner until the transaction
+	 * ends.
+	 *
+	 * @param account the account
+	 * @param entityManager the EntityManager to be used for making queries;
+	 * should be opened/closed outside of this function before calling this
+	 * function
+	 */
+	public void deleteTagExpenseRollup(FinanceAccount account, EntityManager entityManager) {
+		entityManager.flush();
+		lockOwner(account.getOwner(), entityManager);
+		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+		CriteriaDelete<TagExpenseRollup> rollupDelete = criteriaBuilder.createCriteriaDelete(TagExpenseRollup.class);
+		Root<TagExpenseRollup> rollup = rollupDelete.from(TagExpenseRollup.class);
+		rollupDelete.where(criteriaBuilder.equal(rollup.get(TagExpenseRollup_.account), account));
+		entityManager.createQuery(rollupDelete).executeUpdate();
+	}
+
+	/**
+	 * Locks the owner's row until the transaction ends. The rollup of a month
+	 * is rebuilt by deleting and recreating its rows, so concurrent rebuilds
+	 * for the same owner would create duplicate rows if they were not
+	 * serialized.
+	 *
+	 * @param owner the transactions owner
+	 * @param entityManager the EntityManager to be used for making queries
+	 */
+	private void lockOwner(VogonUser owner, EntityManager entityManager) {
+		entityManager.find(VogonUser.class, owner.getId(), LockModeType.PESSIMISTIC_WRITE);
+	}
+
+	/**
+	 * Rebuilds the tag expense rollup for all users and marks it as up to
+	 * date.
+	 *
+	 * @param entityManager the EntityManager to be used for making queries;
+	 * should be opened/closed outside of this function before calling this
+	 * function
+	 */
+	public void rebuildTagExpenseRollup(EntityManager entityManager) {
+		CriteriaQuery<VogonUser> usersCriteriaQuery = entityManager.getCriteriaBuilder().createQuery(VogonUser.class);
+		usersCriteriaQuery.from(VogonUser.class);
+		for (VogonUser owner : entityManager.createQuery(usersCriteriaQuery).getResultList())
+			rebuildTagExpenseRollup(owner, entityManager);
+
+		ConfigurationElement rollupVersion = entityManager.find(ConfigurationElement.class, TagExpenseRollup.CONFIGURATION_KEY);
+		if (rollupVersion == null)
+			entityManager.persist(new ConfigurationElement(TagExpenseRollup.CONFIGURATION_KEY, TagExpenseRollup.VERSION));
+		else
+			rollupVersion.setValue(TagExpenseRollup.VERSION);
+	}
+
+	/**
+	 * Returns true if the tag expense rollup was built and is up to date
+	 *
+	 * @param entityManager the EntityManager to be used for making queries;
+	 * should be opened/closed outside of this function before calling this
+	 * function
+	 * @return true if the tag expense rollup can be used
+	 */
+	public boolean isTagExpenseRollupAvailable(EntityManager entityManager) {
+		ConfigurationElement rollupVersion = entityManager.find(ConfigurationElement.class, TagExpenseRollup.CONFIGURATION_KEY);
+		return rollupVersion != null && TagExpenseRollup.VERSION.equals(rollupVersion.getValue());
+	}
+
+	/**
+	 * Creates tag expense rollup rows for a month. Existing rows for the month
+	 * should be deleted before calling this function.
+	 *
+	 * @param owner the transactions owner
+	 * @param monthStart the first day of the month
+	 * @param entityManager the EntityManager to be used for making queries
+	 */
+	private void createTagExpenseRollup(VogonUser owner, Date monthStart, EntityManager entityManager) {
+		CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+		Date nextMonthStart = TagExpenseRollup.getNextMonthStart(monthStart);
+		//Rows are grouped by the sign of the transaction amount with a separate query for each sign
+		for (int amountSign = -1; amountSign <= 1; amountSign++) {
+			CriteriaQuery<Tuple> rollupCriteriaQuery = criteriaBuilder.createTupleQuery();
+			Root<FinanceTransaction> tr = rollupCriteriaQuery.from(FinanceTransaction.class);
+			Join<FinanceTransaction, TransactionComponent> componentsJoin = tr.join(FinanceTransaction_.components);
+			Join<FinanceTransaction, String> tagsJoin = tr.join(FinanceTransaction_.tags);
+			Path<Long> accountId = componentsJoin.get(TransactionComponent_.account).get(FinanceAccount_.id);
+			Path<Long> transactionAmount = tr.get(FinanceTransaction_.amount);
+
+			Predicate amountPredicate;
+			if (amountSign < 0)
+				amountPredicate = criteriaBuilder.lessThan(transactionAmount, 0L);
+			else if (amountSign > 0)
+				amountPredicate = criteriaBuilder.greaterThan(transactionAmount, 0L);
+			else
+				amountPredicate = criteriaBuilder.equal(transactionAmount, 0L);
+
+			rollupCriteriaQuery.multiselect(accountId, tagsJoin, tr.get(FinanceTransaction_.type),
+					criteriaBuilder.sum(componentsJoin.get(TransactionComponent_.amount)), criteriaBuilder.count(componentsJoin));
+			rollupCriteriaQuery.where(criteriaBuilder.and(
+					criteriaBuilder.equal(tr.get(FinanceTransaction_.owner), owner),
+					criteriaBuilder.greaterThanOrEqualTo(tr.get(FinanceTransaction_.transactionDate), monthStart),
+					criteriaBuilder.lessThan(tr.get(FinanceTransaction_.transactionDate), nextMonthStart),
+					amountPredicate));
+			rollupCriteriaQuery.groupBy(accountId, tagsJoin, tr.get(FinanceTransaction_.type));
+
+			for (Tuple tuple : entityManager.createQuery(rollupCriteriaQuery).getResultList()) {
+				FinanceAccount account = entityManager.getReference(FinanceAccount.class, tuple.get(0, Long.class));
+				TagExpenseRollup rollup = new TagExpenseRollup(owner, account, tuple.get(1, String.class), monthStart,
+						tuple.get(2, FinanceTransaction.Type.class), amountSign, tuple.get(3, Long.class), tuple.get(4, Long.class));
+				entityManager.persist(rollup);
+			}
+		}
 	}
 }
@@ -0,0 +1,508 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data.tools;
+
+import java.io.OutputStream;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import org.zlogic.vogon.data.CurrencyRate;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.interop.ImportProgressListener;
+import org.zlogic.vogon.data.interop.StreamingXmlExporter;
+import org.zlogic.vogon.data.interop.VogonExportException;
+
+/**
+ * Generates synthetic ledgers for load and scale testing: multi-currency
+ * accounts, currency rates and transactions with Zipf-distributed tags,
+ * transfers and split components. The generated data depends only on the
+ * seed and settings, so the same ledger can be recreated for every test run.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class LedgerGenerator {
+
+	/**
+	 * The random seed
+	 */
+	private long seed = 0;
+	/**
+	 * Number of accounts
+	 */
+	private int accountCount = 8;
+	/**
+	 * Account currencies, assigned to accounts in a round-robin fashion
+	 */
+	private String[] currencies = new String[]{"EUR", "USD", "GBP"}; //NOI18N
+	/**
+	 * Number of transactions
+	 */
+	private long transactionCount = 10000;
+	/**
+	 * Number of distinct tags
+	 */
+	private int tagCount = 200;
+	/**
+	 * Zipf distribution exponent for tag popularity
+	 */
+	private double tagExponent = 1.0;
+	/**
+	 * Maximum number of tags per transaction
+	 */
+	private int maxTags = 3;
+	/**
+	 * Fraction of transactions which are transfers
+	 */
+	private double transferRatio = 0.1;
+	/**
+	 * Fraction of expense/income transactions which are income
+	 */
+	private double incomeRatio = 0.1;
+	/**
+	 * Fraction of expense/income transactions which are split into several
+	 * components
+	 */
+	private double splitRatio = 0.2;
+	/**
+	 * Maximum number of components in a split transaction
+	 */
+	private int maxComponents = 4;
+	/**
+	 * Date of the first transaction
+	 */
+	private Date startDate;
+	/**
+	 * Number of days covered by transactions
+	 */
+	private int days = 5 * 365;
+	/**
+	 * Number of transactions after which the EntityManager is flushed and
+	 * cleared
+	 */
+	private int chunkSize = 1000;
+	/**
+	 * The progress listener, or null
+	 */
+	private ImportProgressListener progressListener;
+
+	/**
+	 * Creates a ledger generator with the default settings
+	 */
+	public LedgerGenerator() {
+		Calendar calendar = new GregorianCalendar();
+		calendar.clear();
+		calendar.set(2010, Calendar.JANUARY, 1);
+		startDate = calendar.getTime();
+	}
+
+	/**
+	 * Sets the random seed
+	 *
+	 * @param seed the random seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of accounts
+	 *
+	 * @param accountCount the number of accounts
+	 */
+	public void setAccountCount(int accountCount) {
+		this.accountCount = accountCount;
+	}
+
+	/**
+	 * Sets the account currencies; accounts are assigned currencies in a
+	 * round-robin fashion
+	 *
+	 * @param currencies the currency codes
+	 */
+	public void setCurrencies(String... currencies) {
+		this.currencies = currencies;
+	}
+
+	/**
+	 * Sets the number of transactions
+	 *
+	 * @param transactionCount the number of transactions
+	 */
+	public void setTransactionCount(long transactionCount) {
+		this.transactionCount = transactionCount;
+	}
+
+	/**
+	 * Sets the number of distinct tags
+	 *
+	 * @param tagCount the number of distinct tags
+	 */
+	public void setTagCount(int tagCount) {
+		this.tagCount = tagCount;
+	}
+
+	/**
+	 * Sets the Zipf distribution exponent for tag popularity; 0 makes all tags
+	 * equally popular, larger values make the first tags more popular
+	 *
+	 * @param tagExponent the Zipf distribution exponent
+	 */
+	public void setTagExponent(double tagExponent) {
+		this.tagExponent = tagExponent;
+	}
+
+	/**
+	 * Sets the maximum number of tags per transaction
+	 *
+	 * @param maxTags the maximum number of tags per transaction
+	 */
+	public void setMaxTags(int maxTags) {
+		this.maxTags = maxTags;
+	}
+
+	/**
+	 * Sets the fraction of transactions which are transfers
+	 *
+	 * @param transferRatio the fraction of transfer transactions (0 to 1)
+	 */
+	public void setTransferRatio(double transferRatio) {
+		this.transferRatio = transferRatio;
+	}
+
+	/**
+	 * Sets the fraction of expense/income transactions which are income
+	 *
+	 * @param incomeRatio the fraction of income transactions (0 to 1)
+	 */
+	public void setIncomeRatio(double incomeRatio) {
+		this.incomeRatio = incomeRatio;
+	}
+
+	/**
+	 * Sets the fraction of expense/income transactions which are split into
+	 * several components
+	 *
+	 * @param splitRatio the fraction of split transactions (0 to 1)
+	 */
+	public void setSplitRatio(double splitRatio) {
+		this.splitRatio = splitRatio;
+	}
+
+	/**
+	 * Sets the maximum number of components in a split transaction
+	 *
+	 * @param maxComponents the maximum number of components
+	 */
+	public void setMaxComponents(int maxComponents) {
+		this.maxComponents = maxComponents;
+	}
+
+	/**
+	 * Sets the date of the first transaction
+	 *
+	 * @param startDate the date of the first transaction
+	 */
+	public void setStartDate(Date startDate) {
+		this.startDate = startDate;
+	}
+
+	/**
+	 * Sets the number of days covered by transactions
+	 *
+	 * @param days the number of days
+	 */
+	public void setDays(int days) {
+		this.days = days;
+	}
+
+	/**
+	 * Sets the number of transactions after which the EntityManager is
+	 * flushed, cleared and the progress listener is called
+	 *
+	 * @param chunkSize the number of transactions in a chunk
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets the progress listener
+	 *
+	 * @param progressListener the progress listener, or null
+	 */
+	public void setProgressListener(ImportProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Returns the generated tags, most popular first
+	 *
+	 * @return the generated tags
+	 */
+	public List<String> getTags() {
+		List<String> tags = new ArrayList<>(tagCount);
+		for (int i = 0; i < tagCount; i++)
+			tags.add("tag" + i); //NOI18N
+		return tags;
+	}
+
+	/**
+	 * Creates the ledger in the database. Transactions are flushed in chunks
+	 * and the EntityManager is cleared after every chunk, so that memory usage
+	 * doesn't depend on the ledger size; enable JDBC batching (e.g. the
+	 * hibernate.jdbc.batch_size property) for the inserts to be sent in
+	 * batches. Currency rates are only created if they don't exist yet. The
+	 * tag expense rollup is rebuilt when all transactions are created.
+	 *
+	 * @param owner the ledger owner
+	 * @param entityManager the EntityManager to be used for persisting data;
+	 * should be opened/closed and have a transaction started outside of this
+	 * function
+	 */
+	public void generate(VogonUser owner, EntityManager entityManager) {
+		List<FinanceAccount> accounts = createAccounts(owner);
+		for (FinanceAccount account : accounts)
+			entityManager.persist(account);
+		for (CurrencyRate rate : createCurrencyRates()) {
+			long existingRates = entityManager.createQuery("SELECT COUNT(r) FROM CurrencyRate r WHERE r.source = :source AND r.destination = :destination", Long.class) //NOI18N
+					.setParameter("source", rate.getSource().getCurrencyCode()) //NOI18N
+					.setParameter("destination", rate.getDestination().getCurrencyCode()) //NOI18N
+					.getSingleResult();
+			if (existingRates == 0)
+				entityManager.persist(rate);
+		}
+
+		TransactionIterator iterator = new TransactionIterator(owner, accounts);
+		long createdTransactions = 0;
+		while (iterator.hasNext()) {
+			entityManager.persist(iterator.next());
+			createdTransactions++;
+			if (createdTransactions % chunkSize == 0 || !iterator.hasNext()) {
+				entityManager.flush();
+				if (progressListener != null)
+					progressListener.chunkImported(createdTransactions, transactionCount);
+				entityManager.clear();
+				owner = entityManager.find(VogonUser.class, owner.getId());
+				List<FinanceAccount> reloadedAccounts = new ArrayList<>(accounts.size());
+				for (FinanceAccount account : accounts)
+					reloadedAccounts.add(entityManager.find(FinanceAccount.class, account.getId()));
+				accounts = reloadedAccounts;
+				iterator.setEntities(owner, accounts);
+			}
+		}
+
+		new DatabaseMaintenance().rebuildTagExpenseRollup(owner, entityManager);
+	}
+
+	/**
+	 * Writes the ledger into an XML file which can be imported with
+	 * XmlImporter. Transactions are generated while the file is written, so
+	 * memory usage doesn't depend on the ledger size.
+	 *
+	 * @param outputStream the output stream to write
+	 * @throws VogonExportException if the data cannot be written
+	 */
+	public void generate(OutputStream outputStream) throws VogonExportException {
+		VogonUser owner = new VogonUser(null, null);
+		owner.setDefaultCurrency(Currency.getInstance(currencies[0]));
+		final List<FinanceAccount> accounts = createAccounts(owner);
+		final VogonUser transactionsOwner = owner;
+		Collection<FinanceTransaction> transactions = new AbstractCollection<FinanceTransaction>() {
+
+			@Override
+			public Iterator<FinanceTransaction> iterator() {
+				return new TransactionIterator(transactionsOwner, accounts);
+			}
+
+			@Override
+			public int size() {
+				return (int) Math.min(transactionCount, Integer.MAX_VALUE);
+			}
+		};
+		new StreamingXmlExporter(outputStream).exportData(owner, accounts, transactions, createCurrencyRates());
+	}
+
+	/**
+	 * Creates the accounts
+	 *
+	 * @param owner the accounts owner
+	 * @return the created accounts
+	 */
+	private List<FinanceAccount> createAccounts(VogonUser owner) {
+		List<FinanceAccount> accounts = new ArrayList<>(accountCount);
+		for (int i = 0; i < accountCount; i++) {
+			String currency = currencies[i % currencies.length];
+			accounts.add(new FinanceAccount(owner, "Account " + i + " (" + currency + ")", Currency.getInstance(currency))); //NOI18N
+		}
+		return accounts;
+	}
+
+	/**
+	 * Creates exchange rates for all pairs of currencies
+	 *
+	 * @return the created currency rates
+	 */
+	private List<CurrencyRate> createCurrencyRates() {
+		Random random = new Random(seed);
+		double[] values = new double[currencies.length];
+		for (int i = 0; i < currencies.length; i++)
+			values[i] = 0.5 + random.nextDouble();
+		List<CurrencyRate> rates = new ArrayList<>();
+		for (int source = 0; source < currencies.length; source++)
+			for (int destination = 0; destination < currencies.length; destination++)
+				if (source != destination)
+					rates.add(new CurrencyRate(Currency.getInstance(currencies[source]), Currency.getInstance(currencies[destination]), values[source] / values[destination]));
+		return rates;
+	}
+
+	/**
+	 * Iterator which generates transactions; all iterators created with the
+	 * same settings return the same transactions
+	 */
+	private class TransactionIterator implements Iterator<FinanceTransaction> {
+
+		/**
+		 * The random number generator
+		 */
+		private final Random random = new Random(~seed);
+		/**
+		 * Cumulative tag probabilities
+		 */
+		private final double[] tagDistribution = new double[tagCount];
+		/**
+		 * Exchange rates, indexed by source and destination account
+		 */
+		private final double[][] accountRates;
+		/**
+		 * The transactions owner
+		 */
+		private VogonUser owner;
+		/**
+		 * The accounts
+		 */
+		private List<FinanceAccount> accounts;
+		/**
+		 * Number of transactions created so far
+		 */
+		private long index = 0;
+
+		/**
+		 * Creates the transaction iterator
+		 *
+		 * @param owner the transactions owner
+		 * @param accounts the accounts to use in transactions
+		 */
+		private TransactionIterator(VogonUser owner, List<FinanceAccount> accounts) {
+			setEntities(owner, accounts);
+			double sum = 0;
+			for (int i = 0; i < tagCount; i++) {
+				sum += 1.0 / Math.pow(i + 1, tagExponent);
+				tagDistribution[i] = sum;
+			}
+			for (int i = 0; i < tagCount; i++)
+				tagDistribution[i] /= sum;
+
+			accountRates = new double[accounts.size()][accounts.size()];
+			List<CurrencyRate> rates = createCurrencyRates();
+			for (int source = 0; source < accounts.size(); source++)
+				for (int destination = 0; destination < accounts.size(); destination++) {
+					accountRates[source][destination] = 1.0;
+					for (CurrencyRate rate : rates)
+						if (rate.getSource().equals(accounts.get(source).getCurrency()) && rate.getDestination().equals(accounts.get(destination).getCurrency()))
+							accountRates[source][destination] = rate.getExchangeRate();
+				}
+		}
+
+		/**
+		 * Replaces the owner and accounts (e.g. after they were reloaded);
+		 * the accounts should be in the same order
+		 *
+		 * @param owner the transactions owner
+		 * @param accounts the accounts to use in transactions
+		 */
+		private void setEntities(VogonUser owner, List<FinanceAccount> accounts) {
+			this.owner = owner;
+			this.accounts = accounts;
+		}
+
+		/**
+		 * Returns a random tag following the Zipf distribution
+		 *
+		 * @return a random tag
+		 */
+		private String nextTag() {
+			int tag = Arrays.binarySearch(tagDistribution, random.nextDouble());
+			if (tag < 0)
+				tag = -tag - 1;
+			return "tag" + Math.min(tag, tagCount - 1); //NOI18N
+		}
+
+		/**
+		 * Returns a random amount (log-normally distributed, median 30.00)
+		 *
+		 * @return a random raw amount
+		 */
+		private long nextAmount() {
+			return Math.max(1, Math.round(Math.exp(random.nextGaussian() + Math.log(3000))));
+		}
+
+		@Override
+		public boolean hasNext() {
+			return index < transactionCount;
+		}
+
+		@Override
+		public FinanceTransaction next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Calendar calendar = new GregorianCalendar();
+			calendar.setTime(startDate);
+			calendar.add(Calendar.DAY_OF_MONTH, (int) (index * days / transactionCount));
+
+			Set<String> tags = new LinkedHashSet<>();
+			int tagsCount = 1 + random.nextInt(Math.max(1, maxTags));
+			for (int i = 0; i < tagsCount; i++)
+				tags.add(nextTag());
+
+			boolean transfer = accounts.size() > 1 && random.nextDouble() < transferRatio;
+			FinanceTransaction transaction = new FinanceTransaction(owner, "Transaction " + index, tags.toArray(new String[0]), calendar.getTime(), transfer ? FinanceTransaction.Type.TRANSFER : FinanceTransaction.Type.EXPENSEINCOME); //NOI18N
+			if (transfer) {
+				int source = random.nextInt(accounts.size());
+				int destination = (source + 1 + random.nextInt(accounts.size() - 1)) % accounts.size();
+				long amount = nextAmount();
+				transaction.addComponent(new TransactionComponent(accounts.get(source), transaction, -amount));
+				transaction.addComponent(new TransactionComponent(accounts.get(destination), transaction, Math.round(amount * accountRates[source][destination])));
+			} else {
+				int componentsCount = random.nextDouble() < splitRatio ? 2 + random.nextInt(Math.max(1, maxComponents - 1)) : 1;
+				long sign = random.nextDouble() < incomeRatio ? 1 : -1;
+				for (int i = 0; i < componentsCount; i++)
+					transaction.addComponent(new TransactionComponent(accounts.get(random.nextInt(accounts.size())), transaction, sign * nextAmount()));
+			}
+			index++;
+			return transaction;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
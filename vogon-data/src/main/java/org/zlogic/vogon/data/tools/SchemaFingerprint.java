@@ -0,0 +1,172 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.data.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.hibernate.Version;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Fingerprint of the entity mappings, used to skip schema updates (which
+ * introspect the whole database) when the schema was already updated for the
+ * same mappings. The fingerprint is a hash of persistence.xml, the entity
+ * classes listed in it, the Hibernate version and the SQL dialect, so any
+ * change to the entities causes a schema update.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class SchemaFingerprint {
+
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/data/messages");
+	/**
+	 * The table storing the fingerprint of the current schema
+	 */
+	private static final String TABLE = "SchemaFingerprint"; //NOI18N
+	/**
+	 * The fingerprint
+	 */
+	private final String fingerprint;
+
+	/**
+	 * Computes the fingerprint of a persistence unit
+	 *
+	 * @param persistenceXmlLocation the persistence.xml classpath location
+	 * @param dialect the Hibernate SQL dialect
+	 * @throws IOException if the persistence.xml or entity classes cannot be
+	 * read
+	 */
+	public SchemaFingerprint(String persistenceXmlLocation, String dialect) throws IOException {
+		ClassLoader classLoader = SchemaFingerprint.class.getClassLoader();
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5"); //NOI18N
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException(ex);
+		}
+		byte[] persistenceXml = readResource(classLoader, persistenceXmlLocation);
+		digest.update(persistenceXml);
+		for (String className : getEntityClasses(classLoader, persistenceXmlLocation))
+			digest.update(readResource(classLoader, className.replace('.', '/') + ".class")); //NOI18N
+		digest.update(Version.getVersionString().getBytes(StandardCharsets.UTF_8));
+		digest.update(String.valueOf(dialect).getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest())
+			hex.append(String.format("%02x", b)); //NOI18N
+		fingerprint = hex.toString();
+	}
+
+	/**
+	 * Reads a classpath resource
+	 *
+	 * @param classLoader the ClassLoader to use
+	 * @param location the resource location
+	 * @return the resource contents
+	 * @throws IOException if the resource doesn't exist or cannot be read
+	 */
+	private static byte[] readResource(ClassLoader classLoader, String location) throws IOException {
+		try (InputStream stream = classLoader.getResourceAsStream(location)) {
+			if (stream == null)
+				throw new IOException(MessageFormat.format(messages.getString("RESOURCE_NOT_FOUND"), new Object[]{location}));
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer))
+				output.write(buffer, 0, read);
+			return output.toByteArray();
+		}
+	}
+
+	/**
+	 * Returns the entity classes listed in persistence.xml
+	 *
+	 * @param classLoader the ClassLoader to use
+	 * @param persistenceXmlLocation the persistence.xml classpath location
+	 * @return the entity class names
+	 * @throws IOException if persistence.xml cannot be read or parsed
+	 */
+	private static String[] getEntityClasses(ClassLoader classLoader, String persistenceXmlLocation) throws IOException {
+		try (InputStream stream = classLoader.getResourceAsStream(persistenceXmlLocation)) {
+			NodeList classNodes = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(stream).getElementsByTagName("class"); //NOI18N
+			String[] classNames = new String[classNodes.getLength()];
+			for (int i = 0; i < classNodes.getLength(); i++)
+				classNames[i] = classNodes.item(i).getTextContent().trim();
+			return classNames;
+		} catch (ParserConfigurationException | SAXException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Returns the fingerprint
+	 *
+	 * @return the fingerprint
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Returns true if the database schema was last updated for the same
+	 * fingerprint
+	 *
+	 * @param connection the database connection
+	 * @return true if the database schema is current, false if it needs to
+	 * be updated or the fingerprint cannot be read
+	 */
+	public boolean isCurrent(Connection connection) {
+		try (Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT fingerprint FROM " + TABLE)) { //NOI18N
+			return resultSet.next() && fingerprint.equals(resultSet.getString(1)) && !resultSet.next();
+		} catch (SQLException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stores the fingerprint after the database schema was updated
+	 *
+	 * @param connection the database connection
+	 * @throws SQLException if the fingerprint cannot be stored
+	 */
+	public void store(Connection connection) throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try {
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE + " (fingerprint VARCHAR(32) NOT NULL)"); //NOI18N
+				statement.executeUpdate("DELETE FROM " + TABLE); //NOI18N
+			}
+			try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + TABLE + " (fingerprint) VALUES (?)")) { //NOI18N
+				statement.setString(1, fingerprint);
+				statement.executeUpdate();
+			}
+			connection.commit();
+		} catch (SQLException ex) {
+			connection.rollback();
+			throw ex;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+}
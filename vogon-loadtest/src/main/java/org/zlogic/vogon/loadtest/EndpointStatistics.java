@@ -0,0 +1,103 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects request latencies and errors for an endpoint
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class EndpointStatistics {
+
+	/**
+	 * The endpoint name
+	 */
+	private final String name;
+	/**
+	 * Recorded latencies, in nanoseconds
+	 */
+	private long[] latencies = new long[1024];
+	/**
+	 * Number of recorded latencies
+	 */
+	private int count = 0;
+	/**
+	 * Number of failed requests
+	 */
+	private int errors = 0;
+
+	/**
+	 * Creates endpoint statistics
+	 *
+	 * @param name the endpoint name
+	 */
+	public EndpointStatistics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a successful request
+	 *
+	 * @param latency the request latency, in nanoseconds
+	 */
+	public synchronized void record(long latency) {
+		if (count == latencies.length)
+			latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		latencies[count++] = latency;
+	}
+
+	/**
+	 * Records a failed request
+	 */
+	public synchronized void recordError() {
+		errors++;
+	}
+
+	/**
+	 * Returns the endpoint name
+	 *
+	 * @return the endpoint name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of successful requests
+	 *
+	 * @return the number of successful requests
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of failed requests
+	 *
+	 * @return the number of failed requests
+	 */
+	public synchronized int getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns a latency percentile (nearest-rank)
+	 *
+	 * @param percentile the percentile (0 to 100)
+	 * @return the latency percentile in milliseconds, or NaN if no requests
+	 * were recorded
+	 */
+	public synchronized double getPercentile(double percentile) {
+		if (count == 0)
+			return Double.NaN;
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile / 100.0 * count);
+		return sorted[Math.max(0, Math.min(count, rank) - 1)] / 1e6;
+	}
+}
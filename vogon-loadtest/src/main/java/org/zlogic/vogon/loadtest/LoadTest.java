@@ -0,0 +1,454 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.zlogic.vogon.data.tools.LedgerGenerator;
+
+/**
+ * HTTP load test for the Vogon REST service. Registers test users, imports
+ * a synthetic ledger for each of them, then runs a weighted mix of requests
+ * from concurrent clients and reports latency percentiles and throughput per
+ * endpoint.
+ *
+ * Configured with system properties:
+ * <ul>
+ * <li>vogon.loadtest.url - the service URL (https://localhost:8443/)</li>
+ * <li>vogon.loadtest.insecure - if the server certificate should not be
+ * validated (true)</li>
+ * <li>vogon.loadtest.admin.username, vogon.loadtest.admin.password - admin
+ * credentials, used to allow registration (Default/Default)</li>
+ * <li>vogon.loadtest.users - number of test users (4)</li>
+ * <li>vogon.loadtest.concurrency - number of concurrent clients (16)</li>
+ * <li>vogon.loadtest.transactions - number of transactions imported for
+ * every new test user (10000)</li>
+ * <li>vogon.loadtest.warmup - warmup time in seconds, not included in
+ * results (10)</li>
+ * <li>vogon.loadtest.duration - measurement time in seconds (60)</li>
+ * <li>vogon.loadtest.seed - the random seed (0)</li>
+ * </ul>
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class LoadTest {
+
+	/**
+	 * The logger
+	 */
+	private static final Logger log = Logger.getLogger(LoadTest.class.getName());
+	/**
+	 * Prefix for test user names
+	 */
+	private static final String USERNAME_PREFIX = "loadtest"; //NOI18N
+	/**
+	 * Import endpoint name
+	 */
+	private static final String IMPORT_ENDPOINT = "POST /service/import"; //NOI18N
+	/**
+	 * Maximum number of errors to log
+	 */
+	private static final int MAX_LOGGED_ERRORS = 20;
+
+	/**
+	 * The tested operations
+	 */
+	private enum Operation {
+
+		/**
+		 * Get a page of transactions
+		 */
+		TRANSACTIONS("GET /service/transactions", 30), //NOI18N
+		/**
+		 * Get the number of transaction pages
+		 */
+		TRANSACTION_PAGES("GET /service/transactions/pages", 5), //NOI18N
+		/**
+		 * Create a transaction
+		 */
+		SUBMIT_TRANSACTION("POST /service/transactions", 10), //NOI18N
+		/**
+		 * Get accounts
+		 */
+		ACCOUNTS("GET /service/accounts", 15), //NOI18N
+		/**
+		 * Get all tags
+		 */
+		TAGS("GET /service/analytics/tags", 5), //NOI18N
+		/**
+		 * Build a report
+		 */
+		ANALYTICS("POST /service/analytics", 15), //NOI18N
+		/**
+		 * Get a page of report transactions
+		 */
+		ANALYTICS_TRANSACTIONS("POST /service/analytics/transactions", 10), //NOI18N
+		/**
+		 * Export all data
+		 */
+		EXPORT("GET /service/export/xml", 2); //NOI18N
+		/**
+		 * The endpoint name
+		 */
+		private final String endpoint;
+		/**
+		 * The operation weight in the request mix
+		 */
+		private final int weight;
+
+		/**
+		 * Creates an operation
+		 *
+		 * @param endpoint the endpoint name
+		 * @param weight the operation weight in the request mix
+		 */
+		private Operation(String endpoint, int weight) {
+			this.endpoint = endpoint;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Authenticated test user
+	 */
+	private static class UserSession {
+
+		/**
+		 * The authenticated client
+		 */
+		private LoadTestClient client;
+		/**
+		 * The user's accounts
+		 */
+		private JsonNode accounts;
+		/**
+		 * The user's tags
+		 */
+		private JsonNode tags;
+		/**
+		 * The number of transaction pages
+		 */
+		private int pages;
+	}
+
+	/**
+	 * The service URL
+	 */
+	private final String url = System.getProperty("vogon.loadtest.url", "https://localhost:8443/"); //NOI18N
+	/**
+	 * True if the server certificate should not be validated
+	 */
+	private final boolean insecure = Boolean.parseBoolean(System.getProperty("vogon.loadtest.insecure", "true")); //NOI18N
+	/**
+	 * Admin username
+	 */
+	private final String adminUsername = System.getProperty("vogon.loadtest.admin.username", "Default"); //NOI18N
+	/**
+	 * Admin password
+	 */
+	private final String adminPassword = System.getProperty("vogon.loadtest.admin.password", "Default"); //NOI18N
+	/**
+	 * Number of test users
+	 */
+	private final int users = Integer.getInteger("vogon.loadtest.users", 4); //NOI18N
+	/**
+	 * Number of concurrent clients
+	 */
+	private final int concurrency = Integer.getInteger("vogon.loadtest.concurrency", 16); //NOI18N
+	/**
+	 * Number of transactions imported for every new test user
+	 */
+	private final long transactions = Long.getLong("vogon.loadtest.transactions", 10000); //NOI18N
+	/**
+	 * Warmup time in seconds
+	 */
+	private final int warmup = Integer.getInteger("vogon.loadtest.warmup", 10); //NOI18N
+	/**
+	 * Measurement time in seconds
+	 */
+	private final int duration = Integer.getInteger("vogon.loadtest.duration", 60); //NOI18N
+	/**
+	 * The random seed
+	 */
+	private final long seed = Long.getLong("vogon.loadtest.seed", 0); //NOI18N
+	/**
+	 * Statistics for every operation
+	 */
+	private final Map<Operation, EndpointStatistics> statistics = new EnumMap<>(Operation.class);
+	/**
+	 * Import statistics
+	 */
+	private final EndpointStatistics importStatistics = new EndpointStatistics(IMPORT_ENDPOINT);
+	/**
+	 * Number of logged errors
+	 */
+	private final AtomicInteger loggedErrors = new AtomicInteger();
+
+	/**
+	 * Creates the load test
+	 */
+	public LoadTest() {
+		for (Operation operation : Operation.values())
+			statistics.put(operation, new EndpointStatistics(operation.endpoint));
+	}
+
+	/**
+	 * Main method
+	 *
+	 * @param args the command line arguments (not used)
+	 * @throws Exception if the test could not be started
+	 */
+	public static void main(String[] args) throws Exception {
+		new LoadTest().run();
+	}
+
+	/**
+	 * Prepares the users, runs the test and prints the results
+	 *
+	 * @throws Exception if the test could not be started
+	 */
+	public void run() throws Exception {
+		LoadTestClient adminClient = new LoadTestClient(url, insecure);
+		adminClient.login(adminUsername, adminPassword);
+		Map<String, String> allowRegistration = new HashMap<>();
+		allowRegistration.put("name", "AllowRegistration"); //NOI18N
+		allowRegistration.put("value", "true"); //NOI18N
+		adminClient.postJson("service/configuration", Collections.singletonList(allowRegistration)); //NOI18N
+
+		final List<UserSession> sessions = new ArrayList<>();
+		for (int i = 0; i < users; i++)
+			sessions.add(createSession(USERNAME_PREFIX + i, seed + i));
+
+		log.info(MessageFormat.format("Running {0} clients for {1}+{2} seconds", concurrency, warmup, duration)); //NOI18N
+		final long measurementStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup);
+		final long measurementEnd = measurementStart + TimeUnit.SECONDS.toNanos(duration);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			final UserSession session = sessions.get(i % sessions.size());
+			final Random random = new Random(seed + i);
+			executor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					runClient(session, random, measurementStart, measurementEnd);
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(warmup + duration + 3600, TimeUnit.SECONDS);
+
+		printResults();
+	}
+
+	/**
+	 * Registers and logs in a test user; imports a synthetic ledger if the
+	 * user has no transactions
+	 *
+	 * @param username the username (also used as the password)
+	 * @param ledgerSeed the random seed for the user's ledger
+	 * @return the user session
+	 * @throws Exception if the user could not be prepared
+	 */
+	private UserSession createSession(String username, long ledgerSeed) throws Exception {
+		UserSession session = new UserSession();
+		session.client = new LoadTestClient(url, insecure);
+		Map<String, String> user = new HashMap<>();
+		user.put("username", username); //NOI18N
+		user.put("password", username); //NOI18N
+		try {
+			session.client.postJson("register", user); //NOI18N
+		} catch (IOException ex) {
+			log.log(Level.FINE, MessageFormat.format("Cannot register user {0}, probably already exists", username), ex); //NOI18N
+		}
+		session.client.login(username, username);
+
+		if (session.client.getJson("service/transactions/pages", null).asInt() == 0 && transactions > 0) { //NOI18N
+			log.info(MessageFormat.format("Importing {0} transactions for user {1}", transactions, username)); //NOI18N
+			Calendar startDate = new GregorianCalendar();
+			startDate.add(Calendar.YEAR, -3);
+			LedgerGenerator generator = new LedgerGenerator();
+			generator.setSeed(ledgerSeed);
+			generator.setTransactionCount(transactions);
+			generator.setStartDate(startDate.getTime());
+			generator.setDays(3 * 365);
+			ByteArrayOutputStream ledger = new ByteArrayOutputStream();
+			generator.generate(ledger);
+
+			long start = System.nanoTime();
+			JsonNode job = session.client.postFile("service/import", "file", "ledger.xml", ledger.toByteArray()); //NOI18N
+			String jobId = job.get("id").asText(); //NOI18N
+			while (job != null && (job.path("state").asText().equals("QUEUED") || job.path("state").asText().equals("RUNNING"))) { //NOI18N
+				Thread.sleep(500);
+				job = session.client.getJson("service/import/" + jobId, null); //NOI18N
+			}
+			if (job != null && job.path("state").asText().equals("FAILED")) //NOI18N
+				throw new IOException(MessageFormat.format("Import failed for user {0}: {1}", username, job.path("error").asText())); //NOI18N
+			importStatistics.record(System.nanoTime() - start);
+		}
+		session.pages = session.client.getJson("service/transactions/pages", null).asInt(); //NOI18N
+		session.accounts = session.client.getJson("service/accounts", null); //NOI18N
+		session.tags = session.client.getJson("service/analytics/tags", null); //NOI18N
+		return session;
+	}
+
+	/**
+	 * Sends requests until the end of the measurement
+	 *
+	 * @param session the user session
+	 * @param random the random number generator
+	 * @param measurementStart the measurement start (System.nanoTime)
+	 * @param measurementEnd the measurement end (System.nanoTime)
+	 */
+	private void runClient(UserSession session, Random random, long measurementStart, long measurementEnd) {
+		int totalWeight = 0;
+		for (Operation operation : Operation.values())
+			totalWeight += operation.weight;
+		for (long start = System.nanoTime(); start < measurementEnd; start = System.nanoTime()) {
+			int choice = random.nextInt(totalWeight);
+			Operation operation = null;
+			for (Operation candidate : Operation.values()) {
+				operation = candidate;
+				choice -= candidate.weight;
+				if (choice < 0)
+					break;
+			}
+			EndpointStatistics operationStatistics = statistics.get(operation);
+			try {
+				execute(operation, session, random);
+				if (start >= measurementStart)
+					operationStatistics.record(System.nanoTime() - start);
+			} catch (IOException | RuntimeException ex) {
+				if (start >= measurementStart)
+					operationStatistics.recordError();
+				if (loggedErrors.incrementAndGet() <= MAX_LOGGED_ERRORS)
+					log.log(Level.WARNING, MessageFormat.format("{0} failed", operation.endpoint), ex); //NOI18N
+			}
+		}
+	}
+
+	/**
+	 * Performs a request
+	 *
+	 * @param operation the operation to perform
+	 * @param session the user session
+	 * @param random the random number generator
+	 * @throws IOException if the request failed
+	 */
+	private void execute(Operation operation, UserSession session, Random random) throws IOException {
+		switch (operation) {
+			case TRANSACTIONS:
+				session.client.get("service/transactions", Collections.singletonMap("page", Integer.toString(random.nextInt(Math.max(1, session.pages))))); //NOI18N
+				break;
+			case TRANSACTION_PAGES:
+				session.client.get("service/transactions/pages", null); //NOI18N
+				break;
+			case SUBMIT_TRANSACTION:
+				session.client.postJson("service/transactions", createTransaction(session, random)); //NOI18N
+				break;
+			case ACCOUNTS:
+				session.client.get("service/accounts", null); //NOI18N
+				break;
+			case TAGS:
+				session.client.get("service/analytics/tags", null); //NOI18N
+				break;
+			case ANALYTICS:
+				session.client.postJson("service/analytics", createReportRequest(session, 0)); //NOI18N
+				break;
+			case ANALYTICS_TRANSACTIONS:
+				session.client.postJson("service/analytics/transactions", createReportRequest(session, 1)); //NOI18N
+				break;
+			case EXPORT:
+				session.client.get("service/export/xml", null); //NOI18N
+				break;
+		}
+	}
+
+	/**
+	 * Creates a new expense transaction
+	 *
+	 * @param session the user session
+	 * @param random the random number generator
+	 * @return the transaction JSON
+	 */
+	private ObjectNode createTransaction(UserSession session, Random random) {
+		ObjectNode transaction = LoadTestClient.getMapper().createObjectNode();
+		transaction.put("type", "EXPENSEINCOME"); //NOI18N
+		transaction.put("description", "Load test"); //NOI18N
+		transaction.put("date", new SimpleDateFormat("yyyy-MM-dd").format(new Date())); //NOI18N
+		transaction.putArray("tags").add(USERNAME_PREFIX); //NOI18N
+		ArrayNode components = transaction.putArray("components"); //NOI18N
+		if (session.accounts.size() > 0) {
+			ObjectNode component = components.addObject();
+			component.put("accountId", session.accounts.get(random.nextInt(session.accounts.size())).get("id").asLong()); //NOI18N
+			component.put("amount", -(1 + random.nextInt(10000)) / 100.0); //NOI18N
+		}
+		return transaction;
+	}
+
+	/**
+	 * Creates a one-year report request for all accounts and tags
+	 *
+	 * @param session the user session
+	 * @param transactionsPage the requested transactions page
+	 * @return the report request JSON
+	 */
+	private ObjectNode createReportRequest(UserSession session, int transactionsPage) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd"); //NOI18N
+		Calendar calendar = new GregorianCalendar();
+		ObjectNode request = LoadTestClient.getMapper().createObjectNode();
+		request.put("latestDate", dateFormat.format(calendar.getTime())); //NOI18N
+		calendar.add(Calendar.YEAR, -1);
+		request.put("earliestDate", dateFormat.format(calendar.getTime())); //NOI18N
+		request.put("enabledTransferTransactions", true); //NOI18N
+		request.put("enabledIncomeTransactions", true); //NOI18N
+		request.put("enabledExpenseTransactions", true); //NOI18N
+		request.putArray("selectedTags").addAll((ArrayNode) session.tags); //NOI18N
+		request.putArray("selectedAccounts").addAll((ArrayNode) session.accounts); //NOI18N
+		request.put("transactionsPage", transactionsPage); //NOI18N
+		return request;
+	}
+
+	/**
+	 * Prints latency percentiles and throughput for every endpoint
+	 */
+	private void printResults() {
+		System.out.println(String.format("%-40s %8s %8s %10s %9s %9s %9s", "Endpoint", "Requests", "Errors", "Req/s", "p50 ms", "p95 ms", "p99 ms")); //NOI18N
+		List<EndpointStatistics> results = new ArrayList<>(statistics.values());
+		results.add(importStatistics);
+		long totalRequests = 0;
+		for (EndpointStatistics result : results) {
+			boolean measured = result != importStatistics;
+			if (measured)
+				totalRequests += result.getCount();
+			System.out.println(String.format("%-40s %8d %8d %10s %9.1f %9.1f %9.1f", //NOI18N
+					result.getName(), result.getCount(), result.getErrors(),
+					measured ? String.format("%.1f", result.getCount() / (double) duration) : "-", //NOI18N
+					result.getPercentile(50), result.getPercentile(95), result.getPercentile(99)));
+		}
+		System.out.println(String.format("Total throughput: %.1f requests/s with %d clients and %d users", totalRequests / (double) duration, concurrency, users)); //NOI18N
+	}
+}
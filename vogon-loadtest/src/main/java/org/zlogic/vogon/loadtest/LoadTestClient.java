@@ -0,0 +1,239 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache 2.0 License: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.UUID;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Minimal HTTP client for the Vogon REST service, authenticated with an
+ * OAuth token
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class LoadTestClient {
+
+	/**
+	 * The OAuth client ID used by the web client
+	 */
+	private static final String CLIENT_ID = "vogonweb"; //NOI18N
+	/**
+	 * UTF-8 charset
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8"); //NOI18N
+	/**
+	 * The JSON mapper
+	 */
+	private static final ObjectMapper mapper = new ObjectMapper();
+	/**
+	 * The service base URL (ending with /)
+	 */
+	private final String baseUrl;
+	/**
+	 * Socket factory which trusts all certificates, or null if certificates
+	 * should be validated
+	 */
+	private final SSLSocketFactory insecureSocketFactory;
+	/**
+	 * The OAuth access token
+	 */
+	private String accessToken;
+
+	/**
+	 * Creates a client
+	 *
+	 * @param baseUrl the service base URL
+	 * @param insecure true if the server certificate should not be validated
+	 * (e.g. for a self-signed certificate of a local server)
+	 * @throws GeneralSecurityException if an SSL context cannot be created
+	 */
+	public LoadTestClient(String baseUrl, boolean insecure) throws GeneralSecurityException {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/"; //NOI18N
+		if (insecure) {
+			SSLContext context = SSLContext.getInstance("TLS"); //NOI18N
+			context.init(null, new TrustManager[]{new X509TrustManager() {
+
+				@Override
+				public void checkClientTrusted(X509Certificate[] chain, String authType) {
+				}
+
+				@Override
+				public void checkServerTrusted(X509Certificate[] chain, String authType) {
+				}
+
+				@Override
+				public X509Certificate[] getAcceptedIssuers() {
+					return new X509Certificate[0];
+				}
+			}}, null);
+			insecureSocketFactory = context.getSocketFactory();
+		} else {
+			insecureSocketFactory = null;
+		}
+	}
+
+	/**
+	 * Returns the JSON mapper
+	 *
+	 * @return the JSON mapper
+	 */
+	public static ObjectMapper getMapper() {
+		return mapper;
+	}
+
+	/**
+	 * Obtains an OAuth access token with the password grant
+	 *
+	 * @param username the username
+	 * @param password the password
+	 * @throws IOException if authentication failed
+	 */
+	public void login(String username, String password) throws IOException {
+		StringBuilder form = new StringBuilder();
+		form.append("grant_type=password&client_id=").append(CLIENT_ID) //NOI18N
+				.append("&username=").append(URLEncoder.encode(username, "UTF-8")) //NOI18N
+				.append("&password=").append(URLEncoder.encode(password, "UTF-8")); //NOI18N
+		accessToken = null;
+		JsonNode token = mapper.readTree(request("POST", "oauth/token", "application/x-www-form-urlencoded", form.toString().getBytes(UTF8))); //NOI18N
+		accessToken = token.get("access_token").asText(); //NOI18N
+	}
+
+	/**
+	 * Performs a GET request
+	 *
+	 * @param path the path relative to the base URL
+	 * @param parameters the query parameters, or null
+	 * @return the response body
+	 * @throws IOException if the request failed
+	 */
+	public byte[] get(String path, Map<String, String> parameters) throws IOException {
+		StringBuilder url = new StringBuilder(path);
+		if (parameters != null) {
+			char separator = '?';
+			for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+				url.append(separator).append(URLEncoder.encode(parameter.getKey(), "UTF-8")) //NOI18N
+						.append('=').append(URLEncoder.encode(parameter.getValue(), "UTF-8")); //NOI18N
+				separator = '&';
+			}
+		}
+		return request("GET", url.toString(), null, null); //NOI18N
+	}
+
+	/**
+	 * Performs a GET request and parses the JSON response
+	 *
+	 * @param path the path relative to the base URL
+	 * @param parameters the query parameters, or null
+	 * @return the response JSON
+	 * @throws IOException if the request failed
+	 */
+	public JsonNode getJson(String path, Map<String, String> parameters) throws IOException {
+		return mapper.readTree(get(path, parameters));
+	}
+
+	/**
+	 * Performs a POST request with a JSON body and parses the JSON response
+	 *
+	 * @param path the path relative to the base URL
+	 * @param body the object to send as JSON
+	 * @return the response JSON, or null if the response is empty
+	 * @throws IOException if the request failed
+	 */
+	public JsonNode postJson(String path, Object body) throws IOException {
+		byte[] response = request("POST", path, "application/json", mapper.writeValueAsBytes(body)); //NOI18N
+		return response.length > 0 ? mapper.readTree(response) : null;
+	}
+
+	/**
+	 * Uploads a file as multipart/form-data and parses the JSON response
+	 *
+	 * @param path the path relative to the base URL
+	 * @param field the form field name
+	 * @param filename the file name
+	 * @param data the file contents
+	 * @return the response JSON
+	 * @throws IOException if the request failed
+	 */
+	public JsonNode postFile(String path, String field, String filename, byte[] data) throws IOException {
+		String boundary = UUID.randomUUID().toString();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(data.length + 256);
+		body.write(MessageFormat.format("--{0}\r\nContent-Disposition: form-data; name=\"{1}\"; filename=\"{2}\"\r\nContent-Type: application/octet-stream\r\n\r\n", boundary, field, filename).getBytes(UTF8)); //NOI18N
+		body.write(data);
+		body.write(MessageFormat.format("\r\n--{0}--\r\n", boundary).getBytes(UTF8)); //NOI18N
+		return mapper.readTree(request("POST", path, "multipart/form-data; boundary=" + boundary, body.toByteArray())); //NOI18N
+	}
+
+	/**
+	 * Performs an HTTP request
+	 *
+	 * @param method the HTTP method
+	 * @param path the path relative to the base URL
+	 * @param contentType the request content type, or null if there is no
+	 * request body
+	 * @param body the request body, or null
+	 * @return the response body
+	 * @throws IOException if the request failed or returned an error status
+	 */
+	private byte[] request(String method, String path, String contentType, byte[] body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		if (insecureSocketFactory != null && connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setSSLSocketFactory(insecureSocketFactory);
+			((HttpsURLConnection) connection).setHostnameVerifier(new HostnameVerifier() {
+
+				@Override
+				public boolean verify(String hostname, SSLSession session) {
+					return true;
+				}
+			});
+		}
+		connection.setRequestMethod(method);
+		connection.setRequestProperty("Accept", "application/json"); //NOI18N
+		if (accessToken != null)
+			connection.setRequestProperty("Authorization", "Bearer " + accessToken); //NOI18N
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", contentType); //NOI18N
+			connection.setFixedLengthStreamingMode(body.length);
+			try (OutputStream outputStream = connection.getOutputStream()) {
+				outputStream.write(body);
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		if (inputStream != null)
+			try {
+				byte[] buffer = new byte[8192];
+				for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer))
+					response.write(buffer, 0, read);
+			} finally {
+				inputStream.close();
+			}
+		if (status >= 400)
+			throw new IOException(MessageFormat.format("{0} {1} returned HTTP {2}: {3}", method, path, status, new String(response.toByteArray(), UTF8))); //NOI18N
+		return response.toByteArray();
+	}
+}
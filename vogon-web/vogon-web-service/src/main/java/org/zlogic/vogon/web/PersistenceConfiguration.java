@@ -5,25 +5,56 @@
  */
 package org.zlogic.vogon.web;
 
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import java.beans.PropertyVetoException;
+import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.PreDestroy;
 import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.zlogic.vogon.data.tools.SchemaFingerprint;
+import org.zlogic.vogon.web.data.ReadFromReplica;
+import org.zlogic.vogon.web.data.ReadFromReplicaInterceptor;
+import org.zlogic.vogon.web.data.ReadOnlyHibernateJpaDialect;
+import org.zlogic.vogon.web.data.ReplicaRoutingDataSource;
+import org.zlogic.vogon.web.data.SchemaUpdateIntegrator;
+import org.zlogic.vogon.web.metrics.RequestStatementInspector;
+import org.zlogic.vogon.web.metrics.RequestStatementTimer;
+import org.zlogic.vogon.web.metrics.TimedC3P0ConnectionProvider;
+import org.zlogic.vogon.web.metrics.TimedDataSource;
+import org.zlogic.vogon.web.metrics.TimedHikariCPConnectionProvider;
 
 /**
  * Persistence/JPA configuration class
@@ -49,6 +80,24 @@ public class PersistenceConfiguration {
 	 */
 	@Autowired
 	private ServerTypeDetector serverTypeDetector;
+	/**
+	 * Connection pools created by this class, closed on shutdown
+	 */
+	private final List<DataSource> pooledDataSources = new ArrayList<>();
+	/**
+	 * Schema fingerprint to store once the schema has been updated, or null
+	 * if the schema didn't need an update
+	 */
+	private SchemaFingerprint pendingSchemaFingerprint;
+	/**
+	 * Database configuration used to store pendingSchemaFingerprint
+	 */
+	private Map<String, Object> pendingSchemaFingerprintConfiguration;
+	/**
+	 * The schema update which has to succeed before pendingSchemaFingerprint
+	 * is stored
+	 */
+	private SchemaUpdateIntegrator pendingSchemaUpdate;
 
 	/**
 	 * Returns the path to the H2 database
@@ -74,6 +123,209 @@ public class PersistenceConfiguration {
 		return System.getProperty("user.dir"); //NOI18N 
 	}
 
+	/**
+	 * Returns a setting from an environment variable, or a system property if
+	 * the environment variable is not set
+	 *
+	 * @param environmentVariable the environment variable name
+	 * @param property the system property name
+	 * @param defaultValue the value to return if neither is set
+	 * @return the setting value
+	 */
+	private String getSetting(String environmentVariable, String property, String defaultValue) {
+		if (System.getenv(environmentVariable) != null)
+			return System.getenv(environmentVariable);
+		return System.getProperty(property, defaultValue);
+	}
+
+	/**
+	 * Connection pool settings
+	 */
+	private static class PoolSettings {
+
+		/**
+		 * True if HikariCP should be used instead of c3p0
+		 */
+		private boolean hikari;
+		/**
+		 * Minimum pool size
+		 */
+		private int minSize;
+		/**
+		 * Maximum pool size
+		 */
+		private int maxSize;
+		/**
+		 * Prepared statement cache size (c3p0 only)
+		 */
+		private int statements;
+		/**
+		 * Connection acquire timeout in milliseconds
+		 */
+		private int timeout;
+		/**
+		 * Idle connection test period in seconds (c3p0 only)
+		 */
+		private int idleTest;
+		/**
+		 * Leak detection threshold in milliseconds, or 0 if disabled
+		 */
+		private long leakDetection;
+	}
+
+	/**
+	 * Returns the connection pool settings. The pool is c3p0 by default,
+	 * HikariCP can be selected with the VOGON_DATABASE_POOL environment
+	 * variable or vogon.database.pool system property.
+	 *
+	 * @return the connection pool settings
+	 */
+	private PoolSettings getPoolSettings() {
+		PoolSettings settings = new PoolSettings();
+		String pool = getSetting("VOGON_DATABASE_POOL", "vogon.database.pool", "c3p0"); //NOI18N
+		settings.hikari = "hikari".equalsIgnoreCase(pool); //NOI18N
+		if (!settings.hikari && !"c3p0".equalsIgnoreCase(pool)) //NOI18N
+			log.warn(MessageFormat.format(messages.getString("UNKNOWN_CONNECTION_POOL"), new Object[]{pool}));
+		settings.minSize = Integer.parseInt(getSetting("VOGON_DATABASE_POOL_MIN", "vogon.database.pool.min", "2")); //NOI18N
+		settings.maxSize = Integer.parseInt(getSetting("VOGON_DATABASE_POOL_MAX", "vogon.database.pool.max", "20")); //NOI18N
+		settings.statements = Integer.parseInt(getSetting("VOGON_DATABASE_POOL_STATEMENTS", "vogon.database.pool.statements", "200")); //NOI18N
+		settings.timeout = Integer.parseInt(getSetting("VOGON_DATABASE_POOL_TIMEOUT", "vogon.database.pool.timeout", "30000")); //NOI18N
+		settings.idleTest = Integer.parseInt(getSetting("VOGON_DATABASE_POOL_IDLETEST", "vogon.database.pool.idletest", "300")); //NOI18N
+		settings.leakDetection = Long.parseLong(getSetting("VOGON_DATABASE_POOL_LEAK", "vogon.database.pool.leak", "0")); //NOI18N
+		return settings;
+	}
+
+	/**
+	 * Returns the JPA configuration overrides for the connection pool managed
+	 * by Hibernate
+	 *
+	 * @return the map of JPA configuration variables to override for the
+	 * connection pool
+	 */
+	protected Map<String, Object> getPoolConfiguration() {
+		Map<String, Object> poolProperties = new HashMap<>();
+		PoolSettings settings = getPoolSettings();
+		if (settings.hikari) {
+			poolProperties.put("hibernate.connection.provider_class", TimedHikariCPConnectionProvider.class.getName()); //NOI18N
+			poolProperties.put("hibernate.hikari.minimumIdle", Integer.toString(settings.minSize)); //NOI18N
+			poolProperties.put("hibernate.hikari.maximumPoolSize", Integer.toString(settings.maxSize)); //NOI18N
+			poolProperties.put("hibernate.hikari.connectionTimeout", Integer.toString(settings.timeout)); //NOI18N
+			poolProperties.put("hibernate.hikari.leakDetectionThreshold", Long.toString(settings.leakDetection)); //NOI18N
+		} else {
+			poolProperties.put("hibernate.connection.provider_class", TimedC3P0ConnectionProvider.class.getName()); //NOI18N
+			poolProperties.put("hibernate.c3p0.min_size", Integer.toString(settings.minSize)); //NOI18N
+			poolProperties.put("hibernate.c3p0.max_size", Integer.toString(settings.maxSize)); //NOI18N
+			poolProperties.put("hibernate.c3p0.max_statements", Integer.toString(settings.statements)); //NOI18N
+			poolProperties.put("hibernate.c3p0.idle_test_period", Integer.toString(settings.idleTest)); //NOI18N
+			poolProperties.put("hibernate.c3p0.checkoutTimeout", Integer.toString(settings.timeout)); //NOI18N
+			long leakDetectionSeconds = TimeUnit.MILLISECONDS.toSeconds(settings.leakDetection);
+			if (leakDetectionSeconds > 0) {
+				poolProperties.put("hibernate.c3p0.unreturnedConnectionTimeout", Long.toString(leakDetectionSeconds)); //NOI18N
+				poolProperties.put("hibernate.c3p0.debugUnreturnedConnectionStackTraces", "true"); //NOI18N
+			}
+		}
+		return poolProperties;
+	}
+
+	/**
+	 * Creates a pooled DataSource with the configured connection pool
+	 *
+	 * @param url the JDBC URL
+	 * @param username the database username
+	 * @param password the database password
+	 * @param driverClass the JDBC driver class
+	 * @return the pooled DataSource
+	 * @throws PropertyVetoException if the JDBC driver cannot be used
+	 */
+	protected DataSource createPooledDataSource(String url, String username, String password, String driverClass) throws PropertyVetoException {
+		PoolSettings settings = getPoolSettings();
+		DataSource dataSource;
+		if (settings.hikari) {
+			HikariConfig config = new HikariConfig();
+			config.setDriverClassName(driverClass);
+			config.setJdbcUrl(url);
+			config.setUsername(username);
+			config.setPassword(password);
+			config.setMinimumIdle(settings.minSize);
+			config.setMaximumPoolSize(settings.maxSize);
+			config.setConnectionTimeout(settings.timeout);
+			config.setLeakDetectionThreshold(settings.leakDetection);
+			dataSource = new HikariDataSource(config);
+		} else {
+			ComboPooledDataSource c3p0DataSource = new ComboPooledDataSource();
+			c3p0DataSource.setDriverClass(driverClass);
+			c3p0DataSource.setJdbcUrl(url);
+			c3p0DataSource.setUser(username);
+			c3p0DataSource.setPassword(password);
+			c3p0DataSource.setMinPoolSize(settings.minSize);
+			c3p0DataSource.setMaxPoolSize(settings.maxSize);
+			c3p0DataSource.setMaxStatements(settings.statements);
+			c3p0DataSource.setIdleConnectionTestPeriod(settings.idleTest);
+			c3p0DataSource.setCheckoutTimeout(settings.timeout);
+			int leakDetectionSeconds = (int) TimeUnit.MILLISECONDS.toSeconds(settings.leakDetection);
+			if (leakDetectionSeconds > 0) {
+				c3p0DataSource.setUnreturnedConnectionTimeout(leakDetectionSeconds);
+				c3p0DataSource.setDebugUnreturnedConnectionStackTraces(true);
+			}
+			dataSource = c3p0DataSource;
+		}
+		pooledDataSources.add(dataSource);
+		return new TimedDataSource(dataSource);
+	}
+
+	/**
+	 * Extracts the JDBC connection settings from a postgres:// URL
+	 *
+	 * @param dbURL the database URL
+	 * @return the JDBC URL, username and password
+	 * @throws URISyntaxException if the URL is invalid
+	 */
+	private String[] parsePostgreSQLURL(String dbURL) throws URISyntaxException {
+		URI dbUri = new URI(dbURL);
+		String dbConnectionURL = "jdbc:postgresql://" + dbUri.getHost() + ":" + dbUri.getPort() + dbUri.getPath(); //NOI18N //NOI18N
+		String[] usernamePassword = dbUri.getUserInfo().split(":", 2); //NOI18N
+		return new String[]{dbConnectionURL, usernamePassword[0], usernamePassword[1]};
+	}
+
+	/**
+	 * Creates a DataSource routing read-only transactions to PostgreSQL read
+	 * replicas. Replicas are configured with the DATABASE_REPLICA_URLS
+	 * environment variable or vogon.database.replicas system property, as a
+	 * comma-separated list of URLs in the same format as DATABASE_URL.
+	 *
+	 * @param databaseConfiguration the database configuration from
+	 * getDatabaseConfiguration()
+	 * @return the routing DataSource, or null if replicas are not configured
+	 */
+	protected DataSource createReplicaRoutingDataSource(Map<String, Object> databaseConfiguration) {
+		String replicaURLs = getSetting("DATABASE_REPLICA_URLS", "vogon.database.replicas", ""); //NOI18N //NOI18N
+		if (replicaURLs.trim().isEmpty() || !"org.postgresql.Driver".equals(databaseConfiguration.get("hibernate.connection.driver_class"))) //NOI18N
+			return null;
+		long stickiness = Long.parseLong(getSetting("VOGON_DATABASE_REPLICA_STICKINESS", "vogon.database.replica.stickiness", "5000")); //NOI18N
+		try {
+			DataSource primary = createPooledDataSource(
+					(String) databaseConfiguration.get("javax.persistence.jdbc.url"), //NOI18N
+					(String) databaseConfiguration.get("javax.persistence.jdbc.user"), //NOI18N
+					(String) databaseConfiguration.get("javax.persistence.jdbc.password"), //NOI18N
+					"org.postgresql.Driver"); //NOI18N
+			List<DataSource> replicas = new ArrayList<>();
+			for (String replicaURL : replicaURLs.split(",")) { //NOI18N
+				if (replicaURL.trim().isEmpty())
+					continue;
+				String[] connection = parsePostgreSQLURL(replicaURL.trim());
+				replicas.add(createPooledDataSource(connection[0], connection[1], connection[2], "org.postgresql.Driver")); //NOI18N
+			}
+			log.info(MessageFormat.format(messages.getString("USING_READ_REPLICAS"), new Object[]{replicas.size()}));
+			ReplicaRoutingDataSource routingDataSource = new ReplicaRoutingDataSource(primary, replicas, stickiness);
+			routingDataSource.afterPropertiesSet();
+			return new LazyConnectionDataSourceProxy(routingDataSource);
+		} catch (URISyntaxException | PropertyVetoException ex) {
+			log.error(messages.getString("ERROR_CONFIGURING_READ_REPLICAS"), ex);
+			closeDataSources();
+			return null;
+		}
+	}
+
 	/**
 	 * Returns the JPA configuration overrides for database configuration
 	 *
@@ -83,8 +335,9 @@ public class PersistenceConfiguration {
 	protected Map<String, Object> getDatabaseConfiguration() {
 		Map<String, Object> jpaProperties = new HashMap<>();
 		boolean fallback = true;
-		if (serverTypeDetector.getServerType() != ServerTypeDetector.ServerType.WILDFLY)
-			jpaProperties.put("hibernate.connection.provider_class", "org.hibernate.connection.C3P0ConnectionProvider"); //NOI18N
+		jpaProperties.put("hibernate.generate_statistics", getSetting("VOGON_METRICS_STATISTICS", "vogon.metrics.statistics", "false")); //NOI18N //NOI18N //NOI18N
+		jpaProperties.put("hibernate.session_factory.statement_inspector", RequestStatementInspector.class.getName()); //NOI18N
+		jpaProperties.put("hibernate.session.events.auto", RequestStatementTimer.class.getName()); //NOI18N
 		if (serverTypeDetector.getDatabaseType() == ServerTypeDetector.DatabaseType.POSTGRESQL) {
 			String dbURL = null;
 			if (serverTypeDetector.getCloudType() == ServerTypeDetector.CloudType.HEROKU)
@@ -92,12 +345,10 @@ public class PersistenceConfiguration {
 			else if (serverTypeDetector.getCloudType() == ServerTypeDetector.CloudType.OPENSHIFT)
 				dbURL = System.getenv("OPENSHIFT_POSTGRESQL_DB_URL") + "/" + System.getenv("OPENSHIFT_APP_NAME"); //NOI18N
 			try {
-				URI dbUri = new URI(dbURL);
-				String dbConnectionURL = "jdbc:postgresql://" + dbUri.getHost() + ":" + dbUri.getPort() + dbUri.getPath(); //NOI18N //NOI18N
-				String[] usernamePassword = dbUri.getUserInfo().split(":", 2); //NOI18N
-				jpaProperties.put("javax.persistence.jdbc.url", dbConnectionURL); //NOI18N
-				jpaProperties.put("javax.persistence.jdbc.user", usernamePassword[0]); //NOI18N
-				jpaProperties.put("javax.persistence.jdbc.password", usernamePassword[1]); //NOI18N
+				String[] connection = parsePostgreSQLURL(dbURL);
+				jpaProperties.put("javax.persistence.jdbc.url", connection[0]); //NOI18N
+				jpaProperties.put("javax.persistence.jdbc.user", connection[1]); //NOI18N
+				jpaProperties.put("javax.persistence.jdbc.password", connection[2]); //NOI18N
 				jpaProperties.put("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect"); //NOI18N
 				jpaProperties.put("hibernate.connection.driver_class", "org.postgresql.Driver"); //NOI18N
 				fallback = false;
@@ -116,6 +367,79 @@ public class PersistenceConfiguration {
 		return jpaProperties;
 	}
 
+	/**
+	 * Opens a JDBC connection outside of the connection pool
+	 *
+	 * @param databaseConfiguration the database configuration from
+	 * getDatabaseConfiguration()
+	 * @return the JDBC connection
+	 * @throws ClassNotFoundException if the JDBC driver is not available
+	 * @throws SQLException if the connection cannot be opened
+	 */
+	private Connection openConnection(Map<String, Object> databaseConfiguration) throws ClassNotFoundException, SQLException {
+		Class.forName((String) databaseConfiguration.get("hibernate.connection.driver_class")); //NOI18N
+		return DriverManager.getConnection(
+				(String) databaseConfiguration.get("javax.persistence.jdbc.url"), //NOI18N
+				(String) databaseConfiguration.get("javax.persistence.jdbc.user"), //NOI18N
+				(String) databaseConfiguration.get("javax.persistence.jdbc.password")); //NOI18N
+	}
+
+	/**
+	 * Disables the Hibernate schema update if the schema fingerprint stored
+	 * in the database matches the current entity mappings. Otherwise, the
+	 * schema is updated with a SchemaUpdateIntegrator and the fingerprint is
+	 * stored once the application has started, if the update succeeded.
+	 *
+	 * @param databaseConfiguration the database configuration from
+	 * getDatabaseConfiguration()
+	 */
+	protected void checkSchemaFingerprint(Map<String, Object> databaseConfiguration) {
+		if (!Boolean.parseBoolean(getSetting("VOGON_SCHEMA_FINGERPRINT", "vogon.schema.fingerprint", "true"))) //NOI18N //NOI18N
+			return;
+		try (Connection connection = openConnection(databaseConfiguration)) {
+			SchemaFingerprint schemaFingerprint = new SchemaFingerprint("META-INF/persistence.xml", (String) databaseConfiguration.get("hibernate.dialect")); //NOI18N //NOI18N
+			if (schemaFingerprint.isCurrent(connection)) {
+				log.info(MessageFormat.format(messages.getString("SCHEMA_IS_CURRENT"), new Object[]{schemaFingerprint.getFingerprint()}));
+				databaseConfiguration.put("hibernate.hbm2ddl.auto", "none"); //NOI18N //NOI18N
+			} else {
+				log.info(MessageFormat.format(messages.getString("SCHEMA_NEEDS_UPDATE"), new Object[]{schemaFingerprint.getFingerprint()}));
+				pendingSchemaFingerprint = schemaFingerprint;
+				pendingSchemaFingerprintConfiguration = new HashMap<>(databaseConfiguration);
+				pendingSchemaUpdate = new SchemaUpdateIntegrator();
+				databaseConfiguration.put("hibernate.hbm2ddl.auto", "none"); //NOI18N //NOI18N
+				databaseConfiguration.put("hibernate.integrator_provider", pendingSchemaUpdate); //NOI18N
+			}
+		} catch (IOException | ClassNotFoundException | SQLException ex) {
+			log.warn(messages.getString("CANNOT_CHECK_SCHEMA_FINGERPRINT"), ex);
+		}
+	}
+
+	/**
+	 * Stores the schema fingerprint after the application has started and
+	 * the schema has been updated without errors. If the update failed, the
+	 * fingerprint is not stored so that the update is retried on the next
+	 * start.
+	 *
+	 * @param event the ContextRefreshedEvent
+	 */
+	@EventListener
+	public void storeSchemaFingerprint(ContextRefreshedEvent event) {
+		if (event.getApplicationContext().getParent() != null || pendingSchemaFingerprint == null)
+			return;
+		if (pendingSchemaUpdate.isSuccessful()) {
+			try (Connection connection = openConnection(pendingSchemaFingerprintConfiguration)) {
+				pendingSchemaFingerprint.store(connection);
+			} catch (ClassNotFoundException | SQLException ex) {
+				log.warn(messages.getString("CANNOT_STORE_SCHEMA_FINGERPRINT"), ex);
+			}
+		} else {
+			log.warn(messages.getString("SCHEMA_UPDATE_FAILED"));
+		}
+		pendingSchemaFingerprint = null;
+		pendingSchemaFingerprintConfiguration = null;
+		pendingSchemaUpdate = null;
+	}
+
 	/**
 	 * Creates the entityManagerFactory
 	 *
@@ -125,8 +449,22 @@ public class PersistenceConfiguration {
 	public LocalContainerEntityManagerFactoryBean entityManagerFactory() {
 		LocalContainerEntityManagerFactoryBean entityManagerFactory = new LocalContainerEntityManagerFactoryBean();
 		entityManagerFactory.setPersistenceUnitName("VogonPU"); //NOI18N
-		entityManagerFactory.getJpaPropertyMap().putAll(getDatabaseConfiguration());
+		Map<String, Object> databaseConfiguration = getDatabaseConfiguration();
+		checkSchemaFingerprint(databaseConfiguration);
+		if (serverTypeDetector.getServerType() != ServerTypeDetector.ServerType.WILDFLY) {
+			DataSource dataSource = createReplicaRoutingDataSource(databaseConfiguration);
+			if (dataSource != null) {
+				entityManagerFactory.setDataSource(dataSource);
+				databaseConfiguration.remove("javax.persistence.jdbc.url"); //NOI18N
+				databaseConfiguration.remove("javax.persistence.jdbc.user"); //NOI18N
+				databaseConfiguration.remove("javax.persistence.jdbc.password"); //NOI18N
+			} else {
+				databaseConfiguration.putAll(getPoolConfiguration());
+			}
+		}
+		entityManagerFactory.getJpaPropertyMap().putAll(databaseConfiguration);
 		entityManagerFactory.setPersistenceXmlLocation("classpath:META-INF/persistence.xml"); //NOI18N
+		entityManagerFactory.setJpaDialect(new ReadOnlyHibernateJpaDialect());
 		return entityManagerFactory;
 	}
 
@@ -143,6 +481,35 @@ public class PersistenceConfiguration {
 		return transactionManager;
 	}
 
+	/**
+	 * Returns the advisor which allows methods annotated with ReadFromReplica
+	 * to use read replicas. Runs before the transaction interceptor, so that
+	 * the transaction is routed when it starts.
+	 *
+	 * @return the ReadFromReplica advisor
+	 */
+	@Bean
+	@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+	public Advisor readFromReplicaAdvisor() {
+		DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(AnnotationMatchingPointcut.forMethodAnnotation(ReadFromReplica.class), new ReadFromReplicaInterceptor());
+		advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+		return advisor;
+	}
+
+	/**
+	 * Closes the connection pools created by this class
+	 */
+	@PreDestroy
+	public void closeDataSources() {
+		for (DataSource dataSource : pooledDataSources) {
+			if (dataSource instanceof HikariDataSource)
+				((HikariDataSource) dataSource).close();
+			else if (dataSource instanceof ComboPooledDataSource)
+				((ComboPooledDataSource) dataSource).close();
+		}
+		pooledDataSources.clear();
+	}
+
 	/**
 	 * Unloads the loaded JDBC driver(s) to prevent memory leaks
 	 */
@@ -0,0 +1,144 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ResourceBundle;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.embedded.ServletContextInitializer;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Registers the JSP servlets precompiled during the build, so that JSPs don't
+ * need to be compiled when they're first requested. Precompiled JSPs are only
+ * used if they were compiled with the same Jasper version that's used at
+ * runtime; otherwise, JSPs are compiled by the container as usual.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Component
+public class PrecompiledJspInitializer implements ServletContextInitializer {
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(PrecompiledJspInitializer.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * The web.xml generated by JspC, listing the precompiled JSP servlets
+	 */
+	private static final String PRECOMPILED_WEBXML = "META-INF/precompiled-jsp/web.xml"; //NOI18N
+	/**
+	 * Properties with the Jasper version used to precompile JSPs
+	 */
+	private static final String PRECOMPILED_PROPERTIES = "META-INF/precompiled-jsp/jasper.properties"; //NOI18N
+
+	/**
+	 * Returns the Jasper version used at runtime
+	 *
+	 * @return the Jasper version, or null if Jasper is not available
+	 */
+	private String getJasperVersion() {
+		try {
+			Package jasperPackage = getClass().getClassLoader().loadClass("org.apache.jasper.runtime.HttpJspBase").getPackage(); //NOI18N
+			return jasperPackage != null ? jasperPackage.getImplementationVersion() : null;
+		} catch (ClassNotFoundException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the Jasper version used to precompile JSPs
+	 *
+	 * @return the Jasper version, or null if JSPs were not precompiled
+	 * @throws IOException if the properties cannot be read
+	 */
+	private String getPrecompiledJasperVersion() throws IOException {
+		try (InputStream stream = getClass().getClassLoader().getResourceAsStream(PRECOMPILED_PROPERTIES)) {
+			if (stream == null)
+				return null;
+			Properties properties = new Properties();
+			properties.load(stream);
+			return properties.getProperty("jasper.version"); //NOI18N
+		}
+	}
+
+	/**
+	 * Returns the text content of an element's child
+	 *
+	 * @param element the element
+	 * @param childName the child element name
+	 * @return the child's text content
+	 */
+	private String getChildText(Element element, String childName) {
+		return element.getElementsByTagName(childName).item(0).getTextContent().trim();
+	}
+
+	/**
+	 * Registers the precompiled JSP servlets
+	 *
+	 * @param servletContext the ServletContext
+	 * @throws ServletException if the precompiled JSPs cannot be registered
+	 */
+	@Override
+	public void onStartup(ServletContext servletContext) throws ServletException {
+		try {
+			String precompiledVersion = getPrecompiledJasperVersion();
+			if (precompiledVersion == null) {
+				log.debug(messages.getString("JSPS_ARE_NOT_PRECOMPILED"));
+				return;
+			}
+			String runtimeVersion = getJasperVersion();
+			if (!precompiledVersion.equals(runtimeVersion)) {
+				log.info(MessageFormat.format(messages.getString("PRECOMPILED_JSPS_VERSION_MISMATCH"), new Object[]{precompiledVersion, runtimeVersion}));
+				return;
+			}
+
+			Document webXml;
+			try (InputStream stream = getClass().getClassLoader().getResourceAsStream(PRECOMPILED_WEBXML)) {
+				webXml = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(stream);
+			}
+			Map<String, String> servletClasses = new HashMap<>();
+			NodeList servlets = webXml.getElementsByTagName("servlet"); //NOI18N
+			for (int i = 0; i < servlets.getLength(); i++) {
+				Element servlet = (Element) servlets.item(i);
+				servletClasses.put(getChildText(servlet, "servlet-name"), getChildText(servlet, "servlet-class")); //NOI18N //NOI18N
+			}
+			int registered = 0;
+			NodeList mappings = webXml.getElementsByTagName("servlet-mapping"); //NOI18N
+			for (int i = 0; i < mappings.getLength(); i++) {
+				Element mapping = (Element) mappings.item(i);
+				String servletName = getChildText(mapping, "servlet-name"); //NOI18N
+				ServletRegistration.Dynamic registration = servletContext.addServlet(servletName, servletClasses.get(servletName));
+				if (registration == null)
+					continue;
+				registration.addMapping(getChildText(mapping, "url-pattern")); //NOI18N
+				registered++;
+			}
+			log.info(MessageFormat.format(messages.getString("REGISTERED_PRECOMPILED_JSPS"), new Object[]{registered}));
+		} catch (IOException | ParserConfigurationException | SAXException ex) {
+			throw new ServletException(messages.getString("CANNOT_REGISTER_PRECOMPILED_JSPS"), ex);
+		}
+	}
+}
@@ -36,9 +36,9 @@ import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.authentication.BearerTokenExtractor;
 import org.springframework.security.oauth2.provider.authentication.TokenExtractor;
 import org.springframework.security.oauth2.provider.token.TokenStore;
-import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
 import org.springframework.security.web.authentication.logout.LogoutHandler;
 import org.springframework.security.web.authentication.logout.LogoutSuccessHandler;
+import org.zlogic.vogon.web.security.PersistentTokenStore;
 import org.zlogic.vogon.web.security.UserService;
 import org.zlogic.vogon.web.security.VogonSecurityUser;
 
@@ -286,6 +286,6 @@ public class SecurityConfig {
 	 */
 	@Bean
 	public TokenStore tokenStore() {
-		return new InMemoryTokenStore();
+		return new PersistentTokenStore();
 	}
 }
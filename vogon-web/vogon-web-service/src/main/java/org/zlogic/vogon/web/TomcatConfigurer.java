@@ -8,15 +8,19 @@ package org.zlogic.vogon.web;
 import java.io.File;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.util.ResourceBundle;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.Compression;
 import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
 import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
 import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
 
 /**
  * Configures Tomcat (via reflection for compatibility with both Tomcat 7 and
@@ -46,6 +50,21 @@ public class TomcatConfigurer implements EmbeddedServletContainerCustomizer {
 	 * Unicode charset
 	 */
 	private static final Charset utf8Charset = Charset.forName("utf-8");//NOI18N
+	/**
+	 * True if responses should be compressed
+	 */
+	@Value("${vogon.compression.enabled:true}")
+	private boolean compressionEnabled;
+	/**
+	 * Minimum response size (in bytes) to compress
+	 */
+	@Value("${vogon.compression.minsize:2048}")
+	private int compressionMinSize;
+	/**
+	 * MIME types which should be compressed
+	 */
+	@Value("${vogon.compression.mimetypes:application/json,application/x-jackson-smile,text/html,text/css,text/plain,application/javascript}")
+	private String[] compressionMimeTypes;
 
 	/**
 	 * Configures URI encoding for Tomcat container
@@ -76,6 +95,25 @@ public class TomcatConfigurer implements EmbeddedServletContainerCustomizer {
 		throw new RuntimeException(messages.getString("CANNOT_CONFIGURE_ENCODING_FOR_TOMCAT"));
 	}
 
+	/**
+	 * Configures response compression for the default Tomcat connector
+	 *
+	 * @param container ConfigurableEmbeddedServletContainer instance to
+	 * configure
+	 */
+	private void configureCompression(ConfigurableEmbeddedServletContainer container) {
+		if (!compressionEnabled) {
+			log.debug(messages.getString("RESPONSE_COMPRESSION_DISABLED"));
+			return;
+		}
+		log.debug(MessageFormat.format(messages.getString("CONFIGURING_RESPONSE_COMPRESSION"), new Object[]{compressionMinSize, StringUtils.arrayToCommaDelimitedString(compressionMimeTypes)}));
+		Compression compression = new Compression();
+		compression.setEnabled(true);
+		compression.setMinResponseSize(compressionMinSize);
+		compression.setMimeTypes(compressionMimeTypes);
+		container.setCompression(compression);
+	}
+
 	/**
 	 * Configures SSL for Tomcat container
 	 *
@@ -99,6 +137,12 @@ public class TomcatConfigurer implements EmbeddedServletContainerCustomizer {
 			connectorClass.getMethod("setSecure", Boolean.TYPE).invoke(connector, true); //NOI18N
 			connectorClass.getMethod("setScheme", String.class).invoke(connector, "https"); //NOI18N
 			connectorClass.getMethod("setURIEncoding", String.class).invoke(connector, utf8Charset.name()); //NOI18N
+			if (compressionEnabled) {
+				Method setProperty = connectorClass.getMethod("setProperty", String.class, String.class); //NOI18N
+				setProperty.invoke(connector, "compression", "on"); //NOI18N
+				setProperty.invoke(connector, "compressionMinSize", Integer.toString(compressionMinSize)); //NOI18N
+				setProperty.invoke(connector, "compressableMimeType", StringUtils.arrayToCommaDelimitedString(compressionMimeTypes)); //NOI18N
+			}
 		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException | InvocationTargetException ex) {
 			throw new RuntimeException(messages.getString("CANNOT_CONFIGURE_CONNECTOR"), ex);
 		}
@@ -138,6 +182,7 @@ public class TomcatConfigurer implements EmbeddedServletContainerCustomizer {
 	public void customize(ConfigurableEmbeddedServletContainer container) {
 		if (container instanceof TomcatEmbeddedServletContainerFactory) {
 			configureUriEncoding(container);
+			configureCompression(container);
 			configureSSL(container);
 		}
 	}
@@ -5,21 +5,29 @@
  */
 package org.zlogic.vogon.web;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.converter.ByteArrayHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
-import org.springframework.security.web.bind.support.AuthenticationPrincipalArgumentResolver;
 import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.ViewResolver;
 import org.springframework.web.servlet.config.annotation.DefaultServletHandlerConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 import org.springframework.web.servlet.view.InternalResourceViewResolver;
+import org.zlogic.vogon.web.controller.serialization.SmileHttpMessageConverter;
+import org.zlogic.vogon.web.metrics.QueryBudgetInterceptor;
+import org.zlogic.vogon.web.metrics.ServiceMetricsInterceptor;
+import org.zlogic.vogon.web.metrics.VogonMetrics;
+import org.zlogic.vogon.web.security.RefreshingPrincipalArgumentResolver;
+import org.zlogic.vogon.web.security.UserService;
 
 /**
  * Spring boot annotations configuration
@@ -34,6 +42,26 @@ public class WebConfig extends WebMvcConfigurerAdapter {
 	 */
 	@Autowired
 	private MappingJackson2HttpMessageConverter jacksonMessageConverter;
+	/**
+	 * The Smile (binary JSON) converter for clients which prefer it
+	 */
+	@Autowired
+	private SmileHttpMessageConverter smileMessageConverter;
+	/**
+	 * The UserService instance
+	 */
+	@Autowired
+	private UserService userService;
+	/**
+	 * The VogonMetrics instance
+	 */
+	@Autowired
+	private VogonMetrics vogonMetrics;
+	/**
+	 * The QueryBudgetInterceptor instance
+	 */
+	@Autowired
+	private QueryBudgetInterceptor queryBudgetInterceptor;
 
 	/**
 	 * Adds view controllers to the registry
@@ -75,29 +103,47 @@ public class WebConfig extends WebMvcConfigurerAdapter {
 	}
 
 	/**
-	 * Configures message converters and adds the customized JSON converter
+	 * Configures message converters and adds the customized JSON converter.
+	 * The Smile converter is added after JSON so that it's only used when
+	 * explicitly requested in the Accept header. The String converter is used
+	 * by event streams for plain text data.
 	 *
 	 * @param converters the converters list to use
 	 */
 	@Override
 	public void configureMessageConverters(List<HttpMessageConverter<?>> converters) {
 		converters.add(jacksonMessageConverter);
+		converters.add(smileMessageConverter);
 		converters.add(new ByteArrayHttpMessageConverter());
+		converters.add(new StringHttpMessageConverter(StandardCharsets.UTF_8));
 		super.configureMessageConverters(converters);
 	}
 
 	/**
 	 * Adds argument resolvers and adds the
-	 * AuthenticationPrincipalArgumentResolver
+	 * RefreshingPrincipalArgumentResolver
 	 *
 	 * @param argumentResolvers list of argument resolvers to add
 	 */
 	@Override
 	public void addArgumentResolvers(List<HandlerMethodArgumentResolver> argumentResolvers) {
-		argumentResolvers.add(new AuthenticationPrincipalArgumentResolver());
+		argumentResolvers.add(new RefreshingPrincipalArgumentResolver(userService));
 		super.addArgumentResolvers(argumentResolvers);
 	}
 
+	/**
+	 * Adds the interceptors timing service requests and tracking their
+	 * database statements
+	 *
+	 * @param registry the interceptor registry
+	 */
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		super.addInterceptors(registry);
+		registry.addInterceptor(new ServiceMetricsInterceptor(vogonMetrics)).addPathPatterns("/service/**"); //NOI18N
+		registry.addInterceptor(queryBudgetInterceptor).addPathPatterns("/service/**"); //NOI18N
+	}
+
 	/**
 	 * Enable default servlet handler
 	 *
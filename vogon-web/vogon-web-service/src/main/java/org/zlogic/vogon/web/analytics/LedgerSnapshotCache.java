@@ -0,0 +1,171 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.analytics;
+
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.report.LedgerSnapshot;
+import org.zlogic.vogon.web.data.ReadFromReplicaInterceptor;
+import org.zlogic.vogon.web.events.LedgerEvent;
+import org.zlogic.vogon.web.events.LedgerEventBroadcaster;
+import org.zlogic.vogon.web.events.LedgerEventListener;
+
+/**
+ * Keeps columnar ledger snapshots of recently active users for building
+ * reports in memory. Disabled by default.
+ *
+ * A user's snapshot is dropped when any change to their ledger is committed
+ * (on this or another cluster node) and reloaded on the next report request.
+ * Snapshots are always loaded from the primary database in a separate
+ * transaction, as a lagging read replica could return data which is older
+ * than the invalidation and the stale snapshot would stay cached until the
+ * next change.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Service
+public class LedgerSnapshotCache {
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(LedgerSnapshotCache.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * True if in-memory analytics are enabled
+	 */
+	@Value("${vogon.analytics.columnar:false}")
+	private boolean enabled;
+	/**
+	 * Maximum number of cached snapshots
+	 */
+	@Value("${vogon.analytics.snapshots:32}")
+	private int cacheSize;
+	/**
+	 * The LedgerEventBroadcaster instance
+	 */
+	@Autowired
+	private LedgerEventBroadcaster ledgerEventBroadcaster;
+	/**
+	 * The EntityManager instance
+	 */
+	@PersistenceContext
+	private EntityManager em;
+	/**
+	 * The Spring PlatformTransactionManager instance
+	 */
+	@Resource
+	private PlatformTransactionManager transactionManager;
+	/**
+	 * TransactionTemplate for loading snapshots in a new read-only
+	 * transaction
+	 */
+	private TransactionTemplate transactionTemplate;
+	/**
+	 * Cached snapshots, by user ID
+	 */
+	private Map<Long, LedgerSnapshot> snapshots;
+	/**
+	 * Number of invalidations, used to avoid caching a snapshot which was
+	 * loaded while the ledger was being changed
+	 */
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Creates the cache and subscribes to ledger changes
+	 */
+	@PostConstruct
+	public void createCache() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		transactionTemplate.setReadOnly(true);
+		snapshots = Collections.synchronizedMap(new LinkedHashMap<Long, LedgerSnapshot>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, LedgerSnapshot> eldest) {
+				return size() > cacheSize;
+			}
+		});
+		ledgerEventBroadcaster.addListener(new LedgerEventListener() {
+			@Override
+			public void onLedgerEvent(long userId, LedgerEvent event) {
+				invalidate(userId);
+			}
+		});
+	}
+
+	/**
+	 * Returns true if in-memory analytics are enabled
+	 *
+	 * @return true if in-memory analytics are enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns a user's ledger snapshot, loading it from the primary database
+	 * if needed
+	 *
+	 * @param user the user
+	 * @return the ledger snapshot, or null if in-memory analytics are disabled
+	 */
+	public LedgerSnapshot getSnapshot(final VogonUser user) {
+		if (!enabled)
+			return null;
+		LedgerSnapshot snapshot = snapshots.get(user.getId());
+		if (snapshot != null)
+			return snapshot;
+		long invalidationsBefore = invalidations.get();
+		long startTime = System.currentTimeMillis();
+		snapshot = ReadFromReplicaInterceptor.executeOnPrimary(transactionTemplate, new TransactionCallback<LedgerSnapshot>() {
+			@Override
+			public LedgerSnapshot doInTransaction(TransactionStatus ts) {
+				return LedgerSnapshot.build(user, em);
+			}
+		});
+		if (log.isDebugEnabled())
+			log.debug(MessageFormat.format(messages.getString("LOADED_LEDGER_SNAPSHOT"), new Object[]{user.getId(), snapshot.getTransactionCount(), snapshot.getComponentCount(), System.currentTimeMillis() - startTime}));
+		synchronized (snapshots) {
+			if (invalidations.get() == invalidationsBefore)
+				snapshots.put(user.getId(), snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Drops a user's snapshot
+	 *
+	 * @param userId the user ID
+	 */
+	public void invalidate(long userId) {
+		synchronized (snapshots) {
+			invalidations.incrementAndGet();
+			snapshots.remove(userId);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.cluster;
+
+import java.io.Serializable;
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.SerializationUtils;
+import org.zlogic.vogon.data.ClusterEvent;
+import org.zlogic.vogon.web.data.ClusterEventRepository;
+
+/**
+ * Coordinates multiple nodes sharing the same database. Events (such as cache
+ * invalidations) are written into a shared table and polled by all nodes.
+ *
+ * Events are read with a lookback window rather than by the last seen ID, as
+ * sequence IDs are not guaranteed to be committed in order. The window should
+ * be larger than the clock difference between nodes.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Service
+public class ClusterCoordinator {
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(ClusterCoordinator.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * True if cluster mode is enabled
+	 */
+	@Value("${vogon.cluster.enabled:false}")
+	private boolean enabled;
+	/**
+	 * Lookback window in milliseconds for reading events
+	 */
+	@Value("${vogon.cluster.lookback:30000}")
+	private long lookback;
+	/**
+	 * Time in milliseconds after which events are deleted
+	 */
+	@Value("${vogon.cluster.retention:300000}")
+	private long retention;
+	/**
+	 * The cluster events repository
+	 */
+	@Autowired
+	private ClusterEventRepository clusterEventRepository;
+	/**
+	 * The Spring PlatformTransactionManager instance
+	 */
+	@Resource
+	private PlatformTransactionManager transactionManager;
+	/**
+	 * ID of this node
+	 */
+	private final String nodeId = UUID.randomUUID().toString();
+	/**
+	 * Registered listeners, by topic
+	 */
+	private final ConcurrentMap<String, List<ClusterEventListener>> listeners = new ConcurrentHashMap<>();
+	/**
+	 * IDs of events in the lookback window which were already processed, and
+	 * the time when they were processed
+	 */
+	private final Map<Long, Long> processedEvents = new HashMap<>();
+	/**
+	 * True if events existing at startup were marked as processed
+	 */
+	private boolean initialized = false;
+
+	/**
+	 * Logs the cluster mode status
+	 */
+	@PostConstruct
+	public void logStatus() {
+		if (enabled)
+			log.info(MessageFormat.format(messages.getString("CLUSTER_MODE_ENABLED_NODE_ID"), new Object[]{nodeId}));
+	}
+
+	/**
+	 * Returns true if cluster mode is enabled
+	 *
+	 * @return true if cluster mode is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Registers a listener for events of a specific topic
+	 *
+	 * @param topic the topic
+	 * @param listener the listener
+	 */
+	public void addListener(String topic, ClusterEventListener listener) {
+		List<ClusterEventListener> topicListeners = listeners.get(topic);
+		if (topicListeners == null) {
+			List<ClusterEventListener> newListeners = new CopyOnWriteArrayList<>();
+			topicListeners = listeners.putIfAbsent(topic, newListeners);
+			if (topicListeners == null)
+				topicListeners = newListeners;
+		}
+		topicListeners.add(listener);
+	}
+
+	/**
+	 * Publishes an event to other nodes. The event is saved in a separate
+	 * transaction, so this method can be called after a transaction commits.
+	 * Does nothing if cluster mode is disabled.
+	 *
+	 * @param topic the event topic
+	 * @param key the event key
+	 * @param payload the event payload, or null
+	 */
+	public void publish(String topic, String key, Serializable payload) {
+		if (!enabled)
+			return;
+		final ClusterEvent event = new ClusterEvent(nodeId, topic, key, payload != null ? SerializationUtils.serialize(payload) : null);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus ts) {
+				clusterEventRepository.save(event);
+			}
+		});
+	}
+
+	/**
+	 * Passes an event to its listeners
+	 *
+	 * @param event the event
+	 */
+	private void dispatch(ClusterEvent event) {
+		List<ClusterEventListener> topicListeners = listeners.get(event.getTopic());
+		if (topicListeners == null)
+			return;
+		Serializable payload;
+		try {
+			payload = event.getPayload() != null ? (Serializable) SerializationUtils.deserialize(event.getPayload()) : null;
+		} catch (IllegalArgumentException | IllegalStateException ex) {
+			log.warn(messages.getString("CANNOT_DESERIALIZE_CLUSTER_EVENT"), ex);
+			return;
+		}
+		for (ClusterEventListener listener : topicListeners) {
+			try {
+				listener.onClusterEvent(event.getEventKey(), payload);
+			} catch (RuntimeException ex) {
+				log.error(messages.getString("CLUSTER_EVENT_LISTENER_FAILED"), ex);
+			}
+		}
+	}
+
+	/**
+	 * Reads new events published by other nodes and passes them to listeners
+	 */
+	@Scheduled(fixedDelayString = "${vogon.cluster.poll:1000}")
+	public synchronized void poll() {
+		if (!enabled)
+			return;
+		long now = System.currentTimeMillis();
+		for (ClusterEvent event : clusterEventRepository.findByCreatedGreaterThanOrderByIdAsc(new Date(now - lookback))) {
+			if (processedEvents.containsKey(event.getId()))
+				continue;
+			processedEvents.put(event.getId(), now);
+			if (initialized && !nodeId.equals(event.getOrigin()))
+				dispatch(event);
+		}
+		initialized = true;
+		for (Iterator<Long> it = processedEvents.values().iterator(); it.hasNext();)
+			if (it.next() < now - 2 * lookback)
+				it.remove();
+	}
+
+	/**
+	 * Deletes old events
+	 */
+	@Scheduled(fixedDelayString = "${vogon.cluster.purge:60000}")
+	public void purge() {
+		if (!enabled)
+			return;
+		clusterEventRepository.deleteCreatedBefore(new Date(System.currentTimeMillis() - retention));
+	}
+}
@@ -0,0 +1,24 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.cluster;
+
+import java.io.Serializable;
+
+/**
+ * Listener for events published by other cluster nodes
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public interface ClusterEventListener {
+
+	/**
+	 * Processes an event received from another node
+	 *
+	 * @param key the event key
+	 * @param payload the event payload, or null if the event has no payload
+	 */
+	public void onClusterEvent(String key, Serializable payload);
+}
@@ -9,6 +9,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.web.bind.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
@@ -18,11 +20,16 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.zlogic.vogon.data.FinanceAccount;
 import org.zlogic.vogon.data.FinanceTransaction;
 import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.tools.DatabaseMaintenance;
 import org.zlogic.vogon.web.data.AccountRepository;
 import org.zlogic.vogon.web.data.TransactionRepository;
+import org.zlogic.vogon.web.events.LedgerEvent;
+import org.zlogic.vogon.web.events.LedgerEventBroadcaster;
+import org.zlogic.vogon.web.events.LedgerVersionTracker;
 import org.zlogic.vogon.web.security.VogonSecurityUser;
 
 /**
@@ -35,6 +42,11 @@ import org.zlogic.vogon.web.security.VogonSecurityUser;
 @Transactional(propagation = Propagation.REQUIRED)
 public class AccountsController {
 
+	/**
+	 * The EntityManager instance
+	 */
+	@PersistenceContext
+	private EntityManager em;
 	/**
 	 * The transactions repository
 	 */
@@ -45,16 +57,30 @@ public class AccountsController {
 	 */
 	@Autowired
 	private AccountRepository accountRepository;
+	/**
+	 * The LedgerEventBroadcaster instance
+	 */
+	@Autowired
+	private LedgerEventBroadcaster ledgerEventBroadcaster;
+	/**
+	 * The LedgerVersionTracker instance
+	 */
+	@Autowired
+	private LedgerVersionTracker ledgerVersionTracker;
 
 	/**
 	 * Returns all accounts
 	 *
 	 * @param user the authenticated user
-	 * @return the accounts
+	 * @param webRequest the current request
+	 * @return the accounts, or null if the client's copy is current
 	 */
-	@RequestMapping(method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
+	@Transactional(readOnly = true)
 	public @ResponseBody
-	Collection<FinanceAccount> getAllAccounts(@AuthenticationPrincipal VogonSecurityUser user) {
+	Collection<FinanceAccount> getAllAccounts(@AuthenticationPrincipal VogonSecurityUser user, ServletWebRequest webRequest) {
+		if (ledgerVersionTracker.checkNotModified(user.getUser(), webRequest))
+			return null;
 		return accountRepository.findByOwner(user.getUser());
 	}
 
@@ -65,11 +91,12 @@ public class AccountsController {
 	 * @param user the authenticated user
 	 * @return the accounts list from database after update
 	 */
-	@RequestMapping(method = RequestMethod.POST, produces = "application/json")
+	@RequestMapping(method = RequestMethod.POST, produces = {"application/json", "application/x-jackson-smile"})
 	public @ResponseBody
 	Collection<FinanceAccount> updateAccounts(@RequestBody Collection<FinanceAccount> accounts, @AuthenticationPrincipal VogonSecurityUser user) {
 		List<FinanceAccount> existingAccounts = new ArrayList<>(accountRepository.findByOwner(user.getUser()));
 		LinkedList<FinanceAccount> removedAccounts = new LinkedList<>(existingAccounts);
+		LedgerEvent event = new LedgerEvent(LedgerEvent.EventType.ACCOUNTS_UPDATED);
 		//Merge with database
 		for (FinanceAccount newAccount : accounts) {
 			if (newAccount.getId() == null || !existingAccounts.contains(newAccount)) {
@@ -82,6 +109,9 @@ public class AccountsController {
 			}
 		}
 		//Delete removed accounts
+		DatabaseMaintenance databaseMaintenance = new DatabaseMaintenance();
+		if (!removedAccounts.isEmpty())
+			databaseMaintenance.deleteTagExpenseRollup(user.getUser(), em);
 		for (FinanceAccount removedAccount : removedAccounts) {
 			accountRepository.delete(removedAccount);
 			//Delete all related transaction components
@@ -91,12 +121,22 @@ public class AccountsController {
 					transaction.removeComponent(component);
 					save = true;
 				}
-				if (save)
+				if (save) {
 					transactionRepository.save(transaction);
+					event.addTransaction(transaction);
+				}
 			}
 		}
 		accountRepository.flush();
 		transactionRepository.flush();
-		return accountRepository.findByOwner(user.getUser());
+		if (!removedAccounts.isEmpty())
+			databaseMaintenance.rebuildTagExpenseRollup(user.getUser(), em);
+		Collection<FinanceAccount> updatedAccounts = accountRepository.findByOwner(user.getUser());
+		for (FinanceAccount account : updatedAccounts)
+			event.addAccount(account);
+		for (FinanceAccount removedAccount : removedAccounts)
+			event.addDeletedAccount(removedAccount);
+		ledgerEventBroadcaster.publish(user.getUser(), event);
+		return updatedAccounts;
 	}
 }
@@ -13,16 +13,22 @@ import javax.persistence.PersistenceContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.web.bind.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.report.LedgerSnapshot;
 import org.zlogic.vogon.data.report.Report;
 import org.zlogic.vogon.data.report.ReportFactory;
+import org.zlogic.vogon.web.analytics.LedgerSnapshotCache;
 import org.zlogic.vogon.web.data.AccountRepository;
 import org.zlogic.vogon.web.data.InitializationHelper;
+import org.zlogic.vogon.web.data.ReadFromReplica;
 import org.zlogic.vogon.web.data.model.FinanceTransactionJson;
+import org.zlogic.vogon.web.events.LedgerVersionTracker;
 import org.zlogic.vogon.web.security.VogonSecurityUser;
 
 /**
@@ -31,6 +37,7 @@ import org.zlogic.vogon.web.security.VogonSecurityUser;
  * @author Dmitry Zolotukhin [zlogic@gmail.com]
  */
 @Controller
+@Transactional(readOnly = true)
 @RequestMapping(value = "/service/analytics")
 public class AnalyticsController {
 
@@ -50,16 +57,29 @@ public class AnalyticsController {
 	 */
 	@Autowired
 	private InitializationHelper initializationHelper;
+	/**
+	 * LedgerSnapshotCache instance
+	 */
+	@Autowired
+	private LedgerSnapshotCache ledgerSnapshotCache;
+	/**
+	 * The LedgerVersionTracker instance
+	 */
+	@Autowired
+	private LedgerVersionTracker ledgerVersionTracker;
 
 	/**
 	 * Returns all tags
 	 *
 	 * @param user the authenticated user
-	 * @return the set of all tags
+	 * @param webRequest the current request
+	 * @return the set of all tags, or null if the client's copy is current
 	 */
-	@RequestMapping(value = "/tags", method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(value = "/tags", method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
 	public @ResponseBody
-	Set<String> getAllTags(@AuthenticationPrincipal VogonSecurityUser user) {
+	Set<String> getAllTags(@AuthenticationPrincipal VogonSecurityUser user, ServletWebRequest webRequest) {
+		if (ledgerVersionTracker.checkNotModified(user.getUser(), webRequest))
+			return null;
 		ReportFactory reportFactory = new ReportFactory(user.getUser());
 		return reportFactory.getAllTags(em);
 	}
@@ -71,18 +91,58 @@ public class AnalyticsController {
 	 * @param user the authenticated user
 	 * @return the report
 	 */
-	@RequestMapping(method = RequestMethod.POST, produces = "application/json")
+	@RequestMapping(method = RequestMethod.POST, produces = {"application/json", "application/x-jackson-smile"})
+	@ReadFromReplica
 	public @ResponseBody
 	Report getReport(@RequestBody ReportFactory reportFactory, @AuthenticationPrincipal VogonSecurityUser user) {
+		prepareReportFactory(reportFactory, user);
+		LedgerSnapshot snapshot = ledgerSnapshotCache.getSnapshot(user.getUser());
+		Report report = snapshot != null ? reportFactory.buildReport(em, snapshot) : reportFactory.buildReport(em);
+		return processTransactions(report);
+	}
+
+	/**
+	 * Returns a page of the report transactions (for drilling down into a
+	 * report without rebuilding it)
+	 *
+	 * @param reportFactory the requested report parameters, including the
+	 * transactions page
+	 * @param user the authenticated user
+	 * @return the report containing only the requested page of transactions
+	 */
+	@RequestMapping(value = "/transactions", method = RequestMethod.POST, produces = {"application/json", "application/x-jackson-smile"})
+	@ReadFromReplica
+	public @ResponseBody
+	Report getReportTransactions(@RequestBody ReportFactory reportFactory, @AuthenticationPrincipal VogonSecurityUser user) {
+		prepareReportFactory(reportFactory, user);
+		LedgerSnapshot snapshot = ledgerSnapshotCache.getSnapshot(user.getUser());
+		Report report = snapshot != null ? reportFactory.buildTransactionsReport(em, snapshot) : reportFactory.buildTransactionsReport(em);
+		return processTransactions(report);
+	}
+
+	/**
+	 * Sets the report owner and replaces the requested accounts with the
+	 * user's accounts
+	 *
+	 * @param reportFactory the requested report parameters
+	 * @param user the authenticated user
+	 */
+	private void prepareReportFactory(ReportFactory reportFactory, VogonSecurityUser user) {
 		reportFactory.setOwner(user.getUser());
 		//Update accounts (needed to properly handle users
 		List<FinanceAccount> accounts = new ArrayList<>(reportFactory.getSelectedAccounts().size());
 		for (FinanceAccount account : reportFactory.getSelectedAccounts())
 			accounts.add(accountRepository.findByOwnerAndId(user.getUser(), account.getId()));
 		reportFactory.setSelectedAccounts(accounts);
-		//Build report
-		Report report = reportFactory.buildReport(em);
-		//Process transactions for JSON
+	}
+
+	/**
+	 * Processes the report transactions for JSON
+	 *
+	 * @param report the report
+	 * @return the processed report
+	 */
+	private Report processTransactions(Report report) {
 		List<FinanceTransactionJson> processedTransactions = initializationHelper.initializeTransactions(report.getTransactions());
 		report.getTransactions().clear();
 		for (FinanceTransactionJson transaction : processedTransactions)
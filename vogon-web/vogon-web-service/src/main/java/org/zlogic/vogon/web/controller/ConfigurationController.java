@@ -42,7 +42,7 @@ public class ConfigurationController {
 	 *
 	 * @param values the values to set
 	 */
-	@RequestMapping(method = RequestMethod.POST, produces = "application/json")
+	@RequestMapping(method = RequestMethod.POST, produces = {"application/json", "application/x-jackson-smile"})
 	@Secured({VogonSecurityUser.AUTHORITY_ADMIN})
 	public @ResponseBody
 	void setProperties(@RequestBody Collection<ConfigurationElement> values) {
@@ -58,7 +58,8 @@ public class ConfigurationController {
 	 *
 	 * @return the configuration properties
 	 */
-	@RequestMapping(method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
+	@Transactional(readOnly = true)
 	//@PreAuthorize("hasAuthority('" + VogonSecurityUser.AUTHORITY_ADMIN + "')") //NOI18N
 	@Secured({VogonSecurityUser.AUTHORITY_ADMIN})
 	public @ResponseBody
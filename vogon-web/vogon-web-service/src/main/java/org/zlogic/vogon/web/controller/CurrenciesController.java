@@ -5,51 +5,147 @@
  */
 package org.zlogic.vogon.web.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Currency;
+import java.util.HashSet;
 import java.util.List;
-import org.springframework.context.annotation.Bean;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.zlogic.vogon.web.controller.serialization.JSONMapper;
 import org.zlogic.vogon.web.data.model.CurrencyDetails;
 
 /**
- * Spring MVC controller for currencies
+ * Spring MVC controller for currencies. The currency list only depends on the
+ * JRE and the client's locale, so it's serialized once per locale and served
+ * as a cacheable static response.
  *
  * @author Dmitry Zolotukhin [zlogic@gmail.com]
  */
 @Controller
 @RequestMapping(value = "/service/currencies")
-@Transactional
 public class CurrenciesController {
 
 	/**
-	 * Creates the wrapped currency list
+	 * How long clients may reuse their copy of the currency list
+	 */
+	private static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+	/**
+	 * Cache-Control header for the currency list
+	 */
+	private static final String CACHE_CONTROL = CacheControl.maxAge(MAX_AGE, TimeUnit.MILLISECONDS).cachePrivate().getHeaderValue();
+	/**
+	 * Locales supported by the JRE; other locales are not cached to prevent
+	 * the cache from growing without bounds
+	 */
+	private static final Set<Locale> availableLocales = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(Locale.getAvailableLocales())));
+
+	/**
+	 * Serialized currency list, with its ETag
+	 */
+	private static class SerializedCurrencies {
+
+		/**
+		 * The serialized currency list
+		 */
+		private final byte[] data;
+		/**
+		 * The ETag (MD5 hash) of the serialized currency list
+		 */
+		private final String etag;
+
+		/**
+		 * Creates a SerializedCurrencies instance
+		 *
+		 * @param data the serialized currency list
+		 */
+		private SerializedCurrencies(byte[] data) {
+			this.data = data;
+			this.etag = "\"" + DigestUtils.md5DigestAsHex(data) + "\""; //NOI18N //NOI18N
+		}
+	}
+
+	/**
+	 * JSONMapper instance
+	 */
+	@Autowired
+	private JSONMapper jsonMapper;
+	/**
+	 * Serialized currency lists for every requested locale
+	 */
+	private final ConcurrentMap<Locale, SerializedCurrencies> currencies = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the wrapped currency list, sorted by display name
 	 *
+	 * @param locale the locale to use for display names
 	 * @return the wrapped currency list
 	 */
-	@Bean
-	public Collection<CurrencyDetails> currencies() {
-		List<CurrencyDetails> currencies = new ArrayList<>();
+	private List<CurrencyDetails> createCurrencies(Locale locale) {
+		List<CurrencyDetails> currencyList = new ArrayList<>();
 		for (Currency currency : Currency.getAvailableCurrencies())
-			currencies.add(new CurrencyDetails(currency));
-		Collections.sort(currencies);
-		return currencies;
+			currencyList.add(new CurrencyDetails(currency, locale));
+		Collections.sort(currencyList);
+		return currencyList;
+	}
+
+	/**
+	 * Returns the serialized currency list for a locale, creating it if
+	 * necessary
+	 *
+	 * @param locale the locale to use for display names
+	 * @return the serialized currency list
+	 */
+	private SerializedCurrencies getCurrencies(Locale locale) {
+		if (!availableLocales.contains(locale))
+			locale = Locale.getDefault(Locale.Category.DISPLAY);
+		SerializedCurrencies serializedCurrencies = currencies.get(locale);
+		if (serializedCurrencies != null)
+			return serializedCurrencies;
+		try {
+			serializedCurrencies = new SerializedCurrencies(jsonMapper.writeValueAsBytes(createCurrencies(locale)));
+		} catch (JsonProcessingException ex) {
+			throw new RuntimeException(ex);
+		}
+		SerializedCurrencies existingCurrencies = currencies.putIfAbsent(locale, serializedCurrencies);
+		return existingCurrencies != null ? existingCurrencies : serializedCurrencies;
 	}
 
 	/**
 	 * Returns all currencies
 	 *
-	 * @return the currencies
+	 * @param locale the client's locale
+	 * @param webRequest the current request
+	 * @return the serialized currencies, or null if the client's copy is
+	 * current
 	 */
 	@RequestMapping(method = RequestMethod.GET, produces = "application/json")
-	public @ResponseBody
-	Collection<CurrencyDetails> getAllCurrencies() {
-		return currencies();
+	public HttpEntity<byte[]> getAllCurrencies(Locale locale, ServletWebRequest webRequest) {
+		SerializedCurrencies serializedCurrencies = getCurrencies(locale);
+		webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+		webRequest.getResponse().setDateHeader(HttpHeaders.EXPIRES, System.currentTimeMillis() + MAX_AGE);
+		webRequest.getResponse().setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_LANGUAGE);
+		if (webRequest.checkNotModified(serializedCurrencies.etag))
+			return null;
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+		headers.setContentLength(serializedCurrencies.data.length);
+		return new HttpEntity<>(serializedCurrencies.data, headers);
 	}
 }
@@ -19,7 +19,9 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.web.bind.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -30,17 +32,19 @@ import org.zlogic.vogon.data.VogonUser;
 import org.zlogic.vogon.data.interop.ClassExporter;
 import org.zlogic.vogon.data.interop.ExportedData;
 import org.zlogic.vogon.data.interop.VogonExportException;
-import org.zlogic.vogon.data.interop.VogonImportException;
-import org.zlogic.vogon.data.interop.VogonImportLogicalException;
 import org.zlogic.vogon.data.interop.XmlExporter;
-import org.zlogic.vogon.data.interop.XmlImporter;
 import org.zlogic.vogon.data.tools.DatabaseMaintenance;
 import org.zlogic.vogon.web.controller.serialization.JSONMapper;
 import org.zlogic.vogon.web.data.AccountRepository;
 import org.zlogic.vogon.web.data.InitializationHelper;
+import org.zlogic.vogon.web.data.ReadFromReplica;
 import org.zlogic.vogon.web.data.TransactionRepository;
-import org.zlogic.vogon.web.data.UserRepository;
 import org.zlogic.vogon.web.data.model.FinanceTransactionJson;
+import org.zlogic.vogon.web.events.LedgerEvent;
+import org.zlogic.vogon.web.events.LedgerEventBroadcaster;
+import org.zlogic.vogon.web.events.LedgerVersionTracker;
+import org.zlogic.vogon.web.jobs.ImportJob;
+import org.zlogic.vogon.web.jobs.ImportJobService;
 import org.zlogic.vogon.web.security.VogonSecurityUser;
 
 /**
@@ -58,11 +62,6 @@ public class DataController {
 	 */
 	@PersistenceContext
 	private EntityManager em;
-	/**
-	 * The users repository
-	 */
-	@Autowired
-	private UserRepository userRepository;
 	/**
 	 * The transactions repository
 	 */
@@ -83,25 +82,52 @@ public class DataController {
 	 */
 	@Autowired
 	private JSONMapper jsonMapper;
+	/**
+	 * The LedgerEventBroadcaster instance
+	 */
+	@Autowired
+	private LedgerEventBroadcaster ledgerEventBroadcaster;
+	/**
+	 * The LedgerVersionTracker instance
+	 */
+	@Autowired
+	private LedgerVersionTracker ledgerVersionTracker;
+	/**
+	 * The ImportJobService instance
+	 */
+	@Autowired
+	private ImportJobService importJobService;
 
 	/**
-	 * Imports uploaded XML data
+	 * Queues uploaded XML data for import
 	 *
 	 * @param data the file to import
 	 * @param userPrincipal the authenticated user
-	 * @return true of import succeeded
+	 * @return the import job
 	 */
-	@RequestMapping(value = "/import", method = RequestMethod.POST, produces = "application/json", consumes = "multipart/form-data")
+	@RequestMapping(value = "/import", method = RequestMethod.POST, produces = {"application/json", "application/x-jackson-smile"}, consumes = "multipart/form-data")
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
 	public @ResponseBody
-	Boolean importData(@RequestParam("file") MultipartFile data, @AuthenticationPrincipal VogonSecurityUser userPrincipal) throws RuntimeException {
-		VogonUser user = userRepository.findByUsernameIgnoreCase(userPrincipal.getUsername());
+	ImportJob importData(@RequestParam("file") MultipartFile data, @AuthenticationPrincipal VogonSecurityUser userPrincipal) throws RuntimeException {
 		try {
-			XmlImporter importer = new XmlImporter(data.getInputStream());
-			importer.importData(user, em);
-		} catch (IOException | VogonImportException | VogonImportLogicalException ex) {
+			return importJobService.submit(userPrincipal.getUser(), data);
+		} catch (IOException ex) {
 			throw new RuntimeException(ex);
 		}
-		return true;
+	}
+
+	/**
+	 * Returns the status of an import job
+	 *
+	 * @param id the import job ID
+	 * @param userPrincipal the authenticated user
+	 * @return the import job, or null if it doesn't exist
+	 */
+	@RequestMapping(value = "/import/{id}", method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public @ResponseBody
+	ImportJob getImportJob(@PathVariable String id, @AuthenticationPrincipal VogonSecurityUser userPrincipal) {
+		return importJobService.getJob(userPrincipal.getUser(), id);
 	}
 
 	/**
@@ -111,8 +137,10 @@ public class DataController {
 	 * @return the HTTPEntity for the file download
 	 */
 	@RequestMapping(value = "/export/xml", method = {RequestMethod.GET, RequestMethod.POST})
+	@Transactional(readOnly = true)
+	@ReadFromReplica
 	public HttpEntity<byte[]> exportDataXML(@AuthenticationPrincipal VogonSecurityUser userPrincipal) throws RuntimeException {
-		VogonUser user = userRepository.findByUsernameIgnoreCase(userPrincipal.getUsername());
+		VogonUser user = userPrincipal.getUser();
 		try {
 			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
 			XmlExporter exporter = new XmlExporter(outStream);
@@ -140,8 +168,10 @@ public class DataController {
 	 * @return the HTTPEntity for the file download
 	 */
 	@RequestMapping(value = "/export/json", method = {RequestMethod.GET, RequestMethod.POST})
+	@Transactional(readOnly = true)
+	@ReadFromReplica
 	public HttpEntity<byte[]> exportDataJSON(@AuthenticationPrincipal VogonSecurityUser userPrincipal) throws RuntimeException {
-		VogonUser user = userRepository.findByUsernameIgnoreCase(userPrincipal.getUsername());
+		VogonUser user = userPrincipal.getUser();
 		try {
 			ClassExporter exporter = new ClassExporter();
 			Sort accountSort = new Sort(new Sort.Order(Sort.Direction.ASC, "id"));//NOI18N
@@ -178,13 +208,17 @@ public class DataController {
 	 * @param userPrincipal the authenticated user
 	 * @return true on success
 	 */
-	@RequestMapping(value = "/recalculateBalance", method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(value = "/recalculateBalance", method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
 	public @ResponseBody
 	Boolean recalculateBalance(@AuthenticationPrincipal VogonSecurityUser userPrincipal) {
-		VogonUser user = userRepository.findByUsernameIgnoreCase(userPrincipal.getUsername());
+		VogonUser user = userPrincipal.getUser();
 		DatabaseMaintenance databaseMaintenance = new DatabaseMaintenance();
-		for (FinanceAccount account : accountRepository.findByOwner(user))
+		LedgerEvent event = new LedgerEvent(LedgerEvent.EventType.ACCOUNTS_UPDATED);
+		for (FinanceAccount account : accountRepository.findByOwner(user)) {
 			databaseMaintenance.refreshAccountBalance(account, em);
+			event.addAccount(account);
+		}
+		ledgerEventBroadcaster.publish(user, event);
 		return true;
 	}
 
@@ -193,11 +227,12 @@ public class DataController {
 	 *
 	 * @return true on success
 	 */
-	@RequestMapping(value = "/cleanup", method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(value = "/cleanup", method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
 	public @ResponseBody
 	Boolean cleanup() {
 		DatabaseMaintenance databaseMaintenance = new DatabaseMaintenance();
 		databaseMaintenance.cleanup(em);//TODO: allows this action only for administrative users?
+		ledgerVersionTracker.incrementAllVersions();
 		return true;
 	}
 }
@@ -0,0 +1,45 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.web.bind.annotation.AuthenticationPrincipal;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.zlogic.vogon.web.events.LedgerEventBroadcaster;
+import org.zlogic.vogon.web.events.TooManyConnectionsException;
+import org.zlogic.vogon.web.security.VogonSecurityUser;
+
+/**
+ * Spring MVC controller for pushing ledger change events to clients
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Controller
+@RequestMapping(value = "/service/events")
+public class EventsController {
+
+	/**
+	 * The LedgerEventBroadcaster instance
+	 */
+	@Autowired
+	private LedgerEventBroadcaster ledgerEventBroadcaster;
+
+	/**
+	 * Opens an event stream for the authenticated user
+	 *
+	 * @param user the authenticated user
+	 * @return the event stream
+	 * @throws TooManyConnectionsException if the server has reached its
+	 * connection limit
+	 */
+	@RequestMapping(method = RequestMethod.GET, produces = "text/event-stream")
+	public SseEmitter getEvents(@AuthenticationPrincipal VogonSecurityUser user) throws TooManyConnectionsException {
+		return ledgerEventBroadcaster.subscribe(user.getUser());
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.controller;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.zlogic.vogon.web.configuration.VogonConfiguration;
+
+/**
+ * Caches rendered fragments (/fragments/*.fragment). Fragments only depend on
+ * the client's languages and the configuration, so a rendered fragment is
+ * reused for all requests with the same Accept-Language header until the
+ * configuration changes. Responses have ETags, so browsers can revalidate
+ * their copy instead of downloading it again.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Component
+public class FragmentCacheFilter extends OncePerRequestFilter {
+
+	/**
+	 * The fragments path
+	 */
+	private static final String FRAGMENTS_PATH = "/fragments/"; //NOI18N
+	/**
+	 * The configuration handler
+	 */
+	@Autowired
+	private VogonConfiguration configuration;
+	/**
+	 * Maximum number of cached fragments
+	 */
+	@Value("${vogon.fragments.cache:256}")
+	private int cacheSize;
+	/**
+	 * Rendered fragments, by path, languages and configuration
+	 */
+	private Map<String, RenderedFragment> fragments;
+
+	/**
+	 * A rendered fragment
+	 */
+	private static class RenderedFragment {
+
+		/**
+		 * The fragment contents
+		 */
+		private final byte[] content;
+		/**
+		 * The fragment content type
+		 */
+		private final String contentType;
+		/**
+		 * The fragment ETag
+		 */
+		private final String etag;
+
+		/**
+		 * Creates a RenderedFragment
+		 *
+		 * @param content the fragment contents
+		 * @param contentType the fragment content type
+		 */
+		private RenderedFragment(byte[] content, String contentType) {
+			this.content = content;
+			this.contentType = contentType;
+			this.etag = "\"" + DigestUtils.md5DigestAsHex(content) + "\""; //NOI18N //NOI18N
+		}
+	}
+
+	/**
+	 * Creates the cache
+	 */
+	@PostConstruct
+	public void createCache() {
+		fragments = Collections.synchronizedMap(new LinkedHashMap<String, RenderedFragment>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RenderedFragment> eldest) {
+				return size() > cacheSize;
+			}
+		});
+	}
+
+	/**
+	 * Returns the request path inside the application
+	 *
+	 * @param request the request
+	 * @return the request path
+	 */
+	private String getPath(HttpServletRequest request) {
+		return request.getRequestURI().substring(request.getContextPath().length());
+	}
+
+	/**
+	 * Only GET requests for fragments are cached
+	 *
+	 * @param request the request
+	 * @return true if the request is not for a fragment
+	 */
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !"GET".equals(request.getMethod()) || !getPath(request).startsWith(FRAGMENTS_PATH); //NOI18N
+	}
+
+	/**
+	 * Serves the fragment from the cache, rendering it if necessary
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param filterChain the filter chain
+	 * @throws ServletException in case of errors
+	 * @throws IOException in case of errors
+	 */
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+		String key = getPath(request) + "\n" + request.getHeader(HttpHeaders.ACCEPT_LANGUAGE) + "\n" + configuration.isAllowRegistration(); //NOI18N //NOI18N
+		RenderedFragment fragment = fragments.get(key);
+		if (fragment == null) {
+			ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
+			filterChain.doFilter(request, responseWrapper);
+			if (responseWrapper.getStatusCode() != HttpServletResponse.SC_OK) {
+				responseWrapper.copyBodyToResponse();
+				return;
+			}
+			fragment = new RenderedFragment(responseWrapper.getContentAsByteArray(), responseWrapper.getContentType());
+			fragments.put(key, fragment);
+		}
+
+		response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache"); //NOI18N
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_LANGUAGE);
+		if (new ServletWebRequest(request, response).checkNotModified(fragment.etag))
+			return;
+		response.setContentType(fragment.contentType);
+		response.setContentLength(fragment.content.length);
+		response.getOutputStream().write(fragment.content);
+	}
+}
@@ -51,7 +51,7 @@ public class RegistrationController {
 	 * @throws org.zlogic.vogon.web.security.UsernameExistsException in case the
 	 * new username is already in use
 	 */
-	@RequestMapping(method = RequestMethod.POST, produces = "application/json")
+	@RequestMapping(method = RequestMethod.POST, produces = {"application/json", "application/x-jackson-smile"})
 	public @ResponseBody
 	VogonUser register(@RequestBody VogonUser registerUser) throws UsernameExistsException {
 		if (!configuration.isAllowRegistration())
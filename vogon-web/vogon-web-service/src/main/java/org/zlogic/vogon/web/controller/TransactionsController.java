@@ -5,6 +5,7 @@
  */
 package org.zlogic.vogon.web.controller;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
@@ -30,16 +31,21 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.zlogic.vogon.data.FinanceAccount;
 import org.zlogic.vogon.data.FinanceTransaction;
 import org.zlogic.vogon.data.FinanceTransaction_;
 import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.tools.DatabaseMaintenance;
 import org.zlogic.vogon.web.data.AccountRepository;
 import org.zlogic.vogon.web.data.InitializationHelper;
 import org.zlogic.vogon.web.data.TransactionFilterSpecification;
 import org.zlogic.vogon.web.data.TransactionRepository;
 import org.zlogic.vogon.web.data.model.FinanceTransactionJson;
 import org.zlogic.vogon.web.data.model.TransactionComponentJson;
+import org.zlogic.vogon.web.events.LedgerEvent;
+import org.zlogic.vogon.web.events.LedgerEventBroadcaster;
+import org.zlogic.vogon.web.events.LedgerVersionTracker;
 import org.zlogic.vogon.web.security.VogonSecurityUser;
 
 /**
@@ -80,6 +86,16 @@ public class TransactionsController {
 	 */
 	@Autowired
 	private InitializationHelper initializationHelper;
+	/**
+	 * The LedgerEventBroadcaster instance
+	 */
+	@Autowired
+	private LedgerEventBroadcaster ledgerEventBroadcaster;
+	/**
+	 * The LedgerVersionTracker instance
+	 */
+	@Autowired
+	private LedgerVersionTracker ledgerVersionTracker;
 
 	/**
 	 * Sort column options
@@ -111,9 +127,11 @@ public class TransactionsController {
 	 * @param filterTags the tags to be filtered
 	 * @param filterDate the date to be filtered
 	 * @param user the authenticated user
-	 * @return the transactions
+	 * @param webRequest the current request
+	 * @return the transactions, or null if the client's copy is current
 	 */
-	@RequestMapping(method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
+	@Transactional(readOnly = true)
 	public @ResponseBody
 	Collection<FinanceTransactionJson> getTransactions(
 			@RequestParam("page") Integer page,
@@ -122,7 +140,10 @@ public class TransactionsController {
 			@RequestParam(value = "filterDescription", required = false) String filterDescription,
 			@RequestParam(value = "filterDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date filterDate,
 			@RequestParam(value = "filterTags", required = false) Collection<String> filterTags,
-			@AuthenticationPrincipal VogonSecurityUser user) {
+			@AuthenticationPrincipal VogonSecurityUser user,
+			ServletWebRequest webRequest) {
+		if (ledgerVersionTracker.checkNotModified(user.getUser(), webRequest))
+			return null;
 		Attribute sortAttribute = FinanceTransaction_.transactionDate;
 		if (sortColumn != null)
 			switch (sortColumn) {
@@ -157,7 +178,8 @@ public class TransactionsController {
 	 * @param user the authenticated user
 	 * @return the number of transactions
 	 */
-	@RequestMapping(value = "/pages", method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(value = "/pages", method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
+	@Transactional(readOnly = true)
 	public @ResponseBody
 	long getTransactionsCount(@AuthenticationPrincipal VogonSecurityUser user) {
 		PageRequest pageRequest = new PageRequest(0, PAGE_SIZE);
@@ -171,7 +193,8 @@ public class TransactionsController {
 	 * @param user the authenticated user
 	 * @return the number of transactions
 	 */
-	@RequestMapping(value = "/transaction/{id}", method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(value = "/transaction/{id}", method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
+	@Transactional(readOnly = true)
 	public @ResponseBody
 	FinanceTransactionJson getTransaction(@PathVariable long id, @AuthenticationPrincipal VogonSecurityUser user) {
 		return initializationHelper.initializeTransaction(transactionRepository.findByOwnerAndId(user.getUser(), id));
@@ -184,10 +207,11 @@ public class TransactionsController {
 	 * @param user the authenticated user
 	 * @return the transactions from database after update
 	 */
-	@RequestMapping(method = RequestMethod.POST, produces = "application/json")
+	@RequestMapping(method = RequestMethod.POST, produces = {"application/json", "application/x-jackson-smile"})
 	public @ResponseBody
 	FinanceTransactionJson submitTransaction(@RequestBody FinanceTransactionJson transaction, @AuthenticationPrincipal VogonSecurityUser user) {
 		FinanceTransaction existingTransaction = transactionRepository.findByOwnerAndId(user.getUser(), transaction.getId());
+		Date previousDate = existingTransaction != null ? existingTransaction.getDate() : null;
 		//Merge with database
 		if (existingTransaction == null)
 			existingTransaction = new FinanceTransaction(user.getUser(), transaction);
@@ -216,6 +240,11 @@ public class TransactionsController {
 			existingTransaction.removeComponent(removedComponent);
 		existingTransaction = transactionRepository.saveAndFlush(existingTransaction);
 		accountRepository.flush();
+		new DatabaseMaintenance().updateTagExpenseRollup(user.getUser(), Arrays.asList(previousDate, existingTransaction.getDate()), em);
+		LedgerEvent event = new LedgerEvent(LedgerEvent.EventType.TRANSACTIONS_UPDATED).addTransaction(existingTransaction);
+		for (TransactionComponent removedComponent : removedComponents)
+			event.addAccount(removedComponent.getAccount());
+		ledgerEventBroadcaster.publish(user.getUser(), event);
 		return initializationHelper.initializeTransaction(existingTransaction);
 	}
 
@@ -226,14 +255,20 @@ public class TransactionsController {
 	 * @param user the authenticated user
 	 * @return null
 	 */
-	@RequestMapping(value = "/transaction/{id}", method = RequestMethod.DELETE, produces = "application/json")
+	@RequestMapping(value = "/transaction/{id}", method = RequestMethod.DELETE, produces = {"application/json", "application/x-jackson-smile"})
 	public @ResponseBody
 	FinanceTransactionJson deleteTransaction(@PathVariable long id, @AuthenticationPrincipal VogonSecurityUser user) {
 		FinanceTransaction existingTransaction = transactionRepository.findByOwnerAndId(user.getUser(), id);
 		if (existingTransaction != null) {
+			List<FinanceAccount> affectedAccounts = existingTransaction.getAccounts();
+			LedgerEvent event = new LedgerEvent(LedgerEvent.EventType.TRANSACTIONS_DELETED).addTransaction(existingTransaction);
 			existingTransaction.removeAllComponents();
 			transactionRepository.save(existingTransaction);
 			transactionRepository.delete(existingTransaction);
+			new DatabaseMaintenance().updateTagExpenseRollup(user.getUser(), Arrays.asList(existingTransaction.getDate()), em);
+			for (FinanceAccount account : affectedAccounts)
+				event.addAccount(account);
+			ledgerEventBroadcaster.publish(user.getUser(), event);
 			return initializationHelper.initializeTransaction(existingTransaction);
 		}
 		return null;
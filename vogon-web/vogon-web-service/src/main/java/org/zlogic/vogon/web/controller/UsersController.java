@@ -14,7 +14,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.zlogic.vogon.data.VogonUser;
-import org.zlogic.vogon.web.data.UserRepository;
 import org.zlogic.vogon.web.security.UserService;
 import org.zlogic.vogon.web.security.UsernameExistsException;
 import org.zlogic.vogon.web.security.VogonSecurityUser;
@@ -29,11 +28,6 @@ import org.zlogic.vogon.web.security.VogonSecurityUser;
 @Transactional
 public class UsersController {
 
-	/**
-	 * The users repository
-	 */
-	@Autowired
-	private UserRepository userRepository;
 	/**
 	 * The Spring user service
 	 */
@@ -46,11 +40,11 @@ public class UsersController {
 	 * @param userPrincipal the authenticated user
 	 * @return the user details
 	 */
-	@RequestMapping(method = RequestMethod.GET, produces = "application/json")
+	@RequestMapping(method = RequestMethod.GET, produces = {"application/json", "application/x-jackson-smile"})
+	@Transactional(readOnly = true)
 	public @ResponseBody
 	VogonUser getUserData(@AuthenticationPrincipal VogonSecurityUser userPrincipal) {
-		VogonUser user = userRepository.findByUsernameIgnoreCase(userPrincipal.getUsername());
-		return user;
+		return userPrincipal.getUser();
 	}
 
 	/**
@@ -62,7 +56,7 @@ public class UsersController {
 	 * @throws org.zlogic.vogon.web.security.UsernameExistsException in case the
 	 * new username is already in use
 	 */
-	@RequestMapping(method = RequestMethod.POST, produces = "application/json")
+	@RequestMapping(method = RequestMethod.POST, produces = {"application/json", "application/x-jackson-smile"})
 	public @ResponseBody
 	VogonUser submitUser(@RequestBody VogonUser updatedUser, @AuthenticationPrincipal VogonSecurityUser userPrincipal) throws UsernameExistsException {
 		return userService.updateUser(userPrincipal, updatedUser).getUser();
@@ -0,0 +1,98 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.controller.serialization;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import org.zlogic.vogon.data.report.DateBalance;
+
+/**
+ * Streams a DateBalance directly from its arrays, without creating a
+ * date/balance map; produces the same output as the default serializer
+ * ({"data":{"yyyy-MM-dd":balance,...}}, with "minimums" and "maximums" maps
+ * for downsampled graphs)
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class DateBalanceSerializer extends StdSerializer<DateBalance> {
+
+	/**
+	 * Default constructor
+	 */
+	public DateBalanceSerializer() {
+		super(DateBalance.class);
+	}
+
+	/**
+	 * Formats days since the epoch as yyyy-MM-dd
+	 *
+	 * @param epochDay the number of days since the epoch
+	 * @param buffer the buffer to use (at least 10 characters)
+	 * @return the formatted date
+	 */
+	private String formatDate(int epochDay, char[] buffer) {
+		//Convert days to a civil date, with years starting on March 1
+		long days = epochDay + 719468L;
+		long era = (days >= 0 ? days : days - 146096) / 146097;
+		long dayOfEra = days - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long monthIndex = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+		int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+		int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+		if (year < 0 || year > 9999)
+			return String.format("%04d-%02d-%02d", year, month, day); //NOI18N
+		buffer[0] = (char) ('0' + year / 1000);
+		buffer[1] = (char) ('0' + year / 100 % 10);
+		buffer[2] = (char) ('0' + year / 10 % 10);
+		buffer[3] = (char) ('0' + year % 10);
+		buffer[4] = '-';
+		buffer[5] = (char) ('0' + month / 10);
+		buffer[6] = (char) ('0' + month % 10);
+		buffer[7] = '-';
+		buffer[8] = (char) ('0' + day / 10);
+		buffer[9] = (char) ('0' + day % 10);
+		return new String(buffer, 0, 10);
+	}
+
+	/**
+	 * Writes a DateBalance as JSON
+	 *
+	 * @param value the DateBalance to write
+	 * @param gen the JsonGenerator to use
+	 * @param provider the SerializerProvider
+	 * @throws IOException in case of I/O errors
+	 */
+	@Override
+	public void serialize(DateBalance value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+		char[] buffer = new char[10];
+		gen.writeStartObject();
+		gen.writeObjectFieldStart("data"); //NOI18N
+		for (int i = 0; i < value.size(); i++) {
+			gen.writeFieldName(formatDate(value.getDay(i), buffer));
+			gen.writeNumber(value.getBalance(i));
+		}
+		gen.writeEndObject();
+		if (value.hasEnvelope()) {
+			gen.writeObjectFieldStart("minimums"); //NOI18N
+			for (int i = 0; i < value.size(); i++) {
+				gen.writeFieldName(formatDate(value.getDay(i), buffer));
+				gen.writeNumber(value.getMinimum(i));
+			}
+			gen.writeEndObject();
+			gen.writeObjectFieldStart("maximums"); //NOI18N
+			for (int i = 0; i < value.size(); i++) {
+				gen.writeFieldName(formatDate(value.getDay(i), buffer));
+				gen.writeNumber(value.getMaximum(i));
+			}
+			gen.writeEndObject();
+		}
+		gen.writeEndObject();
+	}
+}
@@ -10,6 +10,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import org.springframework.beans.factory.InitializingBean;
@@ -17,6 +18,7 @@ import org.springframework.stereotype.Service;
 import org.zlogic.vogon.data.ConfigurationElement;
 import org.zlogic.vogon.data.FinanceAccount;
 import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.report.DateBalance;
 import org.zlogic.vogon.web.data.model.FinanceTransactionJson;
 
 /**
@@ -112,16 +114,32 @@ public class JSONMapper extends ObjectMapper implements InitializingBean {
 	}
 
 	/**
-	 * Adds MixIn Annotations
+	 * Adds MixIn Annotations and custom serializers
 	 *
 	 * @throws Exception in case of errors
 	 */
 	@Override
 	public void afterPropertiesSet() throws Exception {
-		this.addMixIn(FinanceTransactionJson.class, FinanceTransactionAnnotations.class);
-		this.addMixIn(FinanceAccount.class, FinanceAccountAnnotations.class);
-		this.addMixIn(VogonUser.class, VogonUserAnnotations.class);
-		this.addMixIn(ConfigurationElement.class, ConfigurationElementAnnotations.class);
-		this.setDateFormat(new SimpleDateFormat("yyyy-MM-dd")); //NOI18N
+		configure(this);
+	}
+
+	/**
+	 * Adds MixIn Annotations and custom serializers to an ObjectMapper. Used
+	 * to configure mappers for other data formats (e.g. Smile) in the same way
+	 * as JSON.
+	 *
+	 * @param mapper the ObjectMapper to configure
+	 * @return the configured ObjectMapper
+	 */
+	public static ObjectMapper configure(ObjectMapper mapper) {
+		mapper.addMixIn(FinanceTransactionJson.class, FinanceTransactionAnnotations.class);
+		mapper.addMixIn(FinanceAccount.class, FinanceAccountAnnotations.class);
+		mapper.addMixIn(VogonUser.class, VogonUserAnnotations.class);
+		mapper.addMixIn(ConfigurationElement.class, ConfigurationElementAnnotations.class);
+		mapper.setDateFormat(new SimpleDateFormat("yyyy-MM-dd")); //NOI18N
+		SimpleModule module = new SimpleModule();
+		module.addSerializer(DateBalance.class, new DateBalanceSerializer());
+		mapper.registerModule(module);
+		return mapper;
 	}
 }
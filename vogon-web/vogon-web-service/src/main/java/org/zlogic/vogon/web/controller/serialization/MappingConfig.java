@@ -5,6 +5,8 @@
  */
 package org.zlogic.vogon.web.controller.serialization;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -36,4 +38,15 @@ public class MappingConfig {
 		jsonConverter.setObjectMapper(jsonMapper);
 		return jsonConverter;
 	}
+
+	/**
+	 * Returns the SmileHttpMessageConverter instance using an ObjectMapper
+	 * configured in the same way as JSONMapper
+	 *
+	 * @return the Smile message converter
+	 */
+	@Bean
+	public SmileHttpMessageConverter smileConverter() {
+		return new SmileHttpMessageConverter(JSONMapper.configure(new ObjectMapper(new SmileFactory())));
+	}
 }
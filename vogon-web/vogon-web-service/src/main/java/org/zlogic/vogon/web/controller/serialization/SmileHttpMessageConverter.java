@@ -0,0 +1,38 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.controller.serialization;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.util.Assert;
+
+/**
+ * HttpMessageConverter for the binary Smile format. Only used if the client
+ * explicitly requests application/x-jackson-smile in the Accept header;
+ * clients which don't will keep receiving JSON.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class SmileHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+	/**
+	 * The Smile media type
+	 */
+	public static final MediaType SMILE = new MediaType("application", "x-jackson-smile"); //NOI18N
+
+	/**
+	 * Creates the converter
+	 *
+	 * @param objectMapper the ObjectMapper to use, must be using a
+	 * SmileFactory
+	 */
+	public SmileHttpMessageConverter(ObjectMapper objectMapper) {
+		super(objectMapper, SMILE);
+		Assert.isInstanceOf(SmileFactory.class, objectMapper.getFactory());
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.zlogic.vogon.data.OAuthAccessToken;
+
+/**
+ * The OAuth access tokens JpaRepository
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Repository
+public interface AccessTokenRepository extends JpaRepository<OAuthAccessToken, String> {
+
+	/**
+	 * Finds the access token issued for an authentication
+	 *
+	 * @param authenticationKey the key identifying the authentication
+	 * @return the found access token
+	 */
+	public OAuthAccessToken findFirstByAuthenticationKey(String authenticationKey);
+
+	/**
+	 * Finds all access tokens issued to a client
+	 *
+	 * @param clientId the client ID
+	 * @return the found access tokens
+	 */
+	public List<OAuthAccessToken> findByClientId(String clientId);
+
+	/**
+	 * Finds all access tokens issued to a client for a specific user
+	 *
+	 * @param clientId the client ID
+	 * @param username the username
+	 * @return the found access tokens
+	 */
+	public List<OAuthAccessToken> findByClientIdAndUsername(String clientId, String username);
+
+	/**
+	 * Finds all access tokens associated with a refresh token
+	 *
+	 * @param refreshTokenId the hashed refresh token value
+	 * @return the found access tokens
+	 */
+	public List<OAuthAccessToken> findByRefreshTokenId(String refreshTokenId);
+
+	/**
+	 * Deletes an access token
+	 *
+	 * @param tokenId the hashed token value
+	 * @return the number of deleted tokens
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from OAuthAccessToken token where token.tokenId = :tokenId") //NOI18N
+	public int deleteByTokenId(@Param("tokenId") String tokenId);
+
+	/**
+	 * Deletes all access tokens associated with a refresh token
+	 *
+	 * @param refreshTokenId the hashed refresh token value
+	 * @return the number of deleted tokens
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from OAuthAccessToken token where token.refreshTokenId = :refreshTokenId") //NOI18N
+	public int deleteByRefreshTokenId(@Param("refreshTokenId") String refreshTokenId);
+
+	/**
+	 * Deletes all access tokens which expired before a specific date
+	 *
+	 * @param date the date
+	 * @return the number of deleted tokens
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from OAuthAccessToken token where token.expiration < :date") //NOI18N
+	public int deleteExpired(@Param("date") Date date);
+}
@@ -0,0 +1,44 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.zlogic.vogon.data.ClusterEvent;
+
+/**
+ * The cluster events JpaRepository
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Repository
+public interface ClusterEventRepository extends JpaRepository<ClusterEvent, Long> {
+
+	/**
+	 * Finds all events created after a specific date
+	 *
+	 * @param date the date
+	 * @return the found events, sorted by ID
+	 */
+	public List<ClusterEvent> findByCreatedGreaterThanOrderByIdAsc(Date date);
+
+	/**
+	 * Deletes all events created before a specific date
+	 *
+	 * @param date the date
+	 * @return the number of deleted events
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from ClusterEvent event where event.created < :date") //NOI18N
+	public int deleteCreatedBefore(@Param("date") Date date);
+}
@@ -0,0 +1,26 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method whose read-only transactions may be sent to a read replica.
+ * Read-only transactions started anywhere else (e.g. by Spring Data
+ * repositories during authentication) always use the primary database. The
+ * method should also be annotated with {@code @Transactional(readOnly = true)}.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReadFromReplica {
+}
@@ -0,0 +1,71 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Allows read-only transactions to use read replicas while a method annotated
+ * with {@link ReadFromReplica} is running on the current thread.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class ReadFromReplicaInterceptor implements MethodInterceptor {
+
+	/**
+	 * True if the current thread is running a method annotated with
+	 * ReadFromReplica
+	 */
+	private static final ThreadLocal<Boolean> replicaReadAllowed = new ThreadLocal<>();
+
+	/**
+	 * Returns true if the current thread is allowed to read from replicas
+	 *
+	 * @return true if the current thread is running a method annotated with
+	 * ReadFromReplica
+	 */
+	public static boolean isReplicaReadAllowed() {
+		return Boolean.TRUE.equals(replicaReadAllowed.get());
+	}
+
+	/**
+	 * Runs a transaction on the primary database, even if the current thread
+	 * is allowed to read from replicas. The TransactionOperations should
+	 * start a new transaction, as an existing transaction keeps its
+	 * connection.
+	 *
+	 * @param <T> the result type
+	 * @param transactionOperations the TransactionOperations starting the
+	 * transaction
+	 * @param action the transaction callback
+	 * @return the result of the callback
+	 */
+	public static <T> T executeOnPrimary(TransactionOperations transactionOperations, TransactionCallback<T> action) {
+		Boolean allowed = replicaReadAllowed.get();
+		replicaReadAllowed.remove();
+		try {
+			return transactionOperations.execute(action);
+		} finally {
+			if (allowed != null)
+				replicaReadAllowed.set(allowed);
+		}
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		if (isReplicaReadAllowed())
+			return invocation.proceed();
+		replicaReadAllowed.set(Boolean.TRUE);
+		try {
+			return invocation.proceed();
+		} finally {
+			replicaReadAllowed.remove();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import java.sql.SQLException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+
+/**
+ * Hibernate JPA dialect which makes the session read-only in read-only
+ * transactions. Entities loaded in a read-only session are not dirty checked
+ * and Hibernate doesn't keep their snapshot copies. HibernateJpaDialect
+ * already sets the manual flush mode and marks the JDBC connection as
+ * read-only.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class ReadOnlyHibernateJpaDialect extends HibernateJpaDialect {
+
+	/**
+	 * Serialization version
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Transaction data of a read-only transaction, used to restore the
+	 * session settings after the transaction completes
+	 */
+	private static class ReadOnlyTransactionData {
+
+		/**
+		 * The transaction data returned by HibernateJpaDialect
+		 */
+		private final Object transactionData;
+		/**
+		 * The session
+		 */
+		private final Session session;
+		/**
+		 * The previous default read-only setting of the session
+		 */
+		private final boolean previousDefaultReadOnly;
+
+		/**
+		 * Creates the transaction data
+		 *
+		 * @param transactionData the transaction data returned by
+		 * HibernateJpaDialect
+		 * @param session the session
+		 * @param previousDefaultReadOnly the previous default read-only
+		 * setting of the session
+		 */
+		private ReadOnlyTransactionData(Object transactionData, Session session, boolean previousDefaultReadOnly) {
+			this.transactionData = transactionData;
+			this.session = session;
+			this.previousDefaultReadOnly = previousDefaultReadOnly;
+		}
+	}
+
+	/**
+	 * Begins a transaction, making the session read-only for read-only
+	 * transactions
+	 *
+	 * @param entityManager the EntityManager
+	 * @param definition the transaction definition
+	 * @return the transaction data to pass to cleanupTransaction
+	 * @throws PersistenceException if thrown by JPA methods
+	 * @throws SQLException if thrown by JDBC methods
+	 * @throws TransactionException in case of invalid arguments
+	 */
+	@Override
+	public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition) throws PersistenceException, SQLException, TransactionException {
+		if (!definition.isReadOnly())
+			return super.beginTransaction(entityManager, definition);
+		Session session = getSession(entityManager);
+		boolean previousDefaultReadOnly = session.isDefaultReadOnly();
+		Object transactionData = super.beginTransaction(entityManager, definition);
+		session.setDefaultReadOnly(true);
+		return new ReadOnlyTransactionData(transactionData, session, previousDefaultReadOnly);
+	}
+
+	/**
+	 * Restores the session settings after a transaction completes, in case the
+	 * session is still used (e.g. in an extended persistence context)
+	 *
+	 * @param transactionData the transaction data returned by
+	 * beginTransaction
+	 */
+	@Override
+	public void cleanupTransaction(Object transactionData) {
+		if (transactionData instanceof ReadOnlyTransactionData) {
+			ReadOnlyTransactionData readOnlyTransactionData = (ReadOnlyTransactionData) transactionData;
+			if (readOnlyTransactionData.session.isOpen())
+				readOnlyTransactionData.session.setDefaultReadOnly(readOnlyTransactionData.previousDefaultReadOnly);
+			transactionData = readOnlyTransactionData.transactionData;
+		}
+		super.cleanupTransaction(transactionData);
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import java.util.Date;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.zlogic.vogon.data.OAuthRefreshToken;
+
+/**
+ * The OAuth refresh tokens JpaRepository
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Repository
+public interface RefreshTokenRepository extends JpaRepository<OAuthRefreshToken, String> {
+
+	/**
+	 * Deletes a refresh token
+	 *
+	 * @param tokenId the hashed token value
+	 * @return the number of deleted tokens
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from OAuthRefreshToken token where token.tokenId = :tokenId") //NOI18N
+	public int deleteByTokenId(@Param("tokenId") String tokenId);
+
+	/**
+	 * Deletes all refresh tokens which expired before a specific date
+	 *
+	 * @param date the date
+	 * @return the number of deleted tokens
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from OAuthRefreshToken token where token.expiration < :date") //NOI18N
+	public int deleteExpired(@Param("date") Date date);
+}
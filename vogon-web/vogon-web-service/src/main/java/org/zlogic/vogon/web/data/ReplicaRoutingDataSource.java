@@ -0,0 +1,190 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * DataSource which sends read-only transactions started by methods annotated
+ * with {@link ReadFromReplica} to read replicas (in a round-robin fashion),
+ * and everything else to the primary database. Other read-only transactions,
+ * such as the implicit transactions of Spring Data repositories used for
+ * authentication, token and cluster lookups, always use the primary.
+ *
+ * A user's read-only transactions also use the primary database for a short
+ * time after the user committed a read-write transaction, so that the user
+ * doesn't see stale data while the replicas catch up. Only writes made by
+ * this node are tracked.
+ *
+ * The routing decision is made when a connection is obtained, so this
+ * DataSource should be wrapped into a LazyConnectionDataSourceProxy to delay
+ * obtaining the connection until the transaction has started.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+	/**
+	 * The lookup key of the primary database
+	 */
+	private static final String PRIMARY = "primary"; //NOI18N
+	/**
+	 * Maximum number of tracked users before expired entries are removed
+	 */
+	private static final int MAX_TRACKED_USERS = 1024;
+	/**
+	 * The primary and replica DataSources
+	 */
+	private final List<DataSource> dataSources;
+	/**
+	 * The number of replicas
+	 */
+	private final int replicaCount;
+	/**
+	 * Time in milliseconds after a write during which the user's reads are
+	 * sent to the primary database
+	 */
+	private final long stickiness;
+	/**
+	 * Counter for choosing the next replica
+	 */
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	/**
+	 * Time of the last write, by username
+	 */
+	private final ConcurrentMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the routing DataSource
+	 *
+	 * @param primary the primary database DataSource
+	 * @param replicas the replica DataSources
+	 * @param stickiness time in milliseconds after a write during which the
+	 * user's reads are sent to the primary database
+	 */
+	public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, long stickiness) {
+		this.replicaCount = replicas.size();
+		this.stickiness = stickiness;
+		List<DataSource> allDataSources = new ArrayList<>();
+		allDataSources.add(primary);
+		allDataSources.addAll(replicas);
+		this.dataSources = Collections.unmodifiableList(allDataSources);
+
+		Map<Object, Object> targetDataSources = new HashMap<>();
+		targetDataSources.put(PRIMARY, primary);
+		for (int i = 0; i < replicas.size(); i++)
+			targetDataSources.put(i, replicas.get(i));
+		setTargetDataSources(targetDataSources);
+		setDefaultTargetDataSource(primary);
+	}
+
+	/**
+	 * Returns the primary and replica DataSources
+	 *
+	 * @return the primary and replica DataSources
+	 */
+	public List<DataSource> getDataSources() {
+		return dataSources;
+	}
+
+	/**
+	 * Returns the lookup key of the DataSource to use for the current
+	 * transaction
+	 *
+	 * @return the lookup key of the DataSource to use
+	 */
+	@Override
+	protected Object determineCurrentLookupKey() {
+		String username = getUsername();
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			if (username != null && TransactionSynchronizationManager.isSynchronizationActive())
+				TransactionSynchronizationManager.registerSynchronization(new WriteTracker(username));
+			return PRIMARY;
+		}
+		if (replicaCount == 0 || !ReadFromReplicaInterceptor.isReplicaReadAllowed() || (username != null && isRecentWriter(username)))
+			return PRIMARY;
+		return (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicaCount;
+	}
+
+	/**
+	 * Returns the current user's username
+	 *
+	 * @return the current user's username, or null if there's no
+	 * authenticated user
+	 */
+	private String getUsername() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		return authentication != null ? authentication.getName() : null;
+	}
+
+	/**
+	 * Returns true if the user has recently written data
+	 *
+	 * @param username the username
+	 * @return true if the user wrote data less than stickiness milliseconds
+	 * ago
+	 */
+	private boolean isRecentWriter(String username) {
+		Long lastWrite = lastWrites.get(username);
+		return lastWrite != null && System.currentTimeMillis() - lastWrite < stickiness;
+	}
+
+	/**
+	 * Records a user's write
+	 *
+	 * @param username the username
+	 */
+	private void recordWrite(String username) {
+		long now = System.currentTimeMillis();
+		lastWrites.put(username, now);
+		if (lastWrites.size() > MAX_TRACKED_USERS)
+			for (Iterator<Long> it = lastWrites.values().iterator(); it.hasNext();)
+				if (now - it.next() >= stickiness)
+					it.remove();
+	}
+
+	/**
+	 * Records the user's write when a read-write transaction is committed
+	 */
+	private class WriteTracker extends TransactionSynchronizationAdapter {
+
+		/**
+		 * The username
+		 */
+		private final String username;
+
+		/**
+		 * Creates the WriteTracker
+		 *
+		 * @param username the username
+		 */
+		private WriteTracker(String username) {
+			this.username = username;
+		}
+
+		/**
+		 * Records the write
+		 */
+		@Override
+		public void afterCommit() {
+			recordWrite(username);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import java.util.Collections;
+import java.util.List;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.MetadataImplementor;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+
+/**
+ * Updates the database schema when the Hibernate SessionFactory is created,
+ * and records whether all schema changes were applied. Should be used instead
+ * of hibernate.hbm2ddl.auto=update when the result matters, as Hibernate logs
+ * failed schema changes and continues.
+ *
+ * Registered with the hibernate.integrator_provider JPA property.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class SchemaUpdateIntegrator implements Integrator, IntegratorProvider {
+
+	/**
+	 * True if the schema update was run and all changes were applied
+	 */
+	private volatile boolean successful = false;
+
+	@Override
+	public List<Integrator> getIntegrators() {
+		return Collections.<Integrator>singletonList(this);
+	}
+
+	@Override
+	public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		SchemaUpdate schemaUpdate = new SchemaUpdate(serviceRegistry, (MetadataImplementor) metadata);
+		schemaUpdate.execute(false, true);
+		successful = schemaUpdate.getExceptions().isEmpty();
+	}
+
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+	}
+
+	/**
+	 * Returns true if the schema update was run and all changes were applied
+	 *
+	 * @return true if the schema update was successful
+	 */
+	public boolean isSuccessful() {
+		return successful;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.data;
+
+import java.util.ResourceBundle;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.zlogic.vogon.data.tools.DatabaseMaintenance;
+
+/**
+ * Builds the tag expense rollup on startup if it doesn't exist or was created
+ * by an older version. Until the rollup is built, reports are generated from
+ * transactions only.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Service
+public class TagExpenseRollupInitializer implements InitializingBean {
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(TagExpenseRollupInitializer.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * The EntityManager instance
+	 */
+	@PersistenceContext
+	private EntityManager em;
+	/**
+	 * The Spring PlatformTransactionManager instance
+	 */
+	@Resource
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * Builds the tag expense rollup if needed
+	 *
+	 * @throws Exception in case of errors
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus ts) {
+				DatabaseMaintenance databaseMaintenance = new DatabaseMaintenance();
+				if (databaseMaintenance.isTagExpenseRollupAvailable(em))
+					return;
+				log.info(messages.getString("BUILDING_TAG_EXPENSE_ROLLUP"));
+				databaseMaintenance.rebuildTagExpenseRollup(em);
+			}
+		});
+	}
+}
@@ -6,7 +6,11 @@
 package org.zlogic.vogon.web.data;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import org.zlogic.vogon.data.VogonUser;
 
 /**
@@ -18,10 +22,41 @@ import org.zlogic.vogon.data.VogonUser;
 public interface UserRepository extends JpaRepository<VogonUser, Long> {
 
 	/**
-	 * Finds a user by its username (ignoring the case)
+	 * Finds a user by its username. Usernames are stored in lowercase, so the
+	 * name should be converted to lowercase as well.
 	 *
-	 * @param name the username to search
+	 * @param name the lowercase username to search
 	 * @return the found user
 	 */
-	public VogonUser findByUsernameIgnoreCase(String name);
+	public VogonUser findByUsername(String name);
+
+	/**
+	 * Returns the revision of a user's ledger
+	 *
+	 * @param id the user ID
+	 * @return the ledger revision, or null if it was never incremented
+	 */
+	@Query("select user.ledgerRevision from VogonUser user where user.id = :id") //NOI18N
+	public Long findLedgerRevision(@Param("id") long id);
+
+	/**
+	 * Increments the revision of a user's ledger
+	 *
+	 * @param id the user ID
+	 * @return the number of updated users
+	 */
+	@Modifying
+	@Transactional
+	@Query("update VogonUser user set user.ledgerRevision = coalesce(user.ledgerRevision, 0) + 1 where user.id = :id") //NOI18N
+	public int incrementLedgerRevision(@Param("id") long id);
+
+	/**
+	 * Increments the revisions of all users' ledgers
+	 *
+	 * @return the number of updated users
+	 */
+	@Modifying
+	@Transactional
+	@Query("update VogonUser user set user.ledgerRevision = coalesce(user.ledgerRevision, 0) + 1") //NOI18N
+	public int incrementAllLedgerRevisions();
 }
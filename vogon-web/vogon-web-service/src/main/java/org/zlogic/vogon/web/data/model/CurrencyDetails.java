@@ -6,6 +6,7 @@
 package org.zlogic.vogon.web.data.model;
 
 import java.util.Currency;
+import java.util.Locale;
 
 /**
  * JSON wrapper for Currency class, used to provide full currency data. Jackson
@@ -21,23 +22,39 @@ public class CurrencyDetails implements Comparable<CurrencyDetails> {
 	 * The currency to wrap
 	 */
 	private Currency currency;
+	/**
+	 * The locale used for the display name
+	 */
+	private Locale locale;
 
 	/**
-	 * Creates a CurrencyDetails wrapper for a Currency
+	 * Creates a CurrencyDetails wrapper for a Currency, using the default
+	 * display locale
 	 *
 	 * @param currency the Currency to wrap
 	 */
 	public CurrencyDetails(Currency currency) {
+		this(currency, Locale.getDefault(Locale.Category.DISPLAY));
+	}
+
+	/**
+	 * Creates a CurrencyDetails wrapper for a Currency
+	 *
+	 * @param currency the Currency to wrap
+	 * @param locale the locale to use for the display name
+	 */
+	public CurrencyDetails(Currency currency, Locale locale) {
 		this.currency = currency;
+		this.locale = locale;
 	}
 
 	/**
-	 * Returns the currency display name (Currency.getDisplayName())
+	 * Returns the currency display name (Currency.getDisplayName(Locale))
 	 *
 	 * @return the currency display name
 	 */
 	public String getDisplayName() {
-		return currency.getDisplayName();
+		return currency.getDisplayName(locale);
 	}
 
 	/**
@@ -51,6 +68,6 @@ public class CurrencyDetails implements Comparable<CurrencyDetails> {
 
 	@Override
 	public int compareTo(CurrencyDetails o) {
-		return currency.getDisplayName().compareTo(o.currency.getDisplayName());
+		return getDisplayName().compareTo(o.getDisplayName());
 	}
 }
@@ -0,0 +1,195 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.events;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceTransaction;
+
+/**
+ * Notification about a committed change in a user's ledger, pushed to the
+ * user's connected clients
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class LedgerEvent implements Serializable {
+
+	/**
+	 * Version UID
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Ledger event type
+	 */
+	public enum EventType {
+
+		/**
+		 * Transactions were created or updated
+		 */
+		TRANSACTIONS_UPDATED,
+		/**
+		 * Transactions were deleted
+		 */
+		TRANSACTIONS_DELETED,
+		/**
+		 * Accounts were created, updated or deleted
+		 */
+		ACCOUNTS_UPDATED,
+		/**
+		 * Data was imported, everything should be reloaded
+		 */
+		DATA_IMPORTED
+	}
+
+	/**
+	 * The event type
+	 */
+	private EventType type;
+	/**
+	 * IDs of changed transactions
+	 */
+	private Set<Long> transactionIds = new TreeSet<>();
+	/**
+	 * New balances of changed accounts, by account ID
+	 */
+	private Map<Long, Double> accountBalances = new TreeMap<>();
+	/**
+	 * IDs of deleted accounts
+	 */
+	private Set<Long> deletedAccountIds = new TreeSet<>();
+
+	/**
+	 * Default constructor
+	 */
+	public LedgerEvent() {
+	}
+
+	/**
+	 * Constructs an event of a specific type
+	 *
+	 * @param type the event type
+	 */
+	public LedgerEvent(EventType type) {
+		this.type = type;
+	}
+
+	/**
+	 * Adds a transaction and all of its accounts to this event
+	 *
+	 * @param transaction the changed transaction
+	 * @return this event
+	 */
+	public LedgerEvent addTransaction(FinanceTransaction transaction) {
+		if (transaction.getId() != null)
+			transactionIds.add(transaction.getId());
+		for (FinanceAccount account : transaction.getAccounts())
+			addAccount(account);
+		return this;
+	}
+
+	/**
+	 * Adds an account and its current balance to this event
+	 *
+	 * @param account the changed account
+	 * @return this event
+	 */
+	public LedgerEvent addAccount(FinanceAccount account) {
+		if (account != null && account.getId() != null)
+			accountBalances.put(account.getId(), account.getBalance());
+		return this;
+	}
+
+	/**
+	 * Adds a deleted account to this event
+	 *
+	 * @param account the deleted account
+	 * @return this event
+	 */
+	public LedgerEvent addDeletedAccount(FinanceAccount account) {
+		if (account != null && account.getId() != null) {
+			deletedAccountIds.add(account.getId());
+			accountBalances.remove(account.getId());
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the event type
+	 *
+	 * @return the event type
+	 */
+	public EventType getType() {
+		return type;
+	}
+
+	/**
+	 * Sets the event type
+	 *
+	 * @param type the event type
+	 */
+	public void setType(EventType type) {
+		this.type = type;
+	}
+
+	/**
+	 * Returns IDs of changed transactions
+	 *
+	 * @return IDs of changed transactions
+	 */
+	public Set<Long> getTransactionIds() {
+		return transactionIds;
+	}
+
+	/**
+	 * Sets IDs of changed transactions
+	 *
+	 * @param transactionIds IDs of changed transactions
+	 */
+	public void setTransactionIds(Set<Long> transactionIds) {
+		this.transactionIds = transactionIds;
+	}
+
+	/**
+	 * Returns new balances of changed accounts
+	 *
+	 * @return new balances of changed accounts, by account ID
+	 */
+	public Map<Long, Double> getAccountBalances() {
+		return accountBalances;
+	}
+
+	/**
+	 * Sets new balances of changed accounts
+	 *
+	 * @param accountBalances new balances of changed accounts, by account ID
+	 */
+	public void setAccountBalances(Map<Long, Double> accountBalances) {
+		this.accountBalances = accountBalances;
+	}
+
+	/**
+	 * Returns IDs of deleted accounts
+	 *
+	 * @return IDs of deleted accounts
+	 */
+	public Set<Long> getDeletedAccountIds() {
+		return deletedAccountIds;
+	}
+
+	/**
+	 * Sets IDs of deleted accounts
+	 *
+	 * @param deletedAccountIds IDs of deleted accounts
+	 */
+	public void setDeletedAccountIds(Set<Long> deletedAccountIds) {
+		this.deletedAccountIds = deletedAccountIds;
+	}
+}
@@ -0,0 +1,646 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.events;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.web.cluster.ClusterCoordinator;
+import org.zlogic.vogon.web.cluster.ClusterEventListener;
+import org.zlogic.vogon.web.controller.serialization.JSONMapper;
+
+/**
+ * Keeps track of connected event stream clients and pushes ledger events to
+ * them.
+ *
+ * Events are only sent after the publishing transaction commits. Each client
+ * has its own bounded outbound queue, drained by a single task at a time, so
+ * publishers never block and a slow client only ever stalls its own stream.
+ * Clients whose queue overflows or whose send stalls for longer than the write
+ * timeout are disconnected and will reconnect. A stalled send cannot be
+ * cancelled, so its thread is interrupted and replaced in the pool until the
+ * send returns; other clients keep being served. In cluster mode, events are
+ * relayed to clients connected to other nodes.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Service
+public class LedgerEventBroadcaster {
+
+	/**
+	 * Cluster event topic for ledger events
+	 */
+	public static final String CLUSTER_TOPIC = "ledger"; //NOI18N
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(LedgerEventBroadcaster.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * Event stream timeout in milliseconds, clients reconnect automatically
+	 */
+	@Value("${vogon.events.timeout:1800000}")
+	private long timeout;
+	/**
+	 * Heartbeat interval in milliseconds, used to detect dropped connections
+	 */
+	@Value("${vogon.events.heartbeat:30000}")
+	private long heartbeatInterval;
+	/**
+	 * Maximum number of connections per user, the oldest connection is closed
+	 * when this limit is exceeded
+	 */
+	@Value("${vogon.events.userconnections:8}")
+	private int maxUserConnections;
+	/**
+	 * Maximum number of connections for all users
+	 */
+	@Value("${vogon.events.connections:4096}")
+	private int maxConnections;
+	/**
+	 * Maximum number of threads used for sending events, each thread drains
+	 * one client's queue at a time
+	 */
+	@Value("${vogon.events.threads:16}")
+	private int sendThreads;
+	/**
+	 * Maximum number of events waiting to be sent to a single client, the
+	 * client is disconnected when this limit is exceeded
+	 */
+	@Value("${vogon.events.clientqueue:64}")
+	private int clientQueueSize;
+	/**
+	 * Maximum time in milliseconds a single send may take before the client is
+	 * considered stalled and disconnected
+	 */
+	@Value("${vogon.events.writetimeout:10000}")
+	private long writeTimeout;
+	/**
+	 * JSONMapper instance
+	 */
+	@Autowired
+	private JSONMapper jsonMapper;
+	/**
+	 * The ClusterCoordinator instance
+	 */
+	@Autowired
+	private ClusterCoordinator clusterCoordinator;
+	/**
+	 * The LedgerVersionTracker instance
+	 */
+	@Autowired
+	private LedgerVersionTracker ledgerVersionTracker;
+	/**
+	 * Connected clients, by user ID
+	 */
+	private final ConcurrentMap<Long, List<Client>> emitters = new ConcurrentHashMap<>();
+	/**
+	 * Registered listeners
+	 */
+	private final List<LedgerEventListener> listeners = new CopyOnWriteArrayList<>();
+	/**
+	 * Total number of connected clients
+	 */
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	/**
+	 * Executor used for sending events
+	 */
+	private ThreadPoolExecutor sendExecutor;
+	/**
+	 * Clients with a running drain task, including closed clients whose send
+	 * is still in progress
+	 */
+	private final Set<Client> drainingClients = Collections.newSetFromMap(new ConcurrentHashMap<Client, Boolean>());
+	/**
+	 * Number of send threads which are blocked in a stalled send and were
+	 * replaced in the pool
+	 */
+	private int stalledSendThreads;
+	/**
+	 * Executor used for scheduling heartbeats
+	 */
+	private ScheduledExecutorService heartbeatExecutor;
+
+	/**
+	 * Creates daemon threads with a specific name prefix
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+
+		/**
+		 * The thread name prefix
+		 */
+		private final String prefix;
+		/**
+		 * The created threads counter
+		 */
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		/**
+		 * Constructs the NamedThreadFactory
+		 *
+		 * @param prefix the thread name prefix
+		 */
+		private NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * A connected client with its own outbound event queue
+	 */
+	private class Client implements Runnable {
+
+		/**
+		 * The user ID
+		 */
+		private final Long userId;
+		/**
+		 * The client's event stream
+		 */
+		private final SseEmitter emitter;
+		/**
+		 * Events waiting to be sent to this client
+		 */
+		private final BlockingQueue<SseEmitter.SseEventBuilder> outbound;
+		/**
+		 * True if a task is draining (or is scheduled to drain) the queue
+		 */
+		private final AtomicBoolean draining = new AtomicBoolean();
+		/**
+		 * True if the client was closed
+		 */
+		private final AtomicBoolean closed = new AtomicBoolean();
+		/**
+		 * True if the client's event stream was completed
+		 */
+		private final AtomicBoolean completed = new AtomicBoolean();
+		/**
+		 * The reason for closing the client, or null if it was closed normally
+		 */
+		private volatile Throwable closeReason;
+		/**
+		 * The time (from System.nanoTime()) when the current send started, or
+		 * 0 if no send is in progress
+		 */
+		private volatile long sendStarted;
+		/**
+		 * Lock for sendThread and sendThreadReplaced
+		 */
+		private final Object sendThreadLock = new Object();
+		/**
+		 * The thread draining the queue, or null if no task is running
+		 */
+		private Thread sendThread;
+		/**
+		 * True if sendThread is stalled and was replaced in the pool
+		 */
+		private boolean sendThreadReplaced;
+
+		/**
+		 * Constructs the Client
+		 *
+		 * @param userId the user ID
+		 * @param emitter the client's event stream
+		 */
+		private Client(Long userId, SseEmitter emitter) {
+			this.userId = userId;
+			this.emitter = emitter;
+			this.outbound = new ArrayBlockingQueue<>(clientQueueSize);
+		}
+
+		/**
+		 * Queues an event for this client without blocking; disconnects the
+		 * client if its queue is full
+		 *
+		 * @param event the event to send
+		 */
+		private void offer(SseEmitter.SseEventBuilder event) {
+			if (closed.get())
+				return;
+			if (!outbound.offer(event)) {
+				log.debug(MessageFormat.format(messages.getString("EVENT_STREAM_CLIENT_IS_TOO_SLOW"), userId));
+				close(new IOException(messages.getString("EVENT_QUEUE_IS_FULL")));
+				return;
+			}
+			schedule();
+		}
+
+		/**
+		 * Schedules a drain task unless one is already running for this client
+		 */
+		private void schedule() {
+			if (!draining.compareAndSet(false, true))
+				return;
+			try {
+				sendExecutor.execute(this);
+			} catch (RejectedExecutionException ex) {
+				draining.set(false);
+				close(ex);
+			}
+		}
+
+		/**
+		 * Sends all queued events to this client
+		 */
+		@Override
+		public void run() {
+			synchronized (sendThreadLock) {
+				sendThread = Thread.currentThread();
+			}
+			drainingClients.add(this);
+			try {
+				SseEmitter.SseEventBuilder event;
+				while (!closed.get() && (event = outbound.poll()) != null) {
+					sendStarted = System.nanoTime();
+					emitter.send(event);
+					sendStarted = 0;
+				}
+			} catch (IOException | IllegalStateException ex) {
+				log.debug(messages.getString("CANNOT_SEND_EVENT_CLOSING_CONNECTION"), ex);
+				close(ex);
+			} finally {
+				sendStarted = 0;
+				drainingClients.remove(this);
+				boolean replaced;
+				synchronized (sendThreadLock) {
+					sendThread = null;
+					replaced = sendThreadReplaced;
+					sendThreadReplaced = false;
+					//Clear an interrupt from interruptStalledSend so that it doesn't affect the next task
+					Thread.interrupted();
+				}
+				if (replaced)
+					resizeSendExecutor(-1);
+				draining.set(false);
+			}
+			//The stream is only completed by the drain task, as completing it blocks while a send is in progress
+			if (closed.get())
+				complete();
+			else if (!outbound.isEmpty())
+				schedule();//An event could have been queued after the last poll
+		}
+
+		/**
+		 * Returns true if a send has been in progress for longer than the write
+		 * timeout
+		 *
+		 * @return true if the client is stalled
+		 */
+		private boolean isStalled() {
+			long started = sendStarted;
+			return started != 0 && System.nanoTime() - started > TimeUnit.MILLISECONDS.toNanos(writeTimeout);
+		}
+
+		/**
+		 * Interrupts a stalled send and replaces its thread in the pool, so
+		 * that the stalled send doesn't delay other clients
+		 */
+		private void interruptStalledSend() {
+			synchronized (sendThreadLock) {
+				if (sendThread == null || sendThreadReplaced)
+					return;
+				sendThreadReplaced = true;
+				sendThread.interrupt();
+			}
+			resizeSendExecutor(1);
+		}
+
+		/**
+		 * Closes the client. The event stream is completed by a drain task
+		 * once no send is in progress.
+		 *
+		 * @param ex the reason for closing the stream, or null if the stream
+		 * is closed normally
+		 */
+		private void close(Throwable ex) {
+			if (!closed.compareAndSet(false, true))
+				return;
+			closeReason = ex;
+			outbound.clear();
+			removeEmitter(userId, this);
+			if (!draining.compareAndSet(false, true))
+				return;
+			try {
+				sendExecutor.execute(this);
+			} catch (RejectedExecutionException rejectedException) {
+				draining.set(false);
+				complete();
+			}
+		}
+
+		/**
+		 * Completes the client's event stream
+		 */
+		private void complete() {
+			if (!completed.compareAndSet(false, true))
+				return;
+			if (closeReason == null)
+				emitter.complete();
+			else
+				emitter.completeWithError(closeReason);
+		}
+	}
+
+	/**
+	 * Starts the sending and heartbeat executors and subscribes to events from
+	 * other cluster nodes
+	 */
+	@PostConstruct
+	public void start() {
+		//At most one drain task is queued per client, so the task queue is bounded by the connection limit
+		sendExecutor = new ThreadPoolExecutor(sendThreads, sendThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("vogon-events-")); //NOI18N
+		sendExecutor.allowCoreThreadTimeOut(true);
+		heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("vogon-events-heartbeat-")); //NOI18N
+		heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sendHeartbeat();
+			}
+		}, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+		long stalledCheckInterval = Math.max(writeTimeout / 2, 1);
+		heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				closeStalledClients();
+			}
+		}, stalledCheckInterval, stalledCheckInterval, TimeUnit.MILLISECONDS);
+		clusterCoordinator.addListener(CLUSTER_TOPIC, new ClusterEventListener() {
+			@Override
+			public void onClusterEvent(String key, Serializable payload) {
+				if (payload instanceof LedgerEvent)
+					deliver(Long.parseLong(key), (LedgerEvent) payload);
+			}
+		});
+	}
+
+	/**
+	 * Closes all connections and stops the executors
+	 */
+	@PreDestroy
+	public void shutdown() {
+		heartbeatExecutor.shutdownNow();
+		sendExecutor.shutdownNow();
+		for (List<Client> userClients : emitters.values())
+			for (Client client : userClients)
+				client.close(null);
+		emitters.clear();
+	}
+
+	/**
+	 * Changes the number of send threads to replace stalled threads or to
+	 * remove replacements once the stalled sends return
+	 *
+	 * @param stalledDelta the change in the number of stalled threads
+	 */
+	private synchronized void resizeSendExecutor(int stalledDelta) {
+		stalledSendThreads += stalledDelta;
+		int poolSize = sendThreads + stalledSendThreads;
+		if (poolSize > sendExecutor.getMaximumPoolSize()) {
+			sendExecutor.setMaximumPoolSize(poolSize);
+			sendExecutor.setCorePoolSize(poolSize);
+		} else {
+			sendExecutor.setCorePoolSize(poolSize);
+			sendExecutor.setMaximumPoolSize(poolSize);
+		}
+	}
+
+	/**
+	 * Creates the event stream for a new client
+	 *
+	 * @return the event stream
+	 */
+	protected SseEmitter createEmitter() {
+		return new SseEmitter(timeout);
+	}
+
+	/**
+	 * Registers a listener which will be notified about all committed ledger
+	 * events
+	 *
+	 * @param listener the listener
+	 */
+	public void addListener(LedgerEventListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Registers a new event stream for a user
+	 *
+	 * @param user the user
+	 * @return the event stream
+	 * @throws TooManyConnectionsException if the server has reached its
+	 * connection limit
+	 */
+	public SseEmitter subscribe(VogonUser user) throws TooManyConnectionsException {
+		if (connectionCount.incrementAndGet() > maxConnections) {
+			connectionCount.decrementAndGet();
+			throw new TooManyConnectionsException(messages.getString("TOO_MANY_EVENT_STREAM_CONNECTIONS"));
+		}
+		final Long userId = user.getId();
+		final SseEmitter emitter = createEmitter();
+		final Client client = new Client(userId, emitter);
+		Runnable removeEmitter = new Runnable() {
+			@Override
+			public void run() {
+				client.closed.set(true);
+				removeEmitter(userId, client);
+			}
+		};
+		emitter.onCompletion(removeEmitter);
+		emitter.onTimeout(removeEmitter);
+		Client evictedClient = addEmitter(userId, client);
+		if (evictedClient != null)
+			evictedClient.close(null);
+		return emitter;
+	}
+
+	/**
+	 * Publishes an event to all of the user's clients and increments the
+	 * user's ledger revision. If a transaction is active, the revision is
+	 * incremented in that transaction and the event will be sent only after it
+	 * commits.
+	 *
+	 * @param user the user whose data was changed
+	 * @param event the event to publish
+	 */
+	public void publish(VogonUser user, final LedgerEvent event) {
+		final Long userId = user.getId();
+		ledgerVersionTracker.incrementVersion(user);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					deliver(userId, event);
+					clusterCoordinator.publish(CLUSTER_TOPIC, userId.toString(), event);
+				}
+			});
+		} else {
+			deliver(userId, event);
+			clusterCoordinator.publish(CLUSTER_TOPIC, userId.toString(), event);
+		}
+	}
+
+	/**
+	 * Notifies listeners and queues an event to be sent to all of the user's
+	 * clients connected to this server
+	 *
+	 * @param userId the user ID
+	 * @param event the event to send
+	 */
+	protected void deliver(Long userId, LedgerEvent event) {
+		for (LedgerEventListener listener : listeners) {
+			try {
+				listener.onLedgerEvent(userId, event);
+			} catch (RuntimeException ex) {
+				log.error(messages.getString("LEDGER_EVENT_LISTENER_FAILED"), ex);
+			}
+		}
+		List<Client> userClients = emitters.get(userId);
+		if (userClients == null || userClients.isEmpty())
+			return;
+		String data;
+		try {
+			data = jsonMapper.writeValueAsString(event);
+		} catch (JsonProcessingException ex) {
+			log.error(messages.getString("CANNOT_SERIALIZE_EVENT"), ex);
+			return;
+		}
+		String eventName = event.getType().name();
+		//Event builders are not thread-safe, each client gets its own instance
+		for (Client client : userClients)
+			client.offer(SseEmitter.event().name(eventName).data(data, MediaType.TEXT_PLAIN));
+	}
+
+	/**
+	 * Queues a heartbeat comment for all idle clients
+	 */
+	private void sendHeartbeat() {
+		if (connectionCount.get() == 0)
+			return;
+		for (List<Client> userClients : emitters.values())
+			for (Client client : userClients)
+				if (client.outbound.isEmpty())
+					client.offer(SseEmitter.event().comment("")); //NOI18N
+	}
+
+	/**
+	 * Disconnects clients whose send has stalled and interrupts their sends
+	 */
+	private void closeStalledClients() {
+		for (Client client : drainingClients) {
+			if (client.isStalled()) {
+				if (!client.closed.get())
+					log.debug(MessageFormat.format(messages.getString("EVENT_STREAM_CLIENT_IS_TOO_SLOW"), client.userId));
+				client.close(new IOException(messages.getString("EVENT_STREAM_WRITE_TIMED_OUT")));
+				client.interruptStalledSend();
+			}
+		}
+	}
+
+	/**
+	 * Adds a client to the user's client list
+	 *
+	 * @param userId the user ID
+	 * @param client the client to add
+	 * @return the client which was evicted to stay within the per-user limit,
+	 * or null
+	 */
+	private Client addEmitter(Long userId, Client client) {
+		while (true) {
+			List<Client> userEmitters = emitters.get(userId);
+			if (userEmitters == null) {
+				List<Client> newEmitters = new CopyOnWriteArrayList<>();
+				userEmitters = emitters.putIfAbsent(userId, newEmitters);
+				if (userEmitters == null)
+					userEmitters = newEmitters;
+			}
+			synchronized (userEmitters) {
+				//The list could have been removed by removeEmitter
+				if (emitters.get(userId) != userEmitters)
+					continue;
+				Client evictedClient = null;
+				if (userEmitters.size() >= maxUserConnections) {
+					evictedClient = userEmitters.remove(0);
+					connectionCount.decrementAndGet();
+				}
+				userEmitters.add(client);
+				return evictedClient;
+			}
+		}
+	}
+
+	/**
+	 * Removes a client from the user's client list
+	 *
+	 * @param userId the user ID
+	 * @param client the client to remove
+	 */
+	private void removeEmitter(Long userId, Client client) {
+		List<Client> userEmitters = emitters.get(userId);
+		if (userEmitters == null)
+			return;
+		synchronized (userEmitters) {
+			if (!userEmitters.remove(client))
+				return;
+			connectionCount.decrementAndGet();
+			if (userEmitters.isEmpty() && emitters.get(userId) == userEmitters)
+				emitters.remove(userId);
+		}
+		log.debug(MessageFormat.format(messages.getString("EVENT_STREAM_CLOSED"), userId));
+	}
+
+	/**
+	 * Returns the number of connected clients
+	 *
+	 * @return the number of connected clients
+	 */
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+}
@@ -0,0 +1,23 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.events;
+
+/**
+ * Listener for committed ledger changes, including changes made on other
+ * cluster nodes
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public interface LedgerEventListener {
+
+	/**
+	 * Processes a ledger event
+	 *
+	 * @param userId the ID of the user whose ledger has changed
+	 * @param event the event
+	 */
+	public void onLedgerEvent(long userId, LedgerEvent event);
+}
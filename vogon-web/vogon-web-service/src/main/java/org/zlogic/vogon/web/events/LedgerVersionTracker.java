@@ -0,0 +1,113 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.events;
+
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.web.controller.serialization.SmileHttpMessageConverter;
+import org.zlogic.vogon.web.data.UserRepository;
+
+/**
+ * Tracks versions of users' ledgers for HTTP conditional requests. A user's
+ * version is a revision stored with the user in the database and incremented
+ * in the same transaction as every change to the user's ledger, so all
+ * cluster nodes produce the same ETags and ETags remain valid after a
+ * restart. Checking an ETag costs a single primary key lookup.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Service
+public class LedgerVersionTracker {
+
+	/**
+	 * The users repository
+	 */
+	@Autowired
+	private UserRepository userRepository;
+
+	/**
+	 * Changes the version of a user's ledger. If a transaction is active, the
+	 * new version becomes visible when it commits.
+	 *
+	 * @param user the user
+	 */
+	public void incrementVersion(VogonUser user) {
+		userRepository.incrementLedgerRevision(user.getId());
+	}
+
+	/**
+	 * Changes the versions of all users' ledgers, for changes which are not
+	 * published as ledger events
+	 */
+	public void incrementAllVersions() {
+		userRepository.incrementAllLedgerRevisions();
+	}
+
+	/**
+	 * Returns the strong ETag of a user's current ledger version in a
+	 * specific encoding
+	 *
+	 * @param user the user
+	 * @param encoding the response encoding, "json" or "smile"
+	 * @return the ETag
+	 */
+	public String getETag(VogonUser user, String encoding) {
+		Long revision = userRepository.findLedgerRevision(user.getId());
+		return "\"" + user.getId() + "-" + (revision != null ? revision : 0L) + "-" + encoding + "\""; //NOI18N //NOI18N //NOI18N //NOI18N
+	}
+
+	/**
+	 * Returns the encoding which will be used for the response, in the same
+	 * way as the message converters are chosen: Smile is only used if the
+	 * client prefers it to JSON
+	 *
+	 * @param webRequest the current request
+	 * @return "smile" if the response will use Smile, "json" otherwise
+	 */
+	private String getEncoding(ServletWebRequest webRequest) {
+		String accept = webRequest.getHeader(HttpHeaders.ACCEPT);
+		if (accept == null)
+			return "json"; //NOI18N
+		List<MediaType> acceptedTypes;
+		try {
+			acceptedTypes = MediaType.parseMediaTypes(accept);
+		} catch (InvalidMediaTypeException ex) {
+			return "json"; //NOI18N
+		}
+		MediaType.sortBySpecificityAndQuality(acceptedTypes);
+		for (MediaType acceptedType : acceptedTypes) {
+			if (acceptedType.isCompatibleWith(MediaType.APPLICATION_JSON))
+				return "json"; //NOI18N
+			if (acceptedType.isCompatibleWith(SmileHttpMessageConverter.SMILE))
+				return "smile"; //NOI18N
+		}
+		return "json"; //NOI18N
+	}
+
+	/**
+	 * Checks if the client's copy of a resource derived from the user's ledger
+	 * is current. Sets the ETag, Cache-Control and Vary response headers, and
+	 * returns true if the response should be 304 Not Modified. JSON and Smile
+	 * responses have different ETags, as strong ETags have to change with the
+	 * response body.
+	 *
+	 * @param user the user
+	 * @param webRequest the current request
+	 * @return true if the client's copy is current and the request has been
+	 * handled
+	 */
+	public boolean checkNotModified(VogonUser user, ServletWebRequest webRequest) {
+		webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache"); //NOI18N
+		webRequest.getResponse().addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		return webRequest.checkNotModified(getETag(user, getEncoding(webRequest)));
+	}
+}
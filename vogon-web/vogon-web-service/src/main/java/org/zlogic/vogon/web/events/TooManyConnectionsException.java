@@ -0,0 +1,28 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.events;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when the server cannot accept any more event stream
+ * connections
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class TooManyConnectionsException extends RuntimeException {
+
+	/**
+	 * Constructs the exception
+	 *
+	 * @param message the exception message
+	 */
+	public TooManyConnectionsException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.jobs;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Status of an asynchronous data import job
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class ImportJob implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Import job state
+	 */
+	public enum State {
+
+		/**
+		 * Job is waiting in the queue
+		 */
+		QUEUED,
+		/**
+		 * Job is running
+		 */
+		RUNNING,
+		/**
+		 * Job completed successfully
+		 */
+		COMPLETED,
+		/**
+		 * Job failed
+		 */
+		FAILED
+	}
+	/**
+	 * The job ID
+	 */
+	private final String id;
+	/**
+	 * The ID of the user who started the job
+	 */
+	private final long ownerId;
+	/**
+	 * The job state
+	 */
+	private volatile State state = State.QUEUED;
+	/**
+	 * Number of imported (committed) transactions
+	 */
+	private volatile long importedTransactions;
+	/**
+	 * Total number of transactions in the imported file
+	 */
+	private volatile long totalTransactions;
+	/**
+	 * The time when the job was submitted
+	 */
+	private final Date submitted = new Date();
+	/**
+	 * The time when the job started running
+	 */
+	private volatile Date started;
+	/**
+	 * The time when the job completed or failed
+	 */
+	private volatile Date finished;
+	/**
+	 * The error message, if the job failed
+	 */
+	private volatile String error;
+	/**
+	 * True if the job failed and some of its imported data could not be
+	 * removed
+	 */
+	private volatile boolean partial;
+
+	/**
+	 * Constructs an import job
+	 *
+	 * @param id the job ID
+	 * @param ownerId the ID of the user who started the job
+	 */
+	public ImportJob(String id, long ownerId) {
+		this.id = id;
+		this.ownerId = ownerId;
+	}
+
+	/**
+	 * Marks the job as running
+	 */
+	protected void setRunning() {
+		started = new Date();
+		state = State.RUNNING;
+	}
+
+	/**
+	 * Updates the job progress
+	 *
+	 * @param importedTransactions the number of imported transactions
+	 * @param totalTransactions the total number of transactions
+	 */
+	protected void setProgress(long importedTransactions, long totalTransactions) {
+		this.totalTransactions = totalTransactions;
+		this.importedTransactions = importedTransactions;
+	}
+
+	/**
+	 * Marks the job as completed
+	 */
+	protected void setCompleted() {
+		finished = new Date();
+		state = State.COMPLETED;
+	}
+
+	/**
+	 * Marks the job as failed
+	 *
+	 * @param error the error message
+	 * @param partial true if some of the imported data could not be removed
+	 */
+	protected void setFailed(String error, boolean partial) {
+		this.error = error;
+		this.partial = partial;
+		finished = new Date();
+		state = State.FAILED;
+	}
+
+	/**
+	 * Returns true if the job is queued or running
+	 *
+	 * @return true if the job is queued or running
+	 */
+	@JsonIgnore
+	public boolean isActive() {
+		State currentState = state;
+		return currentState == State.QUEUED || currentState == State.RUNNING;
+	}
+
+	/*
+	 * Getters/setters
+	 */
+	/**
+	 * Returns the job ID
+	 *
+	 * @return the job ID
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the user who started the job
+	 *
+	 * @return the ID of the user who started the job
+	 */
+	@JsonIgnore
+	public long getOwnerId() {
+		return ownerId;
+	}
+
+	/**
+	 * Returns the job state
+	 *
+	 * @return the job state
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the number of imported (committed) transactions. If the job
+	 * failed, returns the number of transactions which could not be removed.
+	 *
+	 * @return the number of imported transactions
+	 */
+	public long getImportedTransactions() {
+		return importedTransactions;
+	}
+
+	/**
+	 * Returns the total number of transactions in the imported file
+	 *
+	 * @return the total number of transactions, or 0 if the file was not
+	 * parsed yet
+	 */
+	public long getTotalTransactions() {
+		return totalTransactions;
+	}
+
+	/**
+	 * Returns the import throughput
+	 *
+	 * @return the number of transactions imported per second
+	 */
+	public double getTransactionsPerSecond() {
+		Date startTime = started;
+		if (startTime == null)
+			return 0;
+		Date endTime = finished != null ? finished : new Date();
+		long elapsed = endTime.getTime() - startTime.getTime();
+		return elapsed > 0 ? importedTransactions * 1000.0 / elapsed : 0;
+	}
+
+	/**
+	 * Returns the time when the job was submitted
+	 *
+	 * @return the time when the job was submitted
+	 */
+	public Date getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * Returns the time when the job started running
+	 *
+	 * @return the time when the job started running, or null
+	 */
+	public Date getStarted() {
+		return started;
+	}
+
+	/**
+	 * Returns the time when the job completed or failed
+	 *
+	 * @return the time when the job completed or failed, or null
+	 */
+	public Date getFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the error message
+	 *
+	 * @return the error message, or null if the job didn't fail
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Returns true if the job failed and the ledger contains some of its
+	 * imported data
+	 *
+	 * @return true if the job failed and was only partially rolled back
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+}
@@ -0,0 +1,498 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.jobs;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import org.zlogic.vogon.data.CurrencyRate;
+import org.zlogic.vogon.data.FinanceAccount;
+import org.zlogic.vogon.data.FinanceTransaction;
+import org.zlogic.vogon.data.TransactionComponent;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.data.interop.ImportProgressListener;
+import org.zlogic.vogon.data.interop.VogonImportException;
+import org.zlogic.vogon.data.interop.VogonImportLogicalException;
+import org.zlogic.vogon.data.interop.XmlImporter;
+import org.zlogic.vogon.data.tools.DatabaseMaintenance;
+import org.zlogic.vogon.web.cluster.ClusterCoordinator;
+import org.zlogic.vogon.web.cluster.ClusterEventListener;
+import org.zlogic.vogon.web.data.AccountRepository;
+import org.zlogic.vogon.web.data.UserRepository;
+import org.zlogic.vogon.web.events.LedgerEvent;
+import org.zlogic.vogon.web.events.LedgerEventBroadcaster;
+import org.zlogic.vogon.web.security.PrincipalCache;
+
+/**
+ * Runs data imports in the background.
+ *
+ * Uploaded files are spooled to disk and imported by a small bounded thread
+ * pool, so that large imports don't hold a servlet thread. Each chunk of
+ * transactions is committed separately; if an import fails, the accounts,
+ * currency rates and transactions created by the chunks which were already
+ * committed are deleted, so that the import can simply be retried. If they
+ * cannot be deleted, the job is reported as partial. Each user can only run
+ * one import at a time. In cluster mode, job status is relayed to other
+ * nodes.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Service
+public class ImportJobService {
+
+	/**
+	 * Cluster event topic for import job status
+	 */
+	public static final String CLUSTER_TOPIC = "import"; //NOI18N
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(ImportJobService.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * Number of threads used for importing data
+	 */
+	@Value("${vogon.import.threads:2}")
+	private int importThreads;
+	/**
+	 * Maximum number of import jobs waiting to be started
+	 */
+	@Value("${vogon.import.queue:4}")
+	private int queueSize;
+	/**
+	 * Number of transactions committed in a single chunk
+	 */
+	@Value("${vogon.import.chunk:1000}")
+	private int chunkSize;
+	/**
+	 * Time in milliseconds after which finished jobs are forgotten
+	 */
+	@Value("${vogon.import.retention:3600000}")
+	private long retention;
+	/**
+	 * The EntityManager instance
+	 */
+	@PersistenceContext
+	private EntityManager em;
+	/**
+	 * The Spring PlatformTransactionManager instance
+	 */
+	@Resource
+	private PlatformTransactionManager transactionManager;
+	/**
+	 * The users repository
+	 */
+	@Autowired
+	private UserRepository userRepository;
+	/**
+	 * The accounts repository
+	 */
+	@Autowired
+	private AccountRepository accountRepository;
+	/**
+	 * The PrincipalCache instance
+	 */
+	@Autowired
+	private PrincipalCache principalCache;
+	/**
+	 * The LedgerEventBroadcaster instance
+	 */
+	@Autowired
+	private LedgerEventBroadcaster ledgerEventBroadcaster;
+	/**
+	 * The ClusterCoordinator instance
+	 */
+	@Autowired
+	private ClusterCoordinator clusterCoordinator;
+	/**
+	 * Jobs started on this node, by ID
+	 */
+	private final ConcurrentMap<String, ImportJob> jobs = new ConcurrentHashMap<>();
+	/**
+	 * Jobs running on other cluster nodes, by ID
+	 */
+	private final ConcurrentMap<String, ImportJob> remoteJobs = new ConcurrentHashMap<>();
+	/**
+	 * The time when a job from another cluster node was last updated, by ID
+	 */
+	private final ConcurrentMap<String, Long> remoteJobsUpdated = new ConcurrentHashMap<>();
+	/**
+	 * Executor used for running imports
+	 */
+	private ThreadPoolExecutor importExecutor;
+
+	/**
+	 * Commits the current transaction after every imported chunk and starts a
+	 * new one
+	 */
+	private class ChunkCommitter implements ImportProgressListener {
+
+		/**
+		 * The import job
+		 */
+		private final ImportJob job;
+		/**
+		 * The current transaction status
+		 */
+		private TransactionStatus status;
+
+		/**
+		 * Constructs the ChunkCommitter
+		 *
+		 * @param job the import job
+		 */
+		private ChunkCommitter(ImportJob job) {
+			this.job = job;
+		}
+
+		/**
+		 * Starts a new transaction
+		 */
+		private void begin() {
+			status = transactionManager.getTransaction(new DefaultTransactionDefinition());
+		}
+
+		/**
+		 * Commits the current transaction
+		 */
+		private void commit() {
+			TransactionStatus currentStatus = status;
+			status = null;
+			transactionManager.commit(currentStatus);
+		}
+
+		/**
+		 * Rolls back the current transaction, if it's active
+		 */
+		private void rollback() {
+			if (status == null || status.isCompleted())
+				return;
+			TransactionStatus currentStatus = status;
+			status = null;
+			transactionManager.rollback(currentStatus);
+		}
+
+		@Override
+		public void chunkImported(long importedTransactions, long totalTransactions) {
+			commit();
+			job.setProgress(importedTransactions, totalTransactions);
+			publishStatus(job);
+			begin();
+		}
+	}
+
+	/**
+	 * Starts the import executor and subscribes to job status from other
+	 * cluster nodes
+	 */
+	@PostConstruct
+	public void start() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("vogon-import-"); //NOI18N
+		threadFactory.setDaemon(true);
+		importExecutor = new ThreadPoolExecutor(importThreads, importThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), threadFactory);
+		importExecutor.allowCoreThreadTimeOut(true);
+		clusterCoordinator.addListener(CLUSTER_TOPIC, new ClusterEventListener() {
+			@Override
+			public void onClusterEvent(String key, Serializable payload) {
+				if (payload instanceof ImportJob) {
+					remoteJobs.put(key, (ImportJob) payload);
+					remoteJobsUpdated.put(key, System.currentTimeMillis());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the import executor
+	 */
+	@PreDestroy
+	public void shutdown() {
+		importExecutor.shutdownNow();
+	}
+
+	/**
+	 * Spools the uploaded file to disk and queues it for import
+	 *
+	 * @param user the user importing the data
+	 * @param data the uploaded file
+	 * @return the queued job
+	 * @throws IOException if the uploaded file cannot be saved
+	 * @throws ImportQueueFullException if the user already has an active
+	 * import, or the import queue is full
+	 */
+	public ImportJob submit(VogonUser user, MultipartFile data) throws IOException, ImportQueueFullException {
+		final ImportJob job = new ImportJob(UUID.randomUUID().toString(), user.getId());
+		synchronized (jobs) {
+			for (ImportJob existingJob : jobs.values())
+				if (existingJob.getOwnerId() == job.getOwnerId() && existingJob.isActive())
+					throw new ImportQueueFullException(messages.getString("IMPORT_ALREADY_RUNNING"));
+			jobs.put(job.getId(), job);
+		}
+		final File spoolFile;
+		try {
+			spoolFile = File.createTempFile("vogon-import-", ".xml"); //NOI18N
+		} catch (IOException ex) {
+			jobs.remove(job.getId());
+			throw ex;
+		}
+		try {
+			data.transferTo(spoolFile);
+			importExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runJob(job, spoolFile);
+					} finally {
+						deleteSpoolFile(spoolFile);
+					}
+				}
+			});
+		} catch (IOException ex) {
+			jobs.remove(job.getId());
+			deleteSpoolFile(spoolFile);
+			throw ex;
+		} catch (RejectedExecutionException ex) {
+			jobs.remove(job.getId());
+			deleteSpoolFile(spoolFile);
+			throw new ImportQueueFullException(messages.getString("IMPORT_QUEUE_IS_FULL"));
+		}
+		publishStatus(job);
+		return job;
+	}
+
+	/**
+	 * Returns an import job
+	 *
+	 * @param user the user who started the job
+	 * @param id the job ID
+	 * @return the job, or null if it doesn't exist or belongs to another user
+	 */
+	public ImportJob getJob(VogonUser user, String id) {
+		ImportJob job = jobs.get(id);
+		if (job == null)
+			job = remoteJobs.get(id);
+		if (job == null || job.getOwnerId() != user.getId())
+			return null;
+		return job;
+	}
+
+	/**
+	 * Imports a spooled file
+	 *
+	 * @param job the import job
+	 * @param spoolFile the spooled file
+	 */
+	private void runJob(ImportJob job, File spoolFile) {
+		job.setRunning();
+		publishStatus(job);
+		ChunkCommitter committer = new ChunkCommitter(job);
+		XmlImporter importer = null;
+		try (InputStream inputStream = new BufferedInputStream(new FileInputStream(spoolFile))) {
+			long totalTransactions;
+			try (InputStream countInputStream = new BufferedInputStream(new FileInputStream(spoolFile))) {
+				totalTransactions = XmlImporter.countTransactions(countInputStream);
+			}
+			committer.begin();
+			VogonUser user = userRepository.findOne(job.getOwnerId());
+			importer = new XmlImporter(inputStream);
+			importer.setChunkSize(chunkSize);
+			importer.setTotalTransactions(totalTransactions);
+			importer.setProgressListener(committer);
+			importer.importData(user, em);
+			committer.commit();
+			job.setCompleted();
+		} catch (IOException | VogonImportException | VogonImportLogicalException | RuntimeException ex) {
+			log.error(MessageFormat.format(messages.getString("IMPORT_JOB_FAILED"), new Object[]{job.getId()}), ex);
+			try {
+				committer.rollback();
+			} catch (RuntimeException rollbackException) {
+				log.error(messages.getString("IMPORT_JOB_FAILED_TO_ROLLBACK"), rollbackException);
+			}
+			String reason = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+			if (importer == null || removeImportedData(job, importer))
+				job.setFailed(MessageFormat.format(messages.getString("IMPORT_FAILED_NO_DATA_IMPORTED"), reason), false);
+			else
+				job.setFailed(MessageFormat.format(messages.getString("IMPORT_FAILED_PARTIALLY_IMPORTED"),
+						new Object[]{job.getImportedTransactions(), job.getTotalTransactions(), reason}), true);
+		}
+		publishStatus(job);
+		notifyImported(job);
+	}
+
+	/**
+	 * Deletes the data committed by a failed import, newest transactions
+	 * first, one chunk per transaction. The job progress is updated to the
+	 * number of transactions which remain imported.
+	 *
+	 * @param job the import job
+	 * @param importer the importer which created the data
+	 * @return true if all committed data was deleted
+	 */
+	private boolean removeImportedData(ImportJob job, XmlImporter importer) {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		try {
+			List<Long> transactionIds = importer.getCreatedTransactionIds();
+			for (int end = transactionIds.size(); end > 0; end -= chunkSize) {
+				int start = Math.max(0, end - chunkSize);
+				final List<Long> chunk = transactionIds.subList(start, end);
+				transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+					@Override
+					protected void doInTransactionWithoutResult(TransactionStatus ts) {
+						for (Long id : chunk) {
+							FinanceTransaction transaction = em.find(FinanceTransaction.class, id);
+							if (transaction == null)
+								continue;
+							List<TransactionComponent> components = transaction.getComponents();
+							transaction.removeAllComponents();
+							for (TransactionComponent component : components)
+								em.remove(component);
+							em.remove(transaction);
+						}
+					}
+				});
+				job.setProgress(Math.min(start, job.getImportedTransactions()), job.getTotalTransactions());
+				publishStatus(job);
+			}
+			final List<Long> accountIds = importer.getCreatedAccountIds();
+			final List<Long> currencyRateIds = importer.getCreatedCurrencyRateIds();
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus ts) {
+					DatabaseMaintenance databaseMaintenance = new DatabaseMaintenance();
+					for (Long id : accountIds) {
+						FinanceAccount account = em.find(FinanceAccount.class, id);
+						//Keep accounts which were used by the user while the import was running
+						if (account != null && em.createQuery("select count(component) from TransactionComponent component where component.account = :account", Long.class) //NOI18N
+								.setParameter("account", account).getSingleResult() == 0) { //NOI18N
+							//The rollup could have been updated with the imported transactions by a concurrent edit
+							databaseMaintenance.deleteTagExpenseRollup(account, em);
+							em.remove(account);
+						}
+					}
+					for (Long id : currencyRateIds) {
+						CurrencyRate currencyRate = em.find(CurrencyRate.class, id);
+						if (currencyRate != null)
+							em.remove(currencyRate);
+					}
+				}
+			});
+			return true;
+		} catch (RuntimeException ex) {
+			log.error(MessageFormat.format(messages.getString("IMPORT_JOB_FAILED_TO_REMOVE_DATA"), new Object[]{job.getId()}), ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Rebuilds the user's tag expense rollup, refreshes the cached user and
+	 * notifies clients about imported data
+	 *
+	 * @param job the import job
+	 */
+	private void notifyImported(final ImportJob job) {
+		try {
+			VogonUser user = userRepository.findOne(job.getOwnerId());
+			if (user == null)
+				return;
+			TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus ts) {
+					new DatabaseMaintenance().rebuildTagExpenseRollup(em.find(VogonUser.class, job.getOwnerId()), em);
+				}
+			});
+			principalCache.updateUser(user);
+			LedgerEvent event = new LedgerEvent(LedgerEvent.EventType.DATA_IMPORTED);
+			for (FinanceAccount account : accountRepository.findByOwner(user))
+				event.addAccount(account);
+			ledgerEventBroadcaster.publish(user, event);
+		} catch (RuntimeException ex) {
+			log.error(MessageFormat.format(messages.getString("IMPORT_JOB_FAILED"), new Object[]{job.getId()}), ex);
+		}
+	}
+
+	/**
+	 * Relays the job status to other cluster nodes
+	 *
+	 * @param job the import job
+	 */
+	private void publishStatus(ImportJob job) {
+		try {
+			clusterCoordinator.publish(CLUSTER_TOPIC, job.getId(), job);
+		} catch (RuntimeException ex) {
+			log.warn(messages.getString("CANNOT_PUBLISH_IMPORT_JOB_STATUS"), ex);
+		}
+	}
+
+	/**
+	 * Deletes a spooled file
+	 *
+	 * @param spoolFile the spooled file
+	 */
+	private void deleteSpoolFile(File spoolFile) {
+		if (spoolFile.exists() && !spoolFile.delete())
+			log.warn(MessageFormat.format(messages.getString("CANNOT_DELETE_SPOOLED_IMPORT_FILE"), new Object[]{spoolFile}));
+	}
+
+	/**
+	 * Forgets finished jobs, and jobs from other cluster nodes which were not
+	 * updated for a long time
+	 */
+	@Scheduled(fixedDelayString = "${vogon.import.purge:60000}")
+	public void purge() {
+		long threshold = System.currentTimeMillis() - retention;
+		for (Iterator<ImportJob> it = jobs.values().iterator(); it.hasNext();) {
+			ImportJob job = it.next();
+			if (!job.isActive() && job.getFinished() != null && job.getFinished().getTime() < threshold)
+				it.remove();
+		}
+		for (Iterator<Map.Entry<String, Long>> it = remoteJobsUpdated.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Long> entry = it.next();
+			if (entry.getValue() < threshold) {
+				remoteJobs.remove(entry.getKey());
+				it.remove();
+			}
+		}
+	}
+}
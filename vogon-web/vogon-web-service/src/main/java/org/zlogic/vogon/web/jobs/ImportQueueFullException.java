@@ -0,0 +1,27 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.jobs;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when the server cannot accept any more import jobs
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ImportQueueFullException extends RuntimeException {
+
+	/**
+	 * Constructs the exception
+	 *
+	 * @param message the exception message
+	 */
+	public ImportQueueFullException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Adds the request's statement count and database time as response headers
+ * (X-Query-Count and X-Query-Time, in milliseconds). Intended for
+ * development, disabled by default.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@ControllerAdvice
+public class QueryBudgetHeadersAdvice implements ResponseBodyAdvice<Object> {
+
+	/**
+	 * True if headers should be added
+	 */
+	@Value("${vogon.querybudget.headers:false}")
+	private boolean enabled;
+
+	/**
+	 * Returns true if headers are enabled
+	 *
+	 * @param returnType the controller method return type
+	 * @param converterType the selected converter type
+	 * @return true if headers are enabled
+	 */
+	@Override
+	public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return enabled;
+	}
+
+	/**
+	 * Adds the headers before the response body is written
+	 *
+	 * @param body the response body
+	 * @param returnType the controller method return type
+	 * @param selectedContentType the response content type
+	 * @param selectedConverterType the selected converter type
+	 * @param request the request
+	 * @param response the response
+	 * @return the unmodified body
+	 */
+	@Override
+	public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType, Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request, ServerHttpResponse response) {
+		RequestStatistics statistics = RequestStatistics.current();
+		if (statistics != null) {
+			response.getHeaders().set("X-Query-Count", Integer.toString(statistics.getStatementCount())); //NOI18N
+			response.getHeaders().set("X-Query-Time", Long.toString(statistics.getDatabaseTime())); //NOI18N
+		}
+		return body;
+	}
+}
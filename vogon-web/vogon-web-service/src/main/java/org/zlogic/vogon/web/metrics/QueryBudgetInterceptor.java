@@ -0,0 +1,118 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.ResourceBundle;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Collects database statistics for service requests, records each handler's
+ * per-request statement counts and database time in VogonMetrics, and logs
+ * requests which exceed the query budget together with their statements
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Component
+public class QueryBudgetInterceptor extends HandlerInterceptorAdapter {
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(QueryBudgetInterceptor.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * Maximum number of statements per request
+	 */
+	@Value("${vogon.querybudget.statements:50}")
+	private int maxStatements;
+	/**
+	 * Maximum request duration in milliseconds
+	 */
+	@Value("${vogon.querybudget.time:1000}")
+	private long maxTime;
+	/**
+	 * Maximum number of statements to log
+	 */
+	@Value("${vogon.querybudget.logstatements:10}")
+	private int maxLoggedStatements;
+	/**
+	 * The VogonMetrics instance
+	 */
+	@Autowired
+	private VogonMetrics metrics;
+
+	/**
+	 * Starts collecting statistics for the request
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param handler the handler
+	 * @return true
+	 */
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (RequestStatistics.current() == null)
+			RequestStatistics.begin();
+		return true;
+	}
+
+	/**
+	 * Stops collecting statistics when the request is processed
+	 * asynchronously, as the request thread is released
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param handler the handler
+	 */
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		RequestStatistics.end();
+	}
+
+	/**
+	 * Stops collecting statistics, records them and logs the request if it
+	 * exceeded the query budget
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param handler the handler
+	 * @param ex the exception thrown by the handler, or null
+	 */
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		RequestStatistics statistics = RequestStatistics.end();
+		if (statistics == null)
+			return;
+		if (handler instanceof HandlerMethod) {
+			String name = ServiceMetricsInterceptor.getMetricsName((HandlerMethod) handler);
+			metrics.valueRecorded(name + ".statements", statistics.getStatementCount()); //NOI18N
+			metrics.valueRecorded(name + ".databaseTime", statistics.getDatabaseTime()); //NOI18N
+		}
+		long elapsedTime = statistics.getElapsedTime();
+		if (statistics.getStatementCount() <= maxStatements && elapsedTime <= maxTime)
+			return;
+		StringBuilder message = new StringBuilder(MessageFormat.format(messages.getString("QUERY_BUDGET_EXCEEDED"),
+				new Object[]{request.getMethod(), request.getRequestURI(), statistics.getStatementCount(), statistics.getDatabaseTime(), elapsedTime}));
+		List<RequestStatistics.StatementShape> statements = statistics.getStatements();
+		for (RequestStatistics.StatementShape statement : statements.subList(0, Math.min(statements.size(), maxLoggedStatements)))
+			message.append("\n").append(MessageFormat.format(messages.getString("QUERY_BUDGET_STATEMENT"), //NOI18N
+					new Object[]{statement.getCount(), statement.getTime(), statement.getSql()}));
+		log.warn(message.toString());
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Hibernate statement inspector which records prepared statements in the
+ * current thread's RequestStatistics
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class RequestStatementInspector implements StatementInspector {
+
+	/**
+	 * Records the statement and returns its SQL unchanged
+	 *
+	 * @param sql the statement SQL
+	 * @return the statement SQL
+	 */
+	@Override
+	public String inspect(String sql) {
+		RequestStatistics statistics = RequestStatistics.current();
+		if (statistics != null)
+			statistics.statementPrepared(sql);
+		return sql;
+	}
+}
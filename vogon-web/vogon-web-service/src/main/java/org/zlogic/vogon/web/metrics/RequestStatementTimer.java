@@ -0,0 +1,74 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Hibernate session event listener which records statement execution times
+ * in the current thread's RequestStatistics. A new instance is created for
+ * every session.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class RequestStatementTimer extends BaseSessionEventListener {
+
+	/**
+	 * Serialization version
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The current statement execution start time, in nanoseconds
+	 */
+	private long executeStart;
+	/**
+	 * The current batch execution start time, in nanoseconds
+	 */
+	private long batchStart;
+
+	/**
+	 * Saves the statement execution start time
+	 */
+	@Override
+	public void jdbcExecuteStatementStart() {
+		executeStart = System.nanoTime();
+	}
+
+	/**
+	 * Records the statement execution time
+	 */
+	@Override
+	public void jdbcExecuteStatementEnd() {
+		record(executeStart);
+	}
+
+	/**
+	 * Saves the batch execution start time
+	 */
+	@Override
+	public void jdbcExecuteBatchStart() {
+		batchStart = System.nanoTime();
+	}
+
+	/**
+	 * Records the batch execution time
+	 */
+	@Override
+	public void jdbcExecuteBatchEnd() {
+		record(batchStart);
+	}
+
+	/**
+	 * Records an execution time in the current thread's RequestStatistics
+	 *
+	 * @param start the execution start time, in nanoseconds
+	 */
+	private void record(long start) {
+		RequestStatistics statistics = RequestStatistics.current();
+		if (statistics != null)
+			statistics.statementExecuted(System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database statistics of the HTTP request processed by the current thread.
+ * Statements are grouped by their SQL; as Hibernate uses bind parameters,
+ * the SQL is the statement shape, identical for all executions of the same
+ * query.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class RequestStatistics {
+
+	/**
+	 * Statistics of the current thread's request
+	 */
+	private static final ThreadLocal<RequestStatistics> current = new ThreadLocal<>();
+	/**
+	 * The request start time, in nanoseconds
+	 */
+	private final long startTime = System.nanoTime();
+	/**
+	 * The number of prepared statements
+	 */
+	private int statementCount;
+	/**
+	 * The total statement execution time, in nanoseconds
+	 */
+	private long databaseTime;
+	/**
+	 * Statistics of statements, by SQL
+	 */
+	private final Map<String, StatementShape> statements = new HashMap<>();
+	/**
+	 * The last prepared statement, to which the execution time is attributed
+	 */
+	private StatementShape lastStatement;
+
+	/**
+	 * Statistics of statements with the same SQL
+	 */
+	public static class StatementShape {
+
+		/**
+		 * The statement SQL
+		 */
+		private final String sql;
+		/**
+		 * The number of times the statement was prepared
+		 */
+		private int count;
+		/**
+		 * The total execution time, in nanoseconds
+		 */
+		private long time;
+
+		/**
+		 * Creates the statement statistics
+		 *
+		 * @param sql the statement SQL
+		 */
+		private StatementShape(String sql) {
+			this.sql = sql;
+		}
+
+		/**
+		 * Returns the statement SQL
+		 *
+		 * @return the statement SQL
+		 */
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * Returns the number of times the statement was prepared
+		 *
+		 * @return the number of times the statement was prepared
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the total execution time
+		 *
+		 * @return the total execution time, in milliseconds
+		 */
+		public long getTime() {
+			return TimeUnit.NANOSECONDS.toMillis(time);
+		}
+	}
+
+	/**
+	 * Starts collecting statistics for the current thread
+	 *
+	 * @return the statistics of the current thread
+	 */
+	public static RequestStatistics begin() {
+		RequestStatistics statistics = new RequestStatistics();
+		current.set(statistics);
+		return statistics;
+	}
+
+	/**
+	 * Stops collecting statistics for the current thread
+	 *
+	 * @return the collected statistics, or null if statistics were not
+	 * collected
+	 */
+	public static RequestStatistics end() {
+		RequestStatistics statistics = current.get();
+		current.remove();
+		return statistics;
+	}
+
+	/**
+	 * Returns the statistics of the current thread
+	 *
+	 * @return the statistics of the current thread, or null if statistics are
+	 * not collected
+	 */
+	public static RequestStatistics current() {
+		return current.get();
+	}
+
+	/**
+	 * Records a prepared statement
+	 *
+	 * @param sql the statement SQL
+	 */
+	protected void statementPrepared(String sql) {
+		StatementShape statement = statements.get(sql);
+		if (statement == null) {
+			statement = new StatementShape(sql);
+			statements.put(sql, statement);
+		}
+		statement.count++;
+		statementCount++;
+		lastStatement = statement;
+	}
+
+	/**
+	 * Records a statement execution (or batch execution)
+	 *
+	 * @param duration the execution time, in nanoseconds
+	 */
+	protected void statementExecuted(long duration) {
+		databaseTime += duration;
+		if (lastStatement != null)
+			lastStatement.time += duration;
+	}
+
+	/**
+	 * Returns the number of prepared statements
+	 *
+	 * @return the number of prepared statements
+	 */
+	public int getStatementCount() {
+		return statementCount;
+	}
+
+	/**
+	 * Returns the total statement execution time
+	 *
+	 * @return the total statement execution time, in milliseconds
+	 */
+	public long getDatabaseTime() {
+		return TimeUnit.NANOSECONDS.toMillis(databaseTime);
+	}
+
+	/**
+	 * Returns the time since the request started
+	 *
+	 * @return the time since the request started, in milliseconds
+	 */
+	public long getElapsedTime() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Returns the statements, most frequent first
+	 *
+	 * @return the statements, most frequent first
+	 */
+	public List<StatementShape> getStatements() {
+		List<StatementShape> sortedStatements = new ArrayList<>(statements.values());
+		Collections.sort(sortedStatements, new Comparator<StatementShape>() {
+			@Override
+			public int compare(StatementShape o1, StatementShape o2) {
+				if (o1.count != o2.count)
+					return Integer.compare(o2.count, o1.count);
+				return Long.compare(o2.time, o1.time);
+			}
+		});
+		return sortedStatements;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Times service requests. Each handler method is timed as
+ * service.&lt;Controller&gt;.&lt;method&gt;, failed requests are also
+ * counted as service.&lt;Controller&gt;.&lt;method&gt;.errors.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class ServiceMetricsInterceptor extends HandlerInterceptorAdapter {
+
+	/**
+	 * The service request metrics name prefix
+	 */
+	protected static final String PREFIX = "service."; //NOI18N
+	/**
+	 * The request attribute containing the request start time
+	 */
+	private static final String START_ATTRIBUTE = ServiceMetricsInterceptor.class.getName() + ".start"; //NOI18N
+	/**
+	 * The VogonMetrics instance
+	 */
+	private final VogonMetrics metrics;
+
+	/**
+	 * Creates the interceptor
+	 *
+	 * @param metrics the VogonMetrics instance to record timings
+	 */
+	public ServiceMetricsInterceptor(VogonMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the metrics name of a handler method
+	 *
+	 * @param handlerMethod the handler method
+	 * @return the metrics name
+	 */
+	protected static String getMetricsName(HandlerMethod handlerMethod) {
+		return PREFIX + handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName(); //NOI18N
+	}
+
+	/**
+	 * Saves the request start time
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param handler the handler
+	 * @return true
+	 */
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (request.getAttribute(START_ATTRIBUTE) == null)
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		return true;
+	}
+
+	/**
+	 * Records the request time
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param handler the handler
+	 * @param ex the exception thrown by the handler, or null
+	 */
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		Object start = request.getAttribute(START_ATTRIBUTE);
+		if (!(start instanceof Long) || !(handler instanceof HandlerMethod))
+			return;
+		String name = getMetricsName((HandlerMethod) handler);
+		metrics.timeRecorded(name, System.nanoTime() - (Long) start);
+		if (ex != null || response.getStatus() >= HttpServletResponse.SC_BAD_REQUEST)
+			metrics.increment(name + ".errors"); //NOI18N
+	}
+}
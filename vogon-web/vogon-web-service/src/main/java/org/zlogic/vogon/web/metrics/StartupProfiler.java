@@ -0,0 +1,208 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.zlogic.vogon.data.metrics.Metrics;
+
+/**
+ * Measures how long it takes to create each bean during startup and logs a
+ * report once the application is ready. The time of a bean doesn't include
+ * the time spent creating its dependencies. Set vogon.startup.profile to true
+ * to log the slowest beans.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Component
+public class StartupProfiler extends InstantiationAwareBeanPostProcessorAdapter implements PriorityOrdered, EnvironmentAware, ApplicationListener<ApplicationReadyEvent> {
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(StartupProfiler.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * True if the slowest beans should be logged
+	 */
+	private boolean profile;
+	/**
+	 * Number of slowest beans to log
+	 */
+	private int reportSize;
+	/**
+	 * True until the application is ready
+	 */
+	private volatile boolean starting = true;
+	/**
+	 * Beans which are currently being created, innermost last
+	 */
+	private final Deque<BeanTiming> creating = new ArrayDeque<>();
+	/**
+	 * Time spent creating each bean, in nanoseconds
+	 */
+	private final Map<String, Long> beanTimes = new HashMap<>();
+
+	/**
+	 * Timing of a bean which is being created
+	 */
+	private static class BeanTiming {
+
+		/**
+		 * The bean name
+		 */
+		private final String beanName;
+		/**
+		 * The time when bean creation started
+		 */
+		private final long start = System.nanoTime();
+		/**
+		 * The time spent creating dependencies of this bean
+		 */
+		private long dependencies;
+
+		/**
+		 * Creates a BeanTiming
+		 *
+		 * @param beanName the bean name
+		 */
+		private BeanTiming(String beanName) {
+			this.beanName = beanName;
+		}
+	}
+
+	/**
+	 * Reads the profiler settings
+	 *
+	 * @param environment the Environment
+	 */
+	@Override
+	public void setEnvironment(Environment environment) {
+		profile = environment.getProperty("vogon.startup.profile", Boolean.class, false); //NOI18N
+		reportSize = environment.getProperty("vogon.startup.profile.beans", Integer.class, 20); //NOI18N
+	}
+
+	/**
+	 * Runs before other post processors, to include them in the timings
+	 *
+	 * @return the order of this post processor
+	 */
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	/**
+	 * Starts timing the creation of a bean
+	 *
+	 * @param beanClass the bean class
+	 * @param beanName the bean name
+	 * @return null to let Spring create the bean
+	 * @throws BeansException in case of errors
+	 */
+	@Override
+	public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
+		if (starting) {
+			synchronized (this) {
+				creating.addLast(new BeanTiming(beanName));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Stops timing the creation of a bean
+	 *
+	 * @param bean the bean
+	 * @param beanName the bean name
+	 * @return the bean
+	 * @throws BeansException in case of errors
+	 */
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		if (!starting)
+			return bean;
+		synchronized (this) {
+			BeanTiming timing = null;
+			for (Iterator<BeanTiming> it = creating.descendingIterator(); it.hasNext() && timing == null;) {
+				BeanTiming candidate = it.next();
+				if (candidate.beanName.equals(beanName))
+					timing = candidate;
+			}
+			if (timing == null)
+				return bean;
+			//Discard beans which failed to initialize
+			while (creating.peekLast() != timing)
+				creating.removeLast();
+			creating.removeLast();
+			long duration = System.nanoTime() - timing.start;
+			if (!creating.isEmpty())
+				creating.peekLast().dependencies += duration;
+			Long previousTime = beanTimes.get(beanName);
+			beanTimes.put(beanName, (previousTime != null ? previousTime : 0L) + duration - timing.dependencies);
+		}
+		return bean;
+	}
+
+	/**
+	 * Logs the startup report and records the startup time metric
+	 *
+	 * @param event the ApplicationReadyEvent
+	 */
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		if (!starting)
+			return;
+		starting = false;
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		Metrics.stop("startup", System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(uptime)); //NOI18N
+		List<Map.Entry<String, Long>> beans;
+		synchronized (this) {
+			beans = new ArrayList<>(beanTimes.entrySet());
+			beanTimes.clear();
+			creating.clear();
+		}
+		long beansTime = 0;
+		for (Map.Entry<String, Long> entry : beans)
+			beansTime += entry.getValue();
+		log.info(MessageFormat.format(messages.getString("STARTUP_TIME"), new Object[]{uptime, TimeUnit.NANOSECONDS.toMillis(beansTime), beans.size()}));
+		if (!profile)
+			return;
+		Collections.sort(beans, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+		for (Map.Entry<String, Long> entry : beans.subList(0, Math.min(reportSize, beans.size())))
+			log.info(MessageFormat.format(messages.getString("STARTUP_PROFILE_BEAN"), new Object[]{entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue())}));
+	}
+}
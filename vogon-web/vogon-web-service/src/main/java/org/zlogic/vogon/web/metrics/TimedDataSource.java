@@ -0,0 +1,64 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.zlogic.vogon.data.metrics.Metrics;
+
+/**
+ * DataSource which records the time spent waiting for a connection from the
+ * target pool as connection.checkout
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class TimedDataSource extends DelegatingDataSource {
+
+	/**
+	 * Creates the TimedDataSource
+	 *
+	 * @param targetDataSource the pooled DataSource
+	 */
+	public TimedDataSource(DataSource targetDataSource) {
+		super(targetDataSource);
+	}
+
+	/**
+	 * Returns a connection from the pool, recording the checkout time
+	 *
+	 * @return the connection
+	 * @throws SQLException if the connection cannot be obtained
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = Metrics.start();
+		try {
+			return super.getConnection();
+		} finally {
+			Metrics.stop("connection.checkout", start); //NOI18N
+		}
+	}
+
+	/**
+	 * Returns a connection from the pool, recording the checkout time
+	 *
+	 * @param username the database username
+	 * @param password the database password
+	 * @return the connection
+	 * @throws SQLException if the connection cannot be obtained
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		long start = Metrics.start();
+		try {
+			return super.getConnection(username, password);
+		} finally {
+			Metrics.stop("connection.checkout", start); //NOI18N
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+import org.zlogic.vogon.data.metrics.Metrics;
+
+/**
+ * HikariCP connection provider which records the time spent waiting for a
+ * connection from the pool as connection.checkout
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class TimedHikariCPConnectionProvider extends HikariCPConnectionProvider {
+
+	/**
+	 * Serialization version
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Returns a connection from the pool, recording the checkout time
+	 *
+	 * @return the connection
+	 * @throws SQLException if the connection cannot be obtained
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = Metrics.start();
+		try {
+			return super.getConnection();
+		} finally {
+			Metrics.stop("connection.checkout", start); //NOI18N
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.metrics;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+import org.zlogic.vogon.data.metrics.Metrics;
+import org.zlogic.vogon.data.metrics.MetricsListener;
+import org.zlogic.vogon.web.data.ReplicaRoutingDataSource;
+
+/**
+ * Collects timings of service requests and data layer operations, and
+ * exposes them together with Hibernate statistics and connection pool
+ * status through the actuator metrics endpoint. All metrics names start with
+ * "vogon.".
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Component
+public class VogonMetrics implements PublicMetrics, MetricsListener {
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(VogonMetrics.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * The metrics name prefix
+	 */
+	private static final String PREFIX = "vogon."; //NOI18N
+	/**
+	 * The EntityManagerFactory instance
+	 */
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+	/**
+	 * The recorded timers, by name
+	 */
+	private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+	/**
+	 * The counters, by name
+	 */
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+	/**
+	 * The recorded per-request values (such as statement counts), by name
+	 */
+	private final ConcurrentMap<String, Timer> values = new ConcurrentHashMap<>();
+
+	/**
+	 * Aggregated timings (or other recorded values) of an operation
+	 */
+	private static class Timer {
+
+		/**
+		 * Number of recorded timings
+		 */
+		private final AtomicLong count = new AtomicLong();
+		/**
+		 * Total recorded time, in nanoseconds
+		 */
+		private final AtomicLong total = new AtomicLong();
+		/**
+		 * Maximum recorded time, in nanoseconds
+		 */
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * Records a timing or value
+		 *
+		 * @param duration the duration in nanoseconds, or the value
+		 */
+		private void record(long duration) {
+			count.incrementAndGet();
+			total.addAndGet(duration);
+			long currentMax = max.get();
+			while (duration > currentMax && !max.compareAndSet(currentMax, duration))
+				currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Registers this instance as the data layer metrics listener
+	 */
+	@PostConstruct
+	public void registerListener() {
+		Metrics.setListener(this);
+	}
+
+	/**
+	 * Unregisters this instance as the data layer metrics listener
+	 */
+	@PreDestroy
+	public void unregisterListener() {
+		Metrics.setListener(null);
+	}
+
+	/**
+	 * Records the time of an operation
+	 *
+	 * @param name the operation name
+	 * @param duration the operation duration, in nanoseconds
+	 */
+	@Override
+	public void timeRecorded(String name, long duration) {
+		getTimer(timers, name).record(duration);
+	}
+
+	/**
+	 * Records a value measured for a single request, such as the number of
+	 * statements it executed. The mean and maximum values are exported.
+	 *
+	 * @param name the value name
+	 * @param value the value
+	 */
+	public void valueRecorded(String name, long value) {
+		getTimer(values, name).record(value);
+	}
+
+	/**
+	 * Returns a timer from a map, creating it if necessary
+	 *
+	 * @param map the timers map
+	 * @param name the timer name
+	 * @return the timer
+	 */
+	private static Timer getTimer(ConcurrentMap<String, Timer> map, String name) {
+		Timer timer = map.get(name);
+		if (timer == null) {
+			Timer newTimer = new Timer();
+			timer = map.putIfAbsent(name, newTimer);
+			if (timer == null)
+				timer = newTimer;
+		}
+		return timer;
+	}
+
+	/**
+	 * Increments a counter
+	 *
+	 * @param name the counter name
+	 */
+	public void increment(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null)
+				counter = newCounter;
+		}
+		counter.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of times an operation was timed
+	 *
+	 * @param name the operation name
+	 * @return the number of recorded timings
+	 */
+	public long getCount(String name) {
+		Timer timer = timers.get(name);
+		return timer != null ? timer.count.get() : 0;
+	}
+
+	/**
+	 * Returns the collected metrics
+	 *
+	 * @return the collected metrics
+	 */
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+			Timer timer = entry.getValue();
+			long count = timer.count.get();
+			metrics.add(new Metric<>(PREFIX + entry.getKey() + ".count", count)); //NOI18N
+			if (count > 0)
+				metrics.add(new Metric<>(PREFIX + entry.getKey() + ".mean", toMillis(timer.total.get()) / count)); //NOI18N
+			metrics.add(new Metric<>(PREFIX + entry.getKey() + ".max", toMillis(timer.max.get()))); //NOI18N
+		}
+		for (Map.Entry<String, Timer> entry : values.entrySet()) {
+			Timer value = entry.getValue();
+			long count = value.count.get();
+			if (count > 0)
+				metrics.add(new Metric<>(PREFIX + entry.getKey() + ".mean", (double) value.total.get() / count)); //NOI18N
+			metrics.add(new Metric<>(PREFIX + entry.getKey() + ".max", value.max.get())); //NOI18N
+		}
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+			metrics.add(new Metric<>(PREFIX + entry.getKey(), entry.getValue().get()));
+		addHibernateMetrics(metrics);
+		addPoolMetrics(metrics);
+		return metrics;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds
+	 *
+	 * @param nanos the time in nanoseconds
+	 * @return the time in milliseconds
+	 */
+	private static double toMillis(long nanos) {
+		return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Adds Hibernate statistics
+	 *
+	 * @param metrics the metrics collection to add to
+	 */
+	private void addHibernateMetrics(Collection<Metric<?>> metrics) {
+		Statistics statistics;
+		try {
+			statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		} catch (RuntimeException ex) {
+			log.debug(messages.getString("CANNOT_GET_HIBERNATE_STATISTICS"), ex);
+			return;
+		}
+		if (!statistics.isStatisticsEnabled())
+			return;
+		metrics.add(new Metric<>(PREFIX + "hibernate.statements", statistics.getPrepareStatementCount())); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "hibernate.queries", statistics.getQueryExecutionCount())); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "hibernate.queries.max", statistics.getQueryExecutionMaxTime())); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "hibernate.entities.loaded", statistics.getEntityLoadCount())); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "hibernate.entities.fetched", statistics.getEntityFetchCount())); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "hibernate.collections.loaded", statistics.getCollectionLoadCount())); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "hibernate.transactions", statistics.getTransactionCount())); //NOI18N
+	}
+
+	/**
+	 * Adds connection pool status (c3p0 or HikariCP), summed over all pools
+	 *
+	 * @param metrics the metrics collection to add to
+	 */
+	private void addPoolMetrics(Collection<Metric<?>> metrics) {
+		List<DataSource> dataSources = new ArrayList<>();
+		try {
+			ConnectionProvider connectionProvider = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry().getService(ConnectionProvider.class);
+			if (connectionProvider == null || !connectionProvider.isUnwrappableAs(DataSource.class))
+				return;
+			collectDataSources(connectionProvider.unwrap(DataSource.class), dataSources);
+		} catch (RuntimeException ex) {
+			log.debug(messages.getString("CANNOT_GET_CONNECTION_POOL"), ex);
+			return;
+		}
+		int busy = 0, idle = 0, total = 0, awaiting = 0;
+		boolean found = false;
+		for (DataSource dataSource : dataSources) {
+			if (dataSource instanceof PooledDataSource) {
+				PooledDataSource pooledDataSource = (PooledDataSource) dataSource;
+				try {
+					busy += pooledDataSource.getNumBusyConnectionsDefaultUser();
+					idle += pooledDataSource.getNumIdleConnectionsDefaultUser();
+					total += pooledDataSource.getNumConnectionsDefaultUser();
+					awaiting += pooledDataSource.getNumThreadsAwaitingCheckoutDefaultUser();
+					found = true;
+				} catch (SQLException ex) {
+					log.debug(messages.getString("CANNOT_GET_CONNECTION_POOL_STATUS"), ex);
+				}
+			} else if (dataSource instanceof HikariDataSource && ((HikariDataSource) dataSource).getHikariPoolMXBean() != null) {
+				HikariPoolMXBean pool = ((HikariDataSource) dataSource).getHikariPoolMXBean();
+				busy += pool.getActiveConnections();
+				idle += pool.getIdleConnections();
+				total += pool.getTotalConnections();
+				awaiting += pool.getThreadsAwaitingConnection();
+				found = true;
+			}
+		}
+		if (!found)
+			return;
+		metrics.add(new Metric<>(PREFIX + "pool.busy", busy)); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "pool.idle", idle)); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "pool.total", total)); //NOI18N
+		metrics.add(new Metric<>(PREFIX + "pool.awaitingCheckout", awaiting)); //NOI18N
+	}
+
+	/**
+	 * Finds the pooled DataSources behind a DataSource, following delegating
+	 * and replica routing DataSources
+	 *
+	 * @param dataSource the DataSource
+	 * @param dataSources the list to add the pooled DataSources to
+	 */
+	private void collectDataSources(DataSource dataSource, List<DataSource> dataSources) {
+		if (dataSource instanceof DelegatingDataSource) {
+			collectDataSources(((DelegatingDataSource) dataSource).getTargetDataSource(), dataSources);
+		} else if (dataSource instanceof ReplicaRoutingDataSource) {
+			for (DataSource targetDataSource : ((ReplicaRoutingDataSource) dataSource).getDataSources())
+				collectDataSources(targetDataSource, dataSources);
+		} else if (dataSource != null) {
+			dataSources.add(dataSource);
+		}
+	}
+}
@@ -0,0 +1,405 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.security;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.zlogic.vogon.data.OAuthAccessToken;
+import org.zlogic.vogon.data.OAuthRefreshToken;
+import org.zlogic.vogon.web.cluster.ClusterCoordinator;
+import org.zlogic.vogon.web.cluster.ClusterEventListener;
+import org.zlogic.vogon.web.data.AccessTokenRepository;
+import org.zlogic.vogon.web.data.RefreshTokenRepository;
+
+/**
+ * OAuth token store persisted in the database, with an in-memory cache of
+ * recently used access tokens. Tokens are stored by the SHA-256 hash of their
+ * value; expired tokens are periodically purged. Only the username and
+ * authorities of the authenticated user are stored, the principal is reloaded
+ * through the UserService when a token is read.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class PersistentTokenStore implements TokenStore {
+
+	/**
+	 * Cluster event topic for removed access tokens
+	 */
+	public static final String CLUSTER_TOPIC = "token"; //NOI18N
+
+	/**
+	 * The logger
+	 */
+	private final static Logger log = LoggerFactory.getLogger(PersistentTokenStore.class);
+	/**
+	 * Localization messages
+	 */
+	private static final ResourceBundle messages = ResourceBundle.getBundle("org/zlogic/vogon/web/messages");
+	/**
+	 * The access tokens repository
+	 */
+	@Autowired
+	private AccessTokenRepository accessTokenRepository;
+	/**
+	 * The refresh tokens repository
+	 */
+	@Autowired
+	private RefreshTokenRepository refreshTokenRepository;
+	/**
+	 * The ClusterCoordinator instance
+	 */
+	@Autowired
+	private ClusterCoordinator clusterCoordinator;
+	/**
+	 * The UserService instance
+	 */
+	@Autowired
+	private UserService userService;
+	/**
+	 * Maximum number of cached access tokens
+	 */
+	@Value("${vogon.tokens.cache:1024}")
+	private int cacheSize;
+	/**
+	 * The authentication key generator
+	 */
+	private final AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
+	/**
+	 * Recently used access tokens, by hashed token value
+	 */
+	private Map<String, CachedAccessToken> accessTokenCache;
+
+	/**
+	 * Deserialized access token and its authentication
+	 */
+	private static class CachedAccessToken {
+
+		/**
+		 * The access token
+		 */
+		private final OAuth2AccessToken token;
+		/**
+		 * The token's authentication
+		 */
+		private final OAuth2Authentication authentication;
+
+		/**
+		 * Constructs the CachedAccessToken
+		 *
+		 * @param token the access token
+		 * @param authentication the token's authentication
+		 */
+		private CachedAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+			this.token = token;
+			this.authentication = authentication;
+		}
+	}
+
+	/**
+	 * Creates the access token cache and subscribes to token removals on other
+	 * cluster nodes
+	 */
+	@PostConstruct
+	public void createCache() {
+		accessTokenCache = Collections.synchronizedMap(new LinkedHashMap<String, CachedAccessToken>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedAccessToken> eldest) {
+				return size() > cacheSize;
+			}
+		});
+		clusterCoordinator.addListener(CLUSTER_TOPIC, new ClusterEventListener() {
+			@Override
+			public void onClusterEvent(String key, Serializable payload) {
+				accessTokenCache.remove(key);
+			}
+		});
+	}
+
+	/**
+	 * Removes an access token from the cache on this and other cluster nodes
+	 *
+	 * @param tokenId the hashed token value
+	 */
+	private void evictAccessToken(String tokenId) {
+		accessTokenCache.remove(tokenId);
+		clusterCoordinator.publish(CLUSTER_TOPIC, tokenId, null);
+	}
+
+	/**
+	 * Returns the hashed token value used as the database key
+	 *
+	 * @param value the token value
+	 * @return the hashed token value
+	 */
+	protected String extractTokenKey(String value) {
+		if (value == null)
+			return null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256"); //NOI18N
+			byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+			return String.format("%064x", new BigInteger(1, hash)); //NOI18N
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(messages.getString("SHA256_ALGORITHM_IS_NOT_AVAILABLE"), ex);
+		}
+	}
+
+	/**
+	 * Deserializes a stored object
+	 *
+	 * @param <T> the object type
+	 * @param data the serialized object
+	 * @return the deserialized object, or null if it cannot be deserialized
+	 * (e.g. if its class has changed)
+	 */
+	private <T> T deserialize(byte[] data) {
+		try {
+			return SerializationUtils.deserialize(data);
+		} catch (IllegalArgumentException ex) {
+			log.warn(messages.getString("CANNOT_DESERIALIZE_STORED_TOKEN"), ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a copy of the authentication which can be safely stored: the
+	 * user principal (including the password hash) is replaced with the user
+	 * ID, which, unlike the username, cannot be changed or reused by another
+	 * user
+	 *
+	 * @param authentication the authentication
+	 * @return the authentication to store
+	 */
+	private OAuth2Authentication stripPrincipal(OAuth2Authentication authentication) {
+		Authentication userAuthentication = authentication.getUserAuthentication();
+		if (userAuthentication == null)
+			return authentication;
+		Object principal = userAuthentication.getName();
+		if (userAuthentication.getPrincipal() instanceof VogonSecurityUser)
+			principal = ((VogonSecurityUser) userAuthentication.getPrincipal()).getUser().getId();
+		Authentication storedUserAuthentication = new UsernamePasswordAuthenticationToken(principal, null, userAuthentication.getAuthorities());
+		return new OAuth2Authentication(authentication.getOAuth2Request(), storedUserAuthentication);
+	}
+
+	/**
+	 * Deserializes a stored authentication and reloads its user principal
+	 *
+	 * @param data the serialized authentication
+	 * @return the authentication, or null if it cannot be deserialized, has no
+	 * user ID or its user no longer exists
+	 */
+	private OAuth2Authentication deserializeAuthentication(byte[] data) {
+		OAuth2Authentication storedAuthentication = deserialize(data);
+		if (storedAuthentication == null || storedAuthentication.getUserAuthentication() == null)
+			return storedAuthentication;
+		Authentication storedUserAuthentication = storedAuthentication.getUserAuthentication();
+		if (!(storedUserAuthentication.getPrincipal() instanceof Long))
+			return null;
+		UserDetails principal;
+		try {
+			principal = userService.loadUserById((Long) storedUserAuthentication.getPrincipal());
+		} catch (UsernameNotFoundException ex) {
+			return null;
+		}
+		Authentication userAuthentication = new UsernamePasswordAuthenticationToken(principal, null, storedUserAuthentication.getAuthorities());
+		return new OAuth2Authentication(storedAuthentication.getOAuth2Request(), userAuthentication);
+	}
+
+	/**
+	 * Returns an access token and its authentication from the cache or from
+	 * the database
+	 *
+	 * @param tokenValue the token value
+	 * @return the access token and its authentication, or null if the token
+	 * doesn't exist
+	 */
+	private CachedAccessToken loadAccessToken(String tokenValue) {
+		String tokenId = extractTokenKey(tokenValue);
+		CachedAccessToken cachedToken = accessTokenCache.get(tokenId);
+		if (cachedToken != null)
+			return cachedToken;
+		OAuthAccessToken storedToken = accessTokenRepository.findOne(tokenId);
+		if (storedToken == null)
+			return null;
+		OAuth2AccessToken token = deserialize(storedToken.getToken());
+		OAuth2Authentication authentication = deserializeAuthentication(storedToken.getAuthentication());
+		if (token == null || authentication == null) {
+			accessTokenRepository.deleteByTokenId(tokenId);
+			return null;
+		}
+		cachedToken = new CachedAccessToken(token, authentication);
+		accessTokenCache.put(tokenId, cachedToken);
+		return cachedToken;
+	}
+
+	/**
+	 * Converts stored access tokens into OAuth2AccessTokens
+	 *
+	 * @param storedTokens the stored tokens
+	 * @return the deserialized tokens
+	 */
+	private Collection<OAuth2AccessToken> deserializeAccessTokens(Collection<OAuthAccessToken> storedTokens) {
+		List<OAuth2AccessToken> tokens = new LinkedList<>();
+		for (OAuthAccessToken storedToken : storedTokens) {
+			OAuth2AccessToken token = deserialize(storedToken.getToken());
+			if (token != null)
+				tokens.add(token);
+		}
+		return tokens;
+	}
+
+	@Override
+	public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+		return readAuthentication(token.getValue());
+	}
+
+	@Override
+	public OAuth2Authentication readAuthentication(String token) {
+		CachedAccessToken cachedToken = loadAccessToken(token);
+		return cachedToken != null ? cachedToken.authentication : null;
+	}
+
+	@Override
+	public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+		String refreshTokenId = token.getRefreshToken() != null ? extractTokenKey(token.getRefreshToken().getValue()) : null;
+		String tokenId = extractTokenKey(token.getValue());
+		OAuthAccessToken storedToken = new OAuthAccessToken(
+				tokenId,
+				SerializationUtils.serialize(token),
+				SerializationUtils.serialize(stripPrincipal(authentication)),
+				authenticationKeyGenerator.extractKey(authentication),
+				authentication.isClientOnly() ? null : authentication.getName(),
+				authentication.getOAuth2Request().getClientId(),
+				refreshTokenId,
+				token.getExpiration());
+		accessTokenRepository.save(storedToken);
+		accessTokenCache.put(tokenId, new CachedAccessToken(token, authentication));
+	}
+
+	@Override
+	public OAuth2AccessToken readAccessToken(String tokenValue) {
+		CachedAccessToken cachedToken = loadAccessToken(tokenValue);
+		return cachedToken != null ? cachedToken.token : null;
+	}
+
+	@Override
+	public void removeAccessToken(OAuth2AccessToken token) {
+		String tokenId = extractTokenKey(token.getValue());
+		accessTokenRepository.deleteByTokenId(tokenId);
+		evictAccessToken(tokenId);
+	}
+
+	@Override
+	public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+		Date expiration = refreshToken instanceof ExpiringOAuth2RefreshToken ? ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration() : null;
+		OAuthRefreshToken storedToken = new OAuthRefreshToken(
+				extractTokenKey(refreshToken.getValue()),
+				SerializationUtils.serialize(refreshToken),
+				SerializationUtils.serialize(stripPrincipal(authentication)),
+				expiration);
+		refreshTokenRepository.save(storedToken);
+	}
+
+	@Override
+	public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+		OAuthRefreshToken storedToken = refreshTokenRepository.findOne(extractTokenKey(tokenValue));
+		return storedToken != null ? this.<OAuth2RefreshToken>deserialize(storedToken.getToken()) : null;
+	}
+
+	@Override
+	public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+		OAuthRefreshToken storedToken = refreshTokenRepository.findOne(extractTokenKey(token.getValue()));
+		return storedToken != null ? deserializeAuthentication(storedToken.getAuthentication()) : null;
+	}
+
+	@Override
+	public void removeRefreshToken(OAuth2RefreshToken token) {
+		refreshTokenRepository.deleteByTokenId(extractTokenKey(token.getValue()));
+	}
+
+	@Override
+	public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+		String refreshTokenId = extractTokenKey(refreshToken.getValue());
+		List<OAuthAccessToken> storedTokens = accessTokenRepository.findByRefreshTokenId(refreshTokenId);
+		accessTokenRepository.deleteByRefreshTokenId(refreshTokenId);
+		for (OAuthAccessToken storedToken : storedTokens)
+			evictAccessToken(storedToken.getTokenId());
+	}
+
+	@Override
+	public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+		String authenticationKey = authenticationKeyGenerator.extractKey(authentication);
+		OAuthAccessToken storedToken = accessTokenRepository.findFirstByAuthenticationKey(authenticationKey);
+		if (storedToken == null)
+			return null;
+		OAuth2AccessToken token = deserialize(storedToken.getToken());
+		if (token == null)
+			return null;
+		//Keep the stored authentication up to date
+		OAuth2Authentication storedAuthentication = readAuthentication(token.getValue());
+		if (storedAuthentication == null || !authenticationKey.equals(authenticationKeyGenerator.extractKey(storedAuthentication))) {
+			removeAccessToken(token);
+			storeAccessToken(token, authentication);
+		}
+		return token;
+	}
+
+	@Override
+	public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+		return deserializeAccessTokens(accessTokenRepository.findByClientIdAndUsername(clientId, userName));
+	}
+
+	@Override
+	public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+		return deserializeAccessTokens(accessTokenRepository.findByClientId(clientId));
+	}
+
+	/**
+	 * Deletes all expired tokens from the database and the cache
+	 */
+	@Scheduled(fixedDelayString = "${vogon.tokens.purge:3600000}")
+	public void purgeExpiredTokens() {
+		Date now = new Date();
+		int accessTokens = accessTokenRepository.deleteExpired(now);
+		int refreshTokens = refreshTokenRepository.deleteExpired(now);
+		synchronized (accessTokenCache) {
+			for (Iterator<CachedAccessToken> it = accessTokenCache.values().iterator(); it.hasNext();)
+				if (it.next().token.isExpired())
+					it.remove();
+		}
+		log.debug(MessageFormat.format(messages.getString("PURGED_EXPIRED_TOKENS"), new Object[]{accessTokens, refreshTokens}));
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.security;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.web.cluster.ClusterCoordinator;
+import org.zlogic.vogon.web.cluster.ClusterEventListener;
+import org.zlogic.vogon.web.data.UserRepository;
+
+/**
+ * Cache of authenticated users, by user ID. Avoids reloading the user from
+ * the database on every request.
+ *
+ * Every invalidation of a user is numbered, so that a user loaded before the
+ * invalidation (e.g. before a concurrent update was committed) is not put
+ * back into the cache.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@Service
+public class PrincipalCache {
+
+	/**
+	 * Cluster event topic for updated users
+	 */
+	public static final String CLUSTER_TOPIC = "user"; //NOI18N
+
+	/**
+	 * The users repository
+	 */
+	@Autowired
+	private UserRepository userRepository;
+	/**
+	 * The ClusterCoordinator instance
+	 */
+	@Autowired
+	private ClusterCoordinator clusterCoordinator;
+	/**
+	 * Maximum number of cached users
+	 */
+	@Value("${vogon.principals.cache:1024}")
+	private int cacheSize;
+	/**
+	 * Cached users, by ID
+	 */
+	private Map<Long, VogonUser> users;
+	/**
+	 * Number of the last invalidation of recently invalidated users, by ID;
+	 * guarded by users
+	 */
+	private Map<Long, Long> invalidations;
+	/**
+	 * Number of the last invalidation; guarded by users
+	 */
+	private long lastInvalidation = 0;
+	/**
+	 * Highest invalidation number removed from invalidations, used for users
+	 * not in invalidations; guarded by users
+	 */
+	private long prunedInvalidation = 0;
+
+	/**
+	 * Creates the cache and subscribes to user updates on other cluster nodes
+	 */
+	@PostConstruct
+	public void createCache() {
+		users = Collections.synchronizedMap(new LinkedHashMap<Long, VogonUser>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, VogonUser> eldest) {
+				return size() > cacheSize;
+			}
+		});
+		invalidations = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+				if (size() <= cacheSize)
+					return false;
+				prunedInvalidation = Math.max(prunedInvalidation, eldest.getValue());
+				return true;
+			}
+		};
+		clusterCoordinator.addListener(CLUSTER_TOPIC, new ClusterEventListener() {
+			@Override
+			public void onClusterEvent(String key, Serializable payload) {
+				invalidate(Long.parseLong(key));
+			}
+		});
+	}
+
+	/**
+	 * Returns a user from the cache, loading it from the database if needed
+	 *
+	 * @param id the user ID
+	 * @return the user, or null if the user doesn't exist
+	 */
+	public VogonUser getUser(long id) {
+		VogonUser user = users.get(id);
+		if (user != null)
+			return user;
+		long invalidation;
+		synchronized (users) {
+			invalidation = getInvalidation(id);
+		}
+		user = userRepository.findOne(id);
+		if (user != null)
+			synchronized (users) {
+				if (getInvalidation(id) == invalidation)
+					users.put(id, user);
+			}
+		return user;
+	}
+
+	/**
+	 * Returns the number of a user's last invalidation. Should be called while
+	 * holding the users lock.
+	 *
+	 * @param id the user ID
+	 * @return the number of the user's last invalidation, or a higher number
+	 * if it's no longer known
+	 */
+	private long getInvalidation(long id) {
+		Long invalidation = invalidations.get(id);
+		return invalidation != null ? invalidation : prunedInvalidation;
+	}
+
+	/**
+	 * Replaces or removes a cached user and records the invalidation
+	 *
+	 * @param id the user ID
+	 * @param user the updated user, or null to remove the user from the cache
+	 */
+	private void replaceUser(long id, VogonUser user) {
+		synchronized (users) {
+			invalidations.put(id, ++lastInvalidation);
+			if (user != null)
+				users.put(id, user);
+			else
+				users.remove(id);
+		}
+	}
+
+	/**
+	 * Replaces the cached user and invalidates it on other cluster nodes. If a
+	 * transaction is active, the cache will be updated only after it commits.
+	 *
+	 * @param user the updated user
+	 */
+	public void updateUser(final VogonUser user) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			replaceUser(user.getId(), null);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					replaceUser(user.getId(), user);
+					clusterCoordinator.publish(CLUSTER_TOPIC, Long.toString(user.getId()), null);
+				}
+			});
+		} else {
+			replaceUser(user.getId(), user);
+			clusterCoordinator.publish(CLUSTER_TOPIC, Long.toString(user.getId()), null);
+		}
+	}
+
+	/**
+	 * Removes a user from the cache
+	 *
+	 * @param id the user ID
+	 */
+	public void invalidate(long id) {
+		replaceUser(id, null);
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.security;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.security.web.bind.support.AuthenticationPrincipalArgumentResolver;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * Resolves the authenticated principal and returns a copy of it with the
+ * current (cached) user data. The principal stored in an access token is a
+ * snapshot taken when the token was issued, and is shared by concurrent
+ * requests.
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class RefreshingPrincipalArgumentResolver implements HandlerMethodArgumentResolver {
+
+	/**
+	 * The resolver for the authenticated principal
+	 */
+	private final HandlerMethodArgumentResolver principalResolver = new AuthenticationPrincipalArgumentResolver();
+	/**
+	 * The UserService instance
+	 */
+	private final UserService userService;
+
+	/**
+	 * Constructs the RefreshingPrincipalArgumentResolver
+	 *
+	 * @param userService the UserService used for refreshing principals
+	 */
+	public RefreshingPrincipalArgumentResolver(UserService userService) {
+		this.userService = userService;
+	}
+
+	@Override
+	public boolean supportsParameter(MethodParameter parameter) {
+		return principalResolver.supportsParameter(parameter);
+	}
+
+	@Override
+	public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer, NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws Exception {
+		Object principal = principalResolver.resolveArgument(parameter, mavContainer, webRequest, binderFactory);
+		if (principal instanceof VogonSecurityUser)
+			return userService.refreshUser((VogonSecurityUser) principal);
+		return principal;
+	}
+}
@@ -51,6 +51,11 @@ public class UserService implements UserDetailsService, InitializingBean {
 	 */
 	@Autowired
 	private PasswordEncoder passwordEncoder;
+	/**
+	 * The PrincipalCache instance
+	 */
+	@Autowired
+	private PrincipalCache principalCache;
 
 	/**
 	 * Loads a user by username
@@ -60,7 +65,7 @@ public class UserService implements UserDetailsService, InitializingBean {
 	 */
 	@Override
 	public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-		VogonUser user = userRepository.findByUsernameIgnoreCase(username);
+		VogonUser user = findByUsername(username);
 		if (user == null)
 			throw new UsernameNotFoundException(messages.getString("USER_CANNOT_BE_FOUND"));
 		else
@@ -68,15 +73,47 @@ public class UserService implements UserDetailsService, InitializingBean {
 	}
 
 	/**
-	 * Updates user from database (e.g. to reflect
+	 * Loads a user by ID
 	 *
-	 * @param securityUser user to update
+	 * @param id the user ID
+	 * @return the loaded user
+	 * @throws UsernameNotFoundException if the user doesn't exist
 	 */
-	public void refreshUser(VogonSecurityUser securityUser) {
-		if (securityUser.getUser() != null) {
-			VogonUser user = userRepository.findOne(securityUser.getUser().getId());
-			securityUser.setUser(user);
-		}
+	public UserDetails loadUserById(long id) throws UsernameNotFoundException {
+		VogonUser user = userRepository.findOne(id);
+		if (user == null)
+			throw new UsernameNotFoundException(messages.getString("USER_CANNOT_BE_FOUND"));
+		else
+			return new VogonSecurityUser(user);
+	}
+
+	/**
+	 * Finds a user by username, using the lowercase-normalized username index
+	 *
+	 * @param username the username
+	 * @return the found user or null if user doesn't exist
+	 */
+	private VogonUser findByUsername(String username) {
+		return username != null ? userRepository.findByUsername(username.toLowerCase()) : null;
+	}
+
+	/**
+	 * Returns a principal with the user from the principal cache (e.g. to
+	 * reflect changes made after the user was authenticated). The original
+	 * principal is shared by all requests using the same token and is not
+	 * modified.
+	 *
+	 * @param securityUser user to refresh
+	 * @return a new principal with the current user data
+	 * @throws UsernameNotFoundException if the user no longer exists
+	 */
+	public VogonSecurityUser refreshUser(VogonSecurityUser securityUser) throws UsernameNotFoundException {
+		if (securityUser.getUser() == null)
+			return securityUser;
+		VogonUser user = principalCache.getUser(securityUser.getUser().getId());
+		if (user == null)
+			throw new UsernameNotFoundException(messages.getString("USER_CANNOT_BE_FOUND"));
+		return new VogonSecurityUser(user);
 	}
 
 	/**
@@ -93,7 +130,7 @@ public class UserService implements UserDetailsService, InitializingBean {
 
 			@Override
 			public Boolean doInTransaction(TransactionStatus ts) {
-				return userRepository.findByUsernameIgnoreCase(username) != null;
+				return findByUsername(username) != null;
 			}
 		});
 	}
@@ -136,29 +173,48 @@ public class UserService implements UserDetailsService, InitializingBean {
 	 *
 	 * @param userPrincipal the user principal to update
 	 * @param updatedUser the user parameters to use
-	 * @return the persisted user
+	 * @return a principal with the persisted user
 	 * @throws org.zlogic.vogon.web.security.UsernameExistsException in case the
 	 * new username is already in use
 	 */
 	public VogonSecurityUser updateUser(VogonSecurityUser userPrincipal, VogonUser updatedUser) throws UsernameExistsException {
-		VogonUser user = userRepository.findByUsernameIgnoreCase(userPrincipal.getUsername());
+		VogonUser user = userRepository.findOne(userPrincipal.getUser().getId());
 		user.setDefaultCurrency(updatedUser.getDefaultCurrency());
 		if (updatedUser.getUsername() != null && !updatedUser.getUsername().isEmpty() && !updatedUser.getUsername().equals(user.getUsername()))
 			user.setUsername(updatedUser.getUsername());
 		if (updatedUser.getPassword() != null)
 			user.setPassword(passwordEncoder.encode(updatedUser.getPassword()));
-		saveUser(user);
-		refreshUser(userPrincipal);
-		return userPrincipal;
+		user = saveUser(user);
+		principalCache.updateUser(user);
+		return new VogonSecurityUser(user);
+	}
+
+	/**
+	 * Converts usernames of users created by older versions to lowercase, so
+	 * that they can be found with the username index. Users whose lowercase
+	 * username is already taken by another user are left unchanged.
+	 */
+	private void normalizeUsernames() {
+		for (VogonUser user : userRepository.findAll()) {
+			String username = user.getUsername();
+			if (username == null || username.equals(username.toLowerCase()))
+				continue;
+			if (findByUsername(username) != null)
+				continue;
+			user.setUsername(username);
+			userRepository.saveAndFlush(user);
+		}
 	}
 
 	/**
-	 * Applies default properties and creates default user if needed
+	 * Applies default properties, normalizes usernames and creates default
+	 * user if needed
 	 *
 	 * @throws Exception in case of errors
 	 */
 	@Override
 	public void afterPropertiesSet() throws Exception {
+		normalizeUsernames();
 		if (userRepository.count() == 0) {
 			VogonUser defaultUser = new VogonUser(Constants.DEFAULT_USERNAME, passwordEncoder.encode(Constants.DEFAULT_PASSWORD));
 			defaultUser.setAuthorities(VogonSecurityUser.AUTHORITY_ADMIN, VogonSecurityUser.AUTHORITY_USER);
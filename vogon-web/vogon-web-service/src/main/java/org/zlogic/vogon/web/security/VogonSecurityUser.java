@@ -32,7 +32,7 @@ public class VogonSecurityUser implements UserDetails {
 	/**
 	 * The VogonUser form JPA
 	 */
-	private VogonUser user;
+	private final VogonUser user;
 
 	/**
 	 * Constructs a VogonSecurityUser from a JPA VogonUser
@@ -52,15 +52,6 @@ public class VogonSecurityUser implements UserDetails {
 		return user;
 	}
 
-	/**
-	 * Sets the associated VogonUser
-	 *
-	 * @param user the associated VogonUser
-	 */
-	protected void setUser(VogonUser user) {
-		this.user = user;
-	}
-
 	/**
 	 * Returns all associated authorities
 	 *
@@ -77,6 +77,17 @@
 					</div>
 				</div>
 			</div>
+			<div class="row form-control-static">
+				<div class="col-md-12 form-inline">
+					<label><fmt:message key="BALANCE_CHART_RESOLUTION"/> </label>
+					<select ng-model="balanceGraphResolution" class="form-control">
+						<option value="AUTO"><fmt:message key="BALANCE_CHART_RESOLUTION_AUTO"/></option>
+						<option value="DAILY"><fmt:message key="BALANCE_CHART_RESOLUTION_DAILY"/></option>
+						<option value="WEEKLY"><fmt:message key="BALANCE_CHART_RESOLUTION_WEEKLY"/></option>
+						<option value="MONTHLY"><fmt:message key="BALANCE_CHART_RESOLUTION_MONTHLY"/></option>
+					</select>
+				</div>
+			</div>
 			<div class="row form-control-static">
 				<div class="col-md-12">
 					<button ng-click="buildReport()" class="btn btn-default btn-primary form-control" type="submit" ng-disabled="analyticsForm.$invalid"><span class="glyphicon glyphicon-ok" aria-hidden="true"></span> <fmt:message key="BUILD_REPORT"/></button>
@@ -112,6 +123,12 @@
 									</div>
 									<div class="col-md-3">{{transaction.date| date}}</div>
 								</div>
+								<div class="row" ng-show="hasMoreTransactions()">
+									<hr/>
+									<div class="col-md-12">
+										<button ng-click="loadMoreTransactions()" ng-disabled="loadingTransactions" class="btn btn-default form-control" type="button"><span class="glyphicon glyphicon-option-horizontal" aria-hidden="true"></span> <fmt:message key="SHOW_MORE_TRANSACTIONS"/> ({{report.transactions.length}}/{{report.transactionsCount}})</button>
+									</div>
+								</div>
 							</div>
 						</div>
 					</div>
@@ -18,10 +18,15 @@
 			</div>
 			<div class="form-group">
 				<div class="form-inline">
-					<button ng-click="importData()" ng-disabled="!file" class="btn btn-default" type="button"><span class="glyphicon glyphicon-import" aria-hidden="true"></span> <fmt:message key="IMPORT_DATA"/></button>
+					<button ng-click="importData()" ng-disabled="!file || isImportRunning()" class="btn btn-default" type="button"><span class="glyphicon glyphicon-import" aria-hidden="true"></span> <fmt:message key="IMPORT_DATA"/></button>
 					<input type="file" onchange="angular.element(this).scope().setFile(this)" class="form-control-file" />
 				</div>
 			</div>
+			<div class="form-group" ng-show="importJob !== undefined">
+				<uib-progressbar max="importJob.totalTransactions > 0 ? importJob.totalTransactions : 1" value="importJob.importedTransactions" type="{{importJob.state === 'FAILED' ? 'danger' : (importJob.state === 'COMPLETED' ? 'success' : 'info')}}"></uib-progressbar>
+				<p class="help-block" ng-hide="importJob.state === 'FAILED'"><fmt:message key="IMPORT_PROGRESS"/></p>
+				<p class="help-block" ng-show="importJob.state === 'FAILED'"><fmt:message key="IMPORT_FAILED"/></p>
+			</div>
 			<div class="form-group">
 				<button ng-click="exportDataXML()" class="btn btn-default" type="button"><span class="glyphicon glyphicon-export" aria-hidden="true"></span> <fmt:message key="EXPORT_DATA_XML"/></button>
 				<button ng-click="exportDataJSON()" class="btn btn-default" type="button"><span class="glyphicon glyphicon-export" aria-hidden="true"></span> <fmt:message key="EXPORT_DATA_JSON"/></button>
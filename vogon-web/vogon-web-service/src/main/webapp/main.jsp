@@ -31,6 +31,7 @@
 		<script type="text/javascript" src="script/service/accounts.js"></script>
 		<script type="text/javascript" src="script/service/currency.js"></script>
 		<script type="text/javascript" src="script/service/transactions.js"></script>
+		<script type="text/javascript" src="script/service/events.js"></script>
 		<script type="text/javascript" src="script/fragments/usersettings.js"></script>
 		<script type="text/javascript" src="script/fragments/transactioneditor.js"></script>
 		<script type="text/javascript" src="script/fragments/analytics.js"></script>
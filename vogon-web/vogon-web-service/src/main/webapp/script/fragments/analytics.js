@@ -16,7 +16,10 @@ app.controller("AnalyticsController", function ($scope, AccountsService, Transac
 		income: true,
 		expense: true
 	};
+	$scope.balanceGraphResolution = "AUTO";
 	$scope.report = undefined;
+	$scope.reportConfiguration = undefined;
+	$scope.loadingTransactions = false;
 	$scope.tagsChart = {
 		data: [],
 		options: {
@@ -114,7 +117,8 @@ app.controller("AnalyticsController", function ($scope, AccountsService, Transac
 			latestDate: dateToJson($scope.dateRange.end),
 			enabledTransferTransactions: $scope.transactionTypeEnabled.transfer,
 			enabledIncomeTransactions: $scope.transactionTypeEnabled.income,
-			enabledExpenseTransactions: $scope.transactionTypeEnabled.expense
+			enabledExpenseTransactions: $scope.transactionTypeEnabled.expense,
+			balanceGraphResolution: $scope.balanceGraphResolution
 		};
 		reportConfiguration.selectedTags = [];
 		for (var tag in $scope.tags)
@@ -128,13 +132,36 @@ app.controller("AnalyticsController", function ($scope, AccountsService, Transac
 					reportConfiguration.selectedAccounts.unshift(account);
 			}
 		}
+		reportConfiguration.transactionsPage = 0;
 		HTTPService.post("service/analytics", reportConfiguration).then(function (data) {
+			$scope.reportConfiguration = reportConfiguration;
 			$scope.report = data.data;
 			updateCurrencies();
 			updateTagsChart();
 			updateBalanceChart();
 		});
 	};
+	$scope.hasMoreTransactions = function () {
+		return $scope.report !== undefined && $scope.report.transactions.length < $scope.report.transactionsCount;
+	};
+	$scope.loadMoreTransactions = function () {
+		if ($scope.loadingTransactions || !$scope.hasMoreTransactions())
+			return;
+		var reportConfiguration = angular.copy($scope.reportConfiguration);
+		reportConfiguration.transactionsPage++;
+		$scope.loadingTransactions = true;
+		var report = $scope.report;
+		HTTPService.post("service/analytics/transactions", reportConfiguration).then(function (data) {
+			$scope.loadingTransactions = false;
+			if (report !== $scope.report)
+				return;
+			$scope.reportConfiguration = reportConfiguration;
+			report.transactions = report.transactions.concat(data.data.transactions);
+			report.transactionsCount = data.data.transactionsCount;
+		}, function () {
+			$scope.loadingTransactions = false;
+		});
+	};
 	var updateCurrencies = function () {
 		var newCurrencies = {};
 		$scope.report.tagExpenses.forEach(function (tagExpense) {
@@ -169,19 +196,35 @@ app.controller("AnalyticsController", function ($scope, AccountsService, Transac
 			newChartData = [];
 		$scope.tagsChart.data = newChartData;
 	};
+	var convertBalanceSeries = function (series) {
+		var values = [];
+		for (var date in series)
+			values.push({x: new Date(date), y: series[date]});
+		return values;
+	};
 	var updateBalanceChart = function () {
-		var newChartData = [];
 		var accountGraph = $scope.report.accountsBalanceGraph[$scope.report.selectedCurrency];
-		if (accountGraph !== undefined)
-			for (var date in accountGraph.data)
-				newChartData.push({x: new Date(date), y: accountGraph.data[date]});
-		if (accountGraph === undefined || Object.keys(accountGraph.data).length <= 0)
+		if (accountGraph === undefined || Object.keys(accountGraph.data).length <= 0) {
 			$scope.balanceChart.data = [];
-		else
-			$scope.balanceChart.data = [{
-					key: messages.BALANCE,
-					values: newChartData
-				}];
+			return;
+		}
+		var newChartData = [{
+				key: messages.BALANCE,
+				values: convertBalanceSeries(accountGraph.data)
+			}];
+		if (accountGraph.minimums !== undefined && accountGraph.maximums !== undefined) {
+			newChartData.push({
+				key: messages.MINIMUM_BALANCE,
+				values: convertBalanceSeries(accountGraph.minimums),
+				classed: "dashed"
+			});
+			newChartData.push({
+				key: messages.MAXIMUM_BALANCE,
+				values: convertBalanceSeries(accountGraph.maximums),
+				classed: "dashed"
+			});
+		}
+		$scope.balanceChart.data = newChartData;
 	};
 	$scope.filterCurrency = function (currency) {
 		return $scope.report !== undefined && $scope.report.currencies.indexOf(currency.currencyCode) !== -1;
@@ -1,8 +1,10 @@
-app.controller("UserSettingsController", function ($scope, AuthorizationService, UserService, CurrencyService, HTTPService) {
+app.controller("UserSettingsController", function ($scope, $timeout, AuthorizationService, UserService, CurrencyService, HTTPService) {
 	$scope.userService = UserService;
 	$scope.currencies = CurrencyService;
 	$scope.file = undefined;
 	$scope.operationSuccessful = false;
+	$scope.importJob = undefined;
+	var importPollInterval = 1000;
 	var importPostHeaders = {"Content-Type": undefined};
 	$scope.submitEditing = function () {
 		AuthorizationService.username = $scope.user.username;
@@ -23,10 +25,27 @@ app.controller("UserSettingsController", function ($scope, AuthorizationService,
 			return;
 		var formData = new FormData();
 		formData.append("file", $scope.file);
-		return HTTPService.post("service/import", formData, importPostHeaders, undefined, angular.identity).then(function () {
-			HTTPService.updateAllData();
+		return HTTPService.post("service/import", formData, importPostHeaders, undefined, angular.identity).then(function (data) {
+			$scope.importJob = data.data;
+			$scope.pollImportJob();
 		});
 	};
+	$scope.isImportRunning = function () {
+		return $scope.importJob !== undefined && ($scope.importJob.state === "QUEUED" || $scope.importJob.state === "RUNNING");
+	};
+	$scope.pollImportJob = function () {
+		if (!$scope.isImportRunning())
+			return;
+		$timeout(function () {
+			HTTPService.get("service/import/" + encodeURIComponent($scope.importJob.id), undefined, HTTPService.buildRequestParams(false)).then(function (data) {
+				$scope.importJob = data.data !== "" ? data.data : undefined;
+				if ($scope.isImportRunning())
+					$scope.pollImportJob();
+				else
+					HTTPService.updateAllData();
+			});
+		}, importPollInterval);
+	};
 	$scope.exportDataXML = function () {
 		var form = $('<form>', {
 			html: '<input type="hidden" name="access_token" value="' + AuthorizationService.access_token + '" />',
@@ -94,6 +94,6 @@ app.controller("UserController", function ($scope, $location, AuthorizationServi
 	};
 });
 
-app.controller("ContentController", function ($scope, AuthorizationService, TransactionsService, AccountsService, UserService) {
+app.controller("ContentController", function ($scope, AuthorizationService, TransactionsService, AccountsService, UserService, EventsService) {
 	$scope.authorizationService = AuthorizationService;
 });
@@ -10,6 +10,8 @@ var messages = {
 	CANT_FIX_AUTHORIZATION: "Can't fix authorization",
 	ALREADY_LOGGED_OUT: "Already logged out",
 	BALANCE: "Balance",
+	MINIMUM_BALANCE: "Minimum balance",
+	MAXIMUM_BALANCE: "Maximum balance",
 	EXPENSEINCOME: "Expense/income",
 	TRANSFER: "Transfer"
 };
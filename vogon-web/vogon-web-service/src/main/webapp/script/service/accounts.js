@@ -43,6 +43,14 @@ app.service("AccountsService", function ($rootScope, HTTPService, AuthorizationS
 					that.updateTransactions();
 				}, that.update);
 	};
+	this.updateBalances = function (balances) {
+		that.accounts.forEach(
+				function (account) {
+					if (balances[account.id] !== undefined)
+						account.balance = balances[account.id];
+				});
+		that.updateTotalsForCurrencies();
+	};
 	this.getAccount = function (id) {
 		return that.accounts.filter(function (obj) {
 			return obj.id === id;
@@ -0,0 +1,48 @@
+app.service("EventsService", function ($rootScope, AuthorizationService, HTTPService, AccountsService, TransactionsService) {
+	var that = this;
+	this.eventSource = undefined;
+	var handleEvent = function (handler) {
+		return function (message) {
+			var event = angular.fromJson(message.data);
+			$rootScope.$apply(function () {
+				handler(event);
+			});
+		};
+	};
+	var transactionsUpdated = function (event) {
+		AccountsService.updateBalances(event.accountBalances);
+		event.transactionIds.forEach(TransactionsService.refreshTransactionLocal);
+	};
+	var transactionsDeleted = function (event) {
+		AccountsService.updateBalances(event.accountBalances);
+		event.transactionIds.forEach(TransactionsService.removeTransactionLocal);
+	};
+	var accountsUpdated = function (event) {
+		AccountsService.update();
+		if (event.transactionIds.length > 0 || event.deletedAccountIds.length > 0)
+			TransactionsService.update();
+	};
+	var dataImported = function () {
+		HTTPService.updateAllData();
+	};
+	this.disconnect = function () {
+		if (that.eventSource !== undefined)
+			that.eventSource.close();
+		that.eventSource = undefined;
+	};
+	this.connect = function () {
+		that.disconnect();
+		if (typeof EventSource === "undefined" || !AuthorizationService.authorized || AuthorizationService.access_token === undefined)
+			return;
+		that.eventSource = new EventSource("service/events?" + encodeForm({access_token: AuthorizationService.access_token}));
+		that.eventSource.addEventListener("TRANSACTIONS_UPDATED", handleEvent(transactionsUpdated));
+		that.eventSource.addEventListener("TRANSACTIONS_DELETED", handleEvent(transactionsDeleted));
+		that.eventSource.addEventListener("ACCOUNTS_UPDATED", handleEvent(accountsUpdated));
+		that.eventSource.addEventListener("DATA_IMPORTED", handleEvent(dataImported));
+	};
+	$rootScope.$watch(function () {
+		return AuthorizationService.authorized && AuthorizationService.access_token;
+	}, function () {
+		$rootScope.$applyAsync(that.connect);
+	});
+});
@@ -93,6 +93,21 @@ app.service("TransactionsService", function ($q, HTTPService, AuthorizationServi
 						that.update();
 				}, that.update);
 	};
+	this.refreshTransactionLocal = function (id) {
+		if (!that.transactions.some(function (transaction) {
+			return transaction.id === id;
+		}))
+			return that.update();
+		return HTTPService.get("service/transactions/transaction/" + id, undefined, HTTPService.buildRequestParams(false))
+				.then(function (data) {
+					updateTransactionLocal(data.data);
+				});
+	};
+	this.removeTransactionLocal = function (id) {
+		that.transactions = that.transactions.filter(function (transaction) {
+			return transaction.id !== id;
+		});
+	};
 	this.submitTransaction = function (transaction) {
 		transaction.date = dateToJson(transaction.date);
 		return HTTPService.post("service/transactions", transaction)
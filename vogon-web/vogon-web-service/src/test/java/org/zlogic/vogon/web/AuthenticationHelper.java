@@ -0,0 +1,55 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web;
+
+import java.util.Map;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+import org.zlogic.vogon.data.Constants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Obtains access tokens for tests using the service API
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class AuthenticationHelper {
+
+	/**
+	 * Private constructor (this class only has static methods)
+	 */
+	private AuthenticationHelper() {
+	}
+
+	/**
+	 * Obtains an access token for the default user
+	 *
+	 * @param restTemplate the REST client
+	 * @param baseUrl the URL of the server, without a trailing slash
+	 * @return the access token
+	 */
+	public static String authenticate(RestTemplate restTemplate, String baseUrl) {
+		MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+		form.add("grant_type", "password"); //NOI18N
+		form.add("client_id", "vogonweb"); //NOI18N
+		form.add("username", Constants.DEFAULT_USERNAME); //NOI18N
+		form.add("password", Constants.DEFAULT_PASSWORD); //NOI18N
+		ResponseEntity<Map<String, Object>> token = restTemplate.exchange(baseUrl + "/oauth/token", HttpMethod.POST, new HttpEntity<>(form), new ParameterizedTypeReference<Map<String, Object>>() { //NOI18N
+		});
+		assertEquals(HttpStatus.OK, token.getStatusCode());
+		String accessToken = (String) token.getBody().get("access_token"); //NOI18N
+		assertNotNull(accessToken);
+		return accessToken;
+	}
+}
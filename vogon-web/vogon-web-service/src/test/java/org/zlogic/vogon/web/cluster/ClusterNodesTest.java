@@ -0,0 +1,168 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.cluster;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.Map;
+import org.h2.tools.Server;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.boot.test.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.RestTemplate;
+import org.zlogic.vogon.data.Constants;
+import org.zlogic.vogon.web.Application;
+import org.zlogic.vogon.web.AuthenticationHelper;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests two cluster nodes sharing an H2 database in server mode
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class ClusterNodesTest {
+
+	/**
+	 * The cluster poll interval in milliseconds
+	 */
+	private static final long POLL_INTERVAL = 500;
+	/**
+	 * The temporary H2 database directory
+	 */
+	private static File databaseDir;
+	/**
+	 * The H2 TCP server
+	 */
+	private static Server databaseServer;
+	/**
+	 * The first node
+	 */
+	private static ConfigurableApplicationContext nodeA;
+	/**
+	 * The second node
+	 */
+	private static ConfigurableApplicationContext nodeB;
+	/**
+	 * The REST client
+	 */
+	private final RestTemplate restTemplate = new TestRestTemplate();
+
+	/**
+	 * Starts the database server and both nodes
+	 *
+	 * @throws Exception in case of errors
+	 */
+	@BeforeClass
+	public static void startNodes() throws Exception {
+		databaseDir = Files.createTempDirectory("vogon").toFile(); //NOI18N
+		int databasePort;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			databasePort = socket.getLocalPort();
+		}
+		databaseServer = Server.createTcpServer("-tcpPort", Integer.toString(databasePort)).start(); //NOI18N
+		System.setProperty("vogon.database.dir", "tcp://localhost:" + databasePort + "/" + databaseDir.getAbsolutePath().replace('\\', '/')); //NOI18N
+		nodeA = startNode();
+		nodeB = startNode();
+	}
+
+	/**
+	 * Stops both nodes and the database server, and deletes the database
+	 */
+	@AfterClass
+	public static void stopNodes() {
+		if (nodeB != null)
+			nodeB.close();
+		if (nodeA != null)
+			nodeA.close();
+		if (databaseServer != null)
+			databaseServer.stop();
+		System.clearProperty("vogon.database.dir"); //NOI18N
+		FileSystemUtils.deleteRecursively(databaseDir);
+	}
+
+	/**
+	 * Starts a cluster node on a random port
+	 *
+	 * @return the node's application context
+	 */
+	private static ConfigurableApplicationContext startNode() {
+		return new SpringApplicationBuilder(Application.class)
+				.properties(
+						"server.port=0", //NOI18N
+						"spring.jmx.enabled=false", //NOI18N
+						"endpoints.jmx.enabled=false", //NOI18N
+						"vogon.cluster.enabled=true", //NOI18N
+						"vogon.cluster.poll=" + POLL_INTERVAL) //NOI18N
+				.run();
+	}
+
+	/**
+	 * Checks that a token issued on one node is accepted by the other node,
+	 * and that removing it on the first node evicts it from the other node's
+	 * cache within the poll window
+	 *
+	 * @throws Exception in case of errors
+	 */
+	@Test
+	public void testTokenRemoval() throws Exception {
+		String accessToken = AuthenticationHelper.authenticate(restTemplate, getUrl(nodeA, "")); //NOI18N
+
+		ResponseEntity<Map<String, Object>> user = exchange(nodeB, HttpMethod.GET, "/service/user", accessToken); //NOI18N
+		assertEquals(HttpStatus.OK, user.getStatusCode());
+		assertEquals(Constants.DEFAULT_USERNAME, user.getBody().get("username")); //NOI18N
+
+		assertEquals(HttpStatus.OK, exchange(nodeA, HttpMethod.POST, "/logout", accessToken).getStatusCode()); //NOI18N
+
+		long deadline = System.currentTimeMillis() + 4 * POLL_INTERVAL;
+		HttpStatus status;
+		do {
+			Thread.sleep(POLL_INTERVAL / 5);
+			status = exchange(nodeB, HttpMethod.GET, "/service/user", accessToken).getStatusCode(); //NOI18N
+		} while (status != HttpStatus.UNAUTHORIZED && System.currentTimeMillis() < deadline);
+		assertEquals(HttpStatus.UNAUTHORIZED, status);
+	}
+
+	/**
+	 * Sends a request to a node using an access token
+	 *
+	 * @param node the node
+	 * @param method the HTTP method
+	 * @param path the request path
+	 * @param accessToken the access token
+	 * @return the response
+	 */
+	private ResponseEntity<Map<String, Object>> exchange(ConfigurableApplicationContext node, HttpMethod method, String path, String accessToken) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken); //NOI18N
+		return restTemplate.exchange(getUrl(node, path), method, new HttpEntity<>(headers), new ParameterizedTypeReference<Map<String, Object>>() {
+		});
+	}
+
+	/**
+	 * Returns the URL of a path on a node
+	 *
+	 * @param node the node
+	 * @param path the path
+	 * @return the URL
+	 */
+	private String getUrl(ConfigurableApplicationContext node, String path) {
+		int port = ((EmbeddedWebApplicationContext) node).getEmbeddedServletContainer().getPort();
+		return "http://localhost:" + port + path; //NOI18N
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.TestRestTemplate;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.RestTemplate;
+import org.zlogic.vogon.web.Application;
+import org.zlogic.vogon.web.AuthenticationHelper;
+import org.zlogic.vogon.web.controller.serialization.SmileHttpMessageConverter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the service API can be used with the Smile encoding
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(Application.class)
+@WebIntegrationTest(randomPort = true)
+public class SmileSerializationTest {
+
+	/**
+	 * The temporary H2 database directory
+	 */
+	private static File databaseDir;
+	/**
+	 * The HTTP port
+	 */
+	@Value("${local.server.port}")
+	private int port;
+	/**
+	 * The REST client
+	 */
+	private final RestTemplate restTemplate = new TestRestTemplate();
+	/**
+	 * The mapper for JSON data
+	 */
+	private final ObjectMapper jsonMapper = new ObjectMapper();
+	/**
+	 * The mapper for Smile data
+	 */
+	private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+	/**
+	 * The access token of the default user
+	 */
+	private String accessToken;
+
+	/**
+	 * Creates an empty database for the application
+	 *
+	 * @throws Exception in case of errors
+	 */
+	@BeforeClass
+	public static void createDatabase() throws Exception {
+		databaseDir = Files.createTempDirectory("vogon").toFile(); //NOI18N
+		System.setProperty("vogon.database.dir", databaseDir.getAbsolutePath()); //NOI18N
+	}
+
+	/**
+	 * Deletes the database
+	 */
+	@AfterClass
+	public static void deleteDatabase() {
+		System.clearProperty("vogon.database.dir"); //NOI18N
+		FileSystemUtils.deleteRecursively(databaseDir);
+	}
+
+	/**
+	 * Obtains an access token for the default user
+	 */
+	@Before
+	public void authenticate() {
+		accessToken = AuthenticationHelper.authenticate(restTemplate, getUrl("")); //NOI18N
+	}
+
+	/**
+	 * Creates an account and a transaction with Smile, requests a report for
+	 * them with Smile and with JSON and checks that both return the same
+	 * balances and transactions
+	 *
+	 * @throws Exception in case of errors
+	 */
+	@Test
+	public void testReportRoundTrip() throws Exception {
+		Map<String, Object> account = new HashMap<>();
+		account.put("name", "Smile account"); //NOI18N
+		account.put("currency", "USD"); //NOI18N
+		account.put("includeInTotal", true); //NOI18N
+		account.put("showInList", true); //NOI18N
+		ResponseEntity<byte[]> accountsResponse = post("/service/accounts", smileMapper.writeValueAsBytes(Collections.singletonList(account)), SmileHttpMessageConverter.SMILE); //NOI18N
+		assertEquals(HttpStatus.OK, accountsResponse.getStatusCode());
+		JsonNode accounts = smileMapper.readTree(accountsResponse.getBody());
+		assertEquals(1, accounts.size());
+		JsonNode createdAccount = accounts.get(0);
+		assertEquals("Smile account", createdAccount.get("name").asText()); //NOI18N
+
+		Map<String, Object> component = new HashMap<>();
+		component.put("accountId", createdAccount.get("id").asLong()); //NOI18N
+		component.put("amount", -12.5); //NOI18N
+		Map<String, Object> transaction = new HashMap<>();
+		transaction.put("description", "Smile transaction"); //NOI18N
+		transaction.put("type", "EXPENSEINCOME"); //NOI18N
+		transaction.put("date", "2015-06-15"); //NOI18N
+		transaction.put("tags", Collections.singletonList("smile")); //NOI18N
+		transaction.put("components", Collections.singletonList(component)); //NOI18N
+		ResponseEntity<byte[]> transactionResponse = post("/service/transactions", smileMapper.writeValueAsBytes(transaction), SmileHttpMessageConverter.SMILE); //NOI18N
+		assertEquals(HttpStatus.OK, transactionResponse.getStatusCode());
+		JsonNode createdTransaction = smileMapper.readTree(transactionResponse.getBody());
+		assertEquals(-12.5, createdTransaction.get("amount").asDouble(), 0); //NOI18N
+
+		Map<String, Object> reportRequest = new HashMap<>();
+		reportRequest.put("earliestDate", "2015-01-01"); //NOI18N
+		reportRequest.put("latestDate", "2015-12-31"); //NOI18N
+		reportRequest.put("selectedTags", Collections.singletonList("smile")); //NOI18N
+		reportRequest.put("selectedAccounts", Collections.singletonList(createdAccount)); //NOI18N
+		reportRequest.put("enabledExpenseTransactions", true); //NOI18N
+		reportRequest.put("enabledIncomeTransactions", true); //NOI18N
+		reportRequest.put("enabledTransferTransactions", true); //NOI18N
+
+		ResponseEntity<byte[]> smileResponse = post("/service/analytics", smileMapper.writeValueAsBytes(reportRequest), SmileHttpMessageConverter.SMILE); //NOI18N
+		assertEquals(HttpStatus.OK, smileResponse.getStatusCode());
+		assertTrue(SmileHttpMessageConverter.SMILE.isCompatibleWith(smileResponse.getHeaders().getContentType()));
+		JsonNode smileReport = smileMapper.readTree(smileResponse.getBody());
+
+		ResponseEntity<byte[]> jsonResponse = post("/service/analytics", jsonMapper.writeValueAsBytes(reportRequest), MediaType.APPLICATION_JSON); //NOI18N
+		assertEquals(HttpStatus.OK, jsonResponse.getStatusCode());
+		assertTrue(MediaType.APPLICATION_JSON.isCompatibleWith(jsonResponse.getHeaders().getContentType()));
+		JsonNode jsonReport = jsonMapper.readTree(jsonResponse.getBody());
+
+		assertEquals(1, smileReport.get("transactionsCount").asLong()); //NOI18N
+		JsonNode smileTransactions = smileReport.get("transactions"); //NOI18N
+		assertEquals(1, smileTransactions.size());
+		assertEquals(createdTransaction.get("id"), smileTransactions.get(0).get("id")); //NOI18N
+		assertEquals("Smile transaction", smileTransactions.get(0).get("description").asText()); //NOI18N
+		assertEquals(-12.5, smileTransactions.get(0).get("amount").asDouble(), 0); //NOI18N
+		assertTrue(smileReport.get("tagExpenses").size() > 0); //NOI18N
+		assertTrue(smileReport.get("accountsBalanceGraph").size() > 0); //NOI18N
+
+		assertEquals(jsonReport.get("transactions"), smileTransactions); //NOI18N
+		assertEquals(jsonReport.get("tagExpenses"), smileReport.get("tagExpenses")); //NOI18N
+		assertEquals(jsonReport.get("accountsBalanceGraph"), smileReport.get("accountsBalanceGraph")); //NOI18N
+		assertEquals(jsonReport, smileReport);
+	}
+
+	/**
+	 * Posts a request to the service as the default user
+	 *
+	 * @param path the request path
+	 * @param body the encoded request body
+	 * @param mediaType the media type of the request and response
+	 * @return the response
+	 */
+	private ResponseEntity<byte[]> post(String path, byte[] body, MediaType mediaType) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(mediaType);
+		headers.setAccept(Collections.singletonList(mediaType));
+		headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken); //NOI18N
+		return restTemplate.exchange(getUrl(path), HttpMethod.POST, new HttpEntity<>(body, headers), byte[].class);
+	}
+
+	/**
+	 * Returns the URL of a path on the test server
+	 *
+	 * @param path the path
+	 * @return the URL
+	 */
+	private String getUrl(String path) {
+		return "http://localhost:" + port + path; //NOI18N
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Vogon personal finance/expense analyzer.
+ * Licensed under Apache license: http://www.apache.org/licenses/LICENSE-2.0
+ * Author: Dmitry Zolotukhin <zlogic@gmail.com>
+ */
+package org.zlogic.vogon.web.events;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.zlogic.vogon.data.VogonUser;
+import org.zlogic.vogon.web.cluster.ClusterCoordinator;
+import org.zlogic.vogon.web.controller.serialization.JSONMapper;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests for LedgerEventBroadcaster
+ *
+ * @author Dmitry Zolotukhin [zlogic@gmail.com]
+ */
+public class LedgerEventBroadcasterTest {
+
+	/**
+	 * Released when the test is finished, to unblock stalled sends
+	 */
+	private final CountDownLatch finished = new CountDownLatch(1);
+	/**
+	 * Emitters to be returned for new subscriptions, in order
+	 */
+	private final BlockingQueue<SseEmitter> newEmitters = new LinkedBlockingQueue<>();
+	/**
+	 * The tested broadcaster
+	 */
+	private LedgerEventBroadcaster broadcaster;
+
+	/**
+	 * Emitter which blocks every send until the test is finished, ignoring
+	 * interrupts (like a socket which stopped reading)
+	 */
+	private class BlockingEmitter extends SseEmitter {
+
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			while (finished.getCount() > 0) {
+				try {
+					finished.await();
+				} catch (InterruptedException ex) {
+					//Ignore the interrupt and keep blocking
+				}
+			}
+		}
+	}
+
+	/**
+	 * Emitter which records sent events
+	 */
+	private class RecordingEmitter extends SseEmitter {
+
+		/**
+		 * The sent events
+		 */
+		private final BlockingQueue<SseEventBuilder> sent = new LinkedBlockingQueue<>();
+
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			sent.add(builder);
+		}
+	}
+
+	/**
+	 * Creates and starts a broadcaster with a single send thread
+	 */
+	@Before
+	public void startBroadcaster() {
+		broadcaster = new LedgerEventBroadcaster() {
+			@Override
+			protected SseEmitter createEmitter() {
+				return newEmitters.remove();
+			}
+		};
+		ReflectionTestUtils.setField(broadcaster, "timeout", 60000L); //NOI18N
+		ReflectionTestUtils.setField(broadcaster, "heartbeatInterval", 60000L); //NOI18N
+		ReflectionTestUtils.setField(broadcaster, "maxUserConnections", 8); //NOI18N
+		ReflectionTestUtils.setField(broadcaster, "maxConnections", 16); //NOI18N
+		ReflectionTestUtils.setField(broadcaster, "sendThreads", 1); //NOI18N
+		ReflectionTestUtils.setField(broadcaster, "clientQueueSize", 4); //NOI18N
+		ReflectionTestUtils.setField(broadcaster, "writeTimeout", 200L); //NOI18N
+		ReflectionTestUtils.setField(broadcaster, "jsonMapper", new JSONMapper()); //NOI18N
+		ReflectionTestUtils.setField(broadcaster, "clusterCoordinator", new ClusterCoordinator()); //NOI18N
+		broadcaster.start();
+	}
+
+	/**
+	 * Unblocks stalled sends and stops the broadcaster
+	 */
+	@After
+	public void stopBroadcaster() {
+		finished.countDown();
+		broadcaster.shutdown();
+	}
+
+	/**
+	 * Checks that a client whose send never returns doesn't prevent other
+	 * clients from receiving events, even when it occupies the only send
+	 * thread
+	 *
+	 * @throws Exception in case of errors
+	 */
+	@Test
+	public void testStalledClient() throws Exception {
+		RecordingEmitter recordingEmitter = new RecordingEmitter();
+		newEmitters.add(new BlockingEmitter());
+		newEmitters.add(recordingEmitter);
+		broadcaster.subscribe(createUser(1L));
+		broadcaster.subscribe(createUser(2L));
+
+		broadcaster.deliver(1L, new LedgerEvent(LedgerEvent.EventType.ACCOUNTS_UPDATED));
+		broadcaster.deliver(2L, new LedgerEvent(LedgerEvent.EventType.ACCOUNTS_UPDATED));
+
+		assertNotNull(recordingEmitter.sent.poll(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Creates a user with a specific ID
+	 *
+	 * @param id the user ID
+	 * @return the user
+	 */
+	private VogonUser createUser(long id) {
+		VogonUser user = new VogonUser("user" + id, ""); //NOI18N
+		ReflectionTestUtils.setField(user, "id", id); //NOI18N
+		return user;
+	}
+}